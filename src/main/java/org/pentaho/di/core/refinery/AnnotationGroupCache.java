@@ -0,0 +1,339 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.di.core.refinery;
+
+import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotation;
+import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotationGroup;
+import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotationManager;
+import org.pentaho.agilebi.modeler.models.annotations.data.DataProvider;
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.refinery.publish.util.ObjectUtils;
+import org.pentaho.di.core.util.EnvUtil;
+import org.pentaho.metastore.api.IMetaStore;
+import org.pentaho.metastore.api.exceptions.MetaStoreException;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+/**
+ * Process wide cache of annotation groups read from a MetaStore, shared by step metas loading their linked group
+ * and by the step runtime.
+ * <p>
+ * All callers get the same read-only view of a cached group, so a group is held once however many steps use it and
+ * a hit costs a map lookup. The view rejects changes to the group and its data provider list; the annotations and
+ * data providers in it are the cached objects themselves and must not be changed either. Callers that change a
+ * group take a copy first through {@link #writable(ModelAnnotationGroup)}.
+ * <p>
+ * An entry is dropped when a writer in this JVM changes the group, which bumps its version stamp, or after
+ * {@link #KETTLE_DATA_REFINERY_GROUP_CACHE_TTL} milliseconds so that changes made by other processes are picked up.
+ * A TTL of 0 turns caching off.
+ */
+public class AnnotationGroupCache {
+
+  public static final String KETTLE_DATA_REFINERY_GROUP_CACHE_TTL = "KETTLE_DATA_REFINERY_GROUP_CACHE_TTL";
+  private static final long DEFAULT_TTL = 60000L;
+
+  private static final AnnotationGroupCache INSTANCE =
+      new AnnotationGroupCache( Const.toLong( EnvUtil.getSystemProperty( KETTLE_DATA_REFINERY_GROUP_CACHE_TTL ),
+          DEFAULT_TTL ) );
+
+  // entries live as long as their metastore
+  private final Map<IMetaStore, ConcurrentMap<String, Entry>> metaStores =
+      Collections.synchronizedMap( new WeakHashMap<IMetaStore, ConcurrentMap<String, Entry>>() );
+  private final ConcurrentMap<String, AtomicLong> versions = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, Object> locks = new ConcurrentHashMap<>();
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final long ttl;
+
+  AnnotationGroupCache( long ttl ) {
+    this.ttl = ttl;
+  }
+
+  public static AnnotationGroupCache getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * @return the shared view of the cached group or of the group just read through <code>manager</code>; the group
+   * as read when caching is off; null if the MetaStore doesn't have it
+   */
+  public ModelAnnotationGroup readGroup( ModelAnnotationManager manager, boolean sharedDimension, String groupName,
+                                         IMetaStore metaStore ) throws MetaStoreException {
+    if ( ttl <= 0 || metaStore == null ) {
+      misses.incrementAndGet();
+      synchronized ( lockFor( sharedDimension, groupName ) ) {
+        return manager.readGroup( groupName, metaStore );
+      }
+    }
+    String key = keyOf( sharedDimension, groupName );
+    ConcurrentMap<String, Entry> groups = getGroups( metaStore );
+    long version = versionOf( key ).get();
+    Entry entry = groups.get( key );
+    if ( entry != null && entry.version == version && System.currentTimeMillis() - entry.loaded < ttl ) {
+      hits.incrementAndGet();
+      return entry.group;
+    }
+    misses.incrementAndGet();
+    ModelAnnotationGroup group;
+    synchronized ( lockFor( sharedDimension, groupName ) ) {
+      group = manager.readGroup( groupName, metaStore );
+    }
+    if ( group == null ) {
+      groups.remove( key );
+      return null;
+    }
+    // stamped with the version seen before reading; a write in between makes the next read go to the MetaStore
+    SharedGroup shared = new SharedGroup( group );
+    groups.put( key, new Entry( shared, version, System.currentTimeMillis() ) );
+    return shared;
+  }
+
+  /**
+   * To be called after a group is created, updated or deleted.
+   */
+  public void invalidate( boolean sharedDimension, String groupName ) {
+    String key = keyOf( sharedDimension, groupName );
+    versionOf( key ).incrementAndGet();
+    synchronized ( metaStores ) {
+      for ( ConcurrentMap<String, Entry> groups : metaStores.values() ) {
+        groups.remove( key );
+      }
+    }
+  }
+
+  /**
+   * Writers hold this lock while they replace a group, and reads through the cache wait for it, so nobody in this
+   * JVM reads a group that is half written.
+   */
+  public Object lockFor( boolean sharedDimension, String groupName ) {
+    String key = keyOf( sharedDimension, groupName );
+    Object lock = locks.get( key );
+    if ( lock == null ) {
+      Object created = new Object();
+      lock = locks.putIfAbsent( key, created );
+      if ( lock == null ) {
+        lock = created;
+      }
+    }
+    return lock;
+  }
+
+  public void clear() {
+    metaStores.clear();
+  }
+
+  public long getHitCount() {
+    return hits.get();
+  }
+
+  public long getMissCount() {
+    return misses.get();
+  }
+
+  private ConcurrentMap<String, Entry> getGroups( IMetaStore metaStore ) {
+    synchronized ( metaStores ) {
+      ConcurrentMap<String, Entry> groups = metaStores.get( metaStore );
+      if ( groups == null ) {
+        groups = new ConcurrentHashMap<>();
+        metaStores.put( metaStore, groups );
+      }
+      return groups;
+    }
+  }
+
+  private AtomicLong versionOf( String key ) {
+    AtomicLong version = versions.get( key );
+    if ( version == null ) {
+      AtomicLong created = new AtomicLong();
+      version = versions.putIfAbsent( key, created );
+      if ( version == null ) {
+        version = created;
+      }
+    }
+    return version;
+  }
+
+  private static String keyOf( boolean sharedDimension, String groupName ) {
+    return ( sharedDimension ? "shared:" : "group:" ) + groupName;
+  }
+
+  /**
+   * A group the caller may change: a deep copy of a group shared through the cache, any other group as it is.
+   */
+  public static ModelAnnotationGroup writable( ModelAnnotationGroup group ) {
+    return isShared( group ) ? ObjectUtils.deepClone( group ) : group;
+  }
+
+  public static boolean isShared( ModelAnnotationGroup group ) {
+    return group instanceof SharedGroup;
+  }
+
+  private static final class Entry {
+    private final SharedGroup group;
+    private final long version;
+    private final long loaded;
+
+    private Entry( SharedGroup group, long version, long loaded ) {
+      this.group = group;
+      this.version = version;
+      this.loaded = loaded;
+    }
+  }
+
+  /**
+   * Read-only view of a cached group. It serializes as the group it was made from, so a deep copy of the view is an
+   * ordinary group again.
+   */
+  @SuppressWarnings( { "rawtypes", "unchecked" } )
+  private static final class SharedGroup extends ModelAnnotationGroup {
+    private static final long serialVersionUID = 1L;
+
+    private final ModelAnnotationGroup source;
+
+    private SharedGroup( ModelAnnotationGroup source ) {
+      this.source = source;
+      super.addAll( source );
+      super.setName( source.getName() );
+      super.setDescription( source.getDescription() );
+      super.setSharedDimension( source.isSharedDimension() );
+      super.setDataProviders(
+          source.getDataProviders() == null ? null : Collections.unmodifiableList( source.getDataProviders() ) );
+    }
+
+    private Object writeReplace() {
+      return source;
+    }
+
+    @Override
+    public Iterator iterator() {
+      return Collections.unmodifiableList( source ).iterator();
+    }
+
+    @Override
+    public ListIterator listIterator() {
+      return Collections.unmodifiableList( source ).listIterator();
+    }
+
+    @Override
+    public ListIterator listIterator( int index ) {
+      return Collections.unmodifiableList( source ).listIterator( index );
+    }
+
+    @Override
+    public List subList( int fromIndex, int toIndex ) {
+      return Collections.unmodifiableList( source ).subList( fromIndex, toIndex );
+    }
+
+    @Override
+    public boolean add( ModelAnnotation annotation ) {
+      throw readOnly();
+    }
+
+    @Override
+    public void add( int index, ModelAnnotation annotation ) {
+      throw readOnly();
+    }
+
+    @Override
+    public boolean addAll( Collection annotations ) {
+      throw readOnly();
+    }
+
+    @Override
+    public boolean addAll( int index, Collection annotations ) {
+      throw readOnly();
+    }
+
+    @Override
+    public ModelAnnotation set( int index, ModelAnnotation annotation ) {
+      throw readOnly();
+    }
+
+    @Override
+    public ModelAnnotation remove( int index ) {
+      throw readOnly();
+    }
+
+    @Override
+    public boolean remove( Object annotation ) {
+      throw readOnly();
+    }
+
+    @Override
+    public boolean removeAll( Collection<?> annotations ) {
+      throw readOnly();
+    }
+
+    @Override
+    public boolean retainAll( Collection<?> annotations ) {
+      throw readOnly();
+    }
+
+    @Override
+    public boolean removeIf( Predicate filter ) {
+      throw readOnly();
+    }
+
+    @Override
+    public void replaceAll( UnaryOperator operator ) {
+      throw readOnly();
+    }
+
+    @Override
+    public void sort( Comparator comparator ) {
+      throw readOnly();
+    }
+
+    @Override
+    public void clear() {
+      throw readOnly();
+    }
+
+    @Override
+    public void setName( String name ) {
+      throw readOnly();
+    }
+
+    @Override
+    public void setDescription( String description ) {
+      throw readOnly();
+    }
+
+    @Override
+    public void setSharedDimension( boolean sharedDimension ) {
+      throw readOnly();
+    }
+
+    @Override
+    public void setDataProviders( List<DataProvider> dataProviders ) {
+      throw readOnly();
+    }
+
+    private UnsupportedOperationException readOnly() {
+      return new UnsupportedOperationException( "Shared annotation group " + getName()
+          + " is read-only, use AnnotationGroupCache.writable to change a copy" );
+    }
+  }
+}
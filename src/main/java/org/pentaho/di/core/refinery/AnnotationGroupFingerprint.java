@@ -0,0 +1,114 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.di.core.refinery;
+
+import org.pentaho.agilebi.modeler.models.annotations.AnnotationType;
+import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotation;
+import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotationGroup;
+import org.pentaho.agilebi.modeler.models.annotations.data.ColumnMapping;
+import org.pentaho.agilebi.modeler.models.annotations.data.DataProvider;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Content hash of an annotation group, used to tell whether saving a group would change what the MetaStore
+ * already holds.
+ * <p>
+ * Annotation names are left out: injected annotations get a fresh random name on every run, so including them
+ * would make every run look like a change. Group name and shared dimension flag are part of the MetaStore key
+ * and left out as well.
+ */
+public class AnnotationGroupFingerprint {
+
+  private AnnotationGroupFingerprint() {
+  }
+
+  public static String of( ModelAnnotationGroup group ) {
+    return of( group, true );
+  }
+
+  /**
+   * Leaves the data providers out. They are added by the loads that use a shared dimension, so a group built from
+   * the step settings only has the same annotations as the stored one when this fingerprint matches.
+   */
+  public static String ofAnnotations( ModelAnnotationGroup group ) {
+    return of( group, false );
+  }
+
+  private static String of( ModelAnnotationGroup group, boolean withDataProviders ) {
+    MessageDigest digest = newDigest();
+    update( digest, group.getDescription() );
+    for ( ModelAnnotation<?> modelAnnotation : group ) {
+      update( digest, "annotation" );
+      update( digest, modelAnnotation.getType() );
+      AnnotationType annotation = modelAnnotation.getAnnotation();
+      if ( annotation == null ) {
+        continue;
+      }
+      update( digest, annotation.getField() );
+      // sorted, so that the order properties are set in doesn't matter
+      for ( String id : new TreeSet<>( annotation.getModelPropertyIds() ) ) {
+        Object value = annotation.getModelPropertyValueById( id );
+        if ( value != null ) {
+          update( digest, id );
+          update( digest, value );
+        }
+      }
+    }
+    if ( withDataProviders && group.getDataProviders() != null ) {
+      for ( DataProvider dataProvider : group.getDataProviders() ) {
+        update( digest, "dataProvider" );
+        update( digest, dataProvider.getName() );
+        update( digest, dataProvider.getSchemaName() );
+        update( digest, dataProvider.getTableName() );
+        update( digest, dataProvider.getDatabaseMetaNameRef() );
+        List<ColumnMapping> columnMappings = dataProvider.getColumnMappings();
+        if ( columnMappings != null ) {
+          for ( ColumnMapping columnMapping : columnMappings ) {
+            update( digest, columnMapping.getName() );
+            update( digest, columnMapping.getColumnName() );
+            update( digest, columnMapping.getColumnDataType() );
+          }
+        }
+      }
+    }
+    StringBuilder hex = new StringBuilder();
+    for ( byte b : digest.digest() ) {
+      hex.append( Character.forDigit( ( b >> 4 ) & 0xf, 16 ) ).append( Character.forDigit( b & 0xf, 16 ) );
+    }
+    return hex.toString();
+  }
+
+  private static void update( MessageDigest digest, Object value ) {
+    if ( value == null ) {
+      digest.update( (byte) 0 );
+    } else {
+      digest.update( (byte) 1 );
+      digest.update( String.valueOf( value ).getBytes( StandardCharsets.UTF_8 ) );
+      // terminator keeps "ab"+"c" apart from "a"+"bc"
+      digest.update( (byte) 0xff );
+    }
+  }
+
+  private static MessageDigest newDigest() {
+    try {
+      return MessageDigest.getInstance( "SHA-256" );
+    } catch ( NoSuchAlgorithmException e ) {
+      throw new IllegalStateException( e );
+    }
+  }
+}
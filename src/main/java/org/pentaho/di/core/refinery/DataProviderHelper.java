@@ -23,11 +23,11 @@ import org.pentaho.di.core.ProvidesDatabaseConnectionInformation;
 import org.pentaho.di.core.ProvidesModelerMeta;
 import org.pentaho.di.core.database.DatabaseMeta;
 import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.logging.LogChannelInterface;
 import org.pentaho.di.core.row.RowMeta;
 import org.pentaho.di.core.row.ValueMetaInterface;
 import org.pentaho.di.core.variables.VariableSpace;
 import org.pentaho.di.i18n.BaseMessages;
-import org.pentaho.di.job.entries.build.JobEntryBuildModel;
 import org.pentaho.di.trans.step.StepMetaDataCombi;
 import org.pentaho.metadata.model.concept.types.DataType;
 import org.pentaho.metastore.api.IMetaStore;
@@ -35,6 +35,7 @@ import org.pentaho.metastore.api.exceptions.MetaStoreException;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -42,12 +43,21 @@ public class DataProviderHelper {
 
   private final IMetaStore mstore;
   private final ModelAnnotationManager annotationManager = new ModelAnnotationManager( true );
-  private static Class<?> PKG = JobEntryBuildModel.class; // for i18n purposes, needed by Translator2!!
+  private static Class<?> PKG = DataProviderHelper.class; // for i18n purposes, needed by Translator2!!
+
+  private LogChannelInterface log;
 
   public DataProviderHelper( IMetaStore mstore ) {
     this.mstore = mstore;
   }
 
+  /**
+   * Where to report what changed in the groups written, optional.
+   */
+  public void setLog( LogChannelInterface log ) {
+    this.log = log;
+  }
+
   protected IMetaStore getMetaStore() {
     return mstore;
   }
@@ -65,16 +75,24 @@ public class DataProviderHelper {
    */
   public void updateDataProvider( ModelAnnotationGroup annotations, StepMetaDataCombi outputCombi )
     throws KettleException, MetaStoreException {
-    DataProvider provider = createDataProvider( outputCombi, mstore );
-    updateOrAdd( annotations.getDataProviders(), provider );
-    getModelAnnotationManager().updateGroup( annotations, mstore );
+    prepareUpdate( annotations, outputCombi ).apply();
   }
 
   /**
-   * Creates DataProvider and stores DatabaseMeta
+   * Reads what the data provider needs from the output step right away; the MetaStore is only written when the
+   * returned update is applied, which can happen later and on another thread.
    */
-  private DataProvider createDataProvider( StepMetaDataCombi outputCombi, IMetaStore mstore )
-    throws KettleException, MetaStoreException {
+  public Update prepareUpdate( ModelAnnotationGroup annotations, StepMetaDataCombi outputCombi )
+    throws KettleException {
+    return prepareUpdate( annotations, outputCombi, null );
+  }
+
+  /**
+   * @param excludedField stream field that is not part of the group's data, such as the change type an incremental
+   *                      shared dimension adds; it is left out of the column mappings
+   */
+  public Update prepareUpdate( ModelAnnotationGroup annotations, StepMetaDataCombi outputCombi, String excludedField )
+    throws KettleException {
     DataProvider provider = new DataProvider();
     provider.setName( outputCombi.stepname );
     ProvidesDatabaseConnectionInformation connInfo = (ProvidesDatabaseConnectionInformation) outputCombi.meta;
@@ -83,9 +101,171 @@ public class DataProviderHelper {
       throw new KettleException( BaseMessages.getString(
         PKG, "BuildModelJob.Error.ConnectionName.InvalidCharacter", dbMeta.getName() ) );
     }
-    provider.setColumnMappings( getColumnMappings( outputCombi ) );
-    provider.setDatabaseMetaNameRef( getModelAnnotationManager().storeDatabaseMeta( dbMeta, mstore ) );
-    return provider;
+    List<ColumnMapping> columnMappings = getColumnMappings( outputCombi );
+    if ( excludedField != null ) {
+      columnMappings.removeIf( columnMapping -> excludedField.equalsIgnoreCase( columnMapping.getName() ) );
+    }
+    provider.setColumnMappings( columnMappings );
+    // the update adds to the group, so a group shared through the cache is copied
+    return new Update( AnnotationGroupCache.writable( annotations ), provider, dbMeta );
+  }
+
+  /**
+   * A data provider ready to be added to its group. Applying it stores the DatabaseMeta and the group.
+   */
+  public class Update {
+    private final ModelAnnotationGroup annotations;
+    private final DataProvider provider;
+    private final DatabaseMeta dbMeta;
+
+    Update( ModelAnnotationGroup annotations, DataProvider provider, DatabaseMeta dbMeta ) {
+      this.annotations = annotations;
+      this.provider = provider;
+      this.dbMeta = dbMeta;
+    }
+
+    public String getGroupName() {
+      return annotations.getName();
+    }
+
+    public ModelAnnotationGroup getGroup() {
+      return annotations;
+    }
+
+    public DatabaseMeta getDatabaseMeta() {
+      return dbMeta;
+    }
+
+    public void apply() throws KettleException, MetaStoreException {
+      addTo( annotations, storeDatabaseMeta( dbMeta ) );
+      storeGroup( annotations );
+    }
+
+    /**
+     * Adds the data provider to <code>group</code>, referring to a DatabaseMeta already stored under
+     * <code>databaseMetaNameRef</code>. Nothing is written.
+     */
+    public void addTo( ModelAnnotationGroup group, String databaseMetaNameRef ) {
+      provider.setDatabaseMetaNameRef( databaseMetaNameRef );
+      updateOrAdd( group.getDataProviders(), provider );
+    }
+  }
+
+  /**
+   * @return the name the DatabaseMeta is stored under
+   */
+  public String storeDatabaseMeta( DatabaseMeta dbMeta ) throws KettleException, MetaStoreException {
+    return getModelAnnotationManager().storeDatabaseMeta( dbMeta, mstore );
+  }
+
+  /**
+   * Stores the group without dropping data providers that another writer stored since this copy was read.
+   * <p>
+   * The group in the MetaStore is read and the data providers only it has are added to <code>annotations</code>;
+   * where both have the same data provider, ours replaces the stored one, column mappings included. Writers in this
+   * JVM take turns, so none of them loses another's data providers. The MetaStore has no conditional write, so
+   * between processes the last writer wins: a data provider another process stores between our read and our write
+   * is lost until that process stores it again.
+   * <p>
+   * Nothing is written when the merged group holds the same annotations and data providers as the stored one.
+   *
+   * @return whether the group was written
+   */
+  public boolean storeGroup( ModelAnnotationGroup annotations ) throws KettleException, MetaStoreException {
+    ModelAnnotationManager manager = getModelAnnotationManager();
+    AnnotationGroupCache cache = AnnotationGroupCache.getInstance();
+    String groupName = annotations.getName();
+    synchronized ( cache.lockFor( true, groupName ) ) {
+      ModelAnnotationGroup stored = manager.readGroup( groupName, mstore );
+      annotations.setDataProviders( merge( annotations.getDataProviders(), stored ) );
+      List<String> changes = changes( stored, annotations );
+      if ( changes.isEmpty() ) {
+        if ( log != null ) {
+          log.logDetailed( BaseMessages.getString( PKG, "DataProviderHelper.GroupUnchanged", groupName ) );
+        }
+        return false;
+      }
+      if ( log != null ) {
+        log.logBasic( BaseMessages.getString( PKG, "DataProviderHelper.GroupChanged", groupName,
+          StringUtils.join( changes, "; " ) ) );
+      }
+      manager.updateGroup( annotations, mstore );
+      cache.invalidate( true, groupName );
+      return true;
+    }
+  }
+
+  /**
+   * @return what writing <code>group</code> would change in the <code>stored</code> one, empty if nothing
+   */
+  static List<String> changes( ModelAnnotationGroup stored, ModelAnnotationGroup group ) {
+    List<String> changes = new ArrayList<String>();
+    if ( stored == null ) {
+      changes.add( "new group" );
+      return changes;
+    }
+    if ( !AnnotationGroupFingerprint.ofAnnotations( stored )
+      .equals( AnnotationGroupFingerprint.ofAnnotations( group ) ) ) {
+      changes.add( "annotations" );
+    }
+    List<DataProvider> storedProviders =
+      stored.getDataProviders() == null ? new ArrayList<DataProvider>() : stored.getDataProviders();
+    for ( DataProvider dataProvider : group.getDataProviders() ) {
+      DataProvider storedProvider = find( storedProviders, dataProvider );
+      if ( storedProvider == null ) {
+        changes.add( "data provider " + dataProvider.getName() + " added" );
+        continue;
+      }
+      Map<String, ColumnMapping> storedMappings = mappingsByColumn( storedProvider );
+      for ( ColumnMapping columnMapping : mappingsByColumn( dataProvider ).values() ) {
+        ColumnMapping storedMapping = storedMappings.remove( columnMapping.getColumnName() );
+        if ( storedMapping == null ) {
+          changes.add( dataProvider.getName() + "." + columnMapping.getColumnName() + " added" );
+        } else if ( !StringUtils.equals( storedMapping.getName(), columnMapping.getName() )
+          || storedMapping.getColumnDataType() != columnMapping.getColumnDataType() ) {
+          changes.add( dataProvider.getName() + "." + columnMapping.getColumnName() + " changed" );
+        }
+      }
+      for ( String column : storedMappings.keySet() ) {
+        changes.add( dataProvider.getName() + "." + column + " removed" );
+      }
+    }
+    return changes;
+  }
+
+  private static Map<String, ColumnMapping> mappingsByColumn( DataProvider dataProvider ) {
+    Map<String, ColumnMapping> mappings = new LinkedHashMap<String, ColumnMapping>();
+    if ( dataProvider.getColumnMappings() != null ) {
+      for ( ColumnMapping columnMapping : dataProvider.getColumnMappings() ) {
+        mappings.put( columnMapping.getColumnName(), columnMapping );
+      }
+    }
+    return mappings;
+  }
+
+  /**
+   * @return our data providers, followed by the stored data providers we don't have
+   */
+  public static List<DataProvider> merge( List<DataProvider> ours, ModelAnnotationGroup stored ) {
+    List<DataProvider> merged = new ArrayList<DataProvider>( ours );
+    if ( stored == null || stored.getDataProviders() == null ) {
+      return merged;
+    }
+    for ( DataProvider theirs : stored.getDataProviders() ) {
+      if ( find( ours, theirs ) == null ) {
+        merged.add( theirs );
+      }
+    }
+    return merged;
+  }
+
+  private static DataProvider find( List<DataProvider> dataProviders, DataProvider dataProvider ) {
+    for ( DataProvider candidate : dataProviders ) {
+      if ( equalsNoColumnMappings( candidate, dataProvider ) ) {
+        return candidate;
+      }
+    }
+    return null;
   }
 
   private static DatabaseMeta fillConnectionInfo(
@@ -185,5 +365,14 @@ public class DataProviderHelper {
         throw new ModelerException( "Step being Annotated is unsupported" );
       }
     }
+
+    public OutputStepMappingAdapter( final OutputStepSnapshot snapshot ) throws ModelerException {
+      if ( !snapshot.hasModelerMeta() ) {
+        throw new ModelerException( "Step being Annotated is unsupported" );
+      }
+      insertRowMeta = snapshot.getInsertRowMeta();
+      fieldDatabase = snapshot.getDatabaseFields();
+      fieldStream = snapshot.getStreamFields();
+    }
   }
 }
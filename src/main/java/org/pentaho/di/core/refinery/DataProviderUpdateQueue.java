@@ -0,0 +1,261 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.di.core.refinery;
+
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.logging.LogChannelInterface;
+import org.pentaho.di.core.util.EnvUtil;
+import org.pentaho.di.job.Job;
+import org.pentaho.di.job.JobAdapter;
+import org.pentaho.metastore.api.exceptions.MetaStoreException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Writes data providers to the MetaStore in the background, so that a transformation finishing doesn't wait on
+ * MetaStore I/O.
+ * <p>
+ * Updates of the same group are applied one after the other, in the order they were submitted; updates of
+ * different groups may run in parallel on up to {@link #KETTLE_DATA_REFINERY_PROVIDER_UPDATE_THREADS} threads.
+ * When the work queue is full the thread handing the update over applies it itself, outside of any lock. With 0
+ * threads every update is applied as it is submitted.
+ * <p>
+ * Writes are tracked with the job that ran the transformation and with each of its parent jobs. Build Model waits
+ * with {@link #awaitCompletion(Job, long)} for the writes of its own job, and the outermost job waits for all of
+ * them before it finishes. A transformation that no job runs waits for its own writes with
+ * {@link #awaitCompletion(List, long)}. The plugin calls {@link #shutdown()} when it is unloaded.
+ */
+public class DataProviderUpdateQueue {
+
+  public static final String KETTLE_DATA_REFINERY_PROVIDER_UPDATE_THREADS =
+      "KETTLE_DATA_REFINERY_PROVIDER_UPDATE_THREADS";
+  public static final long DEFAULT_WAIT = 300000L;
+  /* writes of a job still pending, kept in its extension data map */
+  static final String KEY_PENDING_WRITES = "DataProviderUpdateQueue.PendingWrites";
+  private static final int DEFAULT_THREADS = 2;
+  private static final int QUEUE_SIZE = 1000;
+
+  private static final DataProviderUpdateQueue INSTANCE = new DataProviderUpdateQueue(
+      Const.toInt( EnvUtil.getSystemProperty( KETTLE_DATA_REFINERY_PROVIDER_UPDATE_THREADS ), DEFAULT_THREADS ) );
+
+  private final ThreadPoolExecutor pool;
+  // last update of each group still pending
+  private final Map<String, CompletableFuture<Void>> tails = new HashMap<>();
+
+  DataProviderUpdateQueue( int threads ) {
+    if ( threads <= 0 ) {
+      pool = null;
+      return;
+    }
+    AtomicInteger count = new AtomicInteger();
+    pool = new ThreadPoolExecutor( threads, threads, 60L, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>( QUEUE_SIZE ), runnable -> {
+          Thread thread = new Thread( runnable, "DataProviderUpdate-" + count.incrementAndGet() );
+          thread.setDaemon( true );
+          return thread;
+        }, new ThreadPoolExecutor.AbortPolicy() );
+    pool.allowCoreThreadTimeOut( true );
+  }
+
+  /**
+   * MetaStore writes for one group.
+   */
+  public interface Write {
+    void apply() throws KettleException, MetaStoreException;
+  }
+
+  public static DataProviderUpdateQueue getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Queues the update after the pending updates of its group. Failures are logged to <code>log</code>.
+   */
+  public CompletableFuture<Void> submit( final DataProviderHelper.Update update, final LogChannelInterface log ) {
+    return submit( update.getGroupName(), update::apply, null, log );
+  }
+
+  /**
+   * Queues writes for <code>group</code> after its pending ones, tracking them with <code>job</code> and its parent
+   * jobs, if any. Failures are logged to <code>log</code>.
+   */
+  public CompletableFuture<Void> submit( final String group, final Write write, final Job job,
+                                         final LogChannelInterface log ) {
+    final CompletableFuture<Void> next = new CompletableFuture<>();
+    CompletableFuture<Void> previous;
+    synchronized ( tails ) {
+      previous = tails.put( group, next );
+    }
+    next.whenComplete( ( result, error ) -> {
+      synchronized ( tails ) {
+        tails.remove( group, next );
+      }
+    } );
+    for ( Job scope = job; scope != null; scope = scope.getParentJob() ) {
+      track( scope, next );
+    }
+    // only the bookkeeping is done under the lock; the write itself never is
+    Runnable run = () -> {
+      try {
+        apply( write, log );
+      } finally {
+        next.complete( null );
+      }
+    };
+    if ( previous == null ) {
+      execute( run );
+    } else {
+      previous.whenComplete( ( result, error ) -> execute( run ) );
+    }
+    return next;
+  }
+
+  private void execute( Runnable run ) {
+    if ( pool == null ) {
+      run.run();
+      return;
+    }
+    try {
+      pool.execute( run );
+    } catch ( RejectedExecutionException e ) {
+      // queue full or shut down
+      run.run();
+    }
+  }
+
+  private void track( Job job, final CompletableFuture<Void> write ) {
+    Map<String, Object> map = job.getExtensionDataMap();
+    Set<CompletableFuture<Void>> pending;
+    synchronized ( map ) {
+      pending = getPending( job );
+      if ( pending == null ) {
+        pending = ConcurrentHashMap.newKeySet();
+        map.put( KEY_PENDING_WRITES, pending );
+        if ( job.getParentJob() == null ) {
+          // kitchen exits as soon as the outermost job is done; don't lose what is still queued
+          job.addJobListener( new JobAdapter() {
+            @Override public void jobFinished( Job finished ) {
+              if ( !awaitCompletion( finished, DEFAULT_WAIT ) ) {
+                finished.getLogChannel().logError( "Data providers were still being saved after "
+                    + ( DEFAULT_WAIT / 1000 ) + " seconds" );
+              }
+            }
+          } );
+        }
+      }
+    }
+    pending.add( write );
+    final Set<CompletableFuture<Void>> tracked = pending;
+    write.whenComplete( ( result, error ) -> tracked.remove( write ) );
+  }
+
+  @SuppressWarnings( "unchecked" )
+  private static Set<CompletableFuture<Void>> getPending( Job job ) {
+    Map<String, Object> map = job.getExtensionDataMap();
+    synchronized ( map ) {
+      return (Set<CompletableFuture<Void>>) map.get( KEY_PENDING_WRITES );
+    }
+  }
+
+  private static void apply( Write write, LogChannelInterface log ) {
+    try {
+      write.apply();
+    } catch ( Exception e ) {
+      // the next update of the group still runs
+      log.logError( e.getLocalizedMessage(), e );
+    }
+  }
+
+  /**
+   * Waits for the updates submitted so far for <code>job</code> or any job it runs.
+   *
+   * @return false if some were still running after <code>timeoutMillis</code>
+   */
+  public boolean awaitCompletion( Job job, long timeoutMillis ) {
+    Set<CompletableFuture<Void>> pending = getPending( job );
+    return pending == null || await( new ArrayList<>( pending ), timeoutMillis );
+  }
+
+  /**
+   * Waits for the given updates, as returned by {@link #submit(String, Write, Job, LogChannelInterface)}.
+   *
+   * @return false if some were still running after <code>timeoutMillis</code>
+   */
+  public boolean awaitCompletion( List<CompletableFuture<Void>> writes, long timeoutMillis ) {
+    return await( writes, timeoutMillis );
+  }
+
+  /**
+   * Waits for all the updates submitted so far.
+   *
+   * @return false if some were still running after <code>timeoutMillis</code>
+   */
+  public boolean awaitCompletion( long timeoutMillis ) {
+    List<CompletableFuture<Void>> pending;
+    synchronized ( tails ) {
+      pending = new ArrayList<>( tails.values() );
+    }
+    return await( pending, timeoutMillis );
+  }
+
+  private static boolean await( List<CompletableFuture<Void>> pending, long timeoutMillis ) {
+    if ( pending.isEmpty() ) {
+      return true;
+    }
+    try {
+      CompletableFuture.allOf( pending.toArray( new CompletableFuture[ pending.size() ] ) )
+          .get( timeoutMillis, TimeUnit.MILLISECONDS );
+      return true;
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+      return false;
+    } catch ( ExecutionException | TimeoutException e ) {
+      return false;
+    }
+  }
+
+  /**
+   * Lets the pending updates finish and stops the threads. Updates submitted afterwards are applied as they are
+   * submitted.
+   */
+  public void shutdown() {
+    if ( pool != null ) {
+      pool.shutdown();
+      try {
+        pool.awaitTermination( DEFAULT_WAIT, TimeUnit.MILLISECONDS );
+      } catch ( InterruptedException e ) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  public int getPendingGroupCount() {
+    synchronized ( tails ) {
+      return tails.size();
+    }
+  }
+}
@@ -0,0 +1,280 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.di.core.refinery;
+
+import org.pentaho.agilebi.modeler.models.annotations.data.DataProvider;
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.refinery.profile.ValueHash;
+import org.pentaho.di.core.util.EnvUtil;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Persisted map of shared dimension member key hash to row hash, used to send only new and changed members to the
+ * data provider step.
+ * <p>
+ * The index is an open addressing table of 16 byte slots in a memory mapped file. A run works on a copy of it and
+ * only replaces the index on {@link #commit()}, once the rows it let through are known to be loaded; a failed run
+ * leaves the previous index in place. The file holds at most {@link #MAX_CAPACITY} slots, about 50 million members.
+ * <p>
+ * Mappings are released before their file is moved or deleted, which Windows refuses while a file is mapped.
+ */
+public class MemberHashIndex implements Closeable {
+
+  public static final String KETTLE_DATA_REFINERY_MEMBER_INDEX_DIR = "KETTLE_DATA_REFINERY_MEMBER_INDEX_DIR";
+
+  public enum Change {
+    NEW, CHANGED, UNCHANGED
+  }
+
+  static final int MAX_CAPACITY = 1 << 26;
+  private static final int MAGIC = 0x53444d49;
+  private static final int VERSION = 1;
+  private static final int HEADER = 16;
+  private static final int SLOT = 16;
+  private static final int INITIAL_CAPACITY = 1024;
+  // stands in for a key hash of 0, which marks a free slot
+  private static final long ZERO_KEY = 0x9e3779b97f4a7c15L;
+
+  private final File indexFile;
+  private File workFile;
+  private MappedByteBuffer buffer;
+  private int capacity;
+  private int size;
+
+  private MemberHashIndex( File indexFile ) {
+    this.indexFile = indexFile;
+  }
+
+  /**
+   * @return the index file for a shared dimension loaded into the table of <code>target</code>; the index remembers
+   * what that table holds, so each connection, schema and table gets its own. Targets without a table, such as
+   * output steps that don't write to a database, are told apart by name.
+   */
+  public static File indexFileFor( String dimensionName, DataProvider target ) {
+    String key = target.getTableName() == null
+        ? target.getName()
+        : target.getDatabaseMetaNameRef() + "|" + target.getSchemaName() + "|" + target.getTableName();
+    return new File( directory(),
+        safeName( dimensionName ) + "-" + Long.toHexString( ValueHash.hash( dimensionName + "|" + key ) ) + ".idx" );
+  }
+
+  /**
+   * @return where shared dimension files are kept
+   */
+  static File directory() {
+    return new File( EnvUtil.getSystemProperty( KETTLE_DATA_REFINERY_MEMBER_INDEX_DIR,
+        Const.getKettleDirectory() + File.separator + "refinery" + File.separator + "member-index" ) );
+  }
+
+  static String safeName( String dimensionName ) {
+    return dimensionName.replaceAll( "[^A-Za-z0-9_-]", "_" );
+  }
+
+  /**
+   * Opens a working copy of the index, empty if the file doesn't exist or isn't an index.
+   */
+  public static MemberHashIndex open( File indexFile ) throws IOException {
+    return open( indexFile, false );
+  }
+
+  /**
+   * @param rebuild start from an empty working copy whatever the file holds, e.g. because the table was emptied;
+   *                it replaces the index on commit like any other
+   */
+  public static MemberHashIndex open( File indexFile, boolean rebuild ) throws IOException {
+    MemberHashIndex index = new MemberHashIndex( indexFile );
+    File directory = indexFile.getAbsoluteFile().getParentFile();
+    if ( !directory.isDirectory() && !directory.mkdirs() ) {
+      throw new IOException( "Cannot create " + directory );
+    }
+    File workFile = File.createTempFile( indexFile.getName(), ".tmp", directory );
+    if ( !rebuild && indexFile.isFile() && isIndex( indexFile ) ) {
+      Files.copy( indexFile.toPath(), workFile.toPath(), StandardCopyOption.REPLACE_EXISTING );
+      index.map( workFile, -1 );
+    } else {
+      index.map( workFile, INITIAL_CAPACITY );
+    }
+    return index;
+  }
+
+  public Change put( long keyHash, long rowHash ) {
+    if ( keyHash == 0 ) {
+      keyHash = ZERO_KEY;
+    }
+    int mask = capacity - 1;
+    int slot = (int) ValueHash.mix( keyHash ) & mask;
+    long stored;
+    while ( ( stored = buffer.getLong( offset( slot ) ) ) != 0 ) {
+      if ( stored == keyHash ) {
+        if ( buffer.getLong( offset( slot ) + 8 ) == rowHash ) {
+          return Change.UNCHANGED;
+        }
+        buffer.putLong( offset( slot ) + 8, rowHash );
+        return Change.CHANGED;
+      }
+      slot = ( slot + 1 ) & mask;
+    }
+    buffer.putLong( offset( slot ), keyHash );
+    buffer.putLong( offset( slot ) + 8, rowHash );
+    buffer.putInt( 12, ++size );
+    if ( size > capacity * 3L / 4 ) {
+      grow();
+    }
+    return Change.NEW;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Replaces the index with the working copy.
+   */
+  public void commit() throws IOException {
+    if ( buffer == null ) {
+      throw new IllegalStateException( "Index is closed" );
+    }
+    buffer.force();
+    release();
+    try {
+      Files.move( workFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE );
+    } catch ( AtomicMoveNotSupportedException e ) {
+      Files.move( workFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING );
+    }
+    workFile = null;
+  }
+
+  /**
+   * Drops the working copy unless it was committed.
+   */
+  @Override
+  public void close() {
+    release();
+    if ( workFile != null ) {
+      delete( workFile );
+      workFile = null;
+    }
+  }
+
+  private void release() {
+    MappedByteBuffer mapped = buffer;
+    buffer = null;
+    unmap( mapped );
+  }
+
+  private void grow() {
+    if ( capacity >= MAX_CAPACITY ) {
+      if ( size >= capacity - 1 ) {
+        throw new IllegalStateException( "Member index " + indexFile + " is full" );
+      }
+      return;
+    }
+    MappedByteBuffer old = buffer;
+    int oldCapacity = capacity;
+    File oldFile = workFile;
+    try {
+      map( File.createTempFile( indexFile.getName(), ".tmp", oldFile.getAbsoluteFile().getParentFile() ),
+          oldCapacity << 1 );
+    } catch ( IOException e ) {
+      throw new IllegalStateException( e );
+    }
+    for ( int slot = 0; slot < oldCapacity; slot++ ) {
+      long keyHash = old.getLong( HEADER + slot * SLOT );
+      if ( keyHash != 0 ) {
+        put( keyHash, old.getLong( HEADER + slot * SLOT + 8 ) );
+      }
+    }
+    unmap( old );
+    delete( oldFile );
+  }
+
+  /**
+   * A file whose mapping couldn't be released can't be deleted on Windows; it goes when the JVM exits then.
+   */
+  private static void delete( File file ) {
+    if ( !file.delete() && file.exists() ) {
+      file.deleteOnExit();
+    }
+  }
+
+  /**
+   * Releases the mapping of <code>mapped</code> now rather than when the buffer is garbage collected. The buffer
+   * must not be used afterwards.
+   *
+   * @return false when the JVM doesn't allow it, in which case the mapping stays until the buffer is collected
+   */
+  static boolean unmap( MappedByteBuffer mapped ) {
+    if ( mapped == null ) {
+      return true;
+    }
+    try {
+      Class<?> unsafeClass = Class.forName( "sun.misc.Unsafe" );
+      Field theUnsafe = unsafeClass.getDeclaredField( "theUnsafe" );
+      theUnsafe.setAccessible( true );
+      unsafeClass.getMethod( "invokeCleaner", ByteBuffer.class ).invoke( theUnsafe.get( null ), mapped );
+      return true;
+    } catch ( ReflectiveOperationException | RuntimeException e ) {
+      return false;
+    }
+  }
+
+  /**
+   * Maps <code>file</code> as the working copy; a capacity of -1 keeps the table the file already holds.
+   */
+  private void map( File file, int newCapacity ) throws IOException {
+    try ( RandomAccessFile raf = new RandomAccessFile( file, "rw" ); FileChannel channel = raf.getChannel() ) {
+      if ( newCapacity < 0 ) {
+        buffer = channel.map( FileChannel.MapMode.READ_WRITE, 0, channel.size() );
+        capacity = buffer.getInt( 8 );
+        size = buffer.getInt( 12 );
+      } else {
+        raf.setLength( HEADER + (long) newCapacity * SLOT );
+        buffer = channel.map( FileChannel.MapMode.READ_WRITE, 0, raf.length() );
+        buffer.putInt( 0, MAGIC );
+        buffer.putInt( 4, VERSION );
+        buffer.putInt( 8, newCapacity );
+        buffer.putInt( 12, 0 );
+        capacity = newCapacity;
+        size = 0;
+      }
+    }
+    workFile = file;
+  }
+
+  private static boolean isIndex( File file ) throws IOException {
+    try ( RandomAccessFile raf = new RandomAccessFile( file, "r" ) ) {
+      if ( raf.length() < HEADER || raf.readInt() != MAGIC || raf.readInt() != VERSION ) {
+        return false;
+      }
+      int capacity = raf.readInt();
+      return Integer.bitCount( capacity ) == 1 && capacity <= MAX_CAPACITY
+          && raf.length() == HEADER + (long) capacity * SLOT;
+    }
+  }
+
+  private static int offset( int slot ) {
+    return HEADER + slot * SLOT;
+  }
+}
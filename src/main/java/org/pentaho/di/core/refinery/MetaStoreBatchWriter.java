@@ -0,0 +1,121 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.di.core.refinery;
+
+import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotationGroup;
+import org.pentaho.di.core.database.DatabaseMeta;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.logging.LogChannelInterface;
+import org.pentaho.di.job.Job;
+import org.pentaho.metastore.api.exceptions.MetaStoreException;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Collects the data provider updates of one finished transformation and writes them with as few MetaStore calls
+ * as it can: each distinct DatabaseMeta is stored once, and each group is stored once with all of its new data
+ * providers. On a repository MetaStore every write is a round trip to the server.
+ * <p>
+ * Nothing is written until {@link #flush(DataProviderUpdateQueue, Job, LogChannelInterface)}.
+ */
+public class MetaStoreBatchWriter {
+
+  private final DataProviderHelper helper;
+  private final Map<String, List<DataProviderHelper.Update>> pending = new LinkedHashMap<>();
+  // content of the DatabaseMetas stored by this batch, to the name they were stored under
+  private final Map<String, String> storedDatabaseMetas = new HashMap<>();
+  private final AtomicInteger databaseMetaWrites = new AtomicInteger();
+  private final AtomicInteger groupWrites = new AtomicInteger();
+
+  public MetaStoreBatchWriter( DataProviderHelper helper ) {
+    this.helper = helper;
+  }
+
+  public DataProviderHelper getHelper() {
+    return helper;
+  }
+
+  public void add( DataProviderHelper.Update update ) {
+    List<DataProviderHelper.Update> updates = pending.get( update.getGroupName() );
+    if ( updates == null ) {
+      updates = new ArrayList<>();
+      pending.put( update.getGroupName(), updates );
+    }
+    updates.add( update );
+  }
+
+  public boolean isEmpty() {
+    return pending.isEmpty();
+  }
+
+  /**
+   * Hands one write per group to <code>queue</code>, keeping the order of the groups' other updates. The writes are
+   * tracked with <code>job</code>, the job running the transformation, if any.
+   *
+   * @return the writes handed over
+   */
+  public List<CompletableFuture<Void>> flush( DataProviderUpdateQueue queue, Job job, LogChannelInterface log ) {
+    List<CompletableFuture<Void>> writes = new ArrayList<>();
+    for ( Map.Entry<String, List<DataProviderHelper.Update>> group : pending.entrySet() ) {
+      final List<DataProviderHelper.Update> updates = group.getValue();
+      writes.add( queue.submit( group.getKey(), () -> write( updates ), job, log ) );
+    }
+    pending.clear();
+    return writes;
+  }
+
+  /**
+   * Annotation steps of the same shared dimension each carry their own copy of the group; the data providers of all
+   * of them go into the last one, which is the one stored.
+   */
+  void write( List<DataProviderHelper.Update> updates ) throws KettleException, MetaStoreException {
+    ModelAnnotationGroup group = updates.get( updates.size() - 1 ).getGroup();
+    for ( DataProviderHelper.Update update : updates ) {
+      update.addTo( group, storeDatabaseMeta( update.getDatabaseMeta() ) );
+    }
+    if ( helper.storeGroup( group ) ) {
+      groupWrites.incrementAndGet();
+    }
+  }
+
+  private String storeDatabaseMeta( DatabaseMeta dbMeta ) throws KettleException, MetaStoreException {
+    String content = dbMeta.getXML();
+    // groups of the batch may be written on different threads
+    synchronized ( storedDatabaseMetas ) {
+      String name = storedDatabaseMetas.get( content );
+      if ( name == null ) {
+        name = helper.storeDatabaseMeta( dbMeta );
+        databaseMetaWrites.incrementAndGet();
+        storedDatabaseMetas.put( content, name );
+      }
+      return name;
+    }
+  }
+
+  public int getDatabaseMetaWriteCount() {
+    return databaseMetaWrites.get();
+  }
+
+  /**
+   * @return groups actually written, leaving out the ones found unchanged
+   */
+  public int getGroupWriteCount() {
+    return groupWrites.get();
+  }
+}
@@ -0,0 +1,191 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.di.core.refinery;
+
+import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotation;
+import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotationGroup;
+import org.pentaho.di.job.entries.build.JobEntryBuildModel;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects the annotations contributed by every Annotate Stream step (and step copy) feeding a Build Model.
+ * Contributions are merged without locking and deduplicated on annotation type, name and field, so N step copies
+ * or parallel job branches registering the same group leave a single entry. Iteration follows registration order.
+ * The annotations a Build Model read are consumed at the end of its cycle, see {@link #consume(Map, ModelAnnotationGroup)}.
+ */
+public class ModelAnnotationRegistry {
+
+  public static final String KEY = "JobEntryBuildModel.ModelAnnotationRegistry";
+
+  private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+  private final AtomicLong sequence = new AtomicLong();
+  private volatile boolean consumed;
+
+  /**
+   * Looks up the registry kept in a job or transformation extension map, creating it on first use. Annotations a
+   * Build Model already consumed are dropped from it, along with the group published from it.
+   */
+  public static ModelAnnotationRegistry getOrCreate( Map<String, Object> extensionMap ) {
+    // extension maps are plain hash maps; only creation and cleanup need to be guarded
+    synchronized ( extensionMap ) {
+      Object registry = extensionMap.get( KEY );
+      if ( registry instanceof ModelAnnotationRegistry ) {
+        ( (ModelAnnotationRegistry) registry ).dropConsumed( extensionMap );
+        return (ModelAnnotationRegistry) registry;
+      }
+      ModelAnnotationRegistry created = new ModelAnnotationRegistry();
+      extensionMap.remove( JobEntryBuildModel.KEY_MODEL_ANNOTATIONS );
+      extensionMap.put( KEY, created );
+      return created;
+    }
+  }
+
+  public static ModelAnnotationRegistry get( Map<String, Object> extensionMap ) {
+    synchronized ( extensionMap ) {
+      Object registry = extensionMap.get( KEY );
+      return registry instanceof ModelAnnotationRegistry ? (ModelAnnotationRegistry) registry : null;
+    }
+  }
+
+  /**
+   * Ends the annotation cycle of a job for the annotations a Build Model read. They stay available to the other
+   * Build Model entries of the cycle; the next annotating step to register drops them instead of adding to the
+   * annotations of every previous loop iteration. Annotations registered since the Build Model read the registry,
+   * e.g. by a parallel job branch, are kept.
+   *
+   * @param read the annotations the Build Model got from {@link #getAnnotations()}
+   * @return the registry, or null if there was none
+   */
+  public static ModelAnnotationRegistry consume( Map<String, Object> extensionMap, ModelAnnotationGroup read ) {
+    synchronized ( extensionMap ) {
+      ModelAnnotationRegistry registry = get( extensionMap );
+      if ( registry != null ) {
+        for ( ModelAnnotation<?> annotation : read ) {
+          Entry entry = annotation == null ? null : registry.entries.get( keyOf( annotation ) );
+          // the same key may have been registered again since, by an annotation of the next cycle
+          if ( entry != null && entry.annotation == annotation ) {
+            entry.consumed = true;
+            registry.consumed = true;
+          }
+        }
+      }
+      return registry;
+    }
+  }
+
+  /**
+   * @return whether some of the annotations were consumed and are still there
+   */
+  public boolean isConsumed() {
+    return consumed;
+  }
+
+  private void dropConsumed( Map<String, Object> extensionMap ) {
+    if ( !consumed ) {
+      return;
+    }
+    for ( Map.Entry<String, Entry> entry : entries.entrySet() ) {
+      if ( entry.getValue().consumed ) {
+        entries.remove( entry.getKey(), entry.getValue() );
+      }
+    }
+    consumed = false;
+    extensionMap.remove( JobEntryBuildModel.KEY_MODEL_ANNOTATIONS );
+  }
+
+  /**
+   * @param namespace the contributing step, e.g. transformation and step name
+   * @param annotations annotations to add; ones already registered by any namespace are skipped
+   * @return number of annotations that were new
+   */
+  public int register( String namespace, ModelAnnotationGroup annotations ) {
+    int added = 0;
+    for ( ModelAnnotation<?> annotation : annotations ) {
+      if ( annotation != null && add( keyOf( annotation ), namespace, annotation ) ) {
+        added++;
+      }
+    }
+    return added;
+  }
+
+  /**
+   * A consumed entry counts as absent; it is replaced rather than kept for the next cycle.
+   */
+  private boolean add( String key, String namespace, ModelAnnotation<?> annotation ) {
+    while ( true ) {
+      Entry existing = entries.get( key );
+      if ( existing != null && !existing.consumed ) {
+        return false;
+      }
+      Entry entry = new Entry( namespace, sequence.incrementAndGet(), annotation );
+      if ( existing == null ? entries.putIfAbsent( key, entry ) == null : entries.replace( key, existing, entry ) ) {
+        return true;
+      }
+    }
+  }
+
+  /**
+   * @return a new group with all registered annotations, in registration order
+   */
+  public ModelAnnotationGroup getAnnotations() {
+    return toGroup( null );
+  }
+
+  /**
+   * @return a new group with the annotations first registered by <code>namespace</code>
+   */
+  public ModelAnnotationGroup getAnnotations( String namespace ) {
+    return toGroup( namespace );
+  }
+
+  public int size() {
+    return entries.size();
+  }
+
+  private ModelAnnotationGroup toGroup( String namespace ) {
+    List<Entry> sorted = new ArrayList<>( entries.values() );
+    sorted.sort( Comparator.comparingLong( entry -> entry.sequence ) );
+    ModelAnnotationGroup group = new ModelAnnotationGroup();
+    for ( Entry entry : sorted ) {
+      if ( namespace == null || namespace.equals( entry.namespace ) ) {
+        group.add( entry.annotation );
+      }
+    }
+    return group;
+  }
+
+  static String keyOf( ModelAnnotation<?> annotation ) {
+    String field = annotation.getAnnotation() == null ? null : annotation.getAnnotation().getField();
+    return annotation.getType() + "|" + annotation.getName() + "|" + field;
+  }
+
+  private static final class Entry {
+    private final String namespace;
+    private final long sequence;
+    private final ModelAnnotation<?> annotation;
+    private volatile boolean consumed;
+
+    private Entry( String namespace, long sequence, ModelAnnotation<?> annotation ) {
+      this.namespace = namespace;
+      this.sequence = sequence;
+      this.annotation = annotation;
+    }
+  }
+}
@@ -0,0 +1,140 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.di.core.refinery;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.pentaho.di.core.ProvidesDatabaseConnectionInformation;
+import org.pentaho.di.core.ProvidesModelerMeta;
+import org.pentaho.di.core.database.DatabaseMeta;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.variables.VariableSpace;
+import org.pentaho.di.trans.step.StepMetaDataCombi;
+
+/**
+ * What Build Model needs to know about the output step of a finished transformation. Unlike the
+ * {@link StepMetaDataCombi} it is taken from, it holds no reference to the step, its data or its transformation, so
+ * keeping it in the job extension map does not keep the finished transformation in memory.
+ */
+public final class OutputStepSnapshot implements ProvidesDatabaseConnectionInformation {
+
+  private final String stepName;
+  private final boolean connectionInformation;
+  private final DatabaseMeta databaseMeta;
+  private final String schemaName;
+  private final String tableName;
+  private final String missingDatabaseConnectionInformationMessage;
+  private final boolean modelerMeta;
+  private final RowMeta insertRowMeta;
+  private final List<String> fieldDatabase;
+  private final List<String> fieldStream;
+
+  private OutputStepSnapshot( final StepMetaDataCombi combi ) {
+    stepName = combi.stepname;
+    VariableSpace space = combi.step;
+    if ( combi.meta instanceof ProvidesDatabaseConnectionInformation ) {
+      ProvidesDatabaseConnectionInformation connInfo = (ProvidesDatabaseConnectionInformation) combi.meta;
+      connectionInformation = true;
+      databaseMeta = connInfo.getDatabaseMeta();
+      schemaName = space == null ? connInfo.getSchemaName() : space.environmentSubstitute( connInfo.getSchemaName() );
+      tableName = space == null ? connInfo.getTableName() : space.environmentSubstitute( connInfo.getTableName() );
+      missingDatabaseConnectionInformationMessage = connInfo.getMissingDatabaseConnectionInformationMessage();
+    } else {
+      connectionInformation = false;
+      databaseMeta = null;
+      schemaName = null;
+      tableName = null;
+      missingDatabaseConnectionInformationMessage = null;
+    }
+    if ( combi.meta instanceof ProvidesModelerMeta ) {
+      ProvidesModelerMeta modeler = (ProvidesModelerMeta) combi.meta;
+      RowMeta rowMeta = modeler.getRowMeta( combi.data );
+      modelerMeta = true;
+      insertRowMeta = rowMeta == null ? null : rowMeta.clone();
+      fieldDatabase = copyOf( modeler.getDatabaseFields() );
+      fieldStream = copyOf( modeler.getStreamFields() );
+    } else {
+      modelerMeta = false;
+      insertRowMeta = null;
+      fieldDatabase = Collections.emptyList();
+      fieldStream = Collections.emptyList();
+    }
+  }
+
+  /**
+   * Takes a snapshot of an output step, resolving its schema and table names with the variables of the step.
+   */
+  public static OutputStepSnapshot of( final StepMetaDataCombi combi ) {
+    return new OutputStepSnapshot( combi );
+  }
+
+  private static List<String> copyOf( final List<String> fields ) {
+    return fields == null
+        ? Collections.<String>emptyList() : Collections.unmodifiableList( new ArrayList<String>( fields ) );
+  }
+
+  public String getStepName() {
+    return stepName;
+  }
+
+  /**
+   * @return whether the step meta provided database connection information
+   */
+  public boolean hasConnectionInformation() {
+    return connectionInformation;
+  }
+
+  /**
+   * @return whether the step meta provided the row layout and field mapping used for modeling
+   */
+  public boolean hasModelerMeta() {
+    return modelerMeta;
+  }
+
+  @Override
+  public DatabaseMeta getDatabaseMeta() {
+    return databaseMeta;
+  }
+
+  @Override
+  public String getSchemaName() {
+    return schemaName;
+  }
+
+  @Override
+  public String getTableName() {
+    return tableName;
+  }
+
+  @Override
+  public String getMissingDatabaseConnectionInformationMessage() {
+    return missingDatabaseConnectionInformationMessage;
+  }
+
+  /**
+   * @return a copy of the row layout written to the table, or null if the step never initialized it
+   */
+  public RowMeta getInsertRowMeta() {
+    return insertRowMeta == null ? null : insertRowMeta.clone();
+  }
+
+  public List<String> getDatabaseFields() {
+    return fieldDatabase;
+  }
+
+  public List<String> getStreamFields() {
+    return fieldStream;
+  }
+}
@@ -0,0 +1,114 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.di.core.refinery;
+
+import org.pentaho.di.core.refinery.profile.BloomFilter;
+import org.pentaho.di.core.refinery.profile.ValueHash;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Filter of the key values of a shared dimension, written by the Shared Dimension step and read by Annotate Stream
+ * to find fact rows that link to a member that doesn't exist. Files are replaced by a rename, so a reader sees
+ * either the previous or the new filter.
+ * <p>
+ * A save merges into the filter already saved rather than replacing it, holding a lock on a file next to it. Step
+ * copies and transformations that load parts of the same dimension then all keep their keys; keys of members that
+ * were removed stay as well, which is the safe way round for a check that must never report a key as missing.
+ * Key values are hashed with {@link ValueHash#hashKey}, so linked fields of another type still match.
+ */
+public class SharedDimensionKeyFilter {
+
+  private SharedDimensionKeyFilter() {
+  }
+
+  public static File fileFor( String dimensionName ) {
+    return new File( MemberHashIndex.directory(),
+        MemberHashIndex.safeName( dimensionName ) + "-" + Long.toHexString( ValueHash.hash( dimensionName ) )
+            + ".keys" );
+  }
+
+  public static void save( String dimensionName, BloomFilter filter ) throws IOException {
+    File file = fileFor( dimensionName );
+    File directory = file.getAbsoluteFile().getParentFile();
+    if ( !directory.isDirectory() && !directory.mkdirs() ) {
+      throw new IOException( "Cannot create " + directory );
+    }
+    // the channel lock keeps other processes out, but throws when another thread of this one holds it
+    synchronized ( SharedDimensionKeyFilter.class ) {
+      try ( RandomAccessFile lockFile = new RandomAccessFile( new File( directory, file.getName() + ".lock" ), "rw" );
+            FileChannel channel = lockFile.getChannel();
+            FileLock lock = channel.lock() ) {
+        replace( file, merged( dimensionName, filter ) );
+      }
+    }
+  }
+
+  private static BloomFilter merged( String dimensionName, BloomFilter filter ) {
+    BloomFilter saved;
+    try {
+      saved = load( dimensionName );
+    } catch ( IOException e ) {
+      // not a filter, replaced by this one
+      return filter;
+    }
+    if ( saved == null ) {
+      return filter;
+    }
+    saved.merge( filter );
+    return saved;
+  }
+
+  private static void replace( File file, BloomFilter filter ) throws IOException {
+    File temp = File.createTempFile( file.getName(), ".tmp", file.getAbsoluteFile().getParentFile() );
+    try {
+      try ( DataOutputStream out = new DataOutputStream( new BufferedOutputStream( new FileOutputStream( temp ) ) ) ) {
+        filter.writeTo( out );
+      }
+      try {
+        Files.move( temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE );
+      } catch ( AtomicMoveNotSupportedException e ) {
+        Files.move( temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING );
+      }
+    } finally {
+      temp.delete();
+    }
+  }
+
+  /**
+   * @return the filter last saved for the dimension, null if there is none
+   */
+  public static BloomFilter load( String dimensionName ) throws IOException {
+    File file = fileFor( dimensionName );
+    if ( !file.isFile() ) {
+      return null;
+    }
+    try ( DataInputStream in = new DataInputStream( new BufferedInputStream( new FileInputStream( file ) ) ) ) {
+      return BloomFilter.readFrom( in );
+    }
+  }
+}
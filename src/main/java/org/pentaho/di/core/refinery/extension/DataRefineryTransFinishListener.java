@@ -13,7 +13,11 @@
 
 package org.pentaho.di.core.refinery.extension;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import org.apache.commons.lang.StringUtils;
 import org.pentaho.di.core.exception.KettleException;
@@ -21,6 +25,9 @@ import org.pentaho.di.core.extension.ExtensionPoint;
 import org.pentaho.di.core.extension.ExtensionPointInterface;
 import org.pentaho.di.core.logging.LogChannelInterface;
 import org.pentaho.di.core.refinery.DataProviderHelper;
+import org.pentaho.di.core.refinery.DataProviderUpdateQueue;
+import org.pentaho.di.core.refinery.MetaStoreBatchWriter;
+import org.pentaho.di.core.refinery.OutputStepSnapshot;
 import org.pentaho.di.i18n.BaseMessages;
 import org.pentaho.di.job.Job;
 import org.pentaho.di.job.entries.build.JobEntryBuildModel;
@@ -41,12 +48,16 @@ public class DataRefineryTransFinishListener implements ExtensionPointInterface
 
   private static final Class<?> PKG = ModelAnnotationMeta.class;
 
+  /* Build Model entries of a job, gathered when the first of its transformations finishes; kept with the job */
+  static final String KEY_BUILD_MODEL_ENTRIES = "DataRefineryTransFinishListener.BuildModelEntries";
+
   @Override
   public void callExtensionPoint( LogChannelInterface log, Object object ) throws KettleException {
     Trans trans = (Trans) object;
+    Map<String, List<StepMetaDataCombi>> steps = indexSteps( trans );
     try {
       if ( trans.getParentJob() != null ) {
-        setBuildModelOutputStep( trans.getParentJob(), trans );
+        setBuildModelOutputStep( trans.getParentJob(), steps );
       }
     } catch ( KettleException e ) {
       log.logError( e.getLocalizedMessage() );
@@ -55,7 +66,7 @@ public class DataRefineryTransFinishListener implements ExtensionPointInterface
     }
     try {
       IMetaStore metaStore = trans.getMetaStore();
-      updateDataProviders( log, trans, metaStore );
+      updateDataProviders( log, trans, steps, metaStore );
     } catch ( KettleException e ) {
       log.logError( e.getLocalizedMessage() );
     } catch ( Exception e ) {
@@ -67,63 +78,127 @@ public class DataRefineryTransFinishListener implements ExtensionPointInterface
    * Sets magic variables required for build model to use output steps
    */
   public void setBuildModelOutputStep( Job job, Trans trans ) throws KettleException {
-    for ( JobEntryCopy jeCopy : job.getJobMeta().getJobCopies() ) {
-      if ( JobEntryBuildModel.PLUGIN_ID.equals( jeCopy.getEntry().getPluginId() ) ) {
-        JobEntryBuildModel jeBuildModel = (JobEntryBuildModel) jeCopy.getEntry();
+    setBuildModelOutputStep( job, indexSteps( trans ) );
+  }
+
+  /**
+   * Looks the output step of each Build Model entry up by name, in the job running the transformation and in the
+   * jobs running that one. Only a snapshot of the step is kept, so that the finished transformation can be
+   * collected while the job goes on.
+   */
+  void setBuildModelOutputStep( Job job, Map<String, List<StepMetaDataCombi>> steps ) throws KettleException {
+    for ( Job scope = job; scope != null; scope = scope.getParentJob() ) {
+      for ( JobEntryBuildModel jeBuildModel : getBuildModelEntries( scope ) ) {
         final String outputStepName =
-            StringUtils.trimToNull( job.environmentSubstitute( jeBuildModel.getOutputStep() ) );
-        if ( outputStepName == null ) {
+            StringUtils.trimToNull( scope.environmentSubstitute( jeBuildModel.getOutputStep() ) );
+        List<StepMetaDataCombi> outputSteps = outputStepName == null ? null : steps.get( outputStepName );
+        if ( outputSteps == null ) {
           continue;
         }
-        for ( StepMetaDataCombi stepMetaData : trans.getSteps() ) {
-          String stepName = StringUtils.trimToNull( stepMetaData.stepname );
-          if ( outputStepName.equals( stepName ) ) {
-            Map<String, Object> map = job.getExtensionDataMap();
-            String key = JobEntryBuildModel.KEY_OUTPUT_STEP_PREFIX + jeBuildModel.getName();
-            if ( map.containsKey( key ) ) {
-              throw new KettleException(
-                  "Unable to auto-model because more than one step with the same name was found: "
-                      + stepMetaData.stepname );
-            }
-            map.put( key, stepMetaData );
+        Map<String, Object> map = scope.getExtensionDataMap();
+        String key = JobEntryBuildModel.KEY_OUTPUT_STEP_PREFIX + jeBuildModel.getName();
+        for ( StepMetaDataCombi stepMetaData : outputSteps ) {
+          if ( map.containsKey( key ) ) {
+            throw new KettleException(
+                "Unable to auto-model because more than one step with the same name was found: "
+                    + stepMetaData.stepname );
           }
+          map.put( key, OutputStepSnapshot.of( stepMetaData ) );
+        }
+      }
+    }
+  }
+
+  @SuppressWarnings( "unchecked" )
+  private List<JobEntryBuildModel> getBuildModelEntries( Job job ) {
+    Map<String, Object> map = job.getExtensionDataMap();
+    synchronized ( map ) {
+      Object entries = map.get( KEY_BUILD_MODEL_ENTRIES );
+      if ( entries instanceof List ) {
+        return (List<JobEntryBuildModel>) entries;
+      }
+      List<JobEntryBuildModel> found = new ArrayList<>();
+      for ( JobEntryCopy jeCopy : job.getJobMeta().getJobCopies() ) {
+        if ( JobEntryBuildModel.PLUGIN_ID.equals( jeCopy.getEntry().getPluginId() ) ) {
+          found.add( (JobEntryBuildModel) jeCopy.getEntry() );
         }
       }
+      map.put( KEY_BUILD_MODEL_ENTRIES, found );
+      return found;
     }
   }
 
+  /**
+   * @return the step copies of the transformation by trimmed step name
+   */
+  static Map<String, List<StepMetaDataCombi>> indexSteps( Trans trans ) {
+    Map<String, List<StepMetaDataCombi>> steps = new HashMap<>();
+    for ( StepMetaDataCombi combi : trans.getSteps() ) {
+      String stepName = StringUtils.trimToNull( combi.stepname );
+      if ( stepName != null ) {
+        steps.computeIfAbsent( stepName, name -> new ArrayList<>( 1 ) ).add( combi );
+      }
+    }
+    return steps;
+  }
+
   /**
    * Updates shared annotation groups with data providers
    */
   public void updateDataProviders( LogChannelInterface log, Trans trans, IMetaStore metaStore )
     throws KettleException, MetaStoreException {
+    updateDataProviders( log, trans, indexSteps( trans ), metaStore );
+  }
+
+  void updateDataProviders( LogChannelInterface log, Trans trans, Map<String, List<StepMetaDataCombi>> steps,
+                            IMetaStore metaStore ) throws KettleException, MetaStoreException {
     log.logDebug( "searching for annotations" );
     boolean hasAnnotations = false;
+    MetaStoreBatchWriter writer = null;
 
-    for ( StepMetaDataCombi combi : trans.getSteps() ) {
-      if ( combi.meta instanceof BaseAnnotationMeta ) {
-        hasAnnotations = true;
-        log.logDebug( "found annotations step '" + combi.stepname + "'" );
-        ModelAnnotationData maData = (ModelAnnotationData) combi.data;
-        if ( maData.annotations != null && maData.annotations.isSharedDimension() ) {
-          if ( metaStore == null ) {
-            log.logError( BaseMessages.getString( PKG, "ModelAnnotation.Runtime.NoMetastore" ) );
-            return;
-          }
-          log.logDebug( "found shared dimension " + maData.annotations.getName() );
-          StepMetaDataCombi outCombi = getOutputStep( combi, trans );
-          // TransformationFinish is called before last step is marked as not running,
-          // so that step will never report STATUS_FINISHED; using status of data instead
-          if ( outCombi.data.getStatus() == StepExecutionStatus.STATUS_DISPOSED ) {
-            DataProviderHelper dataProviderHelper = getDataProviderHelper( metaStore );
-            dataProviderHelper.updateDataProvider( maData.annotations, outCombi );
-          } else {
-            log.logError( BaseMessages.getString( PKG, "ModelAnnotation.Runtime.OutputStepFail",
-                outCombi.stepname,
-                outCombi.data.getStatus() ) );
+    try {
+      for ( StepMetaDataCombi combi : trans.getSteps() ) {
+        if ( combi.meta instanceof BaseAnnotationMeta ) {
+          hasAnnotations = true;
+          log.logDebug( "found annotations step '" + combi.stepname + "'" );
+          ModelAnnotationData maData = (ModelAnnotationData) combi.data;
+          if ( maData.annotations != null && maData.annotations.isSharedDimension() ) {
+            if ( metaStore == null ) {
+              log.logError( BaseMessages.getString( PKG, "ModelAnnotation.Runtime.NoMetastore" ) );
+              return;
+            }
+            log.logDebug( "found shared dimension " + maData.annotations.getName() );
+            StepMetaDataCombi outCombi = getOutputStep( combi, trans, steps );
+            // TransformationFinish is called before last step is marked as not running,
+            // so that step will never report STATUS_FINISHED; using status of data instead
+            if ( outCombi.data.getStatus() == StepExecutionStatus.STATUS_DISPOSED ) {
+              if ( writer == null ) {
+                DataProviderHelper dataProviderHelper = getDataProviderHelper( metaStore );
+                dataProviderHelper.setLog( log );
+                writer = new MetaStoreBatchWriter( dataProviderHelper );
+              }
+              // the change type of an incremental load is not a column of the dimension
+              writer.add( writer.getHelper().prepareUpdate( maData.annotations, outCombi, maData.changeTypeField ) );
+            } else {
+              log.logError( BaseMessages.getString( PKG, "ModelAnnotation.Runtime.OutputStepFail",
+                  outCombi.stepname,
+                  outCombi.data.getStatus() ) );
+            }
           }
         }
       }
+    } finally {
+      // the MetaStore is written in the background; Build Model waits for the writes of its job before modeling
+      if ( writer != null ) {
+        DataProviderUpdateQueue queue = getDataProviderUpdateQueue();
+        List<CompletableFuture<Void>> writes = writer.flush( queue, trans.getParentJob(), log );
+        // no job tracks the writes of a transformation run on its own, and Pan exits as soon as it is done
+        if ( trans.getParentJob() == null
+            && !queue.awaitCompletion( writes, DataProviderUpdateQueue.DEFAULT_WAIT ) ) {
+          log.logError( BaseMessages.getString( PKG, "ModelAnnotation.Runtime.DataProvidersNotSaved",
+              String.valueOf( DataProviderUpdateQueue.DEFAULT_WAIT / 1000 ) ) );
+        }
+      }
     }
     if ( !hasAnnotations ) {
       log.logDebug( "no annotations found" );
@@ -134,13 +209,19 @@ public class DataRefineryTransFinishListener implements ExtensionPointInterface
     return new DataProviderHelper( mstore );
   }
 
-  private StepMetaDataCombi getOutputStep( StepMetaDataCombi annotationCombi, final Trans trans )
+  protected DataProviderUpdateQueue getDataProviderUpdateQueue() {
+    return DataProviderUpdateQueue.getInstance();
+  }
+
+  private StepMetaDataCombi getOutputStep( StepMetaDataCombi annotationCombi, final Trans trans,
+                                           final Map<String, List<StepMetaDataCombi>> steps )
     throws KettleException {
     final String outStepName = getOutputStepName( annotationCombi, trans );
-    for ( StepMetaDataCombi outCombi : annotationCombi.step.getTrans().getSteps() ) {
-      if ( outCombi.stepname.equals( outStepName ) ) {
-        return outCombi;
-      }
+    List<StepMetaDataCombi> outCombis = annotationCombi.step.getTrans() == trans
+        ? steps.get( StringUtils.trim( outStepName ) )
+        : indexSteps( annotationCombi.step.getTrans() ).get( StringUtils.trim( outStepName ) );
+    if ( outCombis != null ) {
+      return outCombis.get( 0 );
     }
     throw new KettleException(
         BaseMessages.getString( JobEntryBuildModel.class, "BuildModelJob.Error.UnableToFindStep", outStepName ) );
@@ -0,0 +1,163 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.di.core.refinery.model;
+
+import org.apache.commons.lang.StringUtils;
+import org.pentaho.agilebi.modeler.models.annotations.CreateAttribute;
+import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotation;
+import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotationGroup;
+import org.pentaho.di.core.refinery.profile.RollupCounters;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Suggests aggregate tables for a flat fact table from the rollup counts Annotate Stream keeps. The candidates are
+ * hierarchy prefixes, top level down, as the attribute annotations define them: each prefix on its own, and each
+ * pair of prefixes from different dimensions.
+ */
+public class AggregateAdvisor {
+
+  static final int MAX_CANDIDATES = 32;
+  static final long MIN_FACT_ROWS = 10000;
+  static final double MIN_REDUCTION = 10;
+  static final int MAX_RECOMMENDATIONS = 3;
+
+  /**
+   * @return field combinations worth counting while the rows stream by
+   */
+  public static List<List<String>> candidates( ModelAnnotationGroup annotations ) {
+    Map<String, CreateAttribute> attributes = new LinkedHashMap<>();
+    for ( ModelAnnotation<?> annotation : annotations ) {
+      if ( annotation.getType() == ModelAnnotation.Type.CREATE_ATTRIBUTE ) {
+        CreateAttribute attribute = (CreateAttribute) annotation.getAnnotation();
+        if ( StringUtils.isNotBlank( attribute.getField() ) && StringUtils.isNotBlank( attribute.getDimension() ) ) {
+          attributes.put( attribute.getDimension() + "\n" + attribute.getName(), attribute );
+        }
+      }
+    }
+    Map<String, List<List<String>>> prefixesByDimension = new LinkedHashMap<>();
+    for ( CreateAttribute attribute : attributes.values() ) {
+      List<String> prefix = prefix( attribute, attributes );
+      if ( prefix == null ) {
+        continue;
+      }
+      List<List<String>> prefixes = prefixesByDimension.get( attribute.getDimension() );
+      if ( prefixes == null ) {
+        prefixes = new ArrayList<>();
+        prefixesByDimension.put( attribute.getDimension(), prefixes );
+      }
+      if ( !prefixes.contains( prefix ) ) {
+        prefixes.add( prefix );
+      }
+    }
+
+    List<List<String>> candidates = new ArrayList<>();
+    List<List<List<String>>> dimensions = new ArrayList<>( prefixesByDimension.values() );
+    for ( List<List<String>> prefixes : dimensions ) {
+      candidates.addAll( prefixes );
+    }
+    for ( int d = 0; d < dimensions.size(); d++ ) {
+      for ( int e = d + 1; e < dimensions.size(); e++ ) {
+        for ( List<String> first : dimensions.get( d ) ) {
+          for ( List<String> second : dimensions.get( e ) ) {
+            List<String> pair = new ArrayList<>( first );
+            pair.addAll( second );
+            candidates.add( pair );
+          }
+        }
+      }
+    }
+    return candidates.size() > MAX_CANDIDATES ? candidates.subList( 0, MAX_CANDIDATES ) : candidates;
+  }
+
+  /**
+   * @return fields of the attribute and its ancestors, top level first; null if the chain is broken or cyclic
+   */
+  private static List<String> prefix( CreateAttribute attribute, Map<String, CreateAttribute> attributes ) {
+    List<String> prefix = new ArrayList<>();
+    Set<String> seen = new HashSet<>();
+    CreateAttribute level = attribute;
+    while ( level != null ) {
+      if ( !seen.add( level.getName() ) ) {
+        return null;
+      }
+      prefix.add( 0, level.getField() );
+      if ( StringUtils.isBlank( level.getParentAttribute() ) ) {
+        return prefix;
+      }
+      level = attributes.get( attribute.getDimension() + "\n" + level.getParentAttribute() );
+    }
+    return null;
+  }
+
+  /**
+   * Combinations that cut the fact rows at least tenfold, widest first so the aggregate answers the most queries.
+   */
+  public List<Recommendation> recommend( RollupCounters counters ) {
+    long factRows = counters.getRowCount();
+    if ( factRows < MIN_FACT_ROWS ) {
+      return Collections.emptyList();
+    }
+    List<Recommendation> recommendations = new ArrayList<>();
+    for ( RollupCounters.Rollup rollup : counters.getRollups() ) {
+      long rows = Math.max( 1, rollup.getDistinctCount() );
+      if ( factRows >= rows * MIN_REDUCTION ) {
+        recommendations.add( new Recommendation( rollup.getFields(), rows, factRows ) );
+      }
+    }
+    recommendations.sort( ( a, b ) -> a.fields.size() != b.fields.size()
+        ? b.fields.size() - a.fields.size() : Long.compare( a.rows, b.rows ) );
+    return recommendations.size() > MAX_RECOMMENDATIONS
+        ? recommendations.subList( 0, MAX_RECOMMENDATIONS ) : recommendations;
+  }
+
+  public static class Recommendation {
+    private final List<String> fields;
+    private final long rows;
+    private final long factRows;
+
+    public Recommendation( List<String> fields, long rows, long factRows ) {
+      this.fields = fields;
+      this.rows = rows;
+      this.factRows = factRows;
+    }
+
+    public List<String> getFields() {
+      return fields;
+    }
+
+    /**
+     * @return estimated rows of the aggregate table
+     */
+    public long getRows() {
+      return rows;
+    }
+
+    public long getFactRows() {
+      return factRows;
+    }
+
+    /**
+     * @return how many times fewer rows the aggregate table holds than the fact table
+     */
+    public double getReduction() {
+      return (double) factRows / rows;
+    }
+  }
+}
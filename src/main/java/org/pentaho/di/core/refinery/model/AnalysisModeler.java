@@ -15,8 +15,11 @@ package org.pentaho.di.core.refinery.model;
 
 import org.pentaho.di.core.ProvidesDatabaseConnectionInformation;
 import org.pentaho.di.core.database.Database;
+import org.pentaho.di.core.database.DatabaseMeta;
 import org.pentaho.di.core.exception.KettleDatabaseException;
 import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.refinery.profile.ColumnProfile;
+import org.pentaho.di.core.refinery.profile.ColumnProfiles;
 import org.pentaho.di.core.row.RowMetaInterface;
 import org.pentaho.di.core.row.ValueMetaInterface;
 import org.pentaho.di.job.entries.build.JobEntryBuildModel;
@@ -40,9 +43,15 @@ import javax.xml.xpath.XPathFactory;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
 
 import static java.util.Arrays.asList;
 import static org.pentaho.di.core.row.ValueMetaInterface.*;
@@ -52,6 +61,13 @@ public class AnalysisModeler {
   private static final Class<?> PKG = JobEntryBuildModel.class;
   private JobEntryBase jobEntry;
   private ProvidesDatabaseConnectionInformation connectionInfo;
+  private ColumnProfiles columnProfiles;
+  private List<AggregateAdvisor.Recommendation> aggregates;
+  private String aggregateDdl;
+  private List<List<String>> hierarchyColumns = new ArrayList<List<String>>();
+
+  private static final String FACT_COUNT_COLUMN = "fact_count";
+  private static final Set<String> ROLLUP_AGGREGATORS = new HashSet<String>( asList( "sum", "count", "min", "max" ) );
 
   private static Map<String, List<Integer>> analysisTypeMapping = new HashMap<String, List<Integer>>();
 
@@ -70,21 +86,63 @@ public class AnalysisModeler {
     this.connectionInfo = connectionInfo;
   }
 
+  /**
+   * Field profiles gathered while loading the table. When set, levels on profiled columns get their
+   * approxRowCount from the profile so Mondrian doesn't have to count distinct members itself.
+   */
+  public void setColumnProfiles( final ColumnProfiles columnProfiles ) {
+    this.columnProfiles = columnProfiles;
+  }
+
+  /**
+   * Aggregate tables to declare in the cube. Each existing one is reloaded and becomes an AggName of the fact table;
+   * the statements creating the missing ones are available from {@link #getAggregateDdl()} afterwards.
+   */
+  public void setAggregates( final List<AggregateAdvisor.Recommendation> aggregates ) {
+    this.aggregates = aggregates;
+  }
+
+  /**
+   * @return statements creating the missing aggregate tables of the last schema, null if none are missing
+   */
+  public String getAggregateDdl() {
+    return aggregateDdl;
+  }
+
+  /**
+   * @return level columns of each hierarchy of the last schema, top down
+   */
+  public List<List<String>> getHierarchyColumns() {
+    return hierarchyColumns;
+  }
+
   public String replaceTableAndSchemaNames( final String schema, final String modelName ) throws KettleException {
     try {
       validateSDRSchema( schema );
-      return transformSchema( schema, modelName, getTablename() );
+      hierarchyColumns = new ArrayList<List<String>>();
+      for ( List<String[]> levels : getHierarchyLevels( schema ) ) {
+        List<String> columns = new ArrayList<String>();
+        for ( String[] level : levels ) {
+          columns.add( level[ 0 ] );
+        }
+        hierarchyColumns.add( columns );
+      }
+      return transformSchema( schema, modelName, getTablename(),
+        constructLevelCardinalityTemplates( schema ) + constructAggregateTemplate( schema, getTablename() ) );
     } catch ( TransformerConfigurationException e ) {
       throw new KettleException( e );
     } catch ( TransformerException e ) {
       throw new KettleException( e );
+    } catch ( XPathException e ) {
+      throw new KettleException( e );
     }
   }
 
-  private String transformSchema( final String schema, final String modelName, final String tableName )
-    throws TransformerException {
+  private String transformSchema( final String schema, final String modelName, final String tableName,
+                                  final String levelTemplates ) throws TransformerException {
     TransformerFactory factory = TransformerFactory.newInstance();
-    Source xslt = new StreamSource( new StringReader( constructXsltForSwap( modelName, tableName ) ) );
+    Source xslt =
+      new StreamSource( new StringReader( constructXsltForSwap( modelName, tableName, levelTemplates ) ) );
     Transformer transformer = factory.newTransformer( xslt );
     Source text = new StreamSource( new StringReader( schema ) );
     StringWriter writer = new StringWriter();
@@ -92,7 +150,7 @@ public class AnalysisModeler {
     return writer.toString();
   }
 
-  private String constructXsltForSwap( final String modelName, final String tableName ) {
+  private String constructXsltForSwap( final String modelName, final String tableName, final String levelTemplates ) {
     return "<xsl:stylesheet version=\"1.0\" xmlns:xsl=\"http://www.w3.org/1999/XSL/Transform\" "
       + "xmlns:fn=\"http://www.w3.org/2005/xpath-functions\">"
       + "<xsl:template match=\"@*|node()\">\n"
@@ -109,9 +167,330 @@ public class AnalysisModeler {
       + "<xsl:template match=\"Cube/@name\">"
       + "    <xsl:attribute name=\"name\">" + modelName + "</xsl:attribute>"
       + "</xsl:template>"
+      + levelTemplates
       + "</xsl:stylesheet>";
   }
 
+  private String constructLevelCardinalityTemplates( final String schema ) throws XPathExpressionException {
+    if ( columnProfiles == null ) {
+      return "";
+    }
+    StringBuilder templates = new StringBuilder();
+    Set<String> seen = new HashSet<String>();
+    NodeList levelColumns = getNodeList( schema, "//Level/@column" );
+    for ( int i = 0; i < levelColumns.getLength(); i++ ) {
+      String column = levelColumns.item( i ).getTextContent();
+      ColumnProfile profile = columnProfiles.get( column );
+      // names that can't be quoted in a match pattern are left for mondrian to count
+      if ( profile == null || profile.getDistinctCount() <= 0 || !seen.add( column )
+          || column.contains( "'" ) || column.contains( "\"" ) || column.contains( "<" ) || column.contains( "&" ) ) {
+        continue;
+      }
+      templates.append( "<xsl:template match=\"Level[@column='" ).append( column ).append( "']\">" )
+        .append( "<xsl:copy>" )
+        .append( "<xsl:apply-templates select=\"@*\"/>" )
+        .append( "<xsl:attribute name=\"approxRowCount\">" ).append( profile.getDistinctCount() )
+        .append( "</xsl:attribute>" )
+        .append( "<xsl:apply-templates select=\"node()\"/>" )
+        .append( "</xsl:copy>" )
+        .append( "</xsl:template>" );
+    }
+    return templates.toString();
+  }
+
+  /**
+   * An aggregate keeps every level of a hierarchy down to the deepest one it groups by, since the levels of SDR
+   * schemas are not unique. Recommendations whose fields don't make such prefixes in this schema are left out.
+   * Aggregate tables that exist are reloaded from the fact table first, so they never serve the totals of an earlier
+   * load; only those reloaded are declared.
+   */
+  private String constructAggregateTemplate( final String schema, final String tableName )
+    throws XPathExpressionException {
+    aggregateDdl = null;
+    DatabaseMeta databaseMeta = connectionInfo.getDatabaseMeta();
+    if ( aggregates == null || aggregates.isEmpty() || databaseMeta == null ) {
+      return "";
+    }
+    List<List<String[]>> hierarchies = getHierarchyLevels( schema );
+    List<String[]> measures = new ArrayList<String[]>();
+    Set<String> measureColumns = new HashSet<String>();
+    NodeList measureNodes = getNodeList( schema, "//Cube/Measure" );
+    for ( int i = 0; i < measureNodes.getLength(); i++ ) {
+      String name = attribute( measureNodes.item( i ), "name" );
+      String column = attribute( measureNodes.item( i ), "column" );
+      String aggregator = attribute( measureNodes.item( i ), "aggregator" );
+      // averages and distinct counts can't be rolled up from an aggregate
+      if ( column != null && aggregator != null && ROLLUP_AGGREGATORS.contains( aggregator )
+          && measureColumns.add( column + "_" + aggregator ) ) {
+        measures.add( new String[] { "[Measures].[" + escapeName( name ) + "]", column, aggregator } );
+      }
+    }
+
+    Map<String, String> aggNamesByTable = new LinkedHashMap<String, String>();
+    Map<String, String[]> statementsByTable = new LinkedHashMap<String, String[]>();
+    for ( AggregateAdvisor.Recommendation aggregate : aggregates ) {
+      List<String[]> levels = aggregateLevels( hierarchies, aggregate.getFields() );
+      if ( levels == null ) {
+        jobEntry.logDetailed(
+          getString( PKG, "AnalysisModeler.AggregateNotInSchema", aggregate.getFields().toString() ) );
+        continue;
+      }
+      List<String> columns = new ArrayList<String>();
+      for ( String[] level : levels ) {
+        columns.add( level[ 0 ] );
+      }
+      for ( String[] measure : measures ) {
+        columns.add( measure[ 1 ] + "_" + measure[ 2 ] );
+      }
+      String aggregateTable = aggregateTableName( tableName, columns );
+      if ( aggNamesByTable.containsKey( aggregateTable ) ) {
+        continue;
+      }
+      StringBuilder aggNames = new StringBuilder();
+      aggNames.append( "<AggName name=\"" ).append( escapeTemplateValue( aggregateTable ) ).append( "\">" )
+        .append( "<AggFactCount column=\"" ).append( FACT_COUNT_COLUMN ).append( "\"/>" );
+      for ( String[] measure : measures ) {
+        aggNames.append( "<AggMeasure name=\"" ).append( escapeTemplateValue( measure[ 0 ] ) )
+          .append( "\" column=\"" ).append( escapeTemplateValue( measure[ 1 ] + "_" + measure[ 2 ] ) ).append( "\"/>" );
+      }
+      for ( String[] level : levels ) {
+        aggNames.append( "<AggLevel name=\"" ).append( escapeTemplateValue( level[ 1 ] ) )
+          .append( "\" column=\"" ).append( escapeTemplateValue( level[ 0 ] ) ).append( "\"/>" );
+      }
+      aggNames.append( "</AggName>" );
+      aggNamesByTable.put( aggregateTable, aggNames.toString() );
+      statementsByTable.put( aggregateTable, aggregateStatements( tableName, aggregateTable, levels, measures ) );
+    }
+    if ( aggNamesByTable.isEmpty() ) {
+      return "";
+    }
+    // Mondrian fails on an AggName whose table is missing; the DDL creates them for the next build
+    Set<String> existing = new HashSet<String>();
+    Set<String> refreshed = new HashSet<String>();
+    try {
+      existing = existingTables( aggNamesByTable.keySet() );
+      Map<String, String> inserts = new LinkedHashMap<String, String>();
+      for ( String aggregateTable : existing ) {
+        inserts.put( aggregateTable, statementsByTable.get( aggregateTable )[ 1 ] );
+      }
+      refreshed = refreshTables( inserts );
+    } catch ( KettleDatabaseException e ) {
+      jobEntry.logError( getString( PKG, "AnalysisModeler.AggregateTablesNotChecked", e.getMessage() ), e );
+    }
+    List<String> statements = new ArrayList<String>();
+    StringBuilder aggNames = new StringBuilder();
+    for ( Map.Entry<String, String> aggName : aggNamesByTable.entrySet() ) {
+      if ( refreshed.contains( aggName.getKey() ) ) {
+        aggNames.append( aggName.getValue() );
+      } else if ( !existing.contains( aggName.getKey() ) ) {
+        statements.add( statementsByTable.get( aggName.getKey() )[ 0 ] );
+        jobEntry.logBasic( getString( PKG, "AnalysisModeler.AggregateTableMissing", aggName.getKey() ) );
+      }
+    }
+    if ( !statements.isEmpty() ) {
+      aggregateDdl = String.join( ";\n", statements ) + ";";
+    }
+    if ( aggNames.length() == 0 ) {
+      return "";
+    }
+    return "<xsl:template match=\"Cube/Table\">"
+      + "<xsl:copy>"
+      + "<xsl:apply-templates select=\"@*|node()\"/>"
+      + aggNames
+      + "</xsl:copy>"
+      + "</xsl:template>";
+  }
+
+  /**
+   * @return per hierarchy of the cube, its levels top down as { column, unique name }
+   */
+  private List<List<String[]>> getHierarchyLevels( final String schema ) throws XPathExpressionException {
+    Map<String, List<String>> usages = new HashMap<String, List<String>>();
+    NodeList usageNodes = getNodeList( schema, "//Cube/DimensionUsage" );
+    for ( int i = 0; i < usageNodes.getLength(); i++ ) {
+      String source = attribute( usageNodes.item( i ), "source" );
+      if ( !usages.containsKey( source ) ) {
+        usages.put( source, new ArrayList<String>() );
+      }
+      usages.get( source ).add( attribute( usageNodes.item( i ), "name" ) );
+    }
+    List<List<String[]>> hierarchies = new ArrayList<List<String[]>>();
+    NodeList hierarchyNodes = getNodeList( schema, "//Dimension/Hierarchy" );
+    for ( int i = 0; i < hierarchyNodes.getLength(); i++ ) {
+      Node hierarchy = hierarchyNodes.item( i );
+      Node dimension = hierarchy.getParentNode();
+      String dimensionName = attribute( dimension, "name" );
+      List<String> cubeNames = "Cube".equals( dimension.getParentNode().getNodeName() )
+        ? asList( dimensionName ) : usages.get( dimensionName );
+      if ( cubeNames == null ) {
+        continue;
+      }
+      String hierarchyName = attribute( hierarchy, "name" );
+      for ( String cubeName : cubeNames ) {
+        String hierarchyUniqueName = hierarchyName == null || hierarchyName.equals( dimensionName )
+          ? "[" + escapeName( cubeName ) + "]" : "[" + escapeName( cubeName + "." + hierarchyName ) + "]";
+        List<String[]> levels = new ArrayList<String[]>();
+        NodeList children = hierarchy.getChildNodes();
+        for ( int c = 0; c < children.getLength(); c++ ) {
+          Node level = children.item( c );
+          if ( "Level".equals( level.getNodeName() ) && attribute( level, "column" ) != null ) {
+            String levelUniqueName = hierarchyUniqueName + ".[" + escapeName( attribute( level, "name" ) ) + "]";
+            levels.add( new String[] { attribute( level, "column" ), levelUniqueName } );
+          }
+        }
+        hierarchies.add( levels );
+      }
+    }
+    return hierarchies;
+  }
+
+  /**
+   * @return the levels the fields stand for, or null unless they make full hierarchy prefixes
+   */
+  private List<String[]> aggregateLevels( final List<List<String[]>> hierarchies, final List<String> fields ) {
+    Set<String> wanted = new TreeSet<String>( String.CASE_INSENSITIVE_ORDER );
+    wanted.addAll( fields );
+    Set<String> covered = new TreeSet<String>( String.CASE_INSENSITIVE_ORDER );
+    List<String[]> levels = new ArrayList<String[]>();
+    for ( List<String[]> hierarchy : hierarchies ) {
+      int deepest = -1;
+      for ( int i = 0; i < hierarchy.size(); i++ ) {
+        if ( wanted.contains( hierarchy.get( i )[ 0 ] ) ) {
+          deepest = i;
+        }
+      }
+      for ( int i = 0; i <= deepest; i++ ) {
+        if ( !wanted.contains( hierarchy.get( i )[ 0 ] ) ) {
+          return null;
+        }
+        levels.add( hierarchy.get( i ) );
+        covered.add( hierarchy.get( i )[ 0 ] );
+      }
+    }
+    return levels.isEmpty() || !covered.containsAll( wanted ) ? null : levels;
+  }
+
+  /**
+   * @return the statement creating the aggregate table and the one filling it again
+   */
+  private String[] aggregateStatements( final String tableName, final String aggregateTable,
+                                        final List<String[]> levels, final List<String[]> measures ) {
+    DatabaseMeta databaseMeta = connectionInfo.getDatabaseMeta();
+    String schemaName = jobEntry.environmentSubstitute( connectionInfo.getSchemaName() );
+    String target = databaseMeta.getQuotedSchemaTableCombination( schemaName, aggregateTable );
+    Set<String> columns = new LinkedHashSet<String>();
+    for ( String[] level : levels ) {
+      columns.add( databaseMeta.quoteField( level[ 0 ] ) );
+    }
+    String groupBy = String.join( ", ", columns );
+    StringBuilder select = new StringBuilder( "SELECT " ).append( groupBy );
+    for ( String[] measure : measures ) {
+      select.append( ", " ).append( measure[ 2 ].toUpperCase() ).append( "(" )
+        .append( databaseMeta.quoteField( measure[ 1 ] ) ).append( ") AS " )
+        .append( databaseMeta.quoteField( measure[ 1 ] + "_" + measure[ 2 ] ) );
+    }
+    select.append( ", COUNT(*) AS " ).append( databaseMeta.quoteField( FACT_COUNT_COLUMN ) );
+    String from = " FROM " + databaseMeta.getQuotedSchemaTableCombination( schemaName, tableName )
+      + " GROUP BY " + groupBy;
+    // SQL Server has no CREATE TABLE ... AS SELECT
+    String create = isSqlServer( databaseMeta )
+      ? select + " INTO " + target + from
+      : "CREATE TABLE " + target + " AS " + select + from;
+    return new String[] { create, "INSERT INTO " + target + " " + select + from };
+  }
+
+  private static boolean isSqlServer( final DatabaseMeta databaseMeta ) {
+    if ( databaseMeta.getDatabaseInterface() == null ) {
+      return false;
+    }
+    String pluginId = databaseMeta.getDatabaseInterface().getPluginId();
+    return "MSSQL".equals( pluginId ) || "MSSQLNATIVE".equals( pluginId );
+  }
+
+  /**
+   * @return those of <code>tableNames</code> that exist in the schema of the output table
+   */
+  Set<String> existingTables( final Collection<String> tableNames ) throws KettleDatabaseException {
+    Set<String> existing = new HashSet<String>();
+    DatabaseMeta databaseMeta = connectionInfo.getDatabaseMeta();
+    if ( databaseMeta == null ) {
+      return existing;
+    }
+    String schemaName = jobEntry.environmentSubstitute( connectionInfo.getSchemaName() );
+    Database database = new Database( jobEntry, databaseMeta );
+    try {
+      database.connect();
+      for ( String tableName : tableNames ) {
+        if ( database.checkTableExists( schemaName, tableName ) ) {
+          existing.add( tableName );
+        }
+      }
+    } finally {
+      database.disconnect();
+    }
+    return existing;
+  }
+
+  /**
+   * Reloads aggregate tables from the fact table. A table that fails to reload is logged and left out.
+   *
+   * @param insertsByTable the statement filling each of the tables
+   * @return the tables reloaded
+   */
+  Set<String> refreshTables( final Map<String, String> insertsByTable ) throws KettleDatabaseException {
+    Set<String> refreshed = new HashSet<String>();
+    if ( insertsByTable.isEmpty() ) {
+      return refreshed;
+    }
+    String schemaName = jobEntry.environmentSubstitute( connectionInfo.getSchemaName() );
+    Database database = new Database( jobEntry, connectionInfo.getDatabaseMeta() );
+    try {
+      database.connect();
+      for ( Map.Entry<String, String> insert : insertsByTable.entrySet() ) {
+        try {
+          database.truncateTable( schemaName, insert.getKey() );
+          database.execStatement( insert.getValue() );
+          database.commit();
+          refreshed.add( insert.getKey() );
+        } catch ( KettleDatabaseException e ) {
+          jobEntry.logError(
+            getString( PKG, "AnalysisModeler.AggregateTableNotRefreshed", insert.getKey(), e.getMessage() ), e );
+          database.rollback();
+        }
+      }
+    } finally {
+      database.disconnect();
+    }
+    return refreshed;
+  }
+
+  /**
+   * The name carries a hash of the fact table and the columns, so an existing table of that name was built from the
+   * same table the same way even when names are cut to fit the database.
+   */
+  static String aggregateTableName( final String tableName, final List<String> columns ) {
+    String prefix = "agg_" + tableName.replaceAll( "[^A-Za-z0-9_]", "_" );
+    String hash = String.format( "%08x", ( tableName + "|" + String.join( "|", columns ) ).hashCode() );
+    return ( prefix.length() > 21 ? prefix.substring( 0, 21 ) : prefix ) + "_" + hash;
+  }
+
+  private static String attribute( final Node node, final String name ) {
+    Node attribute = node.getAttributes() == null ? null : node.getAttributes().getNamedItem( name );
+    return attribute == null ? null : attribute.getTextContent();
+  }
+
+  private static String escapeName( final String name ) {
+    return name.replace( "]", "]]" );
+  }
+
+  /**
+   * Escapes an attribute value of a literal result element; braces would otherwise start an XSLT expression.
+   */
+  private static String escapeTemplateValue( final String value ) {
+    return value.replace( "&", "&amp;" ).replace( "<", "&lt;" ).replace( "\"", "&quot;" )
+      .replace( "{", "{{" ).replace( "}", "}}" );
+  }
+
   private void validateSDRSchema( final String schema ) throws KettleException {
     try {
       validateSingleTable( schema );
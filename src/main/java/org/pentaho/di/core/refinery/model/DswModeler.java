@@ -98,6 +98,10 @@ public class DswModeler {
     this.useJndi = useJndi;
   }
 
+  public boolean isUseJndi() {
+    return useJndi;
+  }
+
   /**
    * Creates a new DSW-enabled XMI model
    * @param modelName
@@ -0,0 +1,280 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.di.core.refinery.model;
+
+import org.pentaho.agilebi.modeler.models.annotations.LinkDimension;
+import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotation;
+import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotationGroup;
+import org.pentaho.di.core.database.Database;
+import org.pentaho.di.core.database.DatabaseMeta;
+import org.pentaho.di.core.exception.KettleDatabaseException;
+import org.pentaho.di.core.logging.LogChannelInterface;
+import org.pentaho.di.core.logging.LoggingObjectInterface;
+import org.pentaho.di.core.refinery.profile.ColumnProfile;
+import org.pentaho.di.core.refinery.profile.ColumnProfiles;
+import org.pentaho.di.i18n.BaseMessages;
+import org.pentaho.di.job.entries.build.JobEntryBuildModel;
+import org.pentaho.metadata.model.Domain;
+import org.pentaho.metadata.model.IPhysicalColumn;
+import org.pentaho.metadata.model.LogicalModel;
+import org.pentaho.metadata.model.SqlPhysicalColumn;
+import org.pentaho.metadata.model.olap.OlapDimension;
+import org.pentaho.metadata.model.olap.OlapHierarchy;
+import org.pentaho.metadata.model.olap.OlapHierarchyLevel;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Suggests indexes for the table a model was built on: one per hierarchy over its level columns top down, one per
+ * field linking to a shared dimension, and one per lower level whose values were profiled as high cardinality.
+ * The statements creating them are written by Kettle for the output connection, followed by the statement
+ * refreshing the table statistics where the database has one.
+ */
+public class IndexAdvisor {
+  private static final Class<?> PKG = JobEntryBuildModel.class;
+  static final int MAX_INDEX_COLUMNS = 5;
+  static final long HIGH_CARDINALITY = 1000;
+  private static final int MAX_NAME_LENGTH = 30;
+
+  private final DatabaseMeta databaseMeta;
+  private final String schemaName;
+  private final String tableName;
+
+  public IndexAdvisor( final DatabaseMeta databaseMeta, final String schemaName, final String tableName ) {
+    this.databaseMeta = databaseMeta;
+    this.schemaName = schemaName;
+    this.tableName = tableName;
+  }
+
+  /**
+   * @param hierarchies level columns of each hierarchy, top down
+   * @param foreignKeys fields linked to shared dimensions
+   * @param profiles    profiles of the load, may be null
+   * @return the columns of each index, widest first; none repeats the leading columns of another
+   */
+  public List<String[]> recommend( final List<List<String>> hierarchies, final Collection<String> foreignKeys,
+                                   final ColumnProfiles profiles ) {
+    List<String[]> indexes = new ArrayList<String[]>();
+    for ( List<String> hierarchy : hierarchies ) {
+      List<String> columns = new ArrayList<String>();
+      Set<String> seen = new TreeSet<String>( String.CASE_INSENSITIVE_ORDER );
+      for ( String column : hierarchy ) {
+        if ( column != null && seen.add( column ) && columns.size() < MAX_INDEX_COLUMNS ) {
+          columns.add( column );
+        }
+      }
+      addIndex( indexes, columns.toArray( new String[ columns.size() ] ) );
+    }
+    for ( String foreignKey : foreignKeys ) {
+      addIndex( indexes, new String[] { foreignKey } );
+    }
+    if ( profiles != null ) {
+      for ( List<String> hierarchy : hierarchies ) {
+        for ( int i = 1; i < hierarchy.size(); i++ ) {
+          ColumnProfile profile = profiles.get( hierarchy.get( i ) );
+          if ( profile != null && profile.getDistinctCount() >= HIGH_CARDINALITY ) {
+            addIndex( indexes, new String[] { hierarchy.get( i ) } );
+          }
+        }
+      }
+    }
+    return indexes;
+  }
+
+  /**
+   * Leaves out indexes whose columns lead one already chosen, and drops the chosen ones that lead the new index.
+   */
+  private static void addIndex( final List<String[]> indexes, final String[] columns ) {
+    if ( columns.length == 0 || columns[ 0 ] == null ) {
+      return;
+    }
+    for ( Iterator<String[]> chosen = indexes.iterator(); chosen.hasNext(); ) {
+      String[] index = chosen.next();
+      if ( leads( columns, index ) ) {
+        return;
+      }
+      if ( leads( index, columns ) ) {
+        chosen.remove();
+      }
+    }
+    indexes.add( columns );
+  }
+
+  private static boolean leads( final String[] columns, final String[] index ) {
+    if ( columns.length > index.length ) {
+      return false;
+    }
+    for ( int i = 0; i < columns.length; i++ ) {
+      if ( !columns[ i ].equalsIgnoreCase( index[ i ] ) ) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return the statements creating the indexes and refreshing the statistics, null if there are no indexes
+   */
+  public String getDdl( final List<String[]> indexes ) {
+    if ( indexes.isEmpty() ) {
+      return null;
+    }
+    Database database = new Database( null, databaseMeta );
+    List<String> statements = new ArrayList<String>();
+    for ( String[] index : indexes ) {
+      statements.add( createIndexStatement( database, index ) );
+    }
+    String statistics = statisticsStatement();
+    if ( statistics != null ) {
+      statements.add( statistics );
+    }
+    return String.join( ";\n", statements ) + ";";
+  }
+
+  /**
+   * Creates the indexes the table doesn't have yet over the output connection, then refreshes its statistics. An
+   * index that can't be created is logged and the others are still created.
+   *
+   * @return the number of indexes created
+   */
+  public int apply( final LoggingObjectInterface parent, final LogChannelInterface log, final List<String[]> indexes )
+    throws KettleDatabaseException {
+    if ( indexes.isEmpty() ) {
+      return 0;
+    }
+    int created = 0;
+    Database database = new Database( parent, databaseMeta );
+    try {
+      database.connect();
+      for ( String[] index : indexes ) {
+        if ( database.checkIndexExists( schemaName, tableName, index ) ) {
+          continue;
+        }
+        try {
+          database.execStatement( createIndexStatement( database, index ) );
+          database.commit();
+          created++;
+        } catch ( KettleDatabaseException e ) {
+          log.logError( BaseMessages.getString( PKG, "IndexAdvisor.IndexNotCreated", indexName( index ),
+            Arrays.toString( index ), e.getMessage() ), e );
+          database.rollback();
+        }
+      }
+      String statistics = statisticsStatement();
+      if ( statistics != null ) {
+        database.execStatement( statistics );
+      }
+    } finally {
+      database.disconnect();
+    }
+    return created;
+  }
+
+  /**
+   * Leaves the dialect to Kettle.
+   */
+  String createIndexStatement( final Database database, final String[] columns ) {
+    return database.getCreateIndexStatement( schemaName, getQuotedTable(), indexName( columns ), columns,
+      false, false, false, false ).trim();
+  }
+
+  /**
+   * @return the statement updating the optimizer statistics of the table, null if the dialect has none we know of
+   */
+  String statisticsStatement() {
+    String pluginId = databaseMeta.getPluginId();
+    if ( pluginId == null ) {
+      return null;
+    }
+    switch ( pluginId ) {
+      case "POSTGRESQL":
+      case "GREENPLUM":
+      case "REDSHIFT":
+        return "ANALYZE " + getQuotedTable();
+      case "H2":
+        return "ANALYZE";
+      case "MYSQL":
+      case "MARIADB":
+        return "ANALYZE TABLE " + getQuotedTable();
+      case "MSSQL":
+      case "MSSQLNATIVE":
+        return "UPDATE STATISTICS " + getQuotedTable();
+      case "ORACLE":
+        return "ANALYZE TABLE " + getQuotedTable() + " COMPUTE STATISTICS";
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * The name carries a hash of the table and the columns: tables sharing a long prefix don't collide, and an index of
+   * that name already there covers the same columns.
+   */
+  String indexName( final String[] columns ) {
+    String hash = String.format( "%08x", ( tableName + "|" + String.join( "|", columns ) ).hashCode() );
+    String name = "idx_" + tableName.replaceAll( "[^A-Za-z0-9_]", "_" );
+    return ( name.length() + hash.length() + 1 > MAX_NAME_LENGTH
+      ? name.substring( 0, MAX_NAME_LENGTH - hash.length() - 1 ) : name ) + "_" + hash;
+  }
+
+  private String getQuotedTable() {
+    return databaseMeta.getQuotedSchemaTableCombination( schemaName, tableName );
+  }
+
+  /**
+   * @return level columns of each hierarchy of the analysis models in the domain, top down
+   */
+  @SuppressWarnings( "unchecked" )
+  public static List<List<String>> hierarchies( final Domain domain ) {
+    List<List<String>> hierarchies = new ArrayList<List<String>>();
+    for ( LogicalModel model : domain.getLogicalModels() ) {
+      List<OlapDimension> dimensions = (List<OlapDimension>) model.getProperty( LogicalModel.PROPERTY_OLAP_DIMS );
+      if ( dimensions == null ) {
+        continue;
+      }
+      for ( OlapDimension dimension : dimensions ) {
+        for ( OlapHierarchy hierarchy : dimension.getHierarchies() ) {
+          List<String> columns = new ArrayList<String>();
+          for ( OlapHierarchyLevel level : hierarchy.getHierarchyLevels() ) {
+            IPhysicalColumn column =
+              level.getReferenceColumn() == null ? null : level.getReferenceColumn().getPhysicalColumn();
+            if ( column instanceof SqlPhysicalColumn ) {
+              columns.add( ( (SqlPhysicalColumn) column ).getTargetColumn() );
+            }
+          }
+          hierarchies.add( columns );
+        }
+      }
+    }
+    return hierarchies;
+  }
+
+  /**
+   * @return fields of the group that link to a shared dimension
+   */
+  public static List<String> foreignKeys( final ModelAnnotationGroup modelAnnotations ) {
+    List<String> foreignKeys = new ArrayList<String>();
+    for ( ModelAnnotation<?> annotation : modelAnnotations ) {
+      if ( annotation.getType() == ModelAnnotation.Type.LINK_DIMENSION ) {
+        foreignKeys.add( ( (LinkDimension) annotation.getAnnotation() ).getField() );
+      }
+    }
+    return foreignKeys;
+  }
+}
@@ -0,0 +1,332 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.di.core.refinery.model;
+
+import org.apache.commons.io.IOUtils;
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.util.EnvUtil;
+import org.pentaho.di.job.Job;
+import org.pentaho.di.job.JobAdapter;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Keeps the models Build Model generates (XMI, Mondrian schemas) in compressed temp files, so that the job
+ * variables publishing reads them from only carry a handle to them, with the digest of the content:
+ * <code>pdr-artifact:&lt;id&gt;;sha256:&lt;hex&gt;</code>. Handles are opt-in: only the temp files of this JVM back
+ * them, so transformations, scripts and remote sub-jobs reading the variables need the model itself. Unless
+ * {@link #KETTLE_DATA_REFINERY_ARTIFACT_INLINE_LIMIT} is set to a positive number of characters, and for payloads
+ * shorter than that, the model stays in the variable, as do values set by other job entries; readers go through
+ * {@link #open(String)}, which handles both.
+ * <p>
+ * Artifacts are reference counted. The outermost job running the one that stores an artifact holds a reference
+ * until it finishes or a newer version is stored under the same variable, so Publish Model can read it anywhere in
+ * the job tree, e.g. in a parent job the variable was passed up to. Every stream opened on an artifact holds a
+ * reference until it is closed; the file is deleted when the last reference goes.
+ */
+public class ModelArtifactStore {
+
+  public static final String KETTLE_DATA_REFINERY_ARTIFACT_INLINE_LIMIT =
+      "KETTLE_DATA_REFINERY_ARTIFACT_INLINE_LIMIT";
+  // off: models stay in their variables
+  private static final int DEFAULT_INLINE_LIMIT = 0;
+  private static final String HANDLE_PREFIX = "pdr-artifact:";
+  private static final String DIGEST_SEPARATOR = ";sha256:";
+  private static final String KEY_OWNED = "ModelArtifactStore.Owned";
+  private static final int DESCRIBE_LENGTH = 100;
+
+  private static final ModelArtifactStore INSTANCE = new ModelArtifactStore( null,
+      Const.toInt( EnvUtil.getSystemProperty( KETTLE_DATA_REFINERY_ARTIFACT_INLINE_LIMIT ), DEFAULT_INLINE_LIMIT ) );
+
+  private final ConcurrentMap<String, Artifact> artifacts = new ConcurrentHashMap<>();
+  private final int inlineLimit;
+  private File directory;
+
+  ModelArtifactStore( File directory, int inlineLimit ) {
+    this.directory = directory;
+    this.inlineLimit = inlineLimit;
+  }
+
+  public static ModelArtifactStore getInstance() {
+    return INSTANCE;
+  }
+
+  public static boolean isHandle( String value ) {
+    return value != null && value.startsWith( HANDLE_PREFIX ) && value.contains( DIGEST_SEPARATOR );
+  }
+
+  /**
+   * @return what to log for a variable value: handles and short values as they are, the start and length of
+   * anything else
+   */
+  public static String describe( String value ) {
+    if ( value == null || isHandle( value ) || value.length() <= DESCRIBE_LENGTH ) {
+      return value;
+    }
+    return value.substring( 0, DESCRIBE_LENGTH ) + "... (" + value.length() + " characters)";
+  }
+
+  /**
+   * Stores a payload on behalf of a job, replacing what the job stored under the same variable before. The artifact
+   * is kept until the outermost job finishes.
+   *
+   * @return the value to set the variable to: a handle, or the payload itself when it is short or handles are off
+   */
+  public String put( Job job, String varName, String payload ) throws KettleException {
+    Set<String> owned = getOwned( rootOf( job ) );
+    String previous = job.getVariable( varName );
+    if ( isHandle( previous ) && owned.remove( previous ) ) {
+      release( previous );
+    }
+    if ( payload == null || inlineLimit <= 0 || payload.length() < inlineLimit ) {
+      return payload;
+    }
+    String handle = put( payload );
+    owned.add( handle );
+    return handle;
+  }
+
+  /**
+   * Stores a payload. The caller holds the only reference to it.
+   */
+  public String put( String payload ) throws KettleException {
+    String id = UUID.randomUUID().toString();
+    File file = new File( getDirectory(), id + ".gz" );
+    MessageDigest digest = newDigest();
+    try ( OutputStream out = new DigestOutputStream( new GZIPOutputStream( new FileOutputStream( file ) ), digest ) ) {
+      out.write( payload.getBytes( StandardCharsets.UTF_8 ) );
+    } catch ( IOException e ) {
+      file.delete();
+      throw new KettleException( e );
+    }
+    String handle = HANDLE_PREFIX + id + DIGEST_SEPARATOR + toHex( digest.digest() );
+    artifacts.put( handle, new Artifact( file ) );
+    return handle;
+  }
+
+  /**
+   * Opens a variable value for reading. A handle is streamed from its file, holding a reference until the stream
+   * is closed, and the content is checked against the digest of the handle when the end is reached. Anything else
+   * is the content itself.
+   */
+  public InputStream open( String value ) throws KettleException {
+    if ( !isHandle( value ) ) {
+      return new ByteArrayInputStream( value.getBytes( StandardCharsets.UTF_8 ) );
+    }
+    Artifact artifact = retain( value );
+    try {
+      String expected = value.substring( value.indexOf( DIGEST_SEPARATOR ) + DIGEST_SEPARATOR.length() );
+      return new VerifyingInputStream( value, expected,
+          new DigestInputStream( new GZIPInputStream( new FileInputStream( artifact.file ) ), newDigest() ) );
+    } catch ( IOException e ) {
+      release( value );
+      throw new KettleException( e );
+    }
+  }
+
+  /**
+   * @return the content of a variable value, read from the store if it is a handle
+   */
+  public String read( String value ) throws KettleException {
+    if ( !isHandle( value ) ) {
+      return value;
+    }
+    try ( InputStream in = open( value ) ) {
+      return new String( IOUtils.toByteArray( in ), StandardCharsets.UTF_8 );
+    } catch ( IOException e ) {
+      throw new KettleException( e );
+    }
+  }
+
+  public boolean contains( String handle ) {
+    return artifacts.containsKey( handle );
+  }
+
+  /**
+   * Drops a reference to an artifact, deleting it with the last one.
+   */
+  public void release( String handle ) {
+    Artifact artifact = artifacts.get( handle );
+    if ( artifact == null ) {
+      return;
+    }
+    synchronized ( artifact ) {
+      if ( --artifact.references == 0 ) {
+        artifacts.remove( handle );
+        artifact.file.delete();
+      }
+    }
+  }
+
+  private Artifact retain( String handle ) throws KettleException {
+    Artifact artifact = artifacts.get( handle );
+    if ( artifact != null ) {
+      synchronized ( artifact ) {
+        if ( artifact.references > 0 ) {
+          artifact.references++;
+          return artifact;
+        }
+      }
+    }
+    throw new KettleException( "Model artifact is no longer available: " + handle );
+  }
+
+  /**
+   * @return the job at the top of the job tree, following sub-jobs run by a transformation too
+   */
+  static Job rootOf( Job job ) {
+    Job root = job;
+    while ( true ) {
+      if ( root.getParentJob() != null ) {
+        root = root.getParentJob();
+      } else if ( root.getParentTrans() != null && root.getParentTrans().getParentJob() != null ) {
+        root = root.getParentTrans().getParentJob();
+      } else {
+        return root;
+      }
+    }
+  }
+
+  private Set<String> getOwned( final Job owner ) {
+    Map<String, Object> extensionMap = owner.getExtensionDataMap();
+    synchronized ( extensionMap ) {
+      @SuppressWarnings( "unchecked" )
+      Set<String> owned = (Set<String>) extensionMap.get( KEY_OWNED );
+      if ( owned == null ) {
+        final Set<String> created = ConcurrentHashMap.newKeySet();
+        owner.addJobListener( new JobAdapter() {
+          @Override public void jobFinished( Job job ) {
+            for ( String handle : new HashSet<>( created ) ) {
+              if ( created.remove( handle ) ) {
+                release( handle );
+              }
+            }
+          }
+        } );
+        extensionMap.put( KEY_OWNED, created );
+        owned = created;
+      }
+      return owned;
+    }
+  }
+
+  private synchronized File getDirectory() throws KettleException {
+    if ( directory == null || !directory.isDirectory() ) {
+      try {
+        directory = Files.createTempDirectory( "pdr-model-artifacts" ).toFile();
+        directory.deleteOnExit();
+      } catch ( IOException e ) {
+        throw new KettleException( e );
+      }
+    }
+    return directory;
+  }
+
+  private static MessageDigest newDigest() throws KettleException {
+    try {
+      return MessageDigest.getInstance( "SHA-256" );
+    } catch ( NoSuchAlgorithmException e ) {
+      throw new KettleException( e );
+    }
+  }
+
+  private static String toHex( byte[] bytes ) {
+    StringBuilder hex = new StringBuilder( bytes.length * 2 );
+    for ( byte b : bytes ) {
+      hex.append( Character.forDigit( ( b >> 4 ) & 0xF, 16 ) ).append( Character.forDigit( b & 0xF, 16 ) );
+    }
+    return hex.toString();
+  }
+
+  private static final class Artifact {
+    private final File file;
+    private int references = 1;
+
+    private Artifact( File file ) {
+      this.file = file;
+    }
+  }
+
+  /**
+   * Fails the read that reaches the end of a payload whose digest doesn't match its handle, and gives the
+   * reference back on close.
+   */
+  private final class VerifyingInputStream extends FilterInputStream {
+    private final String handle;
+    private final String expected;
+    private boolean verified;
+    private boolean closed;
+
+    private VerifyingInputStream( String handle, String expected, DigestInputStream in ) {
+      super( in );
+      this.handle = handle;
+      this.expected = expected;
+    }
+
+    @Override
+    public int read() throws IOException {
+      return verify( super.read() );
+    }
+
+    @Override
+    public int read( byte[] b, int off, int len ) throws IOException {
+      return verify( super.read( b, off, len ) );
+    }
+
+    private int verify( int read ) throws IOException {
+      if ( read == -1 && !verified ) {
+        verified = true;
+        String actual = toHex( ( (DigestInputStream) in ).getMessageDigest().digest() );
+        if ( !actual.equals( expected ) ) {
+          throw new IOException( "Model artifact does not match its digest: " + handle );
+        }
+      }
+      return read;
+    }
+
+    @Override
+    public void close() throws IOException {
+      if ( closed ) {
+        return;
+      }
+      closed = true;
+      try {
+        super.close();
+      } finally {
+        release( handle );
+      }
+    }
+  }
+}
@@ -0,0 +1,141 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.di.core.refinery.model;
+
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.refinery.model.ModelServerFetcher.AuthorizationException;
+import org.pentaho.di.core.refinery.model.ModelServerFetcher.ServerException;
+import org.pentaho.di.core.refinery.publish.agilebi.BiServerConnection;
+import org.pentaho.di.core.util.EnvUtil;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process wide cache of the analysis and DSW data source ids a BA server lists for a user, shared by all Build
+ * Model entries checking whether their model exists.
+ * <p>
+ * A check first probes the server for the one data source; the lists are only downloaded when the probe is
+ * inconclusive. They are kept for {@link #KETTLE_DATA_REFINERY_MODEL_CATALOG_TTL} milliseconds, or until a publish
+ * to the server invalidates them. A TTL of 0 turns caching off.
+ */
+public class ModelCatalogCache {
+
+  public static final String KETTLE_DATA_REFINERY_MODEL_CATALOG_TTL = "KETTLE_DATA_REFINERY_MODEL_CATALOG_TTL";
+  private static final long DEFAULT_TTL = 60000L;
+
+  private static final ModelCatalogCache INSTANCE =
+      new ModelCatalogCache( Const.toLong( EnvUtil.getSystemProperty( KETTLE_DATA_REFINERY_MODEL_CATALOG_TTL ),
+          DEFAULT_TTL ) );
+
+  private final ConcurrentMap<String, Entry> catalogs = new ConcurrentHashMap<>();
+  private final ConcurrentMap<String, Object> locks = new ConcurrentHashMap<>();
+  private final AtomicLong loads = new AtomicLong();
+  private final long ttl;
+
+  ModelCatalogCache( long ttl ) {
+    this.ttl = ttl;
+  }
+
+  public static ModelCatalogCache getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * @return whether the server <code>fetcher</code> talks to has an analysis or DSW data source with that id
+   */
+  public boolean modelExists( ModelServerFetcher fetcher, String modelId )
+    throws AuthorizationException, ServerException {
+    ModelServerFetcher.Presence presence = fetcher.probe( modelId );
+    if ( presence == ModelServerFetcher.Presence.FOUND ) {
+      return true;
+    } else if ( presence == ModelServerFetcher.Presence.MISSING ) {
+      return false;
+    }
+    return getModelIds( fetcher ).contains( modelId );
+  }
+
+  /**
+   * @return the analysis and DSW data source ids, from the cache if they were listed recently
+   */
+  public Set<String> getModelIds( ModelServerFetcher fetcher ) throws AuthorizationException, ServerException {
+    String key = keyOf( fetcher.getBiServerConnection() );
+    if ( ttl <= 0 || key == null ) {
+      return load( fetcher );
+    }
+    Entry entry = catalogs.get( key );
+    if ( isFresh( entry ) ) {
+      return entry.ids;
+    }
+    // parallel Build Model entries wait for the one listing instead of all downloading the same lists
+    synchronized ( locks.computeIfAbsent( key, k -> new Object() ) ) {
+      entry = catalogs.get( key );
+      if ( isFresh( entry ) ) {
+        return entry.ids;
+      }
+      Set<String> ids = load( fetcher );
+      catalogs.put( key, new Entry( ids, System.currentTimeMillis() ) );
+      return ids;
+    }
+  }
+
+  /**
+   * To be called after data sources were published to or deleted from the server.
+   */
+  public void invalidate( BiServerConnection connection ) {
+    String key = keyOf( connection );
+    if ( key != null ) {
+      catalogs.remove( key );
+    }
+  }
+
+  /**
+   * @return how many times the lists were downloaded
+   */
+  public long getLoadCount() {
+    return loads.get();
+  }
+
+  private boolean isFresh( Entry entry ) {
+    return entry != null && System.currentTimeMillis() - entry.loaded < ttl;
+  }
+
+  private Set<String> load( ModelServerFetcher fetcher ) throws AuthorizationException, ServerException {
+    loads.incrementAndGet();
+    Set<String> ids = new HashSet<>( fetcher.fetchAnalysisList() );
+    ids.addAll( fetcher.fetchDswList() );
+    return Collections.unmodifiableSet( ids );
+  }
+
+  static String keyOf( BiServerConnection connection ) {
+    if ( connection == null || connection.getUrl() == null ) {
+      return null;
+    }
+    // what a server lists depends on who asks
+    return connection.getUrl() + "|" + connection.getUserId();
+  }
+
+  private static final class Entry {
+    private final Set<String> ids;
+    private final long loaded;
+
+    private Entry( Set<String> ids, long loaded ) {
+      this.ids = ids;
+      this.loaded = loaded;
+    }
+  }
+}
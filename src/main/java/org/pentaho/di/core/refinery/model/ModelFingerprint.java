@@ -0,0 +1,203 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.di.core.refinery.model;
+
+import org.pentaho.agilebi.modeler.ModelerException;
+import org.pentaho.agilebi.modeler.ModelerWorkspace;
+import org.pentaho.agilebi.modeler.geo.GeoContextConfigProvider;
+import org.pentaho.agilebi.modeler.models.annotations.AnnotationType;
+import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotation;
+import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotationGroup;
+import org.pentaho.agilebi.modeler.models.annotations.ModelProperty;
+import org.pentaho.agilebi.modeler.models.annotations.data.ColumnMapping;
+import org.pentaho.agilebi.modeler.models.annotations.data.DataProvider;
+import org.pentaho.di.core.database.DatabaseMeta;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.ValueMetaInterface;
+import org.pentaho.metadata.model.Domain;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * SHA-256 of everything a DSW model created by Build Model depends on: model name, connection, table fields,
+ * annotations and geo configuration. Two builds with the same fingerprint produce the same XMI.
+ * <p>
+ * Annotations are described by their type and model properties rather than their XML, as annotations detected from
+ * column profiles get a new random name on every run.
+ */
+public final class ModelFingerprint {
+
+  // bump when the way a model is built from the same inputs changes
+  private static final String VERSION = "1";
+  private static final byte SEPARATOR = 0;
+  private static final byte NULL = 1;
+
+  private final MessageDigest digest;
+  private String value;
+
+  public ModelFingerprint() throws KettleException {
+    try {
+      digest = MessageDigest.getInstance( "SHA-256" );
+    } catch ( NoSuchAlgorithmException e ) {
+      throw new KettleException( e );
+    }
+    add( VERSION );
+    add( ModelFingerprint.class.getPackage().getImplementationVersion() );
+    add( ModelerWorkspace.class.getPackage().getImplementationVersion() );
+    add( Domain.class.getPackage().getImplementationVersion() );
+  }
+
+  public ModelFingerprint add( final String part ) {
+    if ( value != null ) {
+      throw new IllegalStateException( "Fingerprint already computed" );
+    }
+    if ( part == null ) {
+      digest.update( NULL );
+    } else {
+      digest.update( part.getBytes( StandardCharsets.UTF_8 ) );
+    }
+    digest.update( SEPARATOR );
+    return this;
+  }
+
+  public ModelFingerprint add( final List<String> parts ) {
+    if ( parts == null ) {
+      return add( (String) null );
+    }
+    add( String.valueOf( parts.size() ) );
+    for ( String part : parts ) {
+      add( part );
+    }
+    return this;
+  }
+
+  /**
+   * Adds the connection settings, which end up in the model unless it uses JNDI.
+   */
+  public ModelFingerprint addConnection( final DatabaseMeta databaseMeta ) {
+    return add( databaseMeta == null ? null : databaseMeta.getXML() );
+  }
+
+  public ModelFingerprint addFields( final RowMetaInterface fields ) {
+    if ( fields == null ) {
+      return add( (String) null );
+    }
+    add( String.valueOf( fields.size() ) );
+    for ( ValueMetaInterface field : fields.getValueMetaList() ) {
+      add( field.getName() ).add( field.getTypeDesc() ).add( String.valueOf( field.getLength() ) )
+          .add( String.valueOf( field.getPrecision() ) );
+    }
+    return this;
+  }
+
+  public ModelFingerprint addAnnotations( final ModelAnnotationGroup annotations ) {
+    if ( annotations == null ) {
+      return add( (String) null );
+    }
+    add( annotations.getName() ).add( String.valueOf( annotations.isSharedDimension() ) );
+    List<DataProvider> dataProviders = annotations.getDataProviders();
+    add( String.valueOf( dataProviders == null ? 0 : dataProviders.size() ) );
+    if ( dataProviders != null ) {
+      for ( DataProvider dataProvider : dataProviders ) {
+        addDataProvider( dataProvider );
+      }
+    }
+    add( String.valueOf( annotations.size() ) );
+    for ( ModelAnnotation<?> annotation : annotations ) {
+      addAnnotation( annotation.getAnnotation() );
+    }
+    return this;
+  }
+
+  /**
+   * Adds the geo roles configuration, or a marker when it can't be read, which is when modeling goes without it.
+   */
+  public ModelFingerprint addGeoContext( final GeoContextConfigProvider config ) {
+    if ( config == null ) {
+      return add( (String) null );
+    }
+    try {
+      String dimensionName = config.getDimensionName();
+      String roles = config.getRoles();
+      add( dimensionName ).add( roles );
+      if ( roles != null ) {
+        for ( String role : roles.split( "," ) ) {
+          add( config.getRoleAliases( role.trim() ) ).add( config.getRoleRequirements( role.trim() ) );
+        }
+      }
+    } catch ( ModelerException e ) {
+      add( "unavailable" );
+    }
+    return this;
+  }
+
+  /**
+   * @return the hex digest; nothing can be added afterwards
+   */
+  public String getValue() {
+    if ( value == null ) {
+      StringBuilder hex = new StringBuilder();
+      for ( byte b : digest.digest() ) {
+        hex.append( Character.forDigit( ( b >> 4 ) & 0xF, 16 ) ).append( Character.forDigit( b & 0xF, 16 ) );
+      }
+      value = hex.toString();
+    }
+    return value;
+  }
+
+  @Override
+  public String toString() {
+    return getValue();
+  }
+
+  private void addDataProvider( final DataProvider dataProvider ) {
+    add( dataProvider.getName() ).add( dataProvider.getDatabaseMetaNameRef() ).add( dataProvider.getSchemaName() )
+        .add( dataProvider.getTableName() );
+    List<ColumnMapping> columnMappings = dataProvider.getColumnMappings();
+    add( String.valueOf( columnMappings == null ? 0 : columnMappings.size() ) );
+    if ( columnMappings != null ) {
+      for ( ColumnMapping columnMapping : columnMappings ) {
+        add( columnMapping.getName() ).add( columnMapping.getColumnName() )
+            .add( String.valueOf( columnMapping.getColumnDataType() ) );
+      }
+    }
+  }
+
+  private void addAnnotation( final AnnotationType annotation ) {
+    if ( annotation == null ) {
+      add( (String) null );
+      return;
+    }
+    add( annotation.getClass().getName() );
+    // property order comes from reflection, which doesn't guarantee one
+    Map<String, String> properties = new TreeMap<>();
+    for ( ModelProperty property : annotation.getModelProperties() ) {
+      Object propertyValue;
+      try {
+        propertyValue = annotation.getModelPropertyValueByName( property.name() );
+      } catch ( Exception e ) {
+        propertyValue = e.getClass().getName();
+      }
+      properties.put( property.name(), propertyValue == null ? null : propertyValue.toString() );
+    }
+    for ( Map.Entry<String, String> property : properties.entrySet() ) {
+      add( property.getKey() ).add( property.getValue() );
+    }
+  }
+}
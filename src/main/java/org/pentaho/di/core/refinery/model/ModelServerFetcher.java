@@ -65,6 +65,13 @@ public class ModelServerFetcher extends ModelServerAction {
     }
   }
 
+  /**
+   * Outcome of probing the server for a single data source
+   */
+  public enum Presence {
+    FOUND, MISSING, UNKNOWN
+  }
+
   public ModelServerFetcher() {
     super();
   }
@@ -134,6 +141,51 @@ public class ModelServerFetcher extends ModelServerAction {
     }
   }
 
+  /**
+   * Checks whether an analysis or DSW data source exists by asking for the headers of its download, which is much
+   * cheaper than listing every data source on a large server.
+   *
+   * @return {@link Presence#UNKNOWN} when the server's answer doesn't tell, in which case the lists are the only
+   * reliable source
+   */
+  public Presence probe( String dataSourceId ) {
+    if ( StringUtils.isEmpty( dataSourceId ) ) {
+      return Presence.MISSING;
+    }
+    Presence analysis = probe( DataSourceType.ANALYSIS, dataSourceId );
+    if ( analysis == Presence.FOUND ) {
+      return analysis;
+    }
+    Presence dsw = probe( DataSourceType.DSW, dataSourceId );
+    if ( dsw == Presence.FOUND ) {
+      return dsw;
+    }
+    return analysis == Presence.MISSING && dsw == Presence.MISSING ? Presence.MISSING : Presence.UNKNOWN;
+  }
+
+  private Presence probe( DataSourceType type, String dataSourceId ) {
+    ClientResponse response = null;
+    try {
+      String encodedId = new URI( null, null, dataSourceId, null ).getRawPath();
+      response = getResource( type.getDownloadPath( encodedId ) ).head();
+      if ( response == null ) {
+        return Presence.UNKNOWN;
+      } else if ( isSuccess( response ) ) {
+        return Presence.FOUND;
+      } else if ( response.getStatus() == 404 ) {
+        return Presence.MISSING;
+      }
+      return Presence.UNKNOWN;
+    } catch ( URISyntaxException | RuntimeException e ) {
+      // unreachable server, HEAD not allowed and the like; the lists will tell
+      return Presence.UNKNOWN;
+    } finally {
+      if ( response != null ) {
+        response.close();
+      }
+    }
+  }
+
   public String downloadAnalysisFile( String analysisId )
           throws KettleException, AuthorizationException, ServerException, UnsupportedEncodingException {
     String encodedId;
@@ -0,0 +1,141 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.di.core.refinery.model;
+
+import org.apache.commons.io.IOUtils;
+import org.pentaho.di.core.Const;
+import org.pentaho.di.core.util.EnvUtil;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Local disk cache of the XMI of models created by Build Model, keyed by their {@link ModelFingerprint}.
+ * <p>
+ * Entries are compressed files in {@link #KETTLE_DATA_REFINERY_MODEL_CACHE_DIR}. Once there are more than
+ * {@link #KETTLE_DATA_REFINERY_MODEL_CACHE_SIZE} of them the least recently used are deleted. A size of 0 turns the
+ * cache off.
+ */
+public class ModelXmiCache {
+
+  public static final String KETTLE_DATA_REFINERY_MODEL_CACHE_DIR = "KETTLE_DATA_REFINERY_MODEL_CACHE_DIR";
+  public static final String KETTLE_DATA_REFINERY_MODEL_CACHE_SIZE = "KETTLE_DATA_REFINERY_MODEL_CACHE_SIZE";
+  private static final int DEFAULT_SIZE = 500;
+  private static final String SUFFIX = ".xmi.gz";
+
+  private static final ModelXmiCache INSTANCE = new ModelXmiCache(
+      new File( EnvUtil.getSystemProperty( KETTLE_DATA_REFINERY_MODEL_CACHE_DIR,
+          Const.getKettleDirectory() + File.separator + "refinery" + File.separator + "model-cache" ) ),
+      Const.toInt( EnvUtil.getSystemProperty( KETTLE_DATA_REFINERY_MODEL_CACHE_SIZE ), DEFAULT_SIZE ) );
+
+  private final File directory;
+  private final int size;
+
+  ModelXmiCache( File directory, int size ) {
+    this.directory = directory;
+    this.size = size;
+  }
+
+  public static ModelXmiCache getInstance() {
+    return INSTANCE;
+  }
+
+  public boolean isEnabled() {
+    return size > 0;
+  }
+
+  /**
+   * @return the cached XMI, null if there is none or it can't be read
+   */
+  public String get( String fingerprint ) {
+    if ( !isEnabled() ) {
+      return null;
+    }
+    File file = fileFor( fingerprint );
+    if ( !file.isFile() ) {
+      return null;
+    }
+    try ( InputStream in = new GZIPInputStream( new FileInputStream( file ) ) ) {
+      String xmi = IOUtils.toString( in, StandardCharsets.UTF_8 );
+      file.setLastModified( System.currentTimeMillis() );
+      return xmi;
+    } catch ( IOException e ) {
+      // truncated or otherwise damaged, the model gets built and cached again
+      file.delete();
+      return null;
+    }
+  }
+
+  /**
+   * Caches the XMI of a model, replacing the file as a whole so a concurrent {@link #get(String)} never reads part
+   * of it.
+   */
+  public void put( String fingerprint, String xmi ) throws IOException {
+    if ( !isEnabled() ) {
+      return;
+    }
+    if ( !directory.isDirectory() && !directory.mkdirs() ) {
+      throw new IOException( "Cannot create " + directory );
+    }
+    File file = fileFor( fingerprint );
+    File workFile = File.createTempFile( fingerprint, ".tmp", directory );
+    try {
+      try ( OutputStream out = new GZIPOutputStream( new FileOutputStream( workFile ) ) ) {
+        out.write( xmi.getBytes( StandardCharsets.UTF_8 ) );
+      }
+      try {
+        Files.move( workFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE );
+      } catch ( AtomicMoveNotSupportedException e ) {
+        Files.move( workFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING );
+      }
+    } finally {
+      workFile.delete();
+    }
+    evict();
+  }
+
+  private void evict() {
+    File[] files = directory.listFiles( ( dir, name ) -> name.endsWith( SUFFIX ) );
+    if ( files == null || files.length <= size ) {
+      return;
+    }
+    long[] lastModified = new long[ files.length ];
+    Integer[] order = new Integer[ files.length ];
+    for ( int i = 0; i < files.length; i++ ) {
+      // read once, another build may touch the files while they are sorted
+      lastModified[ i ] = files[ i ].lastModified();
+      order[ i ] = i;
+    }
+    Arrays.sort( order, Comparator.comparingLong( i -> lastModified[ i ] ) );
+    for ( int i = 0; i < files.length - size; i++ ) {
+      files[ order[ i ] ].delete();
+    }
+  }
+
+  private File fileFor( String fingerprint ) {
+    return new File( directory, fingerprint + SUFFIX );
+  }
+}
@@ -15,6 +15,7 @@ package org.pentaho.di.core.refinery.model;
 
 import org.pentaho.agilebi.modeler.ModelerException;
 import org.pentaho.di.core.refinery.DataProviderHelper;
+import org.pentaho.di.core.refinery.OutputStepSnapshot;
 import org.pentaho.di.core.row.ValueMetaInterface;
 import org.pentaho.di.trans.step.StepMetaDataCombi;
 import org.pentaho.metadata.automodel.PhysicalTableImporter;
@@ -26,6 +27,10 @@ public class RefineryValueMetaStrategy extends DataProviderHelper.OutputStepMapp
     super( stepMetaDataCombi );
   }
 
+  public RefineryValueMetaStrategy( final OutputStepSnapshot snapshot ) throws ModelerException {
+    super( snapshot );
+  }
+
   @Override
   public boolean shouldInclude( final ValueMetaInterface valueMeta ) {
     return insertRowMeta != null && insertRowMeta.exists( valueMeta );
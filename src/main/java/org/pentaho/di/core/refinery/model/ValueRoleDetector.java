@@ -0,0 +1,265 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.di.core.refinery.model;
+
+import org.pentaho.agilebi.modeler.models.annotations.CreateAttribute;
+import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotation;
+import org.pentaho.agilebi.modeler.nodes.TimeRole;
+import org.pentaho.di.core.refinery.profile.ColumnProfile;
+import org.pentaho.di.core.refinery.profile.ColumnProfiles;
+
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+/**
+ * Suggests geographic and time attributes for fields nobody annotated, looking at the values sampled by Annotate
+ * Stream. A role is only suggested when nearly all sampled values agree with it.
+ */
+public class ValueRoleDetector {
+
+  static final int MIN_SAMPLES = 20;
+  static final double GEO_MATCH_RATIO = 0.9;
+  static final double TIME_MATCH_RATIO = 0.95;
+
+  private static final Pattern POSTAL_CODE = Pattern.compile( "\\d{5}(-\\d{4})?" );
+
+  private static final String[] STATES = {
+    "AL", "Alabama", "AK", "Alaska", "AZ", "Arizona", "AR", "Arkansas", "CA", "California", "CO", "Colorado",
+    "CT", "Connecticut", "DE", "Delaware", "DC", "District of Columbia", "FL", "Florida", "GA", "Georgia",
+    "HI", "Hawaii", "ID", "Idaho", "IL", "Illinois", "IN", "Indiana", "IA", "Iowa", "KS", "Kansas",
+    "KY", "Kentucky", "LA", "Louisiana", "ME", "Maine", "MD", "Maryland", "MA", "Massachusetts",
+    "MI", "Michigan", "MN", "Minnesota", "MS", "Mississippi", "MO", "Missouri", "MT", "Montana",
+    "NE", "Nebraska", "NV", "Nevada", "NH", "New Hampshire", "NJ", "New Jersey", "NM", "New Mexico",
+    "NY", "New York", "NC", "North Carolina", "ND", "North Dakota", "OH", "Ohio", "OK", "Oklahoma",
+    "OR", "Oregon", "PA", "Pennsylvania", "RI", "Rhode Island", "SC", "South Carolina", "SD", "South Dakota",
+    "TN", "Tennessee", "TX", "Texas", "UT", "Utah", "VT", "Vermont", "VA", "Virginia", "WA", "Washington",
+    "WV", "West Virginia", "WI", "Wisconsin", "WY", "Wyoming"
+  };
+
+  private static final Set<String> STATE_NAMES = new TreeSet<>( String.CASE_INSENSITIVE_ORDER );
+  private static final Set<String> COUNTRY_NAMES = new TreeSet<>( String.CASE_INSENSITIVE_ORDER );
+
+  static {
+    for ( String state : STATES ) {
+      STATE_NAMES.add( state );
+    }
+    for ( String code : Locale.getISOCountries() ) {
+      Locale locale = new Locale( "", code );
+      COUNTRY_NAMES.add( code );
+      COUNTRY_NAMES.add( locale.getDisplayCountry( Locale.ENGLISH ) );
+      try {
+        COUNTRY_NAMES.add( locale.getISO3Country() );
+      } catch ( RuntimeException e ) {
+        // no three letter code for this country
+      }
+    }
+  }
+
+  /**
+   * Time roles from the coarsest to the finest, with the formats the modeler understands for each.
+   */
+  private static final Map<ModelAnnotation.TimeType, String[]> TIME_FORMATS = new LinkedHashMap<>();
+
+  static {
+    TIME_FORMATS.put( ModelAnnotation.TimeType.TimeYears, TimeRole.YEARS.formats );
+    TIME_FORMATS.put( ModelAnnotation.TimeType.TimeHalfYears, TimeRole.HALFYEARS.formats );
+    TIME_FORMATS.put( ModelAnnotation.TimeType.TimeQuarters, TimeRole.QUARTERS.formats );
+    TIME_FORMATS.put( ModelAnnotation.TimeType.TimeMonths, TimeRole.MONTHS.formats );
+    TIME_FORMATS.put( ModelAnnotation.TimeType.TimeWeeks, TimeRole.WEEKS.formats );
+    TIME_FORMATS.put( ModelAnnotation.TimeType.TimeDays, TimeRole.DAYS.formats );
+    TIME_FORMATS.put( ModelAnnotation.TimeType.TimeHours, TimeRole.HOURS.formats );
+    TIME_FORMATS.put( ModelAnnotation.TimeType.TimeMinutes, TimeRole.MINUTES.formats );
+    TIME_FORMATS.put( ModelAnnotation.TimeType.TimeSeconds, TimeRole.SECONDS.formats );
+  }
+
+  /**
+   * @param profiles        profiles carrying value samples
+   * @param annotatedFields fields that already have an annotation and are left alone
+   * @return one attribute per field with a detected role
+   */
+  public List<CreateAttribute> detect( ColumnProfiles profiles, Set<String> annotatedFields ) {
+    Set<String> skip = new TreeSet<>( String.CASE_INSENSITIVE_ORDER );
+    skip.addAll( annotatedFields );
+    List<CreateAttribute> attributes = new ArrayList<>();
+    for ( ColumnProfile profile : profiles.getProfiles() ) {
+      if ( skip.contains( profile.getName() ) ) {
+        continue;
+      }
+      CreateAttribute attribute = detect( profile );
+      if ( attribute != null ) {
+        attributes.add( attribute );
+      }
+    }
+    return attributes;
+  }
+
+  CreateAttribute detect( ColumnProfile profile ) {
+    List<Object> sample = profile.getSample();
+    if ( sample.size() < MIN_SAMPLES ) {
+      return null;
+    }
+    CreateAttribute attribute;
+    if ( sample.get( 0 ) instanceof Date ) {
+      attribute = detectDateGranularity( sample );
+    } else {
+      attribute = detectGeo( sample );
+      if ( attribute == null ) {
+        attribute = detectTimeFormat( sample );
+      }
+    }
+    if ( attribute != null ) {
+      String field = profile.getName();
+      attribute.setName( field );
+      attribute.setField( field );
+      attribute.setDimension( field );
+      attribute.setHierarchy( field );
+    }
+    return attribute;
+  }
+
+  private CreateAttribute detectGeo( List<Object> sample ) {
+    int postalCodes = 0;
+    int states = 0;
+    int countries = 0;
+    for ( Object value : sample ) {
+      String text = ( (String) value ).trim();
+      if ( POSTAL_CODE.matcher( text ).matches() ) {
+        postalCodes++;
+      }
+      if ( STATE_NAMES.contains( text ) ) {
+        states++;
+      }
+      if ( COUNTRY_NAMES.contains( text ) ) {
+        countries++;
+      }
+    }
+    ModelAnnotation.GeoType geoType = null;
+    if ( matches( postalCodes, sample.size(), GEO_MATCH_RATIO ) ) {
+      geoType = ModelAnnotation.GeoType.Postal_Code;
+    } else if ( matches( states, sample.size(), GEO_MATCH_RATIO ) ) {
+      geoType = ModelAnnotation.GeoType.State;
+    } else if ( matches( countries, sample.size(), GEO_MATCH_RATIO ) ) {
+      geoType = ModelAnnotation.GeoType.Country;
+    }
+    if ( geoType == null ) {
+      return null;
+    }
+    CreateAttribute attribute = new CreateAttribute();
+    attribute.setGeoType( geoType );
+    return attribute;
+  }
+
+  private CreateAttribute detectTimeFormat( List<Object> sample ) {
+    Set<String> tried = new HashSet<>();
+    for ( Map.Entry<ModelAnnotation.TimeType, String[]> role : TIME_FORMATS.entrySet() ) {
+      for ( String format : role.getValue() ) {
+        if ( ambiguous( format ) || !tried.add( format ) ) {
+          continue;
+        }
+        SimpleDateFormat dateFormat;
+        try {
+          dateFormat = new SimpleDateFormat( format, Locale.ENGLISH );
+        } catch ( IllegalArgumentException e ) {
+          continue; // not a java pattern
+        }
+        dateFormat.setLenient( false );
+        if ( matches( countParsed( dateFormat, sample ), sample.size(), TIME_MATCH_RATIO ) ) {
+          CreateAttribute attribute = new CreateAttribute();
+          attribute.setTimeType( role.getKey() );
+          attribute.setTimeFormat( format );
+          return attribute;
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * A value only counts when the whole of it parses and formatting the result gives it back, which rules out
+   * "2015-13" style partial matches.
+   */
+  private int countParsed( SimpleDateFormat dateFormat, List<Object> sample ) {
+    int parsed = 0;
+    ParsePosition position = new ParsePosition( 0 );
+    for ( Object value : sample ) {
+      String text = ( (String) value ).trim();
+      position.setIndex( 0 );
+      position.setErrorIndex( -1 );
+      Date date = dateFormat.parse( text, position );
+      if ( date != null && position.getIndex() == text.length() && dateFormat.format( date ).equals( text ) ) {
+        parsed++;
+      }
+    }
+    return parsed;
+  }
+
+  /**
+   * Short all-digit patterns such as "yy" or "MM" would also match plain small numbers.
+   */
+  private boolean ambiguous( String format ) {
+    return format.length() < 3 && format.chars().distinct().count() == 1;
+  }
+
+  /**
+   * Date typed fields need no format; the role follows from the finest calendar field that is ever set.
+   */
+  private CreateAttribute detectDateGranularity( List<Object> sample ) {
+    ModelAnnotation.TimeType[] byGranularity = {
+      ModelAnnotation.TimeType.TimeYears, ModelAnnotation.TimeType.TimeMonths, ModelAnnotation.TimeType.TimeDays,
+      ModelAnnotation.TimeType.TimeHours, ModelAnnotation.TimeType.TimeMinutes, ModelAnnotation.TimeType.TimeSeconds
+    };
+    int finest = 0;
+    Calendar calendar = Calendar.getInstance();
+    for ( Object value : sample ) {
+      calendar.setTime( (Date) value );
+      finest = Math.max( finest, granularity( calendar ) );
+      if ( finest == byGranularity.length - 1 ) {
+        break;
+      }
+    }
+    CreateAttribute attribute = new CreateAttribute();
+    attribute.setTimeType( byGranularity[ finest ] );
+    attribute.setTimeFormat( TIME_FORMATS.get( byGranularity[ finest ] )[ 0 ] );
+    return attribute;
+  }
+
+  private static int granularity( Calendar calendar ) {
+    if ( calendar.get( Calendar.SECOND ) != 0 ) {
+      return 5;
+    } else if ( calendar.get( Calendar.MINUTE ) != 0 ) {
+      return 4;
+    } else if ( calendar.get( Calendar.HOUR_OF_DAY ) != 0 ) {
+      return 3;
+    } else if ( calendar.get( Calendar.DAY_OF_MONTH ) != 1 ) {
+      return 2;
+    } else if ( calendar.get( Calendar.MONTH ) != Calendar.JANUARY ) {
+      return 1;
+    }
+    return 0;
+  }
+
+  private static boolean matches( int matched, int total, double ratio ) {
+    return matched >= total * ratio;
+  }
+}
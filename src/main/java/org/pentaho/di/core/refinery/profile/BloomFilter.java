@@ -0,0 +1,216 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.di.core.refinery.profile;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bloom filter over 64 bit value hashes that grows as values are added. When a segment is full a new one with
+ * twice the capacity and half the false positive rate is started, which keeps the overall rate below
+ * 2 x {@link #FALSE_POSITIVE_RATE} (about 1.8 bytes per value) without knowing the number of values up front.
+ * <p>
+ * {@link #mightContain(long)} never returns false for an added value, nor for a value of a filter merged in.
+ */
+public class BloomFilter {
+
+  static final double FALSE_POSITIVE_RATE = 0.001;
+  private static final int MAGIC = 0x53444246;
+
+  private final List<Segment> segments = new ArrayList<>();
+  private long size;
+
+  public BloomFilter() {
+    this( 1 << 16 );
+  }
+
+  public BloomFilter( long initialCapacity ) {
+    segments.add( new Segment( Math.max( 64, initialCapacity ), FALSE_POSITIVE_RATE / 2 ) );
+  }
+
+  private BloomFilter( List<Segment> segments, long size ) {
+    this.segments.addAll( segments );
+    this.size = size;
+  }
+
+  public void add( long hash ) {
+    if ( mightContain( hash ) ) {
+      return;
+    }
+    Segment last = segments.get( segments.size() - 1 );
+    if ( last.count >= last.capacity ) {
+      last = new Segment( last.capacity * 2, last.falsePositiveRate / 2 );
+      segments.add( last );
+    }
+    last.add( hash );
+    size++;
+  }
+
+  public boolean mightContain( long hash ) {
+    for ( Segment segment : segments ) {
+      if ( segment.mightContain( hash ) ) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Adds the values of <code>other</code>. Segments at the same position that have the same size, as they do in
+   * filters created with the same initial capacity, are merged bit by bit; the other segments are appended. Values
+   * added later go to a segment that still has room.
+   */
+  public void merge( BloomFilter other ) {
+    for ( int i = 0; i < other.segments.size(); i++ ) {
+      Segment theirs = other.segments.get( i );
+      Segment ours = i < segments.size() ? segments.get( i ) : null;
+      if ( ours != null && ours.sameShapeAs( theirs ) ) {
+        ours.merge( theirs );
+      } else {
+        segments.add( theirs.copy() );
+      }
+    }
+    // keep the segment with most room last, where values are added
+    Segment last = segments.get( segments.size() - 1 );
+    if ( last.count >= last.capacity ) {
+      segments.add( new Segment( last.capacity * 2, last.falsePositiveRate / 2 ) );
+    }
+    size = 0;
+    for ( Segment segment : segments ) {
+      size += segment.count;
+    }
+  }
+
+  /**
+   * @return number of distinct values added, give or take false positives
+   */
+  public long size() {
+    return size;
+  }
+
+  public void writeTo( DataOutputStream out ) throws IOException {
+    out.writeInt( MAGIC );
+    out.writeLong( size );
+    out.writeInt( segments.size() );
+    for ( Segment segment : segments ) {
+      out.writeLong( segment.capacity );
+      out.writeDouble( segment.falsePositiveRate );
+      out.writeLong( segment.count );
+      out.writeInt( segment.hashes );
+      out.writeInt( segment.bits.length );
+      for ( long word : segment.bits ) {
+        out.writeLong( word );
+      }
+    }
+  }
+
+  public static BloomFilter readFrom( DataInputStream in ) throws IOException {
+    if ( in.readInt() != MAGIC ) {
+      throw new IOException( "Not a key filter" );
+    }
+    long size = in.readLong();
+    int segmentCount = in.readInt();
+    List<Segment> segments = new ArrayList<>( segmentCount );
+    for ( int i = 0; i < segmentCount; i++ ) {
+      long capacity = in.readLong();
+      double falsePositiveRate = in.readDouble();
+      long count = in.readLong();
+      int hashes = in.readInt();
+      long[] bits = new long[ in.readInt() ];
+      for ( int w = 0; w < bits.length; w++ ) {
+        bits[ w ] = in.readLong();
+      }
+      segments.add( new Segment( capacity, falsePositiveRate, count, hashes, bits ) );
+    }
+    if ( segments.isEmpty() ) {
+      throw new IOException( "Not a key filter" );
+    }
+    return new BloomFilter( segments, size );
+  }
+
+  private static final class Segment {
+    private final long capacity;
+    private final double falsePositiveRate;
+    private final int hashes;
+    private final long[] bits;
+    private final long bitCount;
+    private long count;
+
+    Segment( long capacity, double falsePositiveRate ) {
+      this.capacity = capacity;
+      this.falsePositiveRate = falsePositiveRate;
+      double ln2 = Math.log( 2 );
+      long optimalBits = (long) Math.ceil( -capacity * Math.log( falsePositiveRate ) / ( ln2 * ln2 ) );
+      bits = new long[ (int) Math.min( Integer.MAX_VALUE - 8, ( optimalBits + 63 ) / 64 ) ];
+      bitCount = bits.length * 64L;
+      hashes = Math.max( 1, (int) Math.round( (double) bitCount / capacity * ln2 ) );
+    }
+
+    Segment( long capacity, double falsePositiveRate, long count, int hashes, long[] bits ) {
+      this.capacity = capacity;
+      this.falsePositiveRate = falsePositiveRate;
+      this.count = count;
+      this.hashes = hashes;
+      this.bits = bits;
+      this.bitCount = bits.length * 64L;
+    }
+
+    boolean sameShapeAs( Segment other ) {
+      return capacity == other.capacity && hashes == other.hashes && bits.length == other.bits.length;
+    }
+
+    /**
+     * ORs the bits of a segment of the same shape. The count is estimated from the bits that are set, so a merge of
+     * segments holding the same values doesn't fill the segment up.
+     */
+    void merge( Segment other ) {
+      long set = 0;
+      for ( int w = 0; w < bits.length; w++ ) {
+        bits[ w ] |= other.bits[ w ];
+        set += Long.bitCount( bits[ w ] );
+      }
+      long estimate = set >= bitCount ? Long.MAX_VALUE
+          : (long) Math.ceil( -(double) bitCount / hashes * Math.log( 1 - (double) set / bitCount ) );
+      count = Math.min( count + other.count, Math.max( Math.max( count, other.count ), estimate ) );
+    }
+
+    Segment copy() {
+      return new Segment( capacity, falsePositiveRate, count, hashes, bits.clone() );
+    }
+
+    void add( long hash ) {
+      long h1 = ValueHash.mix( hash );
+      long h2 = ValueHash.mix( h1 ) | 1;
+      for ( int i = 0; i < hashes; i++ ) {
+        long bit = Math.floorMod( h1 + i * h2, bitCount );
+        bits[ (int) ( bit >>> 6 ) ] |= 1L << bit;
+      }
+      count++;
+    }
+
+    boolean mightContain( long hash ) {
+      long h1 = ValueHash.mix( hash );
+      long h2 = ValueHash.mix( h1 ) | 1;
+      for ( int i = 0; i < hashes; i++ ) {
+        long bit = Math.floorMod( h1 + i * h2, bitCount );
+        if ( ( bits[ (int) ( bit >>> 6 ) ] & ( 1L << bit ) ) == 0 ) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+}
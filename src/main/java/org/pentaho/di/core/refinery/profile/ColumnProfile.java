@@ -0,0 +1,162 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.di.core.refinery.profile;
+
+import org.pentaho.di.core.exception.KettleValueException;
+import org.pentaho.di.core.row.ValueMetaInterface;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Single pass profile of one stream field: row and null counts, numeric/date range, an approximate distinct count and
+ * optionally a sample of the values. Offering a value only allocates when it is taken into the sample.
+ */
+public class ColumnProfile {
+
+  private final String name;
+  private long count;
+  private long nullCount;
+  private double min = Double.POSITIVE_INFINITY;
+  private double max = Double.NEGATIVE_INFINITY;
+  private final HyperLogLog distinct = new HyperLogLog();
+  private ReservoirSample sample;
+
+  public ColumnProfile( String name ) {
+    this( name, 0 );
+  }
+
+  /**
+   * @param sampleSize number of values to keep as a uniform sample, 0 for none
+   */
+  public ColumnProfile( String name, int sampleSize ) {
+    this.name = name;
+    if ( sampleSize > 0 ) {
+      sample = new ReservoirSample( sampleSize );
+    }
+  }
+
+  public void offer( ValueMetaInterface valueMeta, Object value ) throws KettleValueException {
+    count++;
+    if ( valueMeta.isNull( value ) ) {
+      nullCount++;
+      return;
+    }
+    distinct.offer( ValueHash.hash( valueMeta, value ) );
+    if ( sample != null ) {
+      int slot = sample.nextSlot();
+      if ( slot >= 0 ) {
+        sample.set( slot, valueMeta.isDate() ? valueMeta.getDate( value ) : valueMeta.getString( value ) );
+      }
+    }
+    if ( valueMeta.isNumeric() || valueMeta.isDate() ) {
+      double d = toDouble( valueMeta, value );
+      if ( d < min ) {
+        min = d;
+      }
+      if ( d > max ) {
+        max = d;
+      }
+    }
+  }
+
+  /**
+   * Reads the value as the native type the row holds; ValueMetaInterface.getNumber would box a Double per row.
+   */
+  static double toDouble( ValueMetaInterface valueMeta, Object value ) throws KettleValueException {
+    Object data = valueMeta.isStorageBinaryString() ? valueMeta.convertToNormalStorageType( value ) : value;
+    if ( data instanceof Double ) {
+      return (Double) data;
+    }
+    if ( data instanceof Long ) {
+      return (Long) data;
+    }
+    if ( data instanceof Date ) {
+      return ( (Date) data ).getTime();
+    }
+    if ( data instanceof Number ) {
+      return ( (Number) data ).doubleValue();
+    }
+    return valueMeta.isDate() ? valueMeta.getDate( value ).getTime() : valueMeta.getNumber( value );
+  }
+
+  public void merge( ColumnProfile other ) {
+    count += other.count;
+    nullCount += other.nullCount;
+    min = Math.min( min, other.min );
+    max = Math.max( max, other.max );
+    distinct.merge( other.distinct );
+    if ( other.sample != null ) {
+      if ( sample == null ) {
+        sample = new ReservoirSample( other.sample.getCapacity() );
+      }
+      sample.merge( other.sample );
+    }
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public long getCount() {
+    return count;
+  }
+
+  public long getNullCount() {
+    return nullCount;
+  }
+
+  public boolean hasRange() {
+    return min <= max;
+  }
+
+  public double getMin() {
+    return min;
+  }
+
+  public double getMax() {
+    return max;
+  }
+
+  public Date getMinDate() {
+    return hasRange() ? new Date( (long) min ) : null;
+  }
+
+  public Date getMaxDate() {
+    return hasRange() ? new Date( (long) max ) : null;
+  }
+
+  /**
+   * @return approximate number of distinct non-null values, never more than the non-null count
+   */
+  public long getDistinctCount() {
+    return Math.min( distinct.cardinality(), count - nullCount );
+  }
+
+  /**
+   * @return sampled non-null values (String, or Date for date fields); empty if the field isn't sampled
+   */
+  public List<Object> getSample() {
+    return sample == null ? Collections.emptyList() : sample.getValues();
+  }
+
+  HyperLogLog getSketch() {
+    return distinct;
+  }
+
+  @Override
+  public String toString() {
+    return name + "[count=" + count + ", nulls=" + nullCount + ", distinct~" + getDistinctCount() + "]";
+  }
+}
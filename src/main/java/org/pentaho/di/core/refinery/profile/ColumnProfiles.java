@@ -0,0 +1,113 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.di.core.refinery.profile;
+
+import org.pentaho.di.core.exception.KettleValueException;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.ValueMetaInterface;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Profiles for all fields of a stream. A step copy fills one instance through {@link #offer(Object[])} and
+ * merges it into the shared instance once the stream ends. The cost of profiling is measured on every
+ * {@link #TIMING_INTERVAL}th row.
+ */
+public class ColumnProfiles {
+
+  static final int TIMING_INTERVAL = 1024;
+
+  private final Map<String, ColumnProfile> profiles = new TreeMap<>( String.CASE_INSENSITIVE_ORDER );
+  private RowMetaInterface rowMeta;
+  private ColumnProfile[] byIndex;
+  private long rowCount;
+  private long timedRows;
+  private long timedNanos;
+
+  public ColumnProfiles() {
+  }
+
+  public ColumnProfiles( RowMetaInterface rowMeta ) {
+    this( rowMeta, 0 );
+  }
+
+  /**
+   * @param sampleSize values to sample per string and date field, 0 for none
+   */
+  public ColumnProfiles( RowMetaInterface rowMeta, int sampleSize ) {
+    this.rowMeta = rowMeta;
+    byIndex = new ColumnProfile[ rowMeta.size() ];
+    for ( int i = 0; i < byIndex.length; i++ ) {
+      ValueMetaInterface valueMeta = rowMeta.getValueMeta( i );
+      boolean sampled = valueMeta.isString() || valueMeta.isDate();
+      byIndex[ i ] = new ColumnProfile( valueMeta.getName(), sampled ? sampleSize : 0 );
+      profiles.put( byIndex[ i ].getName(), byIndex[ i ] );
+    }
+  }
+
+  public void offer( Object[] row ) throws KettleValueException {
+    if ( ( rowCount++ & ( TIMING_INTERVAL - 1 ) ) == 0 ) {
+      long start = System.nanoTime();
+      offerValues( row );
+      timedNanos += System.nanoTime() - start;
+      timedRows++;
+    } else {
+      offerValues( row );
+    }
+  }
+
+  private void offerValues( Object[] row ) throws KettleValueException {
+    for ( int i = 0; i < byIndex.length; i++ ) {
+      byIndex[ i ].offer( rowMeta.getValueMeta( i ), row[ i ] );
+    }
+  }
+
+  public synchronized void merge( ColumnProfiles other ) {
+    synchronized ( other ) {
+      rowCount += other.rowCount;
+      timedRows += other.timedRows;
+      timedNanos += other.timedNanos;
+      for ( ColumnProfile profile : other.profiles.values() ) {
+        ColumnProfile existing = profiles.get( profile.getName() );
+        if ( existing == null ) {
+          existing = new ColumnProfile( profile.getName() );
+          profiles.put( profile.getName(), existing );
+        }
+        existing.merge( profile );
+      }
+    }
+  }
+
+  public synchronized ColumnProfile get( String fieldName ) {
+    return fieldName == null ? null : profiles.get( fieldName );
+  }
+
+  public synchronized Collection<ColumnProfile> getProfiles() {
+    return Collections.unmodifiableCollection( new ArrayList<>( profiles.values() ) );
+  }
+
+  public synchronized long getRowCount() {
+    return rowCount;
+  }
+
+  /**
+   * @return measured average profiling cost per row in nanoseconds, 0 before the first row
+   */
+  public synchronized long getNanosPerRow() {
+    return timedRows == 0 ? 0 : timedNanos / timedRows;
+  }
+}
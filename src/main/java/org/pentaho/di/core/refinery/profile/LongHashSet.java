@@ -0,0 +1,109 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.di.core.refinery.profile;
+
+/**
+ * Set of 64 bit hashes in a single open addressing <code>long[]</code>: 8 to 16 bytes per member and no object per
+ * entry, so tens of millions of members stay cheap for the garbage collector.
+ */
+public class LongHashSet {
+
+  private static final int MAX_CAPACITY = 1 << 30;
+
+  private long[] table;
+  private boolean containsZero;
+  private int size;
+  private int resizeAt;
+
+  public LongHashSet() {
+    this( 1024 );
+  }
+
+  public LongHashSet( int expectedSize ) {
+    int wanted = (int) Math.min( MAX_CAPACITY, Math.max( 16L, 2L * expectedSize ) );
+    allocate( Integer.highestOneBit( wanted - 1 ) << 1 );
+  }
+
+  /**
+   * @return false if the hash was already in the set
+   */
+  public boolean add( long hash ) {
+    if ( hash == 0 ) {
+      // 0 marks a free slot
+      boolean added = !containsZero;
+      containsZero = true;
+      size += added ? 1 : 0;
+      return added;
+    }
+    int mask = table.length - 1;
+    int slot = (int) ValueHash.mix( hash ) & mask;
+    while ( table[ slot ] != 0 ) {
+      if ( table[ slot ] == hash ) {
+        return false;
+      }
+      slot = ( slot + 1 ) & mask;
+    }
+    table[ slot ] = hash;
+    if ( ++size > resizeAt ) {
+      grow();
+    }
+    return true;
+  }
+
+  public boolean contains( long hash ) {
+    if ( hash == 0 ) {
+      return containsZero;
+    }
+    int mask = table.length - 1;
+    int slot = (int) ValueHash.mix( hash ) & mask;
+    while ( table[ slot ] != 0 ) {
+      if ( table[ slot ] == hash ) {
+        return true;
+      }
+      slot = ( slot + 1 ) & mask;
+    }
+    return false;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  private void grow() {
+    if ( table.length >= MAX_CAPACITY ) {
+      if ( size >= table.length - 1 ) {
+        throw new IllegalStateException( "LongHashSet is full" );
+      }
+      // keep filling past the load factor rather than failing
+      resizeAt = table.length - 1;
+      return;
+    }
+    long[] old = table;
+    allocate( old.length << 1 );
+    int mask = table.length - 1;
+    for ( long hash : old ) {
+      if ( hash != 0 ) {
+        int slot = (int) ValueHash.mix( hash ) & mask;
+        while ( table[ slot ] != 0 ) {
+          slot = ( slot + 1 ) & mask;
+        }
+        table[ slot ] = hash;
+      }
+    }
+  }
+
+  private void allocate( int capacity ) {
+    table = new long[ capacity ];
+    resizeAt = (int) ( capacity * 0.75 );
+  }
+}
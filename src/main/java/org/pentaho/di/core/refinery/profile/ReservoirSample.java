@@ -0,0 +1,133 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.di.core.refinery.profile;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Uniform fixed size sample of a value stream (reservoir sampling). Values are only stored when they enter the
+ * reservoir, so after warm-up almost all offers are a counter increment and a random draw.
+ */
+public class ReservoirSample {
+
+  private final Object[] values;
+  private long seen;
+  private long random;
+
+  public ReservoirSample( int capacity ) {
+    this( capacity, System.nanoTime() );
+  }
+
+  ReservoirSample( int capacity, long seed ) {
+    values = new Object[ capacity ];
+    random = ValueHash.mix( seed );
+    if ( random == 0 ) {
+      random = 0x9e3779b97f4a7c15L;
+    }
+  }
+
+  /**
+   * @return the slot the next offered value goes to, or -1 if it is not sampled. The caller stores the value with
+   * {@link #set(int, Object)}, which lets it skip any conversion for values that are not kept.
+   */
+  public int nextSlot() {
+    seen++;
+    if ( seen <= values.length ) {
+      return (int) ( seen - 1 );
+    }
+    long draw = nextLong( seen );
+    return draw < values.length ? (int) draw : -1;
+  }
+
+  public void set( int slot, Object value ) {
+    values[ slot ] = value;
+  }
+
+  public void offer( Object value ) {
+    int slot = nextSlot();
+    if ( slot >= 0 ) {
+      set( slot, value );
+    }
+  }
+
+  /**
+   * Merges another reservoir; the result stays uniform over both streams.
+   */
+  public void merge( ReservoirSample other ) {
+    List<Object> mine = getValues();
+    List<Object> theirs = other.getValues();
+    long mySeen = seen;
+    long theirSeen = other.seen;
+    seen += other.seen;
+    if ( mine.size() + theirs.size() <= values.length ) {
+      Arrays.fill( values, null );
+      int i = 0;
+      for ( Object value : mine ) {
+        values[ i++ ] = value;
+      }
+      for ( Object value : theirs ) {
+        values[ i++ ] = value;
+      }
+      return;
+    }
+    shuffle( mine );
+    shuffle( theirs );
+    Arrays.fill( values, null );
+    int fromMine = 0;
+    int fromTheirs = 0;
+    for ( int i = 0; i < values.length; i++ ) {
+      // draw from each side in proportion to the rows it stands for
+      boolean takeMine = fromTheirs >= theirs.size()
+        || ( fromMine < mine.size() && nextLong( mySeen + theirSeen ) < mySeen );
+      values[ i ] = takeMine ? mine.get( fromMine++ ) : theirs.get( fromTheirs++ );
+    }
+  }
+
+  public List<Object> getValues() {
+    int size = (int) Math.min( seen, values.length );
+    List<Object> sample = new ArrayList<Object>( size );
+    for ( int i = 0; i < size; i++ ) {
+      if ( values[ i ] != null ) {
+        sample.add( values[ i ] );
+      }
+    }
+    return sample;
+  }
+
+  public long getSeen() {
+    return seen;
+  }
+
+  public int getCapacity() {
+    return values.length;
+  }
+
+  private void shuffle( List<Object> list ) {
+    for ( int i = list.size() - 1; i > 0; i-- ) {
+      Collections.swap( list, i, (int) nextLong( i + 1 ) );
+    }
+  }
+
+  /**
+   * xorshift; uniform enough for sampling and free of allocation and contention
+   */
+  private long nextLong( long bound ) {
+    random ^= random << 13;
+    random ^= random >>> 7;
+    random ^= random << 17;
+    return ( random >>> 1 ) % bound;
+  }
+}
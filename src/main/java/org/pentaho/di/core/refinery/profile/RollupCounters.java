@@ -0,0 +1,148 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.di.core.refinery.profile;
+
+import org.pentaho.di.core.exception.KettleValueException;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.ValueMetaInterface;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Approximate distinct counts of field combinations, so the number of rows an aggregate table on those fields would
+ * hold is known once the fact rows have streamed by. Each combination takes one fixed size sketch, whatever the
+ * number of rows or members.
+ */
+public class RollupCounters {
+
+  private final Map<String, Rollup> rollups = new LinkedHashMap<>();
+  private int[] fieldIndexes;
+  private ValueMetaInterface[] fieldMetas;
+  private long[] fieldHashes;
+  private Rollup[] byPosition;
+  private int[][] positions;
+  private long rowCount;
+
+  public RollupCounters() {
+    this( null, Collections.<List<String>>emptyList() );
+  }
+
+  /**
+   * Combinations with a field that is not in the row are left out.
+   */
+  public RollupCounters( RowMetaInterface rowMeta, List<List<String>> combinations ) {
+    List<Integer> used = new ArrayList<>();
+    List<int[]> rollupPositions = new ArrayList<>();
+    for ( List<String> fields : combinations ) {
+      int[] indexes = new int[ fields.size() ];
+      for ( int i = 0; i < indexes.length; i++ ) {
+        indexes[ i ] = rowMeta.indexOfValue( fields.get( i ) );
+      }
+      String key = key( fields );
+      if ( indexes.length == 0 || rollups.containsKey( key ) || min( indexes ) < 0 ) {
+        continue;
+      }
+      for ( int i = 0; i < indexes.length; i++ ) {
+        if ( !used.contains( indexes[ i ] ) ) {
+          used.add( indexes[ i ] );
+        }
+        indexes[ i ] = used.indexOf( indexes[ i ] );
+      }
+      rollups.put( key, new Rollup( fields ) );
+      rollupPositions.add( indexes );
+    }
+    fieldIndexes = new int[ used.size() ];
+    fieldMetas = new ValueMetaInterface[ used.size() ];
+    fieldHashes = new long[ used.size() ];
+    for ( int i = 0; i < fieldIndexes.length; i++ ) {
+      fieldIndexes[ i ] = used.get( i );
+      fieldMetas[ i ] = rowMeta.getValueMeta( fieldIndexes[ i ] );
+    }
+    byPosition = rollups.values().toArray( new Rollup[ 0 ] );
+    positions = rollupPositions.toArray( new int[ 0 ][] );
+  }
+
+  private static int min( int[] values ) {
+    int min = Integer.MAX_VALUE;
+    for ( int value : values ) {
+      min = Math.min( min, value );
+    }
+    return min;
+  }
+
+  private static String key( List<String> fields ) {
+    return String.join( "\n", fields );
+  }
+
+  public void offer( Object[] row ) throws KettleValueException {
+    rowCount++;
+    for ( int i = 0; i < fieldIndexes.length; i++ ) {
+      Object value = row[ fieldIndexes[ i ] ];
+      fieldHashes[ i ] = fieldMetas[ i ].isNull( value ) ? 0 : ValueHash.hash( fieldMetas[ i ], value );
+    }
+    for ( int r = 0; r < byPosition.length; r++ ) {
+      long hash = 1;
+      for ( int position : positions[ r ] ) {
+        hash = ValueHash.mix( hash * 31 + fieldHashes[ position ] );
+      }
+      byPosition[ r ].distinct.offer( hash );
+    }
+  }
+
+  /**
+   * Adds the counts of another step copy; the other counters must not be offered rows afterwards.
+   */
+  public synchronized void merge( RollupCounters other ) {
+    rowCount += other.rowCount;
+    for ( Map.Entry<String, Rollup> entry : other.rollups.entrySet() ) {
+      Rollup existing = rollups.get( entry.getKey() );
+      if ( existing == null ) {
+        existing = new Rollup( entry.getValue().getFields() );
+        rollups.put( entry.getKey(), existing );
+      }
+      existing.distinct.merge( entry.getValue().distinct );
+    }
+  }
+
+  public synchronized long getRowCount() {
+    return rowCount;
+  }
+
+  public synchronized List<Rollup> getRollups() {
+    return new ArrayList<>( rollups.values() );
+  }
+
+  public static class Rollup {
+    private final List<String> fields;
+    private final HyperLogLog distinct = new HyperLogLog();
+
+    Rollup( List<String> fields ) {
+      this.fields = Collections.unmodifiableList( new ArrayList<>( fields ) );
+    }
+
+    public List<String> getFields() {
+      return fields;
+    }
+
+    /**
+     * @return estimated number of distinct combinations, the rows of an aggregate table on the fields
+     */
+    public long getDistinctCount() {
+      return distinct.cardinality();
+    }
+  }
+}
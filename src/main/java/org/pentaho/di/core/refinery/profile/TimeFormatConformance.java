@@ -0,0 +1,99 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.di.core.refinery.profile;
+
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.Locale;
+
+/**
+ * Counts the values of a time level field that do not parse with the source format of its annotation. The parser is
+ * created once per field and values seen to parse are remembered by hash, so the few distinct values of a time
+ * level are parsed once each instead of once per row.
+ */
+public class TimeFormatConformance {
+
+  static final int MAX_REMEMBERED = 1 << 16;
+
+  private final String field;
+  private final String format;
+  private final SimpleDateFormat parser;
+  private final ParsePosition position = new ParsePosition( 0 );
+  private final LongHashSet conforming = new LongHashSet();
+  private long checked;
+  private long mismatched;
+  private String firstMismatch;
+
+  /**
+   * @throws IllegalArgumentException if the format is not a java date pattern
+   */
+  public TimeFormatConformance( String field, String format ) {
+    this.field = field;
+    this.format = format;
+    parser = new SimpleDateFormat( format, Locale.ENGLISH );
+    parser.setLenient( false );
+  }
+
+  /**
+   * @return false if the value does not parse with the format as a whole; nulls are not checked
+   */
+  public boolean offer( String value ) {
+    if ( value == null ) {
+      return true;
+    }
+    checked++;
+    long hash = ValueHash.hash( value );
+    if ( conforming.contains( hash ) ) {
+      return true;
+    }
+    position.setIndex( 0 );
+    position.setErrorIndex( -1 );
+    if ( parser.parse( value, position ) != null && position.getIndex() == value.length() ) {
+      if ( conforming.size() < MAX_REMEMBERED ) {
+        conforming.add( hash );
+      }
+      return true;
+    }
+    if ( mismatched++ == 0 ) {
+      firstMismatch = value;
+    }
+    return false;
+  }
+
+  public String getField() {
+    return field;
+  }
+
+  public String getFormat() {
+    return format;
+  }
+
+  public long getChecked() {
+    return checked;
+  }
+
+  public long getMismatched() {
+    return mismatched;
+  }
+
+  public String getFirstMismatch() {
+    return firstMismatch;
+  }
+
+  /**
+   * @return percentage of the checked values that did not parse, 0 when nothing was checked
+   */
+  public double getMismatchPercent() {
+    return checked == 0 ? 0 : 100.0 * mismatched / checked;
+  }
+}
@@ -0,0 +1,119 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.di.core.refinery.profile;
+
+import org.pentaho.di.core.exception.KettleValueException;
+import org.pentaho.di.core.row.ValueMetaInterface;
+
+import java.math.BigDecimal;
+import java.util.Date;
+
+/**
+ * Allocation-free 64 bit hashing of row values, shared by the in-stream sketches.
+ */
+public final class ValueHash {
+
+  private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+  private static final long FNV_PRIME = 0x100000001b3L;
+
+  private ValueHash() {
+  }
+
+  /**
+   * Hashes a non-null row value. Values that are equal in the database should hash equally regardless of the
+   * java type they arrive with, so integral numbers all hash as longs.
+   */
+  public static long hash( ValueMetaInterface valueMeta, Object value ) throws KettleValueException {
+    if ( valueMeta != null && valueMeta.isStorageBinaryString() && value instanceof byte[] ) {
+      return hash( (byte[]) value );
+    }
+    return hash( value );
+  }
+
+  /**
+   * Hashes a key value so that it matches the same key held in a field of another type, as a fact table's foreign
+   * key may be a string where the dimension key is a number. Numbers are hashed by their plain decimal form,
+   * other values by their string form in normal storage.
+   */
+  public static long hashKey( ValueMetaInterface valueMeta, Object value ) throws KettleValueException {
+    Object normal = valueMeta.convertToNormalStorageType( value );
+    if ( normal instanceof String ) {
+      return hash( (String) normal );
+    } else if ( normal instanceof Long || normal instanceof Integer || normal instanceof Short
+        || normal instanceof Byte ) {
+      return hash( Long.toString( ( (Number) normal ).longValue() ) );
+    } else if ( normal instanceof Double || normal instanceof Float ) {
+      double d = ( (Number) normal ).doubleValue();
+      return hash( Double.isNaN( d ) || Double.isInfinite( d )
+          ? String.valueOf( d ) : BigDecimal.valueOf( d ).stripTrailingZeros().toPlainString() );
+    } else if ( normal instanceof BigDecimal ) {
+      BigDecimal bd = (BigDecimal) normal;
+      return hash( bd.signum() == 0 ? "0" : bd.stripTrailingZeros().toPlainString() );
+    } else if ( normal instanceof Date ) {
+      return hash( Long.toString( ( (Date) normal ).getTime() ) );
+    }
+    return normal == null ? 0L : hash( valueMeta.getString( normal ) );
+  }
+
+  public static long hash( Object value ) {
+    if ( value instanceof String ) {
+      return hash( (String) value );
+    } else if ( value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte ) {
+      return mix( ( (Number) value ).longValue() );
+    } else if ( value instanceof Double ) {
+      double d = (Double) value;
+      return d == Math.rint( d ) && !Double.isInfinite( d ) ? mix( (long) d ) : mix( Double.doubleToLongBits( d ) );
+    } else if ( value instanceof BigDecimal ) {
+      BigDecimal bd = (BigDecimal) value;
+      return bd.signum() == 0 || bd.scale() <= 0 || bd.stripTrailingZeros().scale() <= 0
+        ? mix( bd.longValue() ) : mix( Double.doubleToLongBits( bd.doubleValue() ) );
+    } else if ( value instanceof Date ) {
+      return mix( ( (Date) value ).getTime() );
+    } else if ( value instanceof Boolean ) {
+      return mix( ( (Boolean) value ) ? 1L : 0L );
+    } else if ( value instanceof byte[] ) {
+      return hash( (byte[]) value );
+    }
+    return value == null ? 0L : mix( value.hashCode() );
+  }
+
+  public static long hash( String value ) {
+    long h = FNV_OFFSET;
+    for ( int i = 0; i < value.length(); i++ ) {
+      h ^= value.charAt( i );
+      h *= FNV_PRIME;
+    }
+    return mix( h );
+  }
+
+  public static long hash( byte[] value ) {
+    long h = FNV_OFFSET;
+    for ( byte b : value ) {
+      h ^= b & 0xff;
+      h *= FNV_PRIME;
+    }
+    return mix( h );
+  }
+
+  /**
+   * murmur3 finalizer
+   */
+  public static long mix( long k ) {
+    k ^= k >>> 33;
+    k *= 0xff51afd7ed558ccdL;
+    k ^= k >>> 33;
+    k *= 0xc4ceb9fe1a85ec53L;
+    k ^= k >>> 33;
+    return k;
+  }
+}
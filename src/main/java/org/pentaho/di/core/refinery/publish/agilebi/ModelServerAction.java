@@ -126,6 +126,10 @@ public class ModelServerAction {
     setupClient( getClient(), biServerConnection );
   }
 
+  public BiServerConnection getBiServerConnection() {
+    return biServerConnection;
+  }
+
   protected void setupClient( Client client, BiServerConnection biServerConnection ) {
     client
       .addFilter( new HTTPBasicAuthFilter( biServerConnection.getUserId(), biServerConnection.getPassword() ) );
@@ -16,26 +16,45 @@ package org.pentaho.di.job.entries.build;
 import org.apache.commons.lang.BooleanUtils;
 import org.apache.commons.lang.StringUtils;
 import org.pentaho.agilebi.modeler.ModelerException;
+import org.pentaho.agilebi.modeler.models.annotations.CreateAttribute;
+import org.pentaho.agilebi.modeler.models.annotations.LinkDimension;
+import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotation;
 import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotationGroup;
+import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotationManager;
 import org.pentaho.agilebi.modeler.util.TableModelerSource;
 import org.pentaho.di.cluster.SlaveServer;
 import org.pentaho.di.core.Const;
 import org.pentaho.di.core.ProvidesDatabaseConnectionInformation;
 import org.pentaho.di.core.Result;
+import org.pentaho.di.core.database.Database;
 import org.pentaho.di.core.database.DatabaseMeta;
 import org.pentaho.di.core.encryption.Encr;
+import org.pentaho.di.core.exception.KettleDatabaseException;
 import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.exception.KettleXMLException;
 import org.pentaho.di.core.logging.LogChannel;
+import org.pentaho.di.core.refinery.DataProviderUpdateQueue;
+import org.pentaho.di.core.refinery.ModelAnnotationRegistry;
+import org.pentaho.di.core.refinery.OutputStepSnapshot;
+import org.pentaho.di.core.refinery.model.AggregateAdvisor;
 import org.pentaho.di.core.refinery.model.AnalysisModeler;
 import org.pentaho.di.core.refinery.model.DswModeler;
 import org.pentaho.di.core.refinery.model.DswModeler.ColumnMismatchException;
 import org.pentaho.di.core.refinery.model.DswModeler.UnsupportedModelException;
+import org.pentaho.di.core.refinery.model.IndexAdvisor;
+import org.pentaho.di.core.refinery.model.ModelArtifactStore;
+import org.pentaho.di.core.refinery.model.ModelCatalogCache;
+import org.pentaho.di.core.refinery.model.ModelFingerprint;
 import org.pentaho.di.core.refinery.model.ModelServerFetcher;
 import org.pentaho.di.core.refinery.model.ModelServerFetcher.AuthorizationException;
 import org.pentaho.di.core.refinery.model.ModelServerFetcher.ServerException;
+import org.pentaho.di.core.refinery.model.ModelXmiCache;
 import org.pentaho.di.core.refinery.model.RefineryValueMetaStrategy;
+import org.pentaho.di.core.refinery.model.ValueRoleDetector;
+import org.pentaho.di.core.refinery.profile.ColumnProfiles;
+import org.pentaho.di.core.refinery.profile.RollupCounters;
 import org.pentaho.di.core.refinery.publish.agilebi.BiServerConnection;
+import org.pentaho.di.core.row.RowMetaInterface;
 import org.pentaho.di.core.xml.XMLHandler;
 import org.pentaho.di.i18n.BaseMessages;
 import org.pentaho.di.job.Job;
@@ -49,7 +68,6 @@ import org.pentaho.di.repository.Repository;
 import org.pentaho.di.trans.TransMeta;
 import org.pentaho.di.trans.dataservice.DataServiceContext;
 import org.pentaho.di.trans.dataservice.client.DataServiceConnectionInformation;
-import org.pentaho.di.trans.step.StepMetaDataCombi;
 import org.pentaho.di.trans.util.TransUtil;
 import org.pentaho.di.ui.job.entries.build.JobEntryBuildModelDialog;
 import org.pentaho.di.ui.job.entries.common.ConnectionValidator;
@@ -60,9 +78,15 @@ import org.pentaho.metastore.api.IMetaStore;
 import org.pentaho.metastore.api.exceptions.MetaStoreException;
 import org.w3c.dom.Node;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import static org.pentaho.di.core.Const.nullToEmpty;
 import static org.pentaho.platform.util.StringUtil.isEmpty;
@@ -76,6 +100,8 @@ public class JobEntryBuildModel extends JobEntryBase implements JobEntryInterfac
   public static final String PLUGIN_ID = "DataRefineryBuildModel";
   public static final String KEY_MODEL_ANNOTATIONS = "KEY_MODEL_ANNOTATIONS";
   public static final String KEY_OUTPUT_STEP_PREFIX = "JobEntryBuildModel.OutputStep.";
+  public static final String KEY_COLUMN_PROFILES = "JobEntryBuildModel.ColumnProfiles";
+  public static final String KEY_ROLLUPS = "JobEntryBuildModel.Rollups";
   private static Class<?> PKG = JobEntryBuildModel.class; // for i18n purposes, needed by Translator2!!
 
   private DswModeler modeler;
@@ -88,9 +114,16 @@ public class JobEntryBuildModel extends JobEntryBase implements JobEntryInterfac
 
   private boolean createOnPublish;
   private String selectedModel;
+  private boolean emitAggregates;
+  private boolean applyIndexes;
   private BiServerConnection biServerConnection;
   private DataServiceContext dataServiceContext;
 
+  /* level columns of each hierarchy of the model built last */
+  private List<List<String>> modeledHierarchies;
+  /* annotations read from the registry while executing, consumed once done */
+  private ModelAnnotationGroup annotationsRead;
+
   public boolean useExistingModel() {
     return useExistingModel;
   }
@@ -126,6 +159,8 @@ public class JobEntryBuildModel extends JobEntryBase implements JobEntryInterfac
     public static final String BASERVER_PASSWORD = "ba_server_password";
     public static final String SELECTED_MODEL = "selected_model";
     public static final String CREATE_ON_PUBLISH = "create_on_publish";
+    public static final String EMIT_AGGREGATES = "emit_aggregates";
+    public static final String APPLY_INDEXES = "apply_indexes";
   }
 
   public JobEntryBuildModel() {
@@ -220,9 +255,7 @@ public class JobEntryBuildModel extends JobEntryBase implements JobEntryInterfac
         if ( !modelExists( existingModelId, fetcher ) ) {
           if ( isCreateOnPublish() ) {
             logBasic( getMsg( "BuildModelJob.Info.ModelNotFound", existingModelId ) );
-            modeledDomain =
-                getDswModeler()
-                    .createModel( modelName, source, dbMeta, importStrategy, modelAnnotations, getMetaStore() );
+            return createXmi( modelName, source, dbMeta, importStrategy, modelAnnotations );
           } else {
             if ( Const.isEmpty( existingModelId ) ) {
               throw new KettleException( getMsg( "BuildModelJob.Error.ModelNullNotFound", getName() ) );
@@ -235,13 +268,9 @@ public class JobEntryBuildModel extends JobEntryBase implements JobEntryInterfac
           modeledDomain = getDswModeler().updateModel( modelName, templateModel, dbMeta, schemaName, tableName );
         }
       } else {
-        modeledDomain =
-            getDswModeler()
-                .createModel( modelName, source, dbMeta, importStrategy, modelAnnotations, getMetaStore() );
+        return createXmi( modelName, source, dbMeta, importStrategy, modelAnnotations );
       }
-      XmiParser parser = new XmiParser();
-      String localXmi = parser.generateXmi( modeledDomain );
-      return localXmi;
+      return toXmi( modeledDomain );
     } catch ( AuthorizationException e ) {
       throw new KettleException( getMsg( "BuildModelJob.Error.Authorization" ) );
     } catch ( ServerException e ) {
@@ -263,7 +292,126 @@ public class JobEntryBuildModel extends JobEntryBase implements JobEntryInterfac
     }
   }
 
+  /**
+   * Creates a new model, or takes its XMI from the cache when none of its inputs changed since it was last created.
+   */
+  private String createXmi( final String modelName, final TableModelerSource source, final DatabaseMeta dbMeta,
+                            final PhysicalTableImporter.ImportStrategy importStrategy,
+                            final ModelAnnotationGroup modelAnnotations ) throws Exception {
+    ModelAnnotationGroup annotations = withDetectedRoles( modelAnnotations );
+    ModelXmiCache cache = getModelXmiCache();
+    String fingerprint = cache.isEnabled()
+        ? fingerprint( modelName, dbMeta, source.getSchemaName(), source.getTableName(), annotations ) : null;
+    if ( fingerprint != null ) {
+      String cachedXmi = cache.get( fingerprint );
+      if ( cachedXmi != null ) {
+        logBasic( getMsg( "BuildModelJob.Info.ModelCacheHit", modelName, fingerprint ) );
+        // the hierarchies indexes are advised for come from the model itself
+        modeledHierarchies = IndexAdvisor.hierarchies( new XmiParser().parseXmi(
+            new ByteArrayInputStream( cachedXmi.getBytes( StandardCharsets.UTF_8 ) ) ) );
+        return cachedXmi;
+      }
+    }
+    String xmi = toXmi( getDswModeler().createModel( modelName, source, dbMeta, importStrategy, annotations,
+        getMetaStore() ) );
+    if ( fingerprint != null ) {
+      try {
+        cache.put( fingerprint, xmi );
+      } catch ( IOException e ) {
+        logError( getMsg( "BuildModelJob.Error.ModelCache", modelName ), e );
+      }
+    }
+    return xmi;
+  }
+
+  private String toXmi( final Domain modeledDomain ) throws Exception {
+    modeledHierarchies = IndexAdvisor.hierarchies( modeledDomain );
+    XmiParser parser = new XmiParser();
+    return parser.generateXmi( modeledDomain );
+  }
+
+  /**
+   * @return the fingerprint of what a new model depends on, null if it can't be told, as for data services
+   */
+  String fingerprint( final String modelName, final DatabaseMeta dbMeta, final String schemaName,
+                      final String tableName, final ModelAnnotationGroup modelAnnotations ) {
+    try {
+      if ( getConnectionInfo() instanceof DataServiceConnectionInformation || dbMeta == null ) {
+        return null;
+      }
+      ModelFingerprint fingerprint = new ModelFingerprint()
+          .add( modelName )
+          .add( String.valueOf( getDswModeler().isUseJndi() ) )
+          .addConnection( dbMeta )
+          .add( schemaName )
+          .add( tableName )
+          .addFields( getTableFields( dbMeta, schemaName, tableName ) );
+      // the output step decides the types of the physical columns
+      OutputStepSnapshot outputStep = getOutputStepSnapshot();
+      if ( outputStep != null ) {
+        fingerprint.addFields( outputStep.getInsertRowMeta() )
+            .add( outputStep.getDatabaseFields() )
+            .add( outputStep.getStreamFields() );
+      } else {
+        fingerprint.add( (String) null );
+      }
+      fingerprint.addAnnotations( modelAnnotations );
+      // the shared dimensions linked to are read from the MetaStore when the annotations are applied
+      for ( ModelAnnotation<?> annotation : modelAnnotations ) {
+        if ( annotation != null && annotation.getType() == ModelAnnotation.Type.LINK_DIMENSION ) {
+          String sharedDimension = ( (LinkDimension) annotation.getAnnotation() ).getSharedDimension();
+          fingerprint.add( sharedDimension ).addAnnotations( readSharedDimension( sharedDimension ) );
+        }
+      }
+      return fingerprint
+          .addGeoContext( getDswModeler().getGeoContextConfigProvider() )
+          .getValue();
+    } catch ( KettleException | MetaStoreException e ) {
+      logDebug( getMsg( "BuildModelJob.Debug.NoFingerprint", modelName, e.getMessage() ) );
+      return null;
+    }
+  }
+
+  /**
+   * @return the shared dimension as the model would link to it, null if the MetaStore doesn't have it
+   */
+  ModelAnnotationGroup readSharedDimension( final String name ) throws MetaStoreException {
+    IMetaStore metaStore = getMetaStore();
+    return metaStore == null ? null : new ModelAnnotationManager( true ).readGroup( name, metaStore );
+  }
+
+  RowMetaInterface getTableFields( final DatabaseMeta dbMeta, final String schemaName, final String tableName )
+    throws KettleDatabaseException {
+    Database database = new Database( this, dbMeta );
+    try {
+      database.connect();
+      return database.getTableFields( dbMeta.getQuotedSchemaTableCombination( schemaName, tableName ) );
+    } finally {
+      database.disconnect();
+    }
+  }
+
+  ModelXmiCache getModelXmiCache() {
+    return ModelXmiCache.getInstance();
+  }
+
+  List<List<String>> getModeledHierarchies() {
+    return modeledHierarchies;
+  }
+
+  DataProviderUpdateQueue getDataProviderUpdateQueue() {
+    return DataProviderUpdateQueue.getInstance();
+  }
+
   private ModelAnnotationGroup getModelAnnotations() {
+    ModelAnnotationRegistry registry = ModelAnnotationRegistry.get( this.getParentJob().getExtensionDataMap() );
+    if ( registry != null ) {
+      ModelAnnotationGroup annotations = registry.getAnnotations();
+      if ( annotationsRead != null ) {
+        annotationsRead.addAll( annotations );
+      }
+      return annotations;
+    }
     Object modelAnnotationGroup = this.getParentJob().getExtensionDataMap().get( KEY_MODEL_ANNOTATIONS );
     if ( modelAnnotationGroup != null && modelAnnotationGroup instanceof ModelAnnotationGroup ) {
       return (ModelAnnotationGroup) modelAnnotationGroup;
@@ -271,16 +419,64 @@ public class JobEntryBuildModel extends JobEntryBase implements JobEntryInterfac
     return new ModelAnnotationGroup();
   }
 
+  /**
+   * Adds the geographic and time roles detected from the values Annotate Stream sampled, for fields without an
+   * annotation of their own. The group that was passed in is left untouched.
+   */
+  ModelAnnotationGroup withDetectedRoles( ModelAnnotationGroup modelAnnotations ) {
+    ColumnProfiles profiles = getColumnProfiles();
+    if ( profiles == null ) {
+      return modelAnnotations;
+    }
+    Set<String> annotatedFields = new HashSet<>();
+    for ( ModelAnnotation<?> annotation : modelAnnotations ) {
+      if ( annotation.getAnnotation() != null && annotation.getAnnotation().getField() != null ) {
+        annotatedFields.add( annotation.getAnnotation().getField() );
+      }
+    }
+    List<CreateAttribute> detected = new ValueRoleDetector().detect( profiles, annotatedFields );
+    if ( detected.isEmpty() ) {
+      return modelAnnotations;
+    }
+    ModelAnnotationGroup group = new ModelAnnotationGroup();
+    group.setName( modelAnnotations.getName() );
+    group.setDescription( modelAnnotations.getDescription() );
+    group.setSharedDimension( modelAnnotations.isSharedDimension() );
+    group.setDataProviders( modelAnnotations.getDataProviders() );
+    group.addAll( modelAnnotations );
+    for ( CreateAttribute attribute : detected ) {
+      logBasic( getMsg( "BuildModelJob.Info.RoleDetected", attribute.getField(),
+          attribute.getGeoType() != null ? attribute.getGeoType().name() : attribute.getTimeType().name() ) );
+      group.add( new ModelAnnotation<>( attribute ) );
+    }
+    return group;
+  }
+
+  ColumnProfiles getColumnProfiles() {
+    Object columnProfiles = getPublishedForOutputStep( KEY_COLUMN_PROFILES );
+    return columnProfiles instanceof ColumnProfiles ? (ColumnProfiles) columnProfiles : null;
+  }
+
+  /**
+   * Annotate Stream publishes profiles and rollups per output step downstream of it, so only what was counted for the
+   * rows this entry models is used.
+   */
+  private Object getPublishedForOutputStep( String key ) {
+    Object byOutputStep = this.getParentJob().getExtensionDataMap().get( key );
+    String outputStep = StringUtils.trimToNull( environmentSubstitute( getOutputStep() ) );
+    return byOutputStep instanceof Map && outputStep != null ? ( (Map<?, ?>) byOutputStep ).get( outputStep ) : null;
+  }
+
   PhysicalTableImporter.ImportStrategy getImportStrategy() throws KettleException, ModelerException {
-    StepMetaDataCombi stepMetaDataCombi = getStepMetaDataCombi();
-    if ( stepMetaDataCombi != null ) {
-      return new RefineryValueMetaStrategy( stepMetaDataCombi );
+    OutputStepSnapshot outputStep = getOutputStepSnapshot();
+    if ( outputStep != null ) {
+      return new RefineryValueMetaStrategy( outputStep );
     }
     return PhysicalTableImporter.defaultImportStrategy;
   }
 
-  StepMetaDataCombi getStepMetaDataCombi() {
-    return (StepMetaDataCombi) this.getParentJob().getExtensionDataMap().get( KEY_OUTPUT_STEP_PREFIX + getName() );
+  OutputStepSnapshot getOutputStepSnapshot() {
+    return (OutputStepSnapshot) this.getParentJob().getExtensionDataMap().get( KEY_OUTPUT_STEP_PREFIX + getName() );
   }
 
   private List<TransMeta> findAllTransInJob() throws KettleException {
@@ -318,17 +514,17 @@ public class JobEntryBuildModel extends JobEntryBase implements JobEntryInterfac
   }
 
   public ProvidesDatabaseConnectionInformation getConnectionInfo() throws KettleException {
-    StepMetaDataCombi stepMetaDataCombi = getStepMetaDataCombi();
+    OutputStepSnapshot outputStep = getOutputStepSnapshot();
     String sourceName = environmentSubstitute( getOutputStep() );
-    if ( stepMetaDataCombi == null ) {
+    if ( outputStep == null ) {
       if ( isOutputStepADataService() ) {
         return new DataServiceConnectionInformation( getOutputStep(), getRepository(), log );
       }
       throw new KettleException( this.getMsg( isEmpty( sourceName )
         ? "BuildModelJob.Error.SourceUndefined" : "BuildModelJob.Error.UnableToFindStep", sourceName ) );
     }
-    if ( ProvidesDatabaseConnectionInformation.class.isAssignableFrom( stepMetaDataCombi.meta.getClass() ) ) {
-      return ProvidesDatabaseConnectionInformation.class.cast( stepMetaDataCombi.meta );
+    if ( outputStep.hasConnectionInformation() ) {
+      return outputStep;
     }
     throw new KettleException( this.getMsg( "BuildModelJob.Error.NoConnectionInfo", sourceName ) );
   }
@@ -350,10 +546,7 @@ public class JobEntryBuildModel extends JobEntryBase implements JobEntryInterfac
 
   protected boolean modelExists( String modelId, ModelServerFetcher fetcher ) throws KettleException,
     AuthorizationException, ServerException {
-    HashSet<String> allIds = new HashSet<String>();
-    allIds.addAll( fetcher.fetchAnalysisList() );
-    allIds.addAll( fetcher.fetchDswList() );
-    return allIds.contains( modelId );
+    return ModelCatalogCache.getInstance().modelExists( fetcher, modelId );
   }
 
   public BiServerConnection environmentSubstitute( BiServerConnection conn ) {
@@ -378,26 +571,53 @@ public class JobEntryBuildModel extends JobEntryBase implements JobEntryInterfac
     String outputStep = environmentSubstitute( getOutputStep() );
     String modelName = environmentSubstitute( getModelName() );
 
+    modeledHierarchies = null;
+    annotationsRead = new ModelAnnotationGroup();
     try {
+      // shared dimensions linked by the model may still be getting their data providers written
+      if ( !getDataProviderUpdateQueue().awaitCompletion( getParentJob(), DataProviderUpdateQueue.DEFAULT_WAIT ) ) {
+        logError( getMsg( "BuildModelJob.Error.DataProvidersPending",
+            String.valueOf( DataProviderUpdateQueue.DEFAULT_WAIT / 1000 ) ) );
+        result.setResult( false );
+        result.setNrErrors( 1 );
+        return result;
+      }
 
       setVarAndLogBasic( "JobEntryBuildModel.DatabaseConnection." + modelName, getConnectionInfo().getDatabaseMeta()
           .getName() );
 
+      for ( AggregateAdvisor.Recommendation aggregate : recommendAggregates() ) {
+        logBasic( getMsg( "BuildModelJob.Info.AggregateRecommended", String.join( ", ", aggregate.getFields() ),
+            String.valueOf( aggregate.getRows() ), String.valueOf( Math.round( aggregate.getReduction() ) ),
+            String.valueOf( aggregate.getFactRows() ) ) );
+      }
+
       if ( isPublishAnalysis() ) {
-        setVarAndLogDebug( "JobEntryBuildModel.Mondrian.Schema." + modelName, buildAnalysis( modelName ) );
+        setVarAndLogDebug( "JobEntryBuildModel.Mondrian.Schema." + modelName,
+            storeModel( "JobEntryBuildModel.Mondrian.Schema." + modelName, buildAnalysis( modelName ) ) );
         setVarAndLogBasic( "JobEntryBuildModel.Mondrian.Datasource." + modelName, getConnectionInfo().getDatabaseMeta()
             .getName() );
       } else {
-        setVarAndLogDebug( "JobEntryBuildModel.XMI." + modelName, buildXmi( getParentJob().getJobMeta(), outputStep,
-            modelName ) );
+        setVarAndLogDebug( "JobEntryBuildModel.XMI." + modelName, storeModel( "JobEntryBuildModel.XMI." + modelName,
+            buildXmi( getParentJob().getJobMeta(), outputStep, modelName ) ) );
         setVarAndLogBasic( "JobEntryBuildModel.XMI.DSW." + modelName, "true" );
       }
+      adviseIndexes( modelName );
 
       result.setResult( true );
     } catch ( Exception e ) {
       log.logError( e.getMessage(), e );
       result.setResult( false );
       result.setNrErrors( 1 );
+    } finally {
+      // profiles describe the load that was just modeled; the next load starts counting from scratch
+      getParentJob().getExtensionDataMap().remove( KEY_COLUMN_PROFILES );
+      getParentJob().getExtensionDataMap().remove( KEY_ROLLUPS );
+      // same for annotations, or looping jobs would re-apply those of every previous iteration; other Build Model
+      // entries of this cycle still see them until an annotating step registers again. Only what was read here is
+      // consumed; a parallel branch may have registered more in the meantime
+      ModelAnnotationRegistry.consume( getParentJob().getExtensionDataMap(), annotationsRead );
+      annotationsRead = null;
     }
 
     return result;
@@ -408,8 +628,9 @@ public class JobEntryBuildModel extends JobEntryBase implements JobEntryInterfac
     String selectedModelName = environmentSubstitute( getSelectedModel() );
 
     try {
-      if ( modelExists( selectedModelName, getModelServerFetcher() ) ) {
-        analysisFile = getModelServerFetcher().downloadAnalysisFile( selectedModelName );
+      ModelServerFetcher fetcher = getModelServerFetcher();
+      if ( modelExists( selectedModelName, fetcher ) ) {
+        analysisFile = fetcher.downloadAnalysisFile( selectedModelName );
       } else {
         if ( Const.isEmpty( selectedModelName ) ) {
           throw new KettleException( getMsg( "BuildModelJob.Error.ModelNullNotFound", getName() ) );
@@ -421,7 +642,58 @@ public class JobEntryBuildModel extends JobEntryBase implements JobEntryInterfac
       throw new KettleException( e );
     }
     AnalysisModeler analysisModeler = getAnalysisModeler();
-    return analysisModeler.replaceTableAndSchemaNames( analysisFile, modelName );
+    analysisModeler.setColumnProfiles( getColumnProfiles() );
+    if ( isEmitAggregates() ) {
+      analysisModeler.setAggregates( recommendAggregates() );
+    }
+    String schema = analysisModeler.replaceTableAndSchemaNames( analysisFile, modelName );
+    modeledHierarchies = analysisModeler.getHierarchyColumns();
+    if ( analysisModeler.getAggregateDdl() != null ) {
+      setVarAndLogBasic( "JobEntryBuildModel.Aggregates.DDL." + modelName, analysisModeler.getAggregateDdl() );
+    }
+    return schema;
+  }
+
+  /**
+   * Aggregate tables worth building, from the rollups Annotate Stream counted during the load.
+   */
+  List<AggregateAdvisor.Recommendation> recommendAggregates() {
+    Object rollups = getPublishedForOutputStep( KEY_ROLLUPS );
+    return rollups instanceof RollupCounters
+        ? new AggregateAdvisor().recommend( (RollupCounters) rollups )
+        : Collections.<AggregateAdvisor.Recommendation>emptyList();
+  }
+
+  /**
+   * Sets the statements creating the indexes the modeled table could use as a variable, and creates them over the
+   * output connection when asked to. Problems are logged; they don't fail the build.
+   */
+  void adviseIndexes( final String modelName ) {
+    if ( modeledHierarchies == null ) {
+      return;
+    }
+    try {
+      ProvidesDatabaseConnectionInformation connectionInfo = getConnectionInfo();
+      if ( connectionInfo instanceof DataServiceConnectionInformation || connectionInfo.getDatabaseMeta() == null ) {
+        return;
+      }
+      IndexAdvisor advisor = new IndexAdvisor( connectionInfo.getDatabaseMeta(),
+          StringUtils.defaultIfBlank( environmentSubstitute( connectionInfo.getSchemaName() ), "" ),
+          environmentSubstitute( connectionInfo.getTableName() ) );
+      List<String[]> indexes = advisor.recommend( modeledHierarchies,
+          IndexAdvisor.foreignKeys( getModelAnnotations() ), getColumnProfiles() );
+      if ( indexes.isEmpty() ) {
+        return;
+      }
+      setVarAndLogBasic( "JobEntryBuildModel.Indexes.DDL." + modelName, advisor.getDdl( indexes ) );
+      if ( isApplyIndexes() ) {
+        int created = advisor.apply( this, log, indexes );
+        logBasic( getMsg( "BuildModelJob.Info.IndexesApplied", String.valueOf( created ),
+            String.valueOf( indexes.size() ), connectionInfo.getDatabaseMeta().getName() ) );
+      }
+    } catch ( Exception e ) {
+      log.logError( getMsg( "BuildModelJob.Error.IndexesNotApplied", e.getMessage() ), e );
+    }
   }
 
   AnalysisModeler getAnalysisModeler() throws KettleException {
@@ -434,7 +706,18 @@ public class JobEntryBuildModel extends JobEntryBase implements JobEntryInterfac
 
   protected void setVarAndLogDebug( final String varName, final String value ) {
     parentJob.setVariable( varName, value );
-    log.logDebug( getMsg( "BuildModelJob.SetVariable", varName, parentJob.getVariable( varName ) ) );
+    log.logDebug( getMsg( "BuildModelJob.SetVariable", varName,
+        ModelArtifactStore.describe( parentJob.getVariable( varName ) ) ) );
+  }
+
+  /**
+   * Large models are kept in the artifact store for the rest of the job when an inline limit is set, the variable
+   * then only gets a handle to them.
+   *
+   * @return the value for <code>varName</code>
+   */
+  String storeModel( final String varName, final String model ) throws KettleException {
+    return ModelArtifactStore.getInstance().put( getParentJob(), varName, model );
   }
 
   protected void setVarAndLogBasic( final String varName, final String value ) {
@@ -481,6 +764,8 @@ public class JobEntryBuildModel extends JobEntryBase implements JobEntryInterfac
     }
     retval.append( "      " ).append( XMLHandler.addTagValue( Fields.SELECTED_MODEL, getSelectedModel() ) );
     retval.append( "      " ).append( XMLHandler.addTagValue( Fields.CREATE_ON_PUBLISH, isCreateOnPublish() ) );
+    retval.append( "      " ).append( XMLHandler.addTagValue( Fields.EMIT_AGGREGATES, isEmitAggregates() ) );
+    retval.append( "      " ).append( XMLHandler.addTagValue( Fields.APPLY_INDEXES, isApplyIndexes() ) );
     return retval.toString();
   }
 
@@ -504,6 +789,8 @@ public class JobEntryBuildModel extends JobEntryBase implements JobEntryInterfac
 
     setSelectedModel( XMLHandler.getTagValue( entrynode, Fields.SELECTED_MODEL ) );
     setCreateOnPublish( BooleanUtils.toBoolean( XMLHandler.getTagValue( entrynode, Fields.CREATE_ON_PUBLISH ) ) );
+    setEmitAggregates( BooleanUtils.toBoolean( XMLHandler.getTagValue( entrynode, Fields.EMIT_AGGREGATES ) ) );
+    setApplyIndexes( BooleanUtils.toBoolean( XMLHandler.getTagValue( entrynode, Fields.APPLY_INDEXES ) ) );
   }
 
   @Override
@@ -529,6 +816,8 @@ public class JobEntryBuildModel extends JobEntryBase implements JobEntryInterfac
     setSelectedModel( rep.getJobEntryAttributeString( id_jobentry, Fields.SELECTED_MODEL ) );
     setCreateOnPublish( BooleanUtils
         .toBoolean( rep.getJobEntryAttributeString( id_jobentry, Fields.CREATE_ON_PUBLISH ) ) );
+    setEmitAggregates( rep.getJobEntryAttributeBoolean( id_jobentry, Fields.EMIT_AGGREGATES ) );
+    setApplyIndexes( rep.getJobEntryAttributeBoolean( id_jobentry, Fields.APPLY_INDEXES ) );
   }
 
   public void saveRep( Repository rep, IMetaStore metaStore, ObjectId id_job ) throws KettleException {
@@ -548,6 +837,8 @@ public class JobEntryBuildModel extends JobEntryBase implements JobEntryInterfac
     }
     rep.saveJobEntryAttribute( id_job, getObjectId(), Fields.SELECTED_MODEL, getSelectedModel() );
     rep.saveJobEntryAttribute( id_job, getObjectId(), Fields.CREATE_ON_PUBLISH, isCreateOnPublish() );
+    rep.saveJobEntryAttribute( id_job, getObjectId(), Fields.EMIT_AGGREGATES, isEmitAggregates() );
+    rep.saveJobEntryAttribute( id_job, getObjectId(), Fields.APPLY_INDEXES, isApplyIndexes() );
   }
 
   public String getModelName() {
@@ -582,6 +873,30 @@ public class JobEntryBuildModel extends JobEntryBase implements JobEntryInterfac
     this.createOnPublish = createOnPublish;
   }
 
+  /**
+   * When set, the statements creating the recommended aggregate tables on the output connection are set as a
+   * variable, and those of the tables that already exist are declared in the published Mondrian schema.
+   */
+  public boolean isEmitAggregates() {
+    return emitAggregates;
+  }
+
+  public void setEmitAggregates( boolean emitAggregates ) {
+    this.emitAggregates = emitAggregates;
+  }
+
+  /**
+   * When set, the recommended indexes missing from the output table are created over its connection once the model
+   * is built, and the table statistics are refreshed.
+   */
+  public boolean isApplyIndexes() {
+    return applyIndexes;
+  }
+
+  public void setApplyIndexes( boolean applyIndexes ) {
+    this.applyIndexes = applyIndexes;
+  }
+
   private String getMsg( String key, String... parameters ) {
     return BaseMessages.getString( PKG, key, parameters );
   }
@@ -19,12 +19,12 @@ import org.pentaho.database.model.DatabaseConnection;
 import org.pentaho.di.core.database.DatabaseMeta;
 import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.logging.LogChannelInterface;
+import org.pentaho.di.core.refinery.model.ModelArtifactStore;
 import org.pentaho.di.core.refinery.publish.agilebi.ModelServerPublish;
 import org.pentaho.di.i18n.BaseMessages;
 import org.pentaho.di.job.entries.publish.exception.DuplicateDataSourceException;
 import org.pentaho.di.trans.dataservice.client.DataServiceConnectionInformation;
 
-import java.io.ByteArrayInputStream;
 import java.io.InputStream;
 
 /**
@@ -35,7 +35,6 @@ public class DatasourcePublishService implements PublishService {
   private static Class<?> PKG = JobEntryDatasourcePublish.class;
 
   private static final String METADATA_EXTENSION = ".xmi";
-  private static final String ENCODING = "UTF-8";
 
   private LogChannelInterface log;
 
@@ -156,7 +155,7 @@ public class DatasourcePublishService implements PublishService {
     // Publish Mondrian Schema
     InputStream mondrianInputStream = null;
     try {
-      mondrianInputStream = new ByteArrayInputStream( mondrianSchema.getBytes( ENCODING ) );
+      mondrianInputStream = ModelArtifactStore.getInstance().open( mondrianSchema );
       modelServerPublish.setForceOverwrite( forceOverride );
       int status =
         modelServerPublish.publishMondrianSchema( mondrianInputStream, modelName, mondrianDatasource, forceOverride );
@@ -182,7 +181,7 @@ public class DatasourcePublishService implements PublishService {
     // Publish XMI
     InputStream xmiInputStream = null;
     try {
-      xmiInputStream = new ByteArrayInputStream( xmiString.getBytes( ENCODING ) );
+      xmiInputStream = ModelArtifactStore.getInstance().open( xmiString );
       modelServerPublish.setForceOverwrite( forceOverride );
       int status = modelServerPublish.publishMetaDataFile( xmiInputStream, modelName );
       if ( status != ModelServerPublish.PUBLISH_SUCCESS ) {
@@ -207,7 +206,7 @@ public class DatasourcePublishService implements PublishService {
     // Publish XMI
     InputStream xmiInputStream = null;
     try {
-      xmiInputStream = IOUtils.toInputStream( xmiString, ENCODING );
+      xmiInputStream = ModelArtifactStore.getInstance().open( xmiString );
       modelServerPublish.setForceOverwrite( forceOverride );
       int status = modelServerPublish.publishDsw( xmiInputStream, checkDswId( modelName ) );
       if ( status == ModelServerPublish.PUBLISH_CONFLICT ) {
@@ -24,6 +24,8 @@ import org.pentaho.di.core.database.DatabaseMeta;
 import org.pentaho.di.core.encryption.Encr;
 import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.exception.KettleXMLException;
+import org.pentaho.di.core.refinery.model.ModelArtifactStore;
+import org.pentaho.di.core.refinery.model.ModelCatalogCache;
 import org.pentaho.di.core.refinery.publish.agilebi.BiServerConnection;
 import org.pentaho.di.core.refinery.publish.agilebi.ModelServerPublish;
 import org.pentaho.di.core.refinery.publish.model.DataSourceAclModel;
@@ -171,8 +173,9 @@ public class JobEntryDatasourcePublish extends JobEntryBase implements Cloneable
       log.logBasic( getMsg( "JobEntryDatasourcePublish.Publish.ReadVariable", "JobEntryBuildModel.XMI.DSW."
         + modelName, dswFlag ) );
       String xmiString = getParentJob().getVariable( "JobEntryBuildModel.XMI." + modelName );
-      log.logDetailed(
-        getMsg( "JobEntryDatasourcePublish.Publish.ReadVariable", "JobEntryBuildModel.XMI." + modelName, xmiString ) );
+      // models may be large; log the handle to the stored model, or just the start of an inline one
+      log.logDetailed( getMsg( "JobEntryDatasourcePublish.Publish.ReadVariable", "JobEntryBuildModel.XMI." + modelName,
+        ModelArtifactStore.describe( xmiString ) ) );
       if ( dswFlag != null && dswFlag.equalsIgnoreCase( "true" ) ) {
         datasourcePublishService.publishDswXmi( modelName, xmiString, modelServerPublish, forceOverride );
       } else {
@@ -183,7 +186,7 @@ public class JobEntryDatasourcePublish extends JobEntryBase implements Cloneable
       // Publish Mondrian Schema
       String mondrianSchema = getParentJob().getVariable( "JobEntryBuildModel.Mondrian.Schema." + modelName );
       log.logDetailed( getMsg( "JobEntryDatasourcePublish.Publish.ReadVariable", "JobEntryBuildModel.Mondrian.Schema."
-        + modelName, mondrianSchema ) );
+        + modelName, ModelArtifactStore.describe( mondrianSchema ) ) );
       String mondrianDatasource = getParentJob().getVariable( "JobEntryBuildModel.Mondrian.Datasource." + modelName );
       log.logBasic( getMsg( "JobEntryDatasourcePublish.Publish.ReadVariable", "JobEntryBuildModel.Mondrian.Datasource."
         + modelName, mondrianDatasource ) );
@@ -204,6 +207,11 @@ public class JobEntryDatasourcePublish extends JobEntryBase implements Cloneable
       logError( e.getMessage(), e );
       result.setResult( false );
       result.setNrErrors( 1 );
+    } finally {
+      if ( modelServerPublish != null ) {
+        // Build Model entries looking for models on this server have to see what was published or rolled back
+        ModelCatalogCache.getInstance().invalidate( modelServerPublish.getBiServerConnection() );
+      }
     }
 
     return result;
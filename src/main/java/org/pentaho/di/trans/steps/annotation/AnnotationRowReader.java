@@ -0,0 +1,122 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.di.trans.steps.annotation;
+
+import org.apache.commons.lang.StringUtils;
+import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotation;
+import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotationGroupXmlReader;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.i18n.BaseMessages;
+
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+
+/**
+ * Turns rows of an annotation source step into annotations. Each row holds one annotation:
+ * <ul>
+ *   <li><code>annotation_type</code> - the annotation type, e.g. CREATE_MEASURE</li>
+ *   <li><code>field</code> - the annotated stream field</li>
+ *   <li><code>annotation_name</code> - optional; derived from the row contents when absent, so the same row read
+ *   again yields the same annotation</li>
+ *   <li>any other column named after a property of the annotation type (aggregateType, dimension, ...);
+ *   column names are matched ignoring case and empty values are skipped</li>
+ * </ul>
+ */
+public class AnnotationRowReader {
+
+  private static final Class<?> PKG = ModelAnnotationMeta.class;
+
+  public static final String TYPE_COLUMN = "annotation_type";
+  public static final String FIELD_COLUMN = "field";
+  public static final String NAME_COLUMN = "annotation_name";
+
+  private final RowMetaInterface rowMeta;
+  private final int typeIndex;
+  private final int fieldIndex;
+  private final int nameIndex;
+  private final Map<String, Integer> columnIndexes = new TreeMap<>( String.CASE_INSENSITIVE_ORDER );
+
+  public AnnotationRowReader( RowMetaInterface rowMeta, String sourceStep ) throws KettleException {
+    this.rowMeta = rowMeta;
+    for ( int i = 0; i < rowMeta.size(); i++ ) {
+      if ( !columnIndexes.containsKey( rowMeta.getValueMeta( i ).getName() ) ) {
+        columnIndexes.put( rowMeta.getValueMeta( i ).getName(), i );
+      }
+    }
+    typeIndex = requiredIndex( TYPE_COLUMN, sourceStep );
+    fieldIndex = requiredIndex( FIELD_COLUMN, sourceStep );
+    nameIndex = columnIndexes.containsKey( NAME_COLUMN ) ? columnIndexes.get( NAME_COLUMN ) : -1;
+  }
+
+  /**
+   * @return the annotation defined by the row, null for rows without a type
+   */
+  public ModelAnnotation<?> read( Object[] row ) throws KettleException {
+    String type = rowMeta.getString( row, typeIndex );
+    if ( StringUtils.isBlank( type ) ) {
+      return null;
+    }
+    String field = rowMeta.getString( row, fieldIndex );
+    try {
+      ModelAnnotation<?> modelAnnotation = ModelAnnotationGroupXmlReader.create( toTypeName( type ), field );
+      Map<String, Serializable> properties = new TreeMap<>();
+      for ( String key : modelAnnotation.getAnnotation().getModelPropertyIds() ) {
+        Integer index = columnIndexes.get( key );
+        if ( index != null && index != typeIndex && index != fieldIndex ) {
+          String value = rowMeta.getString( row, index );
+          if ( StringUtils.isNotBlank( value ) ) {
+            properties.put( key, value );
+          }
+        }
+      }
+      modelAnnotation.populateAnnotation( properties );
+
+      String name = nameIndex < 0 ? null : rowMeta.getString( row, nameIndex );
+      if ( StringUtils.isBlank( name ) ) {
+        name = UUID.nameUUIDFromBytes( ( type + "|" + field + "|" + properties )
+          .getBytes( StandardCharsets.UTF_8 ) ).toString();
+      }
+      modelAnnotation.setName( name );
+      return modelAnnotation;
+    } catch ( KettleException e ) {
+      throw e;
+    } catch ( Exception e ) {
+      throw new KettleException( e );
+    }
+  }
+
+  private int requiredIndex( String column, String sourceStep ) throws KettleException {
+    Integer index = columnIndexes.get( column );
+    if ( index == null ) {
+      throw new KettleException( BaseMessages.getString(
+        PKG, "ModelAnnotation.Runtime.AnnotationSourceMissingColumn", sourceStep, column ) );
+    }
+    return index;
+  }
+
+  /**
+   * Accepts enum constant names in any case as well as the type names used in step XML.
+   */
+  private static String toTypeName( String type ) {
+    for ( ModelAnnotation.Type value : ModelAnnotation.Type.values() ) {
+      if ( value.name().equalsIgnoreCase( type.trim() ) ) {
+        return value.toString();
+      }
+    }
+    return type.trim();
+  }
+}
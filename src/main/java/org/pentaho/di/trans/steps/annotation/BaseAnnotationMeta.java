@@ -16,6 +16,7 @@ package org.pentaho.di.trans.steps.annotation;
 import org.apache.commons.lang.BooleanUtils;
 import org.apache.commons.lang.StringEscapeUtils;
 import org.apache.commons.lang.StringUtils;
+import org.pentaho.agilebi.modeler.models.annotations.AnnotationType;
 import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotation;
 import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotationGroup;
 import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotationGroupXmlReader;
@@ -25,6 +26,9 @@ import org.pentaho.agilebi.modeler.models.annotations.data.ColumnMapping;
 import org.pentaho.agilebi.modeler.models.annotations.data.DataProvider;
 import org.pentaho.agilebi.modeler.models.annotations.util.KeyValueClosure;
 import org.pentaho.di.core.database.DatabaseMeta;
+import org.pentaho.di.core.refinery.AnnotationGroupCache;
+import org.pentaho.di.core.refinery.AnnotationGroupFingerprint;
+import org.pentaho.di.core.refinery.DataProviderHelper;
 import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.exception.KettleXMLException;
 import org.pentaho.di.core.xml.XMLHandler;
@@ -65,6 +69,8 @@ public abstract class BaseAnnotationMeta extends BaseStepMeta implements StepMet
 
   private String targetOutputStep;
 
+  private final transient InjectedAnnotationIndex injectedAnnotations = new InjectedAnnotationIndex();
+
   public ModelAnnotationGroup getModelAnnotations() {
     return modelAnnotations;
   }
@@ -73,6 +79,22 @@ public abstract class BaseAnnotationMeta extends BaseStepMeta implements StepMet
     this.modelAnnotations = modelAnnotations;
   }
 
+  /**
+   * Merges annotations set through metadata injection into the model annotations. Merging the same annotations
+   * again, as a reused meta does on every run, leaves the group as it is.
+   *
+   * @return number of annotations that were added or redefined
+   */
+  public int mergeInjectedAnnotations( List<? extends AnnotationType> injected ) {
+    if ( modelAnnotations == null ) {
+      modelAnnotations = new ModelAnnotationGroup();
+    } else if ( !injected.isEmpty() ) {
+      // a group read through the cache is shared
+      modelAnnotations = AnnotationGroupCache.writable( modelAnnotations );
+    }
+    return injectedAnnotations.merge( modelAnnotations, injected );
+  }
+
   public String getModelAnnotationCategory() {
     return modelAnnotationCategory;
   }
@@ -371,8 +393,10 @@ public abstract class BaseAnnotationMeta extends BaseStepMeta implements StepMet
       }
 
       ModelAnnotationManager manager = getModelAnnotationManager( getModelAnnotations() );
-      if ( manager.containsGroup( getModelAnnotationCategory(), metaStore ) ) {
-        setModelAnnotations( manager.readGroup( getModelAnnotationCategory(), metaStore ) );
+      ModelAnnotationGroup group = AnnotationGroupCache.getInstance().readGroup(
+          manager, getModelAnnotations().isSharedDimension(), getModelAnnotationCategory(), metaStore );
+      if ( group != null ) {
+        setModelAnnotations( group );
       }
     } catch ( Exception e ) {
       logError( e.getMessage() );
@@ -383,9 +407,15 @@ public abstract class BaseAnnotationMeta extends BaseStepMeta implements StepMet
     saveToMetaStore( metaStore, getModelAnnotations() );
   }
 
-  public void saveToMetaStore( IMetaStore metaStore, ModelAnnotationGroup modelAnnotations ) throws Exception {
+  /**
+   * Saves the group, unless the MetaStore already holds the same annotations. Data providers are left out of that
+   * comparison since they are added by the loads that use the group, and the stored ones are kept on a write.
+   *
+   * @return whether the group was written
+   */
+  public boolean saveToMetaStore( IMetaStore metaStore, ModelAnnotationGroup modelAnnotations ) throws Exception {
     if ( metaStore == null ) {
-      return;
+      return false;
     }
 
     ModelAnnotationManager manager = getModelAnnotationManager( modelAnnotations );
@@ -393,7 +423,51 @@ public abstract class BaseAnnotationMeta extends BaseStepMeta implements StepMet
       modelAnnotations.setName( this.getName() );
     }
     checkValidName( modelAnnotations.getName() );
-    manager.createGroup( modelAnnotations, metaStore );
+    AnnotationGroupCache cache = AnnotationGroupCache.getInstance();
+    synchronized ( cache.lockFor( modelAnnotations.isSharedDimension(), modelAnnotations.getName() ) ) {
+      ModelAnnotationGroup stored = readStored( manager, modelAnnotations.getName(), metaStore );
+      if ( stored != null && AnnotationGroupFingerprint.ofAnnotations( stored )
+          .equals( AnnotationGroupFingerprint.ofAnnotations( modelAnnotations ) ) ) {
+        return false;
+      }
+      manager.createGroup( withStoredDataProviders( modelAnnotations, stored ), metaStore );
+      cache.invalidate( modelAnnotations.isSharedDimension(), modelAnnotations.getName() );
+    }
+    return true;
+  }
+
+  /**
+   * Reads what is actually in the MetaStore rather than the cache, which may lag behind writes made by other
+   * processes.
+   *
+   * @return null when there is no stored group or it can't be read, in which case the group is written
+   */
+  private ModelAnnotationGroup readStored( ModelAnnotationManager manager, String name, IMetaStore metaStore ) {
+    try {
+      return manager.readGroup( name, metaStore );
+    } catch ( Exception e ) {
+      return null;
+    }
+  }
+
+  /**
+   * @return the group, or a copy of it that also has the stored data providers it lacks
+   */
+  private ModelAnnotationGroup withStoredDataProviders( ModelAnnotationGroup modelAnnotations,
+                                                        ModelAnnotationGroup stored ) {
+    List<DataProvider> ours = modelAnnotations.getDataProviders() == null
+        ? new ArrayList<DataProvider>() : modelAnnotations.getDataProviders();
+    List<DataProvider> merged = DataProviderHelper.merge( ours, stored );
+    if ( merged.size() == ours.size() ) {
+      return modelAnnotations;
+    }
+    ModelAnnotationGroup group = new ModelAnnotationGroup();
+    group.addAll( modelAnnotations );
+    group.setName( modelAnnotations.getName() );
+    group.setDescription( modelAnnotations.getDescription() );
+    group.setSharedDimension( modelAnnotations.isSharedDimension() );
+    group.setDataProviders( merged );
+    return group;
   }
 
   public void checkValidName( final String name ) throws KettleException {
@@ -0,0 +1,81 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.di.trans.steps.annotation;
+
+import org.pentaho.agilebi.modeler.models.annotations.AnnotationType;
+import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotation;
+import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotationGroup;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Merges annotations injected through ETL Metadata Injection into the model annotations of a step meta. The meta
+ * is reused across runs (injection templates, looping executors) and every step copy initializes it, so injected
+ * annotations are matched by type, name and field against what the group already holds: a match is replaced by an
+ * annotation with the injected definition, anything else is appended. The index is rebuilt only when the group was
+ * replaced or resized behind its back.
+ */
+class InjectedAnnotationIndex {
+
+  private ModelAnnotationGroup group;
+  private int size;
+  // position in the group of each annotation, by type, name and field
+  private final Map<String, Integer> positions = new HashMap<>();
+
+  /**
+   * @return number of annotations that were added or redefined
+   */
+  synchronized int merge( ModelAnnotationGroup target, List<? extends AnnotationType> injected ) {
+    if ( target != group || target.size() != size ) {
+      index( target );
+    }
+    int changed = 0;
+    for ( AnnotationType annotationType : injected ) {
+      if ( annotationType == null ) {
+        continue;
+      }
+      String key = keyOf( annotationType );
+      Integer position = positions.get( key );
+      if ( position == null ) {
+        target.add( new ModelAnnotation<>( annotationType ) );
+        positions.put( key, target.size() - 1 );
+        changed++;
+      } else if ( target.get( position ).getAnnotation() != annotationType ) {
+        // the annotation may also be held by a group published from an earlier run; replace it, don't change it
+        ModelAnnotation<?> replacement = new ModelAnnotation<>( annotationType );
+        replacement.setName( target.get( position ).getName() );
+        target.set( position, replacement );
+        changed++;
+      }
+    }
+    size = target.size();
+    return changed;
+  }
+
+  private void index( ModelAnnotationGroup target ) {
+    group = target;
+    positions.clear();
+    for ( int i = 0; i < target.size(); i++ ) {
+      ModelAnnotation<?> annotation = target.get( i );
+      if ( annotation != null && annotation.getAnnotation() != null ) {
+        positions.putIfAbsent( keyOf( annotation.getAnnotation() ), i );
+      }
+    }
+  }
+
+  static String keyOf( AnnotationType annotationType ) {
+    return annotationType.getType() + "|" + annotationType.getName() + "|" + annotationType.getField();
+  }
+}
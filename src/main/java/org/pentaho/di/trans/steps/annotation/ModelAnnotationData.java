@@ -14,12 +14,104 @@
 package org.pentaho.di.trans.steps.annotation;
 
 import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotationGroup;
+import org.pentaho.di.core.refinery.MemberHashIndex;
+import org.pentaho.di.core.refinery.profile.BloomFilter;
+import org.pentaho.di.core.refinery.profile.ColumnProfiles;
+import org.pentaho.di.core.refinery.profile.LongHashSet;
+import org.pentaho.di.core.refinery.profile.RollupCounters;
+import org.pentaho.di.core.refinery.profile.TimeFormatConformance;
+import org.pentaho.di.core.row.RowMetaInterface;
 import org.pentaho.di.trans.step.BaseStepData;
 import org.pentaho.di.trans.step.StepDataInterface;
 
+import java.util.List;
+
 /**
  * @author Rowell Belen
  */
 public class ModelAnnotationData extends BaseStepData implements StepDataInterface {
   public ModelAnnotationGroup annotations;
+
+  /** metadata-only mode: no per-row work, the step is bypassed or rows are passed through in batches */
+  public boolean metadataOnly;
+
+  /** whether passing rows are profiled */
+  public boolean profileFields;
+
+  /** values sampled per string and date field while profiling, 0 for none */
+  public int sampleSize;
+
+  /** this copy's field profiles, created on the first row */
+  public ColumnProfiles profiles;
+
+  /** whether rollups of the attribute fields are counted for aggregate recommendations */
+  public boolean recommendAggregates;
+
+  /** this copy's rollup counts, created on the first row */
+  public RollupCounters rollups;
+
+  /** what to do when a shared dimension member key repeats */
+  public SharedDimensionMeta.KeyUniqueness keyUniqueness = SharedDimensionMeta.KeyUniqueness.NONE;
+
+  /** hashes of the member keys seen so far, only kept when keys are checked */
+  public LongHashSet memberKeys;
+
+  /** index of the dimension key field in the input rows, -1 until the first row */
+  public int keyFieldIndex = -1;
+
+  /** members left out because their key was already seen */
+  public long droppedMembers;
+
+  /** members with a null key, which are written without being checked */
+  public long membersWithoutKey;
+
+  /** working copy of the persisted member hashes in incremental mode */
+  public MemberHashIndex memberIndex;
+
+  /** change type of the member being written in incremental mode */
+  public MemberHashIndex.Change changeType;
+
+  /** members left out in incremental mode because they didn't change */
+  public long unchangedMembers;
+
+  /** input fields plus the change type field */
+  public RowMetaInterface outputRowMeta;
+
+  public String changeTypeField;
+
+  /** key values seen by a shared dimension that publishes its key filter */
+  public BloomFilter keyFilter;
+
+  public boolean checkLinkedKeys;
+
+  public boolean checkTimeFormats;
+
+  /** Link Dimension fields checked against the keys of their shared dimension */
+  public List<LinkCheck> linkChecks;
+
+  public static class LinkCheck {
+    public final String field;
+    public final String sharedDimension;
+    public final BloomFilter keys;
+    public int fieldIndex = -1;
+    public long orphans;
+
+    public LinkCheck( String field, String sharedDimension, BloomFilter keys ) {
+      this.field = field;
+      this.sharedDimension = sharedDimension;
+      this.keys = keys;
+    }
+  }
+
+  /** time level fields checked against the source format of their attribute */
+  public List<TimeFormatConformance> timeFormatChecks;
+
+  /** input row index of each checked time level field, -1 if not checked; resolved on the first row */
+  public int[] timeFormatFieldIndexes;
+
+  /** mismatch percentage above which the step fails, 0 to only report */
+  public int timeFormatMismatchLimit;
+
+  /** info step to read annotation definitions from before the first row; cleared once read */
+  public String annotationSourceStep;
 }
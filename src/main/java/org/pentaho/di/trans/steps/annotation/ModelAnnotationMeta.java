@@ -13,14 +13,32 @@
 
 package org.pentaho.di.trans.steps.annotation;
 
+import org.apache.commons.lang.StringUtils;
 import org.pentaho.agilebi.modeler.models.annotations.CreateAttribute;
 import org.pentaho.agilebi.modeler.models.annotations.CreateCalculatedMember;
 import org.pentaho.agilebi.modeler.models.annotations.CreateMeasure;
 import org.pentaho.agilebi.modeler.models.annotations.LinkDimension;
+import org.pentaho.di.core.Const;
 import org.pentaho.di.core.annotations.Step;
+import org.pentaho.di.core.database.DatabaseMeta;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.exception.KettleXMLException;
 import org.pentaho.di.core.injection.Injection;
 import org.pentaho.di.core.injection.InjectionDeep;
 import org.pentaho.di.core.injection.InjectionSupported;
+import org.pentaho.di.core.xml.XMLHandler;
+import org.pentaho.di.i18n.BaseMessages;
+import org.pentaho.di.repository.ObjectId;
+import org.pentaho.di.repository.Repository;
+import org.pentaho.di.trans.step.StepIOMeta;
+import org.pentaho.di.trans.step.StepIOMetaInterface;
+import org.pentaho.di.trans.step.StepMeta;
+import org.pentaho.di.trans.step.errorhandling.Stream;
+import org.pentaho.di.trans.step.errorhandling.StreamIcon;
+import org.pentaho.di.trans.step.errorhandling.StreamInterface;
+import org.pentaho.di.trans.step.errorhandling.StreamInterface.StreamType;
+import org.pentaho.metastore.api.IMetaStore;
+import org.w3c.dom.Node;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -37,6 +55,67 @@ import java.util.List;
 public class ModelAnnotationMeta extends BaseAnnotationMeta {
   private static Class<?> PKG = ModelAnnotationMeta.class; // for i18n purposes, needed by Translator2!!
 
+  /**
+   * When set, the step only publishes its annotations (done in init) and takes itself off the row path before the
+   * transformation starts, so its neighbours exchange rows directly. Where that isn't possible rows are passed
+   * through in batches. Profiling, rollups and the link and time format checks need the rows and are ignored.
+   */
+  @Injection( name = "METADATA_ONLY" )
+  private boolean metadataOnly;
+
+  /**
+   * When set, the step keeps null counts, ranges and approximate distinct counts of every passing field and hands
+   * them to Build Model as cardinality hints.
+   */
+  @Injection( name = "PROFILE_FIELDS" )
+  private boolean profileFields;
+
+  /**
+   * Number of values per string and date field to sample while profiling, so Build Model can detect geographic
+   * and time roles of unannotated fields. 0 turns sampling off.
+   */
+  @Injection( name = "SAMPLE_SIZE" )
+  private int sampleSize;
+
+  /**
+   * When set, the step counts the distinct combinations of the attribute fields of its annotations, so Build Model
+   * can recommend aggregate tables.
+   */
+  @Injection( name = "RECOMMEND_AGGREGATES" )
+  private boolean recommendAggregates;
+
+  /**
+   * When set, values of Link Dimension fields are checked against the key filter published by the linked shared
+   * dimension. Rows with an unknown key are counted, or sent to the error stream when error handling is on.
+   */
+  @Injection( name = "CHECK_LINKED_KEYS" )
+  private boolean checkLinkedKeys;
+
+  /**
+   * When set, values of fields with a time level attribute are parsed with the source format of the attribute, and
+   * the share of values that don't parse is logged at the end of the stream.
+   */
+  @Injection( name = "CHECK_TIME_FORMATS" )
+  private boolean checkTimeFormats;
+
+  /**
+   * Percentage of values of a time level field that may fail to parse before the step fails. 0 only reports.
+   */
+  @Injection( name = "TIME_FORMAT_MISMATCH_LIMIT" )
+  private int timeFormatMismatchLimit;
+
+  /**
+   * Optional info step whose rows define annotations, one per row; see {@link AnnotationRowReader}.
+   */
+  @Injection( name = "ANNOTATION_SOURCE_STEP" )
+  private String annotationSourceStep;
+
+  /**
+   * The step named by {@link #annotationSourceStep}, as found by searchInfoAndTargetSteps, so the info stream keeps
+   * it when the step IO meta is built again.
+   */
+  private transient StepMeta annotationSourceStepMeta;
+
   /////////////////////////////////////////////////////
   // Temp fields required to support metadata injection
   // These will be injected via the annotation-based injection system.
@@ -58,4 +137,156 @@ public class ModelAnnotationMeta extends BaseAnnotationMeta {
   // end temp fields
   /////////////////////////////////////////////////////
 
+  public boolean isMetadataOnly() {
+    return metadataOnly;
+  }
+
+  public void setMetadataOnly( boolean metadataOnly ) {
+    this.metadataOnly = metadataOnly;
+  }
+
+  public boolean isProfileFields() {
+    return profileFields;
+  }
+
+  public void setProfileFields( boolean profileFields ) {
+    this.profileFields = profileFields;
+  }
+
+  public int getSampleSize() {
+    return sampleSize;
+  }
+
+  public void setSampleSize( int sampleSize ) {
+    this.sampleSize = sampleSize;
+  }
+
+  public boolean isRecommendAggregates() {
+    return recommendAggregates;
+  }
+
+  public void setRecommendAggregates( boolean recommendAggregates ) {
+    this.recommendAggregates = recommendAggregates;
+  }
+
+  public boolean isCheckLinkedKeys() {
+    return checkLinkedKeys;
+  }
+
+  public void setCheckLinkedKeys( boolean checkLinkedKeys ) {
+    this.checkLinkedKeys = checkLinkedKeys;
+  }
+
+  public boolean isCheckTimeFormats() {
+    return checkTimeFormats;
+  }
+
+  public void setCheckTimeFormats( boolean checkTimeFormats ) {
+    this.checkTimeFormats = checkTimeFormats;
+  }
+
+  public int getTimeFormatMismatchLimit() {
+    return timeFormatMismatchLimit;
+  }
+
+  public void setTimeFormatMismatchLimit( int timeFormatMismatchLimit ) {
+    this.timeFormatMismatchLimit = timeFormatMismatchLimit;
+  }
+
+  @Override
+  public boolean supportsErrorHandling() {
+    return isCheckLinkedKeys();
+  }
+
+  public String getAnnotationSourceStep() {
+    return annotationSourceStep;
+  }
+
+  public void setAnnotationSourceStep( String annotationSourceStep ) {
+    if ( !StringUtils.equals( this.annotationSourceStep, annotationSourceStep ) ) {
+      annotationSourceStepMeta = null;
+    }
+    this.annotationSourceStep = annotationSourceStep;
+    resetStepIoMeta();
+  }
+
+  @Override
+  public StepIOMetaInterface getStepIOMeta() {
+    StepIOMetaInterface ioMeta = super.getStepIOMeta( false );
+    if ( ioMeta == null ) {
+      ioMeta = new StepIOMeta( true, true, false, false, false, false );
+      if ( StringUtils.isNotBlank( annotationSourceStep ) ) {
+        StreamInterface stream = new Stream( StreamType.INFO, annotationSourceStepMeta,
+            BaseMessages.getString( PKG, "ModelAnnotation.AnnotationSourceStream.Description" ), StreamIcon.INFO,
+            annotationSourceStep );
+        ioMeta.addStream( stream );
+      }
+      setStepIOMeta( ioMeta );
+    }
+    return ioMeta;
+  }
+
+  @Override
+  public void searchInfoAndTargetSteps( List<StepMeta> steps ) {
+    annotationSourceStepMeta = StringUtils.isBlank( annotationSourceStep )
+        ? null : StepMeta.findStep( steps, annotationSourceStep );
+    for ( StreamInterface stream : getStepIOMeta().getInfoStreams() ) {
+      stream.setStepMeta( annotationSourceStepMeta );
+    }
+  }
+
+  @Override
+  public String getXML() {
+    StringBuilder xml = new StringBuilder( super.getXML() );
+    xml.append( "    " ).append( XMLHandler.addTagValue( "metadataOnly", isMetadataOnly() ) );
+    xml.append( "    " ).append( XMLHandler.addTagValue( "profileFields", isProfileFields() ) );
+    xml.append( "    " ).append( XMLHandler.addTagValue( "sampleSize", getSampleSize() ) );
+    xml.append( "    " ).append( XMLHandler.addTagValue( "recommendAggregates", isRecommendAggregates() ) );
+    xml.append( "    " ).append( XMLHandler.addTagValue( "checkLinkedKeys", isCheckLinkedKeys() ) );
+    xml.append( "    " ).append( XMLHandler.addTagValue( "checkTimeFormats", isCheckTimeFormats() ) );
+    xml.append( "    " ).append( XMLHandler.addTagValue( "timeFormatMismatchLimit", getTimeFormatMismatchLimit() ) );
+    xml.append( "    " ).append( XMLHandler.addTagValue( "annotationSourceStep", getAnnotationSourceStep() ) );
+    return xml.toString();
+  }
+
+  @Override
+  public void loadXML( Node stepnode, List<DatabaseMeta> databases, IMetaStore metaStore ) throws KettleXMLException {
+    super.loadXML( stepnode, databases, metaStore );
+    setMetadataOnly( "Y".equalsIgnoreCase( XMLHandler.getTagValue( stepnode, "metadataOnly" ) ) );
+    setProfileFields( "Y".equalsIgnoreCase( XMLHandler.getTagValue( stepnode, "profileFields" ) ) );
+    setSampleSize( Const.toInt( XMLHandler.getTagValue( stepnode, "sampleSize" ), 0 ) );
+    setRecommendAggregates( "Y".equalsIgnoreCase( XMLHandler.getTagValue( stepnode, "recommendAggregates" ) ) );
+    setCheckLinkedKeys( "Y".equalsIgnoreCase( XMLHandler.getTagValue( stepnode, "checkLinkedKeys" ) ) );
+    setCheckTimeFormats( "Y".equalsIgnoreCase( XMLHandler.getTagValue( stepnode, "checkTimeFormats" ) ) );
+    setTimeFormatMismatchLimit( Const.toInt( XMLHandler.getTagValue( stepnode, "timeFormatMismatchLimit" ), 0 ) );
+    setAnnotationSourceStep( XMLHandler.getTagValue( stepnode, "annotationSourceStep" ) );
+  }
+
+  @Override
+  public void saveRep( final Repository rep, final IMetaStore metaStore, final ObjectId id_transformation,
+      final ObjectId id_step ) throws KettleException {
+    super.saveRep( rep, metaStore, id_transformation, id_step );
+    rep.saveStepAttribute( id_transformation, id_step, "METADATA_ONLY", isMetadataOnly() );
+    rep.saveStepAttribute( id_transformation, id_step, "PROFILE_FIELDS", isProfileFields() );
+    rep.saveStepAttribute( id_transformation, id_step, "SAMPLE_SIZE", getSampleSize() );
+    rep.saveStepAttribute( id_transformation, id_step, "RECOMMEND_AGGREGATES", isRecommendAggregates() );
+    rep.saveStepAttribute( id_transformation, id_step, "CHECK_LINKED_KEYS", isCheckLinkedKeys() );
+    rep.saveStepAttribute( id_transformation, id_step, "CHECK_TIME_FORMATS", isCheckTimeFormats() );
+    rep.saveStepAttribute( id_transformation, id_step, "TIME_FORMAT_MISMATCH_LIMIT", getTimeFormatMismatchLimit() );
+    rep.saveStepAttribute( id_transformation, id_step, "ANNOTATION_SOURCE_STEP", getAnnotationSourceStep() );
+  }
+
+  @Override
+  public void readRep( Repository rep, IMetaStore metaStore, ObjectId id_step, List<DatabaseMeta> databases )
+    throws KettleException {
+    super.readRep( rep, metaStore, id_step, databases );
+    setMetadataOnly( rep.getStepAttributeBoolean( id_step, "METADATA_ONLY" ) );
+    setProfileFields( rep.getStepAttributeBoolean( id_step, "PROFILE_FIELDS" ) );
+    setSampleSize( (int) rep.getStepAttributeInteger( id_step, "SAMPLE_SIZE" ) );
+    setRecommendAggregates( rep.getStepAttributeBoolean( id_step, "RECOMMEND_AGGREGATES" ) );
+    setCheckLinkedKeys( rep.getStepAttributeBoolean( id_step, "CHECK_LINKED_KEYS" ) );
+    setCheckTimeFormats( rep.getStepAttributeBoolean( id_step, "CHECK_TIME_FORMATS" ) );
+    setTimeFormatMismatchLimit( (int) rep.getStepAttributeInteger( id_step, "TIME_FORMAT_MISMATCH_LIMIT" ) );
+    setAnnotationSourceStep( rep.getStepAttributeString( id_step, "ANNOTATION_SOURCE_STEP" ) );
+  }
 }
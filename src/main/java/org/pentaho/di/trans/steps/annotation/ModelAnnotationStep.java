@@ -14,12 +14,26 @@
 package org.pentaho.di.trans.steps.annotation;
 
 import org.apache.commons.lang.StringUtils;
+import org.pentaho.agilebi.modeler.models.annotations.CreateAttribute;
 import org.pentaho.agilebi.modeler.models.annotations.CreateMeasure;
+import org.pentaho.agilebi.modeler.models.annotations.LinkDimension;
 import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotation;
 import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotationGroup;
 import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotationManager;
 import org.pentaho.di.core.Const;
+import org.pentaho.di.core.ProvidesDatabaseConnectionInformation;
+import org.pentaho.di.core.RowSet;
 import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.exception.KettleStepException;
+import org.pentaho.di.core.refinery.AnnotationGroupCache;
+import org.pentaho.di.core.refinery.ModelAnnotationRegistry;
+import org.pentaho.di.core.refinery.SharedDimensionKeyFilter;
+import org.pentaho.di.core.refinery.profile.BloomFilter;
+import org.pentaho.di.core.refinery.model.AggregateAdvisor;
+import org.pentaho.di.core.refinery.profile.ColumnProfiles;
+import org.pentaho.di.core.refinery.profile.RollupCounters;
+import org.pentaho.di.core.refinery.profile.TimeFormatConformance;
+import org.pentaho.di.core.refinery.profile.ValueHash;
 import org.pentaho.di.core.row.RowMetaInterface;
 import org.pentaho.di.core.row.ValueMetaInterface;
 import org.pentaho.di.i18n.BaseMessages;
@@ -32,9 +46,20 @@ import org.pentaho.di.trans.step.StepInterface;
 import org.pentaho.di.trans.step.StepMeta;
 import org.pentaho.di.trans.step.StepMetaDataCombi;
 import org.pentaho.di.trans.step.StepMetaInterface;
+import org.pentaho.di.trans.step.errorhandling.StreamInterface;
 import org.pentaho.metadata.model.concept.types.AggregationType;
 import org.pentaho.metastore.api.exceptions.MetaStoreException;
 
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
 /**
  * @author Rowell Belen
  */
@@ -42,6 +67,21 @@ public class ModelAnnotationStep extends BaseStep implements StepInterface {
 
   private static final Class<?> PKG = ModelAnnotationMeta.class;
 
+  /**
+   * Rows moved per processRow call in metadata-only mode when the step can't be taken off the row path
+   */
+  static final int PASS_THROUGH_BATCH_SIZE = 1000;
+
+  /**
+   * Values of a time level field checked before its mismatch limit can fail the step ahead of the end of stream
+   */
+  static final int TIME_FORMAT_MIN_CHECKED = 1000;
+
+  /**
+   * Data of this copy as handed to init, read again in initBeforeStart
+   */
+  private ModelAnnotationData stepData;
+
   /**
    * This is the base step that forms that basis for all steps. You can derive from this class to implement your own
    * steps.
@@ -68,22 +108,27 @@ public class ModelAnnotationStep extends BaseStep implements StepInterface {
       if ( StringUtils.isNotEmpty( meta.sharedAnnotationGroup ) ) {
         meta.setModelAnnotationCategory( meta.sharedAnnotationGroup );
       }
-      ModelAnnotationGroup modelAnnotations = meta.getModelAnnotations();
       // if a shared group is referenced, assume we should not be injecting any annotations. they will come from there
       if ( StringUtils.isEmpty( meta.getModelAnnotationCategory() ) ) {
-        if ( modelAnnotations == null ) {
-          modelAnnotations = new ModelAnnotationGroup();
-          meta.setModelAnnotations( modelAnnotations );
-        }
-
-        modelAnnotations.addInjectedAnnotations( meta.createMeasureAnnotations );
-        modelAnnotations.addInjectedAnnotations( meta.createAttributeAnnotations );
-        modelAnnotations.addInjectedAnnotations( meta.createLinkDimensionAnnotations );
+        // the meta may be reused across runs and is shared by all step copies, so injection merges rather than adds
+        meta.mergeInjectedAnnotations( meta.createMeasureAnnotations );
+        meta.mergeInjectedAnnotations( meta.createAttributeAnnotations );
+        meta.mergeInjectedAnnotations( meta.createLinkDimensionAnnotations );
 
         // default all calc measure annotations to the Measures dimension
         meta.createCalcMeasureAnnotations.stream().forEach( calc -> calc.setDimension( "Measures" ) );
-        modelAnnotations.addInjectedAnnotations( meta.createCalcMeasureAnnotations );
+        meta.mergeInjectedAnnotations( meta.createCalcMeasureAnnotations );
       }
+      ModelAnnotationData modelAnnotationData = (ModelAnnotationData) sdi;
+      modelAnnotationData.metadataOnly = meta.isMetadataOnly();
+      modelAnnotationData.profileFields = meta.isProfileFields() && !meta.isMetadataOnly();
+      modelAnnotationData.sampleSize = Math.max( 0, meta.getSampleSize() );
+      modelAnnotationData.recommendAggregates = meta.isRecommendAggregates() && !meta.isMetadataOnly();
+      modelAnnotationData.timeFormatMismatchLimit = Math.max( 0, meta.getTimeFormatMismatchLimit() );
+      modelAnnotationData.annotationSourceStep = StringUtils.isBlank( meta.getAnnotationSourceStep() )
+          ? null : environmentSubstitute( meta.getAnnotationSourceStep() );
+      modelAnnotationData.checkLinkedKeys = meta.isCheckLinkedKeys() && !meta.isMetadataOnly();
+      modelAnnotationData.checkTimeFormats = meta.isCheckTimeFormats() && !meta.isMetadataOnly();
     }
     try {
       ModelAnnotationData modelAnnotationData = (ModelAnnotationData) sdi;
@@ -92,29 +137,443 @@ public class ModelAnnotationStep extends BaseStep implements StepInterface {
         log.logError( BaseMessages.getString( PKG, "ModelAnnotation.Runtime.MissingDataProvider" ) );
       } else {
         modelAnnotationData.annotations = processAnnotations( bmeta );
+        // with an annotation source the checks wait for its annotations, see readAnnotationSource
+        if ( modelAnnotationData.annotationSourceStep == null ) {
+          createChecks( modelAnnotationData );
+        }
       }
     } catch ( KettleException e ) {
       log.logError( e.getLocalizedMessage(), e );
       return false;
     }
+    stepData = (ModelAnnotationData) sdi;
     final boolean superInit = super.init( smi, sdi );
     return superInit;
   }
 
   @Override
   public boolean processRow( final StepMetaInterface smi, final StepDataInterface sdi ) throws KettleException {
+    ModelAnnotationData data = (ModelAnnotationData) sdi;
+    if ( data.annotationSourceStep != null ) {
+      readAnnotationSource( data );
+    }
+    if ( data.metadataOnly ) {
+      return passThrough();
+    }
     Object[] row = getRow();
     if ( first && row != null ) {
       first = false;
+      if ( data.profileFields ) {
+        data.profiles = new ColumnProfiles( getInputRowMeta(), data.sampleSize );
+      }
+      if ( data.timeFormatChecks != null ) {
+        data.timeFormatFieldIndexes = resolveTimeFormatFields( data.timeFormatChecks );
+      }
+      if ( data.recommendAggregates && data.annotations != null ) {
+        data.rollups = new RollupCounters( getInputRowMeta(), AggregateAdvisor.candidates( data.annotations ) );
+      }
     }
     if ( row == null ) { // no more input to be expected...
+      if ( data.profiles != null ) {
+        publishProfiles( data.profiles );
+        data.profiles = null;
+      }
+      if ( data.rollups != null ) {
+        publishRollups( data.rollups );
+        data.rollups = null;
+      }
+      if ( data.linkChecks != null ) {
+        reportLinkChecks( data.linkChecks );
+      }
+      if ( data.timeFormatChecks != null ) {
+        reportTimeFormatChecks( data );
+      }
       setOutputDone();
       return false;
     }
-    putRow( getInputRowMeta(), row );
+    if ( !acceptRow( data, row ) ) {
+      return true;
+    }
+    if ( data.timeFormatFieldIndexes != null ) {
+      checkTimeFormats( data, row );
+    }
+    if ( data.profiles != null ) {
+      data.profiles.offer( row );
+    }
+    if ( data.rollups != null ) {
+      data.rollups.offer( row );
+    }
+    writeRow( data, row );
+    return true;
+  }
+
+  /**
+   * In metadata-only mode the step is taken off the row path once all steps are initialized and before any of them
+   * runs, which is the last moment the row sets can be rewired safely.
+   */
+  @Override
+  public void initBeforeStart() throws KettleStepException {
+    super.initBeforeStart();
+    if ( stepData.metadataOnly && !getInputRowSets().isEmpty() && !bypassRowPath() ) {
+      logBasic( BaseMessages.getString( PKG, "ModelAnnotation.Runtime.RowPathKept" ) );
+    }
+  }
+
+  /**
+   * Hands the row set feeding this copy to the step behind it, in place of the one this copy writes to, and leaves
+   * this copy without row sets so it ends on its first processRow. The row set keeps its names, so the step in
+   * front still finds it as its hop to this step. Only done for a copy on a single plain hop in a normal
+   * transformation, and not when the step behind reads this step as an info stream, since it looks that one up by
+   * name.
+   *
+   * @return false when rows still have to pass through this copy
+   */
+  boolean bypassRowPath() {
+    List<RowSet> inputs = getInputRowSets();
+    List<RowSet> outputs = getOutputRowSets();
+    if ( getTransMeta().getTransformationType() != TransMeta.TransformationType.Normal
+        || inputs.size() != 1 || outputs.size() != 1 ) {
+      return false;
+    }
+    RowSet input = inputs.get( 0 );
+    RowSet output = outputs.get( 0 );
+    StepInterface next =
+        getTrans().findStepInterface( output.getDestinationStepName(), output.getDestinationStepCopy() );
+    if ( next == null || readsAsInfo( output.getDestinationStepName() ) ) {
+      return false;
+    }
+    List<RowSet> nextInputs = next.getInputRowSets();
+    int index = nextInputs.indexOf( output );
+    if ( index < 0 ) {
+      return false;
+    }
+    nextInputs.set( index, input );
+    inputs.clear();
+    outputs.clear();
+    output.setDone();
+    logBasic( BaseMessages.getString( PKG, "ModelAnnotation.Runtime.RowPathBypassed", input.getOriginStepName(),
+        output.getDestinationStepName() ) );
+    return true;
+  }
+
+  private boolean readsAsInfo( String stepName ) {
+    StepMeta next = getTransMeta().findStep( stepName );
+    if ( next == null ) {
+      return true;
+    }
+    for ( StreamInterface stream : next.getStepMetaInterface().getStepIOMeta().getInfoStreams() ) {
+      if ( getStepname().equals( stream.getStepname() ) ) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Metadata-only row handling. The annotations were published in init; a bypassed copy has no row sets and ends
+   * here right away, otherwise rows are moved in batches to keep the per-call overhead of the step runner down.
+   */
+  private boolean passThrough() throws KettleException {
+    for ( int i = 0; i < PASS_THROUGH_BATCH_SIZE; i++ ) {
+      Object[] row = getRow();
+      if ( row == null ) {
+        setOutputDone();
+        return false;
+      }
+      putRow( getInputRowMeta(), row );
+    }
     return true;
   }
 
+  /**
+   * Checks the Link Dimension fields of the row against the keys of their shared dimensions. A value that is not a
+   * key is always counted; with error handling on, the row goes to the error stream instead of the output.
+   *
+   * @return false to leave the row out of the output stream
+   */
+  protected boolean acceptRow( ModelAnnotationData data, Object[] row ) throws KettleException {
+    if ( data.linkChecks == null ) {
+      return true;
+    }
+    for ( ModelAnnotationData.LinkCheck check : data.linkChecks ) {
+      if ( check.fieldIndex < 0 ) {
+        check.fieldIndex = getInputRowMeta().indexOfValue( check.field );
+        if ( check.fieldIndex < 0 ) {
+          throw new KettleException(
+              BaseMessages.getString( PKG, "ModelAnnotation.Runtime.LinkedFieldNotFound", check.field ) );
+        }
+      }
+      ValueMetaInterface valueMeta = getInputRowMeta().getValueMeta( check.fieldIndex );
+      Object value = row[ check.fieldIndex ];
+      if ( valueMeta.isNull( value )
+          || check.keys.mightContain( ValueHash.hashKey( valueMeta, value ) ) ) {
+        continue;
+      }
+      check.orphans++;
+      if ( getStepMeta().isDoingErrorHandling() ) {
+        putError( getInputRowMeta(), row, 1, BaseMessages.getString( PKG, "ModelAnnotation.Runtime.OrphanRow",
+            check.field, check.sharedDimension ), check.field, "SDR_ORPHAN" );
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void createChecks( ModelAnnotationData data ) {
+    if ( data.checkLinkedKeys ) {
+      data.linkChecks = loadLinkChecks( data.annotations );
+    }
+    if ( data.checkTimeFormats ) {
+      data.timeFormatChecks = createTimeFormatChecks( data.annotations );
+    }
+  }
+
+  /**
+   * Loads the key filter of every shared dimension linked to. Links to dimensions that never published a filter
+   * are not checked.
+   */
+  private List<ModelAnnotationData.LinkCheck> loadLinkChecks( ModelAnnotationGroup annotations ) {
+    List<ModelAnnotationData.LinkCheck> checks = new ArrayList<>();
+    for ( ModelAnnotation<?> annotation : annotations ) {
+      if ( annotation.getType() != ModelAnnotation.Type.LINK_DIMENSION ) {
+        continue;
+      }
+      LinkDimension link = (LinkDimension) annotation.getAnnotation();
+      String sharedDimension = environmentSubstitute( link.getSharedDimension() );
+      try {
+        BloomFilter keys = SharedDimensionKeyFilter.load( sharedDimension );
+        if ( keys == null ) {
+          logBasic( BaseMessages.getString( PKG, "ModelAnnotation.Runtime.KeyFilterNotFound", sharedDimension ) );
+        } else {
+          checks.add( new ModelAnnotationData.LinkCheck( link.getField(), sharedDimension, keys ) );
+        }
+      } catch ( IOException e ) {
+        logError( e.getMessage(), e );
+      }
+    }
+    return checks.isEmpty() ? null : checks;
+  }
+
+  /**
+   * One check per time level attribute that has a source format. Formats that are not java date patterns can't
+   * be checked here and are skipped.
+   */
+  private List<TimeFormatConformance> createTimeFormatChecks( ModelAnnotationGroup annotations ) {
+    List<TimeFormatConformance> checks = new ArrayList<>();
+    for ( ModelAnnotation<?> annotation : annotations ) {
+      if ( annotation.getType() != ModelAnnotation.Type.CREATE_ATTRIBUTE ) {
+        continue;
+      }
+      CreateAttribute attribute = (CreateAttribute) annotation.getAnnotation();
+      if ( attribute.getTimeType() == null || StringUtils.isBlank( attribute.getTimeFormat() ) ) {
+        continue;
+      }
+      try {
+        checks.add( new TimeFormatConformance( annotation.getField(), attribute.getTimeFormat() ) );
+      } catch ( IllegalArgumentException e ) {
+        logDetailed( BaseMessages.getString( PKG, "ModelAnnotation.Runtime.TimeFormatNotChecked",
+            annotation.getField(), attribute.getTimeFormat() ) );
+      }
+    }
+    return checks.isEmpty() ? null : checks;
+  }
+
+  /**
+   * Only string fields are checked; typed dates and numbers don't go through the source format.
+   */
+  private int[] resolveTimeFormatFields( List<TimeFormatConformance> checks ) {
+    RowMetaInterface rowMeta = getInputRowMeta();
+    int[] indexes = new int[ checks.size() ];
+    for ( int i = 0; i < indexes.length; i++ ) {
+      TimeFormatConformance check = checks.get( i );
+      indexes[ i ] = rowMeta.indexOfValue( check.getField() );
+      if ( indexes[ i ] < 0 || !rowMeta.getValueMeta( indexes[ i ] ).isString() ) {
+        indexes[ i ] = -1;
+        logDetailed( BaseMessages.getString( PKG, "ModelAnnotation.Runtime.TimeFormatNotChecked",
+            check.getField(), check.getFormat() ) );
+      }
+    }
+    return indexes;
+  }
+
+  private void checkTimeFormats( ModelAnnotationData data, Object[] row ) throws KettleException {
+    RowMetaInterface rowMeta = getInputRowMeta();
+    for ( int i = 0; i < data.timeFormatFieldIndexes.length; i++ ) {
+      int index = data.timeFormatFieldIndexes[ i ];
+      if ( index < 0 ) {
+        continue;
+      }
+      TimeFormatConformance check = data.timeFormatChecks.get( i );
+      if ( !check.offer( rowMeta.getValueMeta( index ).getString( row[ index ] ) )
+          && check.getChecked() >= TIME_FORMAT_MIN_CHECKED ) {
+        failOnTimeFormatMismatch( data, check );
+      }
+    }
+  }
+
+  private void reportTimeFormatChecks( ModelAnnotationData data ) throws KettleException {
+    for ( TimeFormatConformance check : data.timeFormatChecks ) {
+      if ( check.getMismatched() > 0 ) {
+        logBasic( BaseMessages.getString( PKG, "ModelAnnotation.Runtime.TimeFormatMismatches",
+            String.valueOf( check.getMismatched() ), String.valueOf( check.getChecked() ), check.getField(),
+            check.getFormat(), String.format( "%.2f", check.getMismatchPercent() ), check.getFirstMismatch() ) );
+      }
+    }
+    for ( TimeFormatConformance check : data.timeFormatChecks ) {
+      failOnTimeFormatMismatch( data, check );
+    }
+  }
+
+  private void failOnTimeFormatMismatch( ModelAnnotationData data, TimeFormatConformance check )
+    throws KettleException {
+    if ( data.timeFormatMismatchLimit > 0 && check.getMismatchPercent() > data.timeFormatMismatchLimit ) {
+      throw new KettleException( BaseMessages.getString( PKG, "ModelAnnotation.Runtime.TimeFormatMismatchLimit",
+          check.getField(), check.getFormat(), String.valueOf( data.timeFormatMismatchLimit ) ) );
+    }
+  }
+
+  private void reportLinkChecks( List<ModelAnnotationData.LinkCheck> checks ) {
+    for ( ModelAnnotationData.LinkCheck check : checks ) {
+      if ( check.orphans > 0 ) {
+        logBasic( BaseMessages.getString( PKG, "ModelAnnotation.Runtime.OrphanRows", String.valueOf( check.orphans ),
+            check.field, check.sharedDimension ) );
+      }
+    }
+  }
+
+  protected void writeRow( ModelAnnotationData data, Object[] row ) throws KettleException {
+    putRow( getInputRowMeta(), row );
+  }
+
+  /**
+   * Merges this copy's field profiles into the ones Build Model reads, kept apart per output step downstream so loads
+   * of different tables don't mix. Several copies or annotation steps may finish at the same time, so the merge is
+   * done holding the extension map.
+   */
+  private void publishProfiles( ColumnProfiles profiles ) {
+    String rowCount = String.valueOf( profiles.getRowCount() );
+    String fieldCount = String.valueOf( profiles.getProfiles().size() );
+    String nanosPerRow = String.valueOf( profiles.getNanosPerRow() );
+    Map<String, Object> extensionMap = getAnnotationExtensionMap();
+    List<String> outputSteps = getOutputStepNames();
+    synchronized ( extensionMap ) {
+      Map<String, Object> byOutputStep = byOutputStep( extensionMap, JobEntryBuildModel.KEY_COLUMN_PROFILES );
+      for ( String outputStep : outputSteps ) {
+        Object existing = byOutputStep.get( outputStep );
+        if ( !( existing instanceof ColumnProfiles ) ) {
+          existing = new ColumnProfiles();
+          byOutputStep.put( outputStep, existing );
+        }
+        ( (ColumnProfiles) existing ).merge( profiles );
+      }
+    }
+    logBasic( BaseMessages.getString( PKG, "ModelAnnotation.Runtime.FieldsProfiled", rowCount, fieldCount,
+        nanosPerRow ) );
+  }
+
+  /**
+   * Hands this copy's rollup counts to the Build Model entries of the output steps downstream, merged with those of
+   * other copies and earlier loads of the job.
+   */
+  private void publishRollups( RollupCounters rollups ) {
+    Map<String, Object> extensionMap = getAnnotationExtensionMap();
+    List<String> outputSteps = getOutputStepNames();
+    synchronized ( extensionMap ) {
+      Map<String, Object> byOutputStep = byOutputStep( extensionMap, JobEntryBuildModel.KEY_ROLLUPS );
+      for ( String outputStep : outputSteps ) {
+        Object existing = byOutputStep.get( outputStep );
+        if ( !( existing instanceof RollupCounters ) ) {
+          existing = new RollupCounters();
+          byOutputStep.put( outputStep, existing );
+        }
+        ( (RollupCounters) existing ).merge( rollups );
+      }
+    }
+  }
+
+  @SuppressWarnings( "unchecked" )
+  private static Map<String, Object> byOutputStep( Map<String, Object> extensionMap, String key ) {
+    Object byOutputStep = extensionMap.get( key );
+    if ( !( byOutputStep instanceof Map ) ) {
+      byOutputStep = new HashMap<String, Object>();
+      extensionMap.put( key, byOutputStep );
+    }
+    return (Map<String, Object>) byOutputStep;
+  }
+
+  /**
+   * Names of the steps downstream that write the annotated rows to a database, which is what a Build Model entry
+   * names as its output step. Falls back to this step itself, e.g. when it is the last step of a data service.
+   */
+  List<String> getOutputStepNames() {
+    List<String> names = new ArrayList<>();
+    Set<StepMeta> seen = new HashSet<>();
+    Deque<StepMeta> next = new ArrayDeque<>( getTransMeta().findNextSteps( getStepMeta() ) );
+    while ( !next.isEmpty() ) {
+      StepMeta step = next.poll();
+      if ( seen.add( step ) ) {
+        if ( step.getStepMetaInterface() instanceof ProvidesDatabaseConnectionInformation ) {
+          names.add( step.getName() );
+        }
+        next.addAll( getTransMeta().findNextSteps( step ) );
+      }
+    }
+    if ( names.isEmpty() ) {
+      names.add( getStepname() );
+    }
+    return names;
+  }
+
+  /**
+   * Reads all annotation definitions from the info step before the first row of the main stream is handled, and
+   * registers them next to the annotations defined in the step itself. The link and time format checks and the
+   * rollup candidates are built from both.
+   */
+  private void readAnnotationSource( ModelAnnotationData data ) throws KettleException {
+    String sourceStep = data.annotationSourceStep;
+    data.annotationSourceStep = null;
+    RowSet rowSet = findInputRowSet( sourceStep );
+    if ( rowSet == null ) {
+      throw new KettleException(
+          BaseMessages.getString( PKG, "ModelAnnotation.Runtime.AnnotationSourceNotFound", sourceStep ) );
+    }
+    ModelAnnotationGroup group = new ModelAnnotationGroup();
+    AnnotationRowReader reader = null;
+    Object[] row;
+    while ( ( row = getRowFrom( rowSet ) ) != null ) {
+      if ( reader == null ) {
+        reader = new AnnotationRowReader( rowSet.getRowMeta(), sourceStep );
+      }
+      ModelAnnotation<?> annotation = reader.read( row );
+      if ( annotation != null ) {
+        group.add( annotation );
+      }
+    }
+    validateMeasuresNumeric( group );
+    publishAnnotations( group );
+    data.annotations = withAnnotations( data.annotations, sourceStep, group );
+    createChecks( data );
+    logDetailed( BaseMessages.getString( PKG, "ModelAnnotation.Runtime.AnnotationSourceRead",
+        String.valueOf( group.size() ), sourceStep ) );
+  }
+
+  /**
+   * The step's annotations followed by the ones read from the source, deduplicated like the registry does. A new
+   * group, the step's own may belong to the meta.
+   */
+  private ModelAnnotationGroup withAnnotations( ModelAnnotationGroup annotations, String sourceStep,
+                                                ModelAnnotationGroup sourceAnnotations ) {
+    ModelAnnotationRegistry merged = new ModelAnnotationRegistry();
+    merged.register( getStepname(), annotations );
+    merged.register( sourceStep, sourceAnnotations );
+    ModelAnnotationGroup group = merged.getAnnotations();
+    group.setName( annotations.getName() );
+    group.setDescription( annotations.getDescription() );
+    group.setSharedDimension( annotations.isSharedDimension() );
+    group.setDataProviders( annotations.getDataProviders() );
+    return group;
+  }
+
   /**
    * exposes an annotation group to build model
    *
@@ -134,18 +593,27 @@ public class ModelAnnotationStep extends BaseStep implements StepInterface {
     }
     validateMeasuresNumeric( currentGroup );
 
-    ModelAnnotationGroup allAnnotations = getExistingAnnotations();
-    if ( !currentGroup.isSharedDimension() ) {
-      allAnnotations.addAll( currentGroup );
-    }
-    if ( getTrans().getParentJob() != null ) {
-      getTrans().getParentJob().getExtensionDataMap().put( JobEntryBuildModel.KEY_MODEL_ANNOTATIONS, allAnnotations );
-    } else {
-      getTrans().getExtensionDataMap().put( JobEntryBuildModel.KEY_MODEL_ANNOTATIONS, allAnnotations );
-    }
+    // shared dimensions are not part of the model being built
+    publishAnnotations( currentGroup.isSharedDimension() ? new ModelAnnotationGroup() : currentGroup );
     return currentGroup;
   }
 
+  private void publishAnnotations( ModelAnnotationGroup annotations ) {
+    Map<String, Object> extensionMap = getAnnotationExtensionMap();
+    ModelAnnotationRegistry registry = ModelAnnotationRegistry.getOrCreate( extensionMap );
+    registry.register( getTrans().getName() + "/" + getStepname(), annotations );
+    // the plain group is still published for readers that don't know the registry. It is snapshotted while
+    // holding the map so the last writer always leaves every registered annotation behind.
+    synchronized ( extensionMap ) {
+      extensionMap.put( JobEntryBuildModel.KEY_MODEL_ANNOTATIONS, registry.getAnnotations() );
+    }
+  }
+
+  private Map<String, Object> getAnnotationExtensionMap() {
+    return getTrans().getParentJob() != null
+        ? getTrans().getParentJob().getExtensionDataMap() : getTrans().getExtensionDataMap();
+  }
+
   private boolean isGroupLinked( BaseAnnotationMeta meta ) {
     return !StringUtils.isBlank( environmentSubstitute( meta.getModelAnnotationCategory() ) );
   }
@@ -160,7 +628,13 @@ public class ModelAnnotationStep extends BaseStep implements StepInterface {
     }
     try {
       ModelAnnotationManager mgr = getModelAnnotationsManager( modelAnnotationMeta );
-      ModelAnnotationGroup group = mgr.readGroup( groupName, metaStore );
+      AnnotationGroupCache cache = AnnotationGroupCache.getInstance();
+      ModelAnnotationGroup group =
+          cache.readGroup( mgr, modelAnnotationMeta.isSharedDimension(), groupName, metaStore );
+      if ( log.isDebug() ) {
+        logDebug( BaseMessages.getString( PKG, "ModelAnnotation.Runtime.GroupCacheStats",
+            String.valueOf( cache.getHitCount() ), String.valueOf( cache.getMissCount() ) ) );
+      }
       if ( group == null ) {
         throw new KettleException( BaseMessages.getString(
           PKG, modelAnnotationMeta.isSharedDimension()
@@ -183,21 +657,17 @@ public class ModelAnnotationStep extends BaseStep implements StepInterface {
 
 
   private void validateMeasuresNumeric( ModelAnnotationGroup annotations ) throws KettleException {
-    RowMetaInterface inputRowMeta = getInputRowMeta();
-    if (  inputRowMeta == null ) {
-      inputRowMeta = getTransMeta().getPrevStepFields( getStepMeta() );
-    }
-    if ( inputRowMeta != null ) {
+    Map<String, ValueMetaInterface> fields = getInputFields();
+    if ( fields != null ) {
       for ( ModelAnnotation<?> annotation : annotations ) {
         if ( annotation.getType() != null && annotation.getType().equals( ModelAnnotation.Type.CREATE_MEASURE ) ) {
-          for ( ValueMetaInterface valueMeta : inputRowMeta.getValueMetaList() ) {
-            if ( !valueMeta.isNumeric() && valueMeta.getName().equals( annotation.getAnnotation().getField() ) ) {
-              CreateMeasure createMeasure = (CreateMeasure) annotation.getAnnotation();
-              if ( !createMeasure.getAggregateType().equals( AggregationType.COUNT ) && !createMeasure
-                  .getAggregateType().equals( AggregationType.COUNT_DISTINCT ) ) {
-                throw new KettleException( BaseMessages.getString( PKG, "ModelAnnotation.Runtime.NonNumericMeasure",
-                    createMeasure.getAggregateType().name() ) );
-              }
+          ValueMetaInterface valueMeta = fields.get( annotation.getAnnotation().getField() );
+          if ( valueMeta != null && !valueMeta.isNumeric() ) {
+            CreateMeasure createMeasure = (CreateMeasure) annotation.getAnnotation();
+            if ( !createMeasure.getAggregateType().equals( AggregationType.COUNT ) && !createMeasure
+                .getAggregateType().equals( AggregationType.COUNT_DISTINCT ) ) {
+              throw new KettleException( BaseMessages.getString( PKG, "ModelAnnotation.Runtime.NonNumericMeasure",
+                  createMeasure.getAggregateType().name() ) );
             }
           }
         }
@@ -205,15 +675,16 @@ public class ModelAnnotationStep extends BaseStep implements StepInterface {
     }
   }
 
-  private ModelAnnotationGroup getExistingAnnotations() {
-    Object o = ( getTrans().getParentJob() == null )
-        ? getTrans().getExtensionDataMap().get( JobEntryBuildModel.KEY_MODEL_ANNOTATIONS )
-        : getTrans().getParentJob().getExtensionDataMap().get( JobEntryBuildModel.KEY_MODEL_ANNOTATIONS );
-    if ( o == null ) {
-      return new ModelAnnotationGroup();
-    } else {
-      return (ModelAnnotationGroup) o;
+  /**
+   * Incoming fields by name. Until rows arrive they come from the transformation, resolved once per run and
+   * shared by all annotation steps and copies.
+   */
+  private Map<String, ValueMetaInterface> getInputFields() throws KettleException {
+    RowMetaInterface inputRowMeta = getInputRowMeta();
+    if ( inputRowMeta != null ) {
+      return StepFieldResolver.index( inputRowMeta );
     }
+    return StepFieldResolver.getInstance( getTrans(), getTransMeta() ).getPrevStepFields( getStepMeta() );
   }
 
   private boolean isOutputStepFound( final String outputStep ) throws KettleException {
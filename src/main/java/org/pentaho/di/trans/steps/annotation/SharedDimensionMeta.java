@@ -15,15 +15,29 @@ package org.pentaho.di.trans.steps.annotation;
 
 import org.pentaho.agilebi.modeler.models.annotations.CreateAttribute;
 import org.pentaho.agilebi.modeler.models.annotations.CreateDimensionKey;
+import org.pentaho.di.core.Const;
 import org.pentaho.di.core.annotations.Step;
+import org.pentaho.di.core.database.DatabaseMeta;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.exception.KettleStepException;
+import org.pentaho.di.core.exception.KettleXMLException;
 import org.pentaho.di.core.injection.Injection;
 import org.pentaho.di.core.injection.InjectionDeep;
 import org.pentaho.di.core.injection.InjectionSupported;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.ValueMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaString;
+import org.pentaho.di.core.variables.VariableSpace;
+import org.pentaho.di.core.xml.XMLHandler;
+import org.pentaho.di.repository.ObjectId;
+import org.pentaho.di.repository.Repository;
 import org.pentaho.di.trans.Trans;
 import org.pentaho.di.trans.TransMeta;
 import org.pentaho.di.trans.step.StepDataInterface;
 import org.pentaho.di.trans.step.StepInterface;
 import org.pentaho.di.trans.step.StepMeta;
+import org.pentaho.metastore.api.IMetaStore;
+import org.w3c.dom.Node;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -37,6 +51,51 @@ import java.util.List;
     categoryDescription = "i18n:org.pentaho.di.trans.step:BaseStep.Category.Flow" )
 public class SharedDimensionMeta extends BaseAnnotationMeta {
 
+  /**
+   * What the step does with a row whose dimension key was already seen. Keys are tracked as 64 bit hashes, about 16
+   * bytes per member, so checking them needs a single copy of the step. Rows without a key are not checked.
+   */
+  public enum KeyUniqueness {
+    /** rows pass unchecked */
+    NONE,
+    /** only the first row of each key reaches the data provider step */
+    DROP,
+    /** a repeated key fails the transformation */
+    FAIL;
+
+    static KeyUniqueness fromCode( String code ) {
+      for ( KeyUniqueness keyUniqueness : values() ) {
+        if ( keyUniqueness.name().equalsIgnoreCase( code ) ) {
+          return keyUniqueness;
+        }
+      }
+      return NONE;
+    }
+  }
+
+  @Injection( name = "KEY_UNIQUENESS" )
+  private KeyUniqueness keyUniqueness = KeyUniqueness.NONE;
+
+  /**
+   * When set, only members that are new or changed since the last successful run reach the data provider step,
+   * tagged with {@link #changeTypeField}. See {@link org.pentaho.di.core.refinery.MemberHashIndex}.
+   * <p>
+   * The change type field is for the load only: it is left out of the dimension's column mappings, so the data
+   * provider step has to map it explicitly, to a column of its own or by leaving it out of its database fields.
+   */
+  @Injection( name = "INCREMENTAL" )
+  private boolean incremental;
+
+  @Injection( name = "CHANGE_TYPE_FIELD" )
+  private String changeTypeField = "change_type";
+
+  /**
+   * When set, the key values are added to the dimension's key filter after each successful run, for Annotate Stream
+   * to check the fields linked to this dimension against.
+   */
+  @Injection( name = "PUBLISH_KEY_FILTER" )
+  private boolean publishKeyFilter;
+
   /////////////////////////////////////////////////////
   // Temp fields required to support metadata injection
   // These will be injected via the annotation-based injection system.
@@ -58,6 +117,87 @@ public class SharedDimensionMeta extends BaseAnnotationMeta {
   // end temp fields
   /////////////////////////////////////////////////////
 
+  public KeyUniqueness getKeyUniqueness() {
+    return keyUniqueness;
+  }
+
+  public void setKeyUniqueness( KeyUniqueness keyUniqueness ) {
+    this.keyUniqueness = keyUniqueness == null ? KeyUniqueness.NONE : keyUniqueness;
+  }
+
+  public boolean isIncremental() {
+    return incremental;
+  }
+
+  public void setIncremental( boolean incremental ) {
+    this.incremental = incremental;
+  }
+
+  public String getChangeTypeField() {
+    return changeTypeField;
+  }
+
+  public void setChangeTypeField( String changeTypeField ) {
+    this.changeTypeField = changeTypeField;
+  }
+
+  public boolean isPublishKeyFilter() {
+    return publishKeyFilter;
+  }
+
+  public void setPublishKeyFilter( boolean publishKeyFilter ) {
+    this.publishKeyFilter = publishKeyFilter;
+  }
+
+  @Override
+  public void getFields( RowMetaInterface inputRowMeta, String name, RowMetaInterface[] info, StepMeta nextStep,
+                         VariableSpace space, Repository repository, IMetaStore metaStore )
+    throws KettleStepException {
+    if ( isIncremental() ) {
+      ValueMetaInterface changeType = new ValueMetaString( space.environmentSubstitute( getChangeTypeField() ) );
+      changeType.setOrigin( name );
+      inputRowMeta.addValueMeta( changeType );
+    }
+  }
+
+  @Override
+  public String getXML() {
+    return super.getXML()
+        + "    " + XMLHandler.addTagValue( "keyUniqueness", getKeyUniqueness().name() )
+        + "    " + XMLHandler.addTagValue( "incremental", isIncremental() )
+        + "    " + XMLHandler.addTagValue( "changeTypeField", getChangeTypeField() )
+        + "    " + XMLHandler.addTagValue( "publishKeyFilter", isPublishKeyFilter() );
+  }
+
+  @Override
+  public void loadXML( Node stepnode, List<DatabaseMeta> databases, IMetaStore metaStore ) throws KettleXMLException {
+    super.loadXML( stepnode, databases, metaStore );
+    setKeyUniqueness( KeyUniqueness.fromCode( XMLHandler.getTagValue( stepnode, "keyUniqueness" ) ) );
+    setIncremental( "Y".equalsIgnoreCase( XMLHandler.getTagValue( stepnode, "incremental" ) ) );
+    setChangeTypeField( Const.NVL( XMLHandler.getTagValue( stepnode, "changeTypeField" ), "change_type" ) );
+    setPublishKeyFilter( "Y".equalsIgnoreCase( XMLHandler.getTagValue( stepnode, "publishKeyFilter" ) ) );
+  }
+
+  @Override
+  public void saveRep( final Repository rep, final IMetaStore metaStore, final ObjectId id_transformation,
+      final ObjectId id_step ) throws KettleException {
+    super.saveRep( rep, metaStore, id_transformation, id_step );
+    rep.saveStepAttribute( id_transformation, id_step, "KEY_UNIQUENESS", getKeyUniqueness().name() );
+    rep.saveStepAttribute( id_transformation, id_step, "INCREMENTAL", isIncremental() );
+    rep.saveStepAttribute( id_transformation, id_step, "CHANGE_TYPE_FIELD", getChangeTypeField() );
+    rep.saveStepAttribute( id_transformation, id_step, "PUBLISH_KEY_FILTER", isPublishKeyFilter() );
+  }
+
+  @Override
+  public void readRep( Repository rep, IMetaStore metaStore, ObjectId id_step, List<DatabaseMeta> databases )
+    throws KettleException {
+    super.readRep( rep, metaStore, id_step, databases );
+    setKeyUniqueness( KeyUniqueness.fromCode( rep.getStepAttributeString( id_step, "KEY_UNIQUENESS" ) ) );
+    setIncremental( rep.getStepAttributeBoolean( id_step, "INCREMENTAL" ) );
+    setChangeTypeField( Const.NVL( rep.getStepAttributeString( id_step, "CHANGE_TYPE_FIELD" ), "change_type" ) );
+    setPublishKeyFilter( rep.getStepAttributeBoolean( id_step, "PUBLISH_KEY_FILTER" ) );
+  }
+
   @Override
   public StepInterface getStep( StepMeta stepMeta, StepDataInterface stepDataInterface, int copyNr,
                                 TransMeta transMeta, Trans trans ) {
@@ -0,0 +1,106 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.di.trans.steps.annotation;
+
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.row.RowMetaInterface;
+import org.pentaho.di.core.row.ValueMetaInterface;
+import org.pentaho.di.trans.Trans;
+import org.pentaho.di.trans.TransMeta;
+import org.pentaho.di.trans.step.StepMeta;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Resolves the fields coming into a step once per transformation run. Input row metadata isn't known yet during
+ * init, and asking the TransMeta for previous step fields can mean database round trips, so the annotation steps
+ * and all their copies share the result. Kept in the transformation's extension map.
+ */
+public class StepFieldResolver {
+
+  static final String KEY = "ModelAnnotation.StepFieldResolver";
+
+  private final TransMeta transMeta;
+  private final ConcurrentMap<String, FutureTask<Map<String, ValueMetaInterface>>> resolved =
+      new ConcurrentHashMap<>();
+
+  StepFieldResolver( TransMeta transMeta ) {
+    this.transMeta = transMeta;
+  }
+
+  public static StepFieldResolver getInstance( Trans trans, TransMeta transMeta ) {
+    Map<String, Object> extensionMap = trans == null ? null : trans.getExtensionDataMap();
+    if ( extensionMap == null ) {
+      return new StepFieldResolver( transMeta );
+    }
+    synchronized ( extensionMap ) {
+      Object resolver = extensionMap.get( KEY );
+      if ( !( resolver instanceof StepFieldResolver ) ) {
+        resolver = new StepFieldResolver( transMeta );
+        extensionMap.put( KEY, resolver );
+      }
+      return (StepFieldResolver) resolver;
+    }
+  }
+
+  /**
+   * @return field name to value meta of the rows arriving at <code>stepMeta</code>, null if unknown
+   */
+  public Map<String, ValueMetaInterface> getPrevStepFields( final StepMeta stepMeta ) throws KettleException {
+    FutureTask<Map<String, ValueMetaInterface>> task = resolved.get( stepMeta.getName() );
+    if ( task == null ) {
+      FutureTask<Map<String, ValueMetaInterface>> created =
+          new FutureTask<>( () -> index( transMeta.getPrevStepFields( stepMeta ) ) );
+      task = resolved.putIfAbsent( stepMeta.getName(), created );
+      if ( task == null ) {
+        task = created;
+        task.run();
+      }
+    }
+    try {
+      return task.get();
+    } catch ( InterruptedException e ) {
+      Thread.currentThread().interrupt();
+      throw new KettleException( e );
+    } catch ( ExecutionException e ) {
+      // let a later copy retry
+      resolved.remove( stepMeta.getName(), task );
+      if ( e.getCause() instanceof KettleException ) {
+        throw (KettleException) e.getCause();
+      }
+      throw new KettleException( e.getCause() );
+    }
+  }
+
+  /**
+   * @return field name to value meta, first occurrence wins; null for null
+   */
+  public static Map<String, ValueMetaInterface> index( RowMetaInterface rowMeta ) {
+    if ( rowMeta == null ) {
+      return null;
+    }
+    Map<String, ValueMetaInterface> fields = new HashMap<>( rowMeta.size() * 2 );
+    for ( ValueMetaInterface valueMeta : rowMeta.getValueMetaList() ) {
+      if ( !fields.containsKey( valueMeta.getName() ) ) {
+        fields.put( valueMeta.getName(), valueMeta );
+      }
+    }
+    return Collections.unmodifiableMap( fields );
+  }
+}
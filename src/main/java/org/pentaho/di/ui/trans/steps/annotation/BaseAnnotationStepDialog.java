@@ -42,6 +42,7 @@ import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.gui.SpoonFactory;
 import org.pentaho.di.core.gui.SpoonInterface;
 import org.pentaho.di.core.plugins.PluginInterface;
+import org.pentaho.di.core.refinery.AnnotationGroupCache;
 import org.pentaho.di.core.refinery.publish.util.ObjectUtils;
 import org.pentaho.di.core.util.StringUtil;
 import org.pentaho.di.i18n.BaseMessages;
@@ -826,6 +827,7 @@ public abstract class BaseAnnotationStepDialog extends BaseStepDialog implements
         if ( getModelAnnotationManger().containsGroup( groupName, getMetaStore() ) ) {
           getModelAnnotationManger().deleteGroup( groupName, getMetaStore() );
         }
+        AnnotationGroupCache.getInstance().invalidate( sharedDimensions, groupName );
       } catch ( MetaStoreException e ) {
         logError( e.getLocalizedMessage(), e );
       }
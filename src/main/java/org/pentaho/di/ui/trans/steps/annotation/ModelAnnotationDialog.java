@@ -15,18 +15,23 @@ package org.pentaho.di.ui.trans.steps.annotation;
 
 import org.apache.commons.lang.StringUtils;
 import org.eclipse.swt.SWT;
+import org.eclipse.swt.custom.CCombo;
 import org.eclipse.swt.events.ModifyEvent;
 import org.eclipse.swt.events.ModifyListener;
 import org.eclipse.swt.graphics.Image;
 import org.eclipse.swt.graphics.Point;
 import org.eclipse.swt.layout.FormAttachment;
 import org.eclipse.swt.layout.FormData;
+import org.eclipse.swt.layout.RowData;
+import org.eclipse.swt.layout.RowLayout;
 import org.eclipse.swt.widgets.Button;
 import org.eclipse.swt.widgets.Composite;
 import org.eclipse.swt.widgets.Control;
 import org.eclipse.swt.widgets.Event;
+import org.eclipse.swt.widgets.Label;
 import org.eclipse.swt.widgets.Listener;
 import org.eclipse.swt.widgets.Shell;
+import org.eclipse.swt.widgets.Text;
 import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotationGroup;
 import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotationManager;
 import org.pentaho.di.core.Const;
@@ -63,6 +68,16 @@ public class ModelAnnotationDialog extends BaseAnnotationStepDialog {
   private Button bLinked;
   private Listener lsLinked;
   private Listener lsLocal;
+  private Listener lsOptions;
+  private Composite wOptions;
+  private Button wMetadataOnly;
+  private Button wProfileFields;
+  private CCombo wAnnotationSource;
+  private Text wSampleSize;
+  private Button wCheckLinkedKeys;
+  private Button wCheckTimeFormats;
+  private Button wRecommendAggregates;
+  private Text wTimeFormatMismatchLimit;
 
   public ModelAnnotationDialog( Shell parent, Object in, TransMeta transMeta, String stepname ) {
     super( parent, (StepMetaInterface) in, transMeta, stepname );
@@ -74,6 +89,13 @@ public class ModelAnnotationDialog extends BaseAnnotationStepDialog {
 
     super.initializeListeners();
 
+    lsOptions = new Listener() {
+      @Override
+      public void handleEvent( final Event event ) {
+        wApply.setEnabled( true );
+      }
+    };
+
     lsLinked = new Listener() {
       @Override
       public void handleEvent( final Event event ) {
@@ -181,6 +203,109 @@ public class ModelAnnotationDialog extends BaseAnnotationStepDialog {
     props.setLook( composite );
   }
 
+  /**
+   * Step options, kept with the step rather than in the annotation group.
+   */
+  private Control createOptions( final Control topWidget ) {
+    wOptions = new Composite( shell, SWT.NONE );
+    RowLayout layout = new RowLayout( SWT.HORIZONTAL );
+    layout.wrap = true;
+    layout.center = true;
+    layout.spacing = 10;
+    layout.marginLeft = 0;
+    wOptions.setLayout( layout );
+    props.setLook( wOptions );
+
+    wMetadataOnly = createOption( "ModelAnnotation.Dialog.MetadataOnly" );
+    wProfileFields = createOption( "ModelAnnotation.Dialog.ProfileFields" );
+    wSampleSize = createNumberOption( "ModelAnnotation.Dialog.SampleSize" );
+    wCheckLinkedKeys = createOption( "ModelAnnotation.Dialog.CheckLinkedKeys" );
+    wCheckTimeFormats = createOption( "ModelAnnotation.Dialog.CheckTimeFormats" );
+    wTimeFormatMismatchLimit = createNumberOption( "ModelAnnotation.Dialog.TimeFormatMismatchLimit" );
+    wRecommendAggregates = createOption( "ModelAnnotation.Dialog.RecommendAggregates" );
+    wAnnotationSource = createStepOption( "ModelAnnotation.Dialog.AnnotationSourceStep" );
+
+    FormData fData = new FormData();
+    fData.top = new FormAttachment( topWidget, 10 );
+    fData.left = new FormAttachment( 0, LEFT_MARGIN_OFFSET );
+    fData.right = new FormAttachment( 100, RIGHT_MARGIN_OFFSET );
+    wOptions.setLayoutData( fData );
+    return wOptions;
+  }
+
+  private Button createOption( final String key ) {
+    Button option = new Button( wOptions, SWT.CHECK );
+    option.setText( BaseMessages.getString( PKG, key + ".Label" ) );
+    option.setToolTipText( BaseMessages.getString( PKG, key + ".Tooltip" ) );
+    option.addListener( SWT.Selection, lsOptions );
+    props.setLook( option );
+    return option;
+  }
+
+  private Label createOptionLabel( final String key ) {
+    Label label = new Label( wOptions, SWT.NONE );
+    label.setText( BaseMessages.getString( PKG, key + ".Label" ) );
+    label.setToolTipText( BaseMessages.getString( PKG, key + ".Tooltip" ) );
+    props.setLook( label );
+    return label;
+  }
+
+  private Text createNumberOption( final String key ) {
+    createOptionLabel( key );
+    Text option = new Text( wOptions, SWT.SINGLE | SWT.BORDER | SWT.RIGHT );
+    option.setToolTipText( BaseMessages.getString( PKG, key + ".Tooltip" ) );
+    option.setTextLimit( 9 );
+    option.setLayoutData( new RowData( 60, SWT.DEFAULT ) );
+    option.addListener( SWT.Modify, lsOptions );
+    props.setLook( option );
+    return option;
+  }
+
+  private CCombo createStepOption( final String key ) {
+    createOptionLabel( key );
+    CCombo option = new CCombo( wOptions, SWT.BORDER );
+    option.setItems( transMeta.getPrevStepNames( stepname ) );
+    option.setToolTipText( BaseMessages.getString( PKG, key + ".Tooltip" ) );
+    option.addListener( SWT.Modify, lsOptions );
+    props.setLook( option );
+    return option;
+  }
+
+  private void populateOptions() {
+    wMetadataOnly.setSelection( input.isMetadataOnly() );
+    wProfileFields.setSelection( input.isProfileFields() );
+    wSampleSize.setText( String.valueOf( input.getSampleSize() ) );
+    wCheckLinkedKeys.setSelection( input.isCheckLinkedKeys() );
+    wCheckTimeFormats.setSelection( input.isCheckTimeFormats() );
+    wTimeFormatMismatchLimit.setText( String.valueOf( input.getTimeFormatMismatchLimit() ) );
+    wRecommendAggregates.setSelection( input.isRecommendAggregates() );
+    wAnnotationSource.setText( Const.NVL( input.getAnnotationSourceStep(), "" ) );
+  }
+
+  private boolean optionsChanged() {
+    return wMetadataOnly.getSelection() != input.isMetadataOnly()
+        || wProfileFields.getSelection() != input.isProfileFields()
+        || Const.toInt( wSampleSize.getText(), 0 ) != input.getSampleSize()
+        || wCheckLinkedKeys.getSelection() != input.isCheckLinkedKeys()
+        || wCheckTimeFormats.getSelection() != input.isCheckTimeFormats()
+        || Const.toInt( wTimeFormatMismatchLimit.getText(), 0 ) != input.getTimeFormatMismatchLimit()
+        || wRecommendAggregates.getSelection() != input.isRecommendAggregates()
+        || !wAnnotationSource.getText().equals( Const.NVL( input.getAnnotationSourceStep(), "" ) );
+  }
+
+  private void applyOptions() {
+    input.setMetadataOnly( wMetadataOnly.getSelection() );
+    input.setProfileFields( wProfileFields.getSelection() );
+    input.setSampleSize( Math.max( 0, Const.toInt( wSampleSize.getText(), 0 ) ) );
+    input.setCheckLinkedKeys( wCheckLinkedKeys.getSelection() );
+    input.setCheckTimeFormats( wCheckTimeFormats.getSelection() );
+    input.setTimeFormatMismatchLimit(
+        Math.min( 100, Math.max( 0, Const.toInt( wTimeFormatMismatchLimit.getText(), 0 ) ) ) );
+    input.setRecommendAggregates( wRecommendAggregates.getSelection() );
+    input.setAnnotationSourceStep( StringUtils.trimToNull( wAnnotationSource.getText() ) );
+    input.searchInfoAndTargetSteps( transMeta.getSteps() );
+  }
+
   private void createFieldsTable( Control topWidget ) {
 
     tableComposite = new ModelAnnotationsTableComposite( shell, topWidget, wBottomHorizontalSeparator ) {
@@ -256,6 +381,7 @@ public class ModelAnnotationDialog extends BaseAnnotationStepDialog {
     Control top = topWidget;
     top = createLocalLinked( top );
     top = createDescription( top );
+    top = createOptions( top );
     createFieldsTable( top );
     resizeSummaryColumn( tableComposite );
 
@@ -282,6 +408,7 @@ public class ModelAnnotationDialog extends BaseAnnotationStepDialog {
 
   @Override
   protected void afterOpen() {
+    populateOptions();
     populateCategories( envSub( input.getModelAnnotationCategory() ), false );
     if ( StringUtils.isBlank( envSub( input.getModelAnnotationCategory() ) ) ) {
       populateTable( input.getModelAnnotations() );
@@ -349,6 +476,7 @@ public class ModelAnnotationDialog extends BaseAnnotationStepDialog {
     input.setChanged(
         input.hasChanged()
             || changed
+            || optionsChanged()
             || !stepname.equals( wStepname.getText() )
             || !input.getModelAnnotations().equals( tableComposite.getData() )
             || !StringUtils.equals( input.getModelAnnotations().getDescription(), wDescription.getText() ) );
@@ -386,6 +514,7 @@ public class ModelAnnotationDialog extends BaseAnnotationStepDialog {
     } else {
       input.setModelAnnotationCategory( null );
     }
+    applyOptions();
     return true;
   }
 
@@ -15,6 +15,7 @@ package org.pentaho.di.ui.trans.steps.annotation;
 
 import org.apache.commons.lang.StringUtils;
 import org.eclipse.swt.SWT;
+import org.eclipse.swt.custom.CCombo;
 import org.eclipse.swt.events.ModifyEvent;
 import org.eclipse.swt.events.ModifyListener;
 import org.eclipse.swt.events.SelectionAdapter;
@@ -22,17 +23,25 @@ import org.eclipse.swt.events.SelectionEvent;
 import org.eclipse.swt.graphics.Image;
 import org.eclipse.swt.layout.FormAttachment;
 import org.eclipse.swt.layout.FormData;
+import org.eclipse.swt.layout.RowData;
+import org.eclipse.swt.layout.RowLayout;
+import org.eclipse.swt.widgets.Button;
 import org.eclipse.swt.widgets.Composite;
 import org.eclipse.swt.widgets.Control;
 import org.eclipse.swt.widgets.Event;
+import org.eclipse.swt.widgets.Label;
 import org.eclipse.swt.widgets.Listener;
 import org.eclipse.swt.widgets.Shell;
+import org.eclipse.swt.widgets.Text;
 import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotationGroup;
 import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotationManager;
+import org.pentaho.di.core.Const;
 import org.pentaho.di.core.refinery.publish.util.ObjectUtils;
 import org.pentaho.di.core.util.StringUtil;
 import org.pentaho.di.i18n.BaseMessages;
 import org.pentaho.di.trans.TransMeta;
+import org.pentaho.di.trans.steps.annotation.SharedDimensionMeta;
+import org.pentaho.di.trans.steps.annotation.SharedDimensionMeta.KeyUniqueness;
 import org.pentaho.di.ui.core.ConstUI;
 import org.pentaho.di.ui.core.widget.ComboVar;
 import org.pentaho.di.ui.trans.steps.common.ModelAnnotationsTableComposite;
@@ -43,6 +52,12 @@ public class SharedDimensionDialog extends BaseAnnotationStepDialog {
 
   private SharedDimensionComposite sharedDimensionComposite;
   private ModelAnnotationsTableComposite tableComposite;
+  private Listener lsOptions;
+  private Composite wOptions;
+  private CCombo wKeyUniqueness;
+  private Button wIncremental;
+  private Text wChangeTypeField;
+  private Button wPublishKeyFilter;
 
   public SharedDimensionDialog( Shell parent, Object baseStepMeta, TransMeta transMeta, String stepname ) {
     super( parent, baseStepMeta, transMeta, stepname );
@@ -71,6 +86,7 @@ public class SharedDimensionDialog extends BaseAnnotationStepDialog {
     Control top = topWidget;
     top = createSharedDimensionComposite( top );
     top = createDescription( top );
+    top = createOptions( top );
     createFieldsTable( top );
     resizeSummaryColumn( tableComposite );
     sharedDimensionComposite.getOutputStepsWidget().addSelectionListener( new SelectionAdapter() {
@@ -106,10 +122,18 @@ public class SharedDimensionDialog extends BaseAnnotationStepDialog {
   @Override
   protected void initializeListeners() {
     super.initializeListeners();
+
+    lsOptions = new Listener() {
+      @Override
+      public void handleEvent( final Event event ) {
+        wApply.setEnabled( true );
+      }
+    };
   }
 
   @Override
   protected void afterOpen() {
+    populateOptions();
     populateOutputSteps();
     populateCategories( envSub( input.getModelAnnotationCategory() ), true );
     if ( StringUtils.isBlank( envSub( input.getModelAnnotationCategory() ) ) ) {
@@ -174,6 +198,96 @@ public class SharedDimensionDialog extends BaseAnnotationStepDialog {
     return sharedDimensionComposite;
   }
 
+  /**
+   * Step options, kept with the step rather than in the shared dimension.
+   */
+  private Control createOptions( final Control topWidget ) {
+    wOptions = new Composite( shell, SWT.NONE );
+    RowLayout layout = new RowLayout( SWT.HORIZONTAL );
+    layout.wrap = true;
+    layout.center = true;
+    layout.spacing = 10;
+    layout.marginLeft = 0;
+    wOptions.setLayout( layout );
+    props.setLook( wOptions );
+
+    wKeyUniqueness = createChoiceOption( "SharedDimension.Dialog.KeyUniqueness", KeyUniqueness.values() );
+    wIncremental = createOption( "SharedDimension.Dialog.Incremental" );
+    wChangeTypeField = createTextOption( "SharedDimension.Dialog.ChangeTypeField" );
+    wPublishKeyFilter = createOption( "SharedDimension.Dialog.PublishKeyFilter" );
+
+    FormData fData = new FormData();
+    fData.top = new FormAttachment( topWidget, 10 );
+    fData.left = new FormAttachment( 0, LEFT_MARGIN_OFFSET );
+    fData.right = new FormAttachment( 100, RIGHT_MARGIN_OFFSET );
+    wOptions.setLayoutData( fData );
+    return wOptions;
+  }
+
+  private Button createOption( final String key ) {
+    Button option = new Button( wOptions, SWT.CHECK );
+    option.setText( BaseMessages.getString( PKG, key + ".Label" ) );
+    option.setToolTipText( BaseMessages.getString( PKG, key + ".Tooltip" ) );
+    option.addListener( SWT.Selection, lsOptions );
+    props.setLook( option );
+    return option;
+  }
+
+  private Text createTextOption( final String key ) {
+    createOptionLabel( key );
+    Text option = new Text( wOptions, SWT.SINGLE | SWT.BORDER );
+    option.setToolTipText( BaseMessages.getString( PKG, key + ".Tooltip" ) );
+    option.setLayoutData( new RowData( 120, SWT.DEFAULT ) );
+    option.addListener( SWT.Modify, lsOptions );
+    props.setLook( option );
+    return option;
+  }
+
+  private Label createOptionLabel( final String key ) {
+    Label label = new Label( wOptions, SWT.NONE );
+    label.setText( BaseMessages.getString( PKG, key + ".Label" ) );
+    label.setToolTipText( BaseMessages.getString( PKG, key + ".Tooltip" ) );
+    props.setLook( label );
+    return label;
+  }
+
+  private CCombo createChoiceOption( final String key, final Enum<?>[] choices ) {
+    createOptionLabel( key );
+    CCombo option = new CCombo( wOptions, SWT.BORDER | SWT.READ_ONLY );
+    for ( Enum<?> choice : choices ) {
+      option.add( BaseMessages.getString( PKG, key + "." + choice.name() ) );
+    }
+    option.setToolTipText( BaseMessages.getString( PKG, key + ".Tooltip" ) );
+    option.addListener( SWT.Selection, lsOptions );
+    props.setLook( option );
+    return option;
+  }
+
+  private SharedDimensionMeta getMeta() {
+    return (SharedDimensionMeta) input;
+  }
+
+  private void populateOptions() {
+    wKeyUniqueness.select( getMeta().getKeyUniqueness().ordinal() );
+    wIncremental.setSelection( getMeta().isIncremental() );
+    wChangeTypeField.setText( Const.NVL( getMeta().getChangeTypeField(), "" ) );
+    wPublishKeyFilter.setSelection( getMeta().isPublishKeyFilter() );
+  }
+
+  private boolean optionsChanged() {
+    return wKeyUniqueness.getSelectionIndex() != getMeta().getKeyUniqueness().ordinal()
+        || wIncremental.getSelection() != getMeta().isIncremental()
+        || !wChangeTypeField.getText().equals( Const.NVL( getMeta().getChangeTypeField(), "" ) )
+        || wPublishKeyFilter.getSelection() != getMeta().isPublishKeyFilter();
+  }
+
+  private void applyOptions() {
+    getMeta().setKeyUniqueness( KeyUniqueness.values()[ Math.max( 0, wKeyUniqueness.getSelectionIndex() ) ] );
+    getMeta().setIncremental( wIncremental.getSelection() );
+    getMeta().setChangeTypeField( Const.NVL( StringUtils.trimToNull( wChangeTypeField.getText() ), "change_type" ) );
+    getMeta().setPublishKeyFilter( wPublishKeyFilter.getSelection() );
+  }
+
   private void positionControl( Composite composite, Control topWidget ) {
 
     FormData fData = new FormData();
@@ -268,7 +382,8 @@ public class SharedDimensionDialog extends BaseAnnotationStepDialog {
             || !stepname.equals( wStepname.getText() )
             || !input.getModelAnnotations().equals( tableComposite.getData() )
             || !StringUtils.equals( input.getModelAnnotations().getDescription(), wDescription.getText() )
-            || !StringUtils.equals( prevOutStep, sharedDimensionComposite.getOutputStepName() ) );
+            || !StringUtils.equals( prevOutStep, sharedDimensionComposite.getOutputStepName() )
+            || optionsChanged() );
     stepname = wStepname.getText(); // return value
     input.setModelAnnotations( tableComposite.getData() );
     input.getModelAnnotations().setName( sharedDimensionComposite.getGroupName() );
@@ -304,6 +419,7 @@ public class SharedDimensionDialog extends BaseAnnotationStepDialog {
       getWGroups().setEditable( true );
     }
 
+    applyOptions();
     return true;
   }
 
@@ -0,0 +1,143 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.di.core.refinery;
+
+import org.junit.Test;
+import org.pentaho.agilebi.modeler.models.annotations.CreateAttribute;
+import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotation;
+import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotationGroup;
+import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotationManager;
+import org.pentaho.agilebi.modeler.models.annotations.data.ColumnMapping;
+import org.pentaho.agilebi.modeler.models.annotations.data.DataProvider;
+import org.pentaho.metastore.api.IMetaStore;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class AnnotationGroupCacheTest {
+
+  @Test
+  public void testReadsOnceUntilInvalidated() throws Exception {
+    IMetaStore metaStore = mock( IMetaStore.class );
+    ModelAnnotationManager manager = mock( ModelAnnotationManager.class );
+    ModelAnnotationGroup group = createGroup();
+    when( manager.readGroup( "group", metaStore ) ).thenReturn( group );
+    AnnotationGroupCache cache = new AnnotationGroupCache( 60000 );
+
+    ModelAnnotationGroup first = cache.readGroup( manager, false, "group", metaStore );
+    ModelAnnotationGroup second = cache.readGroup( manager, false, "group", metaStore );
+    verify( manager, times( 1 ) ).readGroup( "group", metaStore );
+    assertEquals( 1, cache.getHitCount() );
+    assertEquals( 1, cache.getMissCount() );
+
+    // every reader gets the same read-only view of the one cached group
+    assertSame( first, second );
+    assertNotSame( group, first );
+    assertSame( group.get( 0 ), second.get( 0 ) );
+    assertEquals( "group", second.getName() );
+    assertEquals( "table", second.getDataProviders().get( 0 ).getTableName() );
+    assertTrue( AnnotationGroupCache.isShared( first ) );
+    try {
+      first.add( new ModelAnnotation<>( new CreateAttribute() ) );
+      fail( "shared group changed" );
+    } catch ( UnsupportedOperationException e ) {
+      // expected
+    }
+    try {
+      first.getDataProviders().clear();
+      fail( "shared data providers changed" );
+    } catch ( UnsupportedOperationException e ) {
+      // expected
+    }
+
+    // callers that change a group change their own copy
+    ModelAnnotationGroup writable = AnnotationGroupCache.writable( first );
+    assertFalse( AnnotationGroupCache.isShared( writable ) );
+    assertNotSame( first.get( 0 ), writable.get( 0 ) );
+    ( (CreateAttribute) writable.get( 0 ).getAnnotation() ).setField( "changed" );
+    writable.getDataProviders().get( 0 ).getColumnMappings().get( 0 ).setColumnName( "changed" );
+    writable.add( new ModelAnnotation<>( new CreateAttribute() ) );
+    writable.setName( "renamed" );
+    ModelAnnotationGroup third = cache.readGroup( manager, false, "group", metaStore );
+    assertEquals( 1, third.size() );
+    assertEquals( "group", third.getName() );
+    assertEquals( "f1", third.get( 0 ).getAnnotation().getField() );
+    assertEquals( "c1", third.getDataProviders().get( 0 ).getColumnMappings().get( 0 ).getColumnName() );
+    ModelAnnotationGroup plain = createGroup();
+    assertSame( plain, AnnotationGroupCache.writable( plain ) );
+
+    // shared dimensions live in a different namespace
+    cache.readGroup( manager, true, "group", metaStore );
+    verify( manager, times( 2 ) ).readGroup( "group", metaStore );
+
+    cache.invalidate( false, "group" );
+    cache.readGroup( manager, false, "group", metaStore );
+    verify( manager, times( 3 ) ).readGroup( "group", metaStore );
+  }
+
+  @Test
+  public void testMissingGroupsAndDisabledCache() throws Exception {
+    IMetaStore metaStore = mock( IMetaStore.class );
+    ModelAnnotationManager manager = mock( ModelAnnotationManager.class );
+    AnnotationGroupCache cache = new AnnotationGroupCache( 60000 );
+    assertNull( cache.readGroup( manager, false, "missing", metaStore ) );
+
+    ModelAnnotationGroup group = createGroup();
+    when( manager.readGroup( "group", metaStore ) ).thenReturn( group );
+    AnnotationGroupCache disabled = new AnnotationGroupCache( 0 );
+    assertSame( group, disabled.readGroup( manager, false, "group", metaStore ) );
+    disabled.readGroup( manager, false, "group", metaStore );
+    verify( manager, times( 2 ) ).readGroup( "group", metaStore );
+    assertEquals( 0, disabled.getHitCount() );
+  }
+
+  @Test
+  public void testMetaStoresAreCachedSeparately() throws Exception {
+    IMetaStore metaStore = mock( IMetaStore.class );
+    IMetaStore otherMetaStore = mock( IMetaStore.class );
+    ModelAnnotationManager manager = mock( ModelAnnotationManager.class );
+    when( manager.readGroup( "group", metaStore ) ).thenReturn( createGroup() );
+    AnnotationGroupCache cache = new AnnotationGroupCache( 60000 );
+
+    cache.readGroup( manager, false, "group", metaStore );
+    assertNull( cache.readGroup( manager, false, "group", otherMetaStore ) );
+  }
+
+  private ModelAnnotationGroup createGroup() {
+    CreateAttribute createAttribute = new CreateAttribute();
+    createAttribute.setField( "f1" );
+    ModelAnnotationGroup group = new ModelAnnotationGroup( new ModelAnnotation<CreateAttribute>( createAttribute ) );
+    group.setName( "group" );
+    DataProvider dataProvider = new DataProvider();
+    dataProvider.setName( "provider" );
+    dataProvider.setTableName( "table" );
+    ColumnMapping columnMapping = new ColumnMapping();
+    columnMapping.setName( "f1" );
+    columnMapping.setColumnName( "c1" );
+    dataProvider.setColumnMappings( new ArrayList<>( Collections.singletonList( columnMapping ) ) );
+    group.setDataProviders( new ArrayList<>( Collections.singletonList( dataProvider ) ) );
+    return group;
+  }
+}
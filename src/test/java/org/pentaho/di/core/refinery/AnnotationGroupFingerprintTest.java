@@ -0,0 +1,68 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.di.core.refinery;
+
+import org.junit.Test;
+import org.pentaho.agilebi.modeler.models.annotations.CreateAttribute;
+import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotation;
+import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotationGroup;
+import org.pentaho.agilebi.modeler.models.annotations.data.ColumnMapping;
+import org.pentaho.agilebi.modeler.models.annotations.data.DataProvider;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class AnnotationGroupFingerprintTest {
+
+  @Test
+  public void testAnnotationNamesDoNotCount() throws Exception {
+    ModelAnnotationGroup first = createGroup( "dim", "column" );
+    ModelAnnotationGroup second = createGroup( "dim", "column" );
+    second.get( 0 ).setName( "another random name" );
+    second.setName( "renamed" );
+
+    assertEquals( AnnotationGroupFingerprint.of( first ), AnnotationGroupFingerprint.of( second ) );
+  }
+
+  @Test
+  public void testContentChangesCount() throws Exception {
+    String fingerprint = AnnotationGroupFingerprint.of( createGroup( "dim", "column" ) );
+
+    assertNotEquals( fingerprint, AnnotationGroupFingerprint.of( createGroup( "otherDim", "column" ) ) );
+    assertNotEquals( fingerprint, AnnotationGroupFingerprint.of( createGroup( "dim", "otherColumn" ) ) );
+    ModelAnnotationGroup described = createGroup( "dim", "column" );
+    described.setDescription( "description" );
+    assertNotEquals( fingerprint, AnnotationGroupFingerprint.of( described ) );
+  }
+
+  private ModelAnnotationGroup createGroup( String dimension, String column ) {
+    CreateAttribute createAttribute = new CreateAttribute();
+    createAttribute.setName( "attribute" );
+    createAttribute.setField( "f1" );
+    createAttribute.setDimension( dimension );
+    ModelAnnotationGroup group = new ModelAnnotationGroup( new ModelAnnotation<CreateAttribute>( createAttribute ) );
+    group.setName( "group" );
+    ColumnMapping columnMapping = new ColumnMapping();
+    columnMapping.setName( "f1" );
+    columnMapping.setColumnName( column );
+    DataProvider dataProvider = new DataProvider();
+    dataProvider.setName( "provider" );
+    dataProvider.setTableName( "table" );
+    dataProvider.setColumnMappings( Collections.singletonList( columnMapping ) );
+    group.setDataProviders( new ArrayList<>( Collections.singletonList( dataProvider ) ) );
+    return group;
+  }
+}
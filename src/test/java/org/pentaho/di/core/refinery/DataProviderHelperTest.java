@@ -19,9 +19,11 @@ import org.mockito.ArgumentMatcher;
 import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotationGroup;
 import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotationManager;
 import org.pentaho.agilebi.modeler.models.annotations.data.ColumnMapping;
+import org.pentaho.agilebi.modeler.models.annotations.data.DataProvider;
 import org.pentaho.di.core.KettleClientEnvironment;
 import org.pentaho.di.core.database.DatabaseMeta;
 import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.logging.LogChannelInterface;
 import org.pentaho.di.core.row.RowMeta;
 import org.pentaho.di.core.row.RowMetaInterface;
 import org.pentaho.di.core.row.ValueMetaInterface;
@@ -38,10 +40,14 @@ import org.pentaho.di.trans.steps.tableoutput.TableOutputData;
 import org.pentaho.di.trans.steps.tableoutput.TableOutputMeta;
 import org.pentaho.metastore.api.IMetaStore;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.mockito.Mockito.*;
 
@@ -257,6 +263,142 @@ public class DataProviderHelperTest {
     }
   }
 
+  @Test
+  public void testExcludedFieldIsLeftOutOfTheColumnMappings() throws Exception {
+    IMetaStore metaStore = mock( IMetaStore.class );
+    final DatabaseMeta dbMeta =
+        new DatabaseMeta( "dbmetaTest", "postgresql", "Native", "somehost", "db", "3001", "user", "pass" );
+    TableOutputMeta tableOutMeta = new TableOutputMeta();
+    tableOutMeta.setDefault();
+    tableOutMeta.setDatabaseMeta( dbMeta );
+    tableOutMeta.setTableName( "store" );
+    tableOutMeta.setSpecifyFields( false );
+    StepMetaDataCombi combi = new StepMetaDataCombi();
+    combi.stepname = "out1";
+    TableOutputData tableOutData = new TableOutputData();
+    tableOutData.insertRowMeta = getRowMeta( new ValueMetaInteger( "id" ), new ValueMetaString( "change_type" ) );
+    combi.meta = tableOutMeta;
+    combi.stepMeta = new StepMeta( combi.stepname, tableOutMeta );
+    combi.data = tableOutData;
+    combi.step = mock( TableOutput.class );
+
+    final ModelAnnotationManager manager = mock( ModelAnnotationManager.class );
+    when( manager.storeDatabaseMeta( dbMeta, metaStore ) ).thenReturn( dbMeta.getName() );
+    ModelAnnotationGroup group = new ModelAnnotationGroup();
+    group.setName( "mag" );
+    DataProviderHelper helper = new DataProviderHelper( metaStore ) {
+      protected ModelAnnotationManager getModelAnnotationManager() {
+        return manager;
+      };
+    };
+
+    helper.prepareUpdate( group, combi, "change_type" ).apply();
+
+    List<ColumnMapping> columnMappings = group.getDataProviders().get( 0 ).getColumnMappings();
+    assertEquals( 1, columnMappings.size() );
+    assertEquals( "id", columnMappings.get( 0 ).getColumnName() );
+  }
+
+  private DataProvider dataProvider( String table, String... columns ) {
+    DataProvider dataProvider = new DataProvider();
+    dataProvider.setName( table );
+    dataProvider.setTableName( table );
+    dataProvider.setDatabaseMetaNameRef( "dw" );
+    List<ColumnMapping> columnMappings = new ArrayList<ColumnMapping>();
+    for ( String column : columns ) {
+      ColumnMapping columnMapping = new ColumnMapping();
+      columnMapping.setName( column );
+      columnMapping.setColumnName( column );
+      columnMappings.add( columnMapping );
+    }
+    dataProvider.setColumnMappings( columnMappings );
+    return dataProvider;
+  }
+
+  private ModelAnnotationGroup group( DataProvider... dataProviders ) {
+    ModelAnnotationGroup group = new ModelAnnotationGroup();
+    group.setName( "store" );
+    group.setSharedDimension( true );
+    group.setDataProviders( new ArrayList<DataProvider>( Arrays.asList( dataProviders ) ) );
+    return group;
+  }
+
+  @Test
+  public void testStoreGroupKeepsDataProvidersStoredByOthers() throws Exception {
+    IMetaStore metaStore = mock( IMetaStore.class );
+    final ModelAnnotationManager manager = mock( ModelAnnotationManager.class );
+    ModelAnnotationGroup stored = group( dataProvider( "store_a", "id", "city" ), dataProvider( "store_b", "id" ) );
+    DataProvider storeA = dataProvider( "store_a", "id", "name" );
+    ModelAnnotationGroup ours = group( storeA, dataProvider( "store_c", "id" ) );
+    when( manager.readGroup( "store", metaStore ) ).thenReturn( stored );
+    DataProviderHelper helper = new DataProviderHelper( metaStore ) {
+      protected ModelAnnotationManager getModelAnnotationManager() {
+        return manager;
+      }
+    };
+
+    assertTrue( helper.storeGroup( ours ) );
+
+    verify( manager, times( 1 ) ).updateGroup( ours, metaStore );
+    assertEquals( 3, ours.getDataProviders().size() );
+    assertSame( storeA, ours.getDataProviders().get( 0 ) );
+    assertEquals( "store_c", ours.getDataProviders().get( 1 ).getTableName() );
+    assertEquals( "store_b", ours.getDataProviders().get( 2 ).getTableName() );
+    // our columns replace the stored ones
+    List<ColumnMapping> columnMappings = storeA.getColumnMappings();
+    assertEquals( 2, columnMappings.size() );
+    assertEquals( "id", columnMappings.get( 0 ).getColumnName() );
+    assertEquals( "name", columnMappings.get( 1 ).getColumnName() );
+  }
+
+  @Test
+  public void testDroppedColumnIsWrittenOut() throws Exception {
+    IMetaStore metaStore = mock( IMetaStore.class );
+    final ModelAnnotationManager manager = mock( ModelAnnotationManager.class );
+    when( manager.readGroup( "store", metaStore ) ).thenReturn( group( dataProvider( "store_a", "id", "city" ) ) );
+    DataProviderHelper helper = new DataProviderHelper( metaStore ) {
+      protected ModelAnnotationManager getModelAnnotationManager() {
+        return manager;
+      }
+    };
+    LogChannelInterface log = mock( LogChannelInterface.class );
+    helper.setLog( log );
+    ModelAnnotationGroup ours = group( dataProvider( "store_a", "id" ) );
+
+    assertTrue( helper.storeGroup( ours ) );
+
+    verify( manager ).updateGroup( ours, metaStore );
+    verify( log ).logBasic( contains( "store_a.city removed" ) );
+    assertEquals( 1, ours.getDataProviders().get( 0 ).getColumnMappings().size() );
+  }
+
+  @Test
+  public void testUnchangedGroupIsNotWritten() throws Exception {
+    IMetaStore metaStore = mock( IMetaStore.class );
+    final ModelAnnotationManager manager = mock( ModelAnnotationManager.class );
+    when( manager.readGroup( "store", metaStore ) )
+      .thenReturn( group( dataProvider( "store_a", "id", "city" ), dataProvider( "store_b", "id" ) ) );
+    DataProviderHelper helper = new DataProviderHelper( metaStore ) {
+      protected ModelAnnotationManager getModelAnnotationManager() {
+        return manager;
+      }
+    };
+
+    assertFalse( helper.storeGroup( group( dataProvider( "store_a", "id", "city" ) ) ) );
+    verify( manager, never() ).updateGroup( any( ModelAnnotationGroup.class ), any( IMetaStore.class ) );
+  }
+
+  @Test
+  public void testChangesListsMappingDifferences() throws Exception {
+    ModelAnnotationGroup stored = group( dataProvider( "store_a", "id", "city" ) );
+    ModelAnnotationGroup changed = group( dataProvider( "store_a", "id", "name" ), dataProvider( "store_b", "id" ) );
+    changed.getDataProviders().get( 0 ).getColumnMappings().get( 0 ).setName( "Store Id" );
+
+    assertEquals( Arrays.asList( "store_a.id changed", "store_a.name added", "store_a.city removed",
+      "data provider store_b added" ), DataProviderHelper.changes( stored, changed ) );
+    assertTrue( DataProviderHelper.changes( stored, group( dataProvider( "store_a", "id", "city" ) ) ).isEmpty() );
+  }
+
   @Test
   public void testOutputSteppingMapper() throws Exception {
     StepMetaDataCombi stepMetaDataCombi = new StepMetaDataCombi();
@@ -0,0 +1,160 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.di.core.refinery;
+
+import org.junit.Test;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.logging.LogChannelInterface;
+import org.pentaho.di.job.Job;
+import org.pentaho.di.job.JobMeta;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class DataProviderUpdateQueueTest {
+
+  private DataProviderHelper.Update update( String group, List<String> applied, String name,
+                                            CountDownLatch gate ) throws Exception {
+    DataProviderHelper.Update update = mock( DataProviderHelper.Update.class );
+    when( update.getGroupName() ).thenReturn( group );
+    doAnswer( invocation -> {
+      if ( gate != null ) {
+        gate.await( 10, TimeUnit.SECONDS );
+      }
+      applied.add( name );
+      return null;
+    } ).when( update ).apply();
+    return update;
+  }
+
+  @Test
+  public void testUpdatesOfAGroupKeepTheirOrder() throws Exception {
+    DataProviderUpdateQueue queue = new DataProviderUpdateQueue( 4 );
+    LogChannelInterface log = mock( LogChannelInterface.class );
+    List<String> applied = Collections.synchronizedList( new ArrayList<String>() );
+    CountDownLatch gate = new CountDownLatch( 1 );
+
+    queue.submit( update( "store", applied, "store 1", gate ), log );
+    queue.submit( update( "store", applied, "store 2", null ), log );
+    queue.submit( update( "store", applied, "store 3", null ), log );
+    queue.submit( update( "product", applied, "product 1", null ), log ).get( 5, TimeUnit.SECONDS );
+    assertEquals( asList( "product 1" ), applied );
+    assertFalse( queue.awaitCompletion( 100 ) );
+
+    gate.countDown();
+    assertTrue( queue.awaitCompletion( 5000 ) );
+    assertEquals( asList( "product 1", "store 1", "store 2", "store 3" ), applied );
+    assertEquals( 0, queue.getPendingGroupCount() );
+  }
+
+  @Test
+  public void testFailedUpdateIsLoggedAndTheNextOneRuns() throws Exception {
+    DataProviderUpdateQueue queue = new DataProviderUpdateQueue( 2 );
+    LogChannelInterface log = mock( LogChannelInterface.class );
+    List<String> applied = Collections.synchronizedList( new ArrayList<String>() );
+    DataProviderHelper.Update failing = update( "store", applied, "store 1", null );
+    doThrow( new KettleException( "no metastore" ) ).when( failing ).apply();
+
+    queue.submit( failing, log );
+    queue.submit( update( "store", applied, "store 2", null ), log );
+    assertTrue( queue.awaitCompletion( 5000 ) );
+    assertEquals( asList( "store 2" ), applied );
+    verify( log ).logError( anyString(), any( KettleException.class ) );
+  }
+
+  @Test
+  public void testWithoutThreadsUpdatesAreAppliedOnSubmit() throws Exception {
+    DataProviderUpdateQueue queue = new DataProviderUpdateQueue( 0 );
+    List<String> applied = new ArrayList<String>();
+    queue.submit( update( "store", applied, "store 1", null ), mock( LogChannelInterface.class ) );
+    assertEquals( asList( "store 1" ), applied );
+    assertEquals( 0, queue.getPendingGroupCount() );
+    assertTrue( queue.awaitCompletion( 0 ) );
+  }
+
+  @Test
+  public void testJobsWaitOnlyForTheirOwnWrites() throws Exception {
+    DataProviderUpdateQueue queue = new DataProviderUpdateQueue( 2 );
+    LogChannelInterface log = mock( LogChannelInterface.class );
+    List<String> applied = Collections.synchronizedList( new ArrayList<String>() );
+    CountDownLatch gate = new CountDownLatch( 1 );
+    Job parent = new Job( null, new JobMeta() );
+    Job child = new Job( null, new JobMeta() );
+    child.setParentJob( parent );
+    Job other = new Job( null, new JobMeta() );
+
+    DataProviderHelper.Update slow = update( "store", applied, "store 1", gate );
+    queue.submit( "store", slow::apply, child, log );
+    queue.submit( "product", update( "product", applied, "product 1", null )::apply, other, log )
+        .get( 5, TimeUnit.SECONDS );
+
+    assertTrue( queue.awaitCompletion( other, 0 ) );
+    assertFalse( queue.awaitCompletion( child, 100 ) );
+    assertFalse( queue.awaitCompletion( parent, 100 ) );
+    gate.countDown();
+    assertTrue( queue.awaitCompletion( parent, 5000 ) );
+    assertTrue( queue.awaitCompletion( child, 0 ) );
+    assertEquals( asList( "product 1", "store 1" ), applied );
+  }
+
+  @Test
+  public void testAWriteBeingAppliedDoesNotHoldOtherGroupsUp() throws Exception {
+    final DataProviderUpdateQueue queue = new DataProviderUpdateQueue( 0 );
+    final LogChannelInterface log = mock( LogChannelInterface.class );
+    final List<String> applied = Collections.synchronizedList( new ArrayList<String>() );
+    final CountDownLatch gate = new CountDownLatch( 1 );
+    // without threads the write is applied by the submitting thread
+    Thread submitter = new Thread( () -> {
+      try {
+        queue.submit( update( "store", applied, "store 1", gate ), log );
+      } catch ( Exception e ) {
+        throw new IllegalStateException( e );
+      }
+    } );
+    submitter.start();
+
+    queue.submit( update( "product", applied, "product 1", null ), log ).get( 5, TimeUnit.SECONDS );
+    assertEquals( asList( "product 1" ), applied );
+    gate.countDown();
+    submitter.join( 5000 );
+    assertEquals( asList( "product 1", "store 1" ), applied );
+  }
+
+  @Test
+  public void testShutdownLetsPendingUpdatesFinish() throws Exception {
+    DataProviderUpdateQueue queue = new DataProviderUpdateQueue( 1 );
+    LogChannelInterface log = mock( LogChannelInterface.class );
+    List<String> applied = Collections.synchronizedList( new ArrayList<String>() );
+    queue.submit( update( "store", applied, "store 1", null ), log );
+    queue.shutdown();
+    assertEquals( asList( "store 1" ), applied );
+
+    queue.submit( update( "store", applied, "store 2", null ), log );
+    assertEquals( asList( "store 1", "store 2" ), applied );
+  }
+}
@@ -0,0 +1,134 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.di.core.refinery;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.pentaho.agilebi.modeler.models.annotations.data.DataProvider;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MemberHashIndexTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testCommittedIndexTellsNewChangedAndUnchangedMembers() throws Exception {
+    File file = new File( folder.getRoot(), "dim.idx" );
+    try ( MemberHashIndex index = MemberHashIndex.open( file ) ) {
+      // enough members to make the table grow a few times
+      for ( long key = 0; key < 10000; key++ ) {
+        assertEquals( MemberHashIndex.Change.NEW, index.put( key, key ) );
+      }
+      assertEquals( MemberHashIndex.Change.UNCHANGED, index.put( 5, 5 ) );
+      index.commit();
+    }
+
+    try ( MemberHashIndex index = MemberHashIndex.open( file ) ) {
+      assertEquals( 10000, index.size() );
+      assertEquals( MemberHashIndex.Change.UNCHANGED, index.put( 1, 1 ) );
+      assertEquals( MemberHashIndex.Change.CHANGED, index.put( 2, 20 ) );
+      assertEquals( MemberHashIndex.Change.NEW, index.put( 10000, 1 ) );
+    }
+    // only the committed index is left behind
+    assertEquals( 1, folder.getRoot().list().length );
+  }
+
+  @Test
+  public void testUncommittedChangesAreDiscarded() throws Exception {
+    File file = new File( folder.getRoot(), "dim.idx" );
+    try ( MemberHashIndex index = MemberHashIndex.open( file ) ) {
+      index.put( 1, 1 );
+      index.commit();
+    }
+    try ( MemberHashIndex index = MemberHashIndex.open( file ) ) {
+      index.put( 1, 2 );
+      index.put( 3, 3 );
+    }
+    try ( MemberHashIndex index = MemberHashIndex.open( file ) ) {
+      assertEquals( 1, index.size() );
+      assertEquals( MemberHashIndex.Change.UNCHANGED, index.put( 1, 1 ) );
+    }
+  }
+
+  @Test
+  public void testUnreadableIndexStartsOver() throws Exception {
+    File file = new File( folder.getRoot(), "dim.idx" );
+    Files.write( file.toPath(), "not an index".getBytes( "UTF-8" ) );
+    try ( MemberHashIndex index = MemberHashIndex.open( file ) ) {
+      assertEquals( 0, index.size() );
+      assertEquals( MemberHashIndex.Change.NEW, index.put( 1, 1 ) );
+    }
+  }
+
+  @Test
+  public void testIndexFilesAreKeptApartByDimensionAndTargetTable() throws Exception {
+    File file = MemberHashIndex.indexFileFor( "Customer dim", target( "Table output", "dw", "customer" ) );
+    assertTrue( file.getName().startsWith( "Customer_dim-" ) );
+    // the same table loaded through another step shares the index, another table doesn't
+    assertEquals( file, MemberHashIndex.indexFileFor( "Customer dim", target( "Other output", "dw", "customer" ) ) );
+    assertNotEquals( file, MemberHashIndex.indexFileFor( "Customer dim", target( "Table output", "dw", "client" ) ) );
+    assertNotEquals( file, MemberHashIndex.indexFileFor( "Customer dim", target( "Table output", "stage",
+        "customer" ) ) );
+    assertNotEquals( file, MemberHashIndex.indexFileFor( "Product dim", target( "Table output", "dw",
+        "customer" ) ) );
+    DataProvider noTable = new DataProvider();
+    noTable.setName( "Text output" );
+    assertNotEquals( file, MemberHashIndex.indexFileFor( "Customer dim", noTable ) );
+  }
+
+  @Test
+  public void testRebuildStartsEmpty() throws Exception {
+    File file = new File( folder.getRoot(), "members.idx" );
+    try ( MemberHashIndex index = MemberHashIndex.open( file ) ) {
+      index.put( 1, 1 );
+      index.commit();
+    }
+    try ( MemberHashIndex index = MemberHashIndex.open( file, true ) ) {
+      assertEquals( 0, index.size() );
+      assertEquals( MemberHashIndex.Change.NEW, index.put( 1, 1 ) );
+    }
+  }
+
+  @Test
+  public void testMappingIsReleasedBeforeTheFileIsDeleted() throws Exception {
+    File file = folder.newFile( "mapped.tmp" );
+    MappedByteBuffer mapped;
+    try ( RandomAccessFile raf = new RandomAccessFile( file, "rw" ); FileChannel channel = raf.getChannel() ) {
+      raf.setLength( 1024 );
+      mapped = channel.map( FileChannel.MapMode.READ_WRITE, 0, 1024 );
+    }
+    mapped.putLong( 0, 42 );
+    assertTrue( MemberHashIndex.unmap( mapped ) );
+    assertTrue( file.delete() );
+  }
+
+  private static DataProvider target( String name, String schemaName, String tableName ) {
+    DataProvider target = new DataProvider();
+    target.setName( name );
+    target.setDatabaseMetaNameRef( "warehouse" );
+    target.setSchemaName( schemaName );
+    target.setTableName( tableName );
+    return target;
+  }
+}
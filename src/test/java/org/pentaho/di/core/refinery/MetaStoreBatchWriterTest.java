@@ -0,0 +1,101 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.di.core.refinery;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotationGroup;
+import org.pentaho.di.core.KettleClientEnvironment;
+import org.pentaho.di.core.database.DatabaseMeta;
+import org.pentaho.di.core.logging.LogChannelInterface;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class MetaStoreBatchWriterTest {
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws Exception {
+    KettleClientEnvironment.init();
+  }
+
+  private DatabaseMeta databaseMeta( String host ) {
+    return new DatabaseMeta( "dw", "postgresql", "Native", host, "db", "5432", "user", "pass" );
+  }
+
+  private DataProviderHelper.Update update( ModelAnnotationGroup group, DatabaseMeta databaseMeta ) {
+    DataProviderHelper.Update update = mock( DataProviderHelper.Update.class );
+    when( update.getGroupName() ).thenReturn( group.getName() );
+    when( update.getGroup() ).thenReturn( group );
+    when( update.getDatabaseMeta() ).thenReturn( databaseMeta );
+    return update;
+  }
+
+  private ModelAnnotationGroup group( String name ) {
+    ModelAnnotationGroup group = new ModelAnnotationGroup();
+    group.setName( name );
+    return group;
+  }
+
+  @Test
+  public void testStoresEachDatabaseMetaAndGroupOnce() throws Exception {
+    DataProviderHelper helper = mock( DataProviderHelper.class );
+    when( helper.storeDatabaseMeta( any( DatabaseMeta.class ) ) ).thenReturn( "dw" );
+    when( helper.storeGroup( any( ModelAnnotationGroup.class ) ) ).thenReturn( true );
+    MetaStoreBatchWriter writer = new MetaStoreBatchWriter( helper );
+
+    ModelAnnotationGroup storeFromFirstStep = group( "store" );
+    ModelAnnotationGroup storeFromSecondStep = group( "store" );
+    ModelAnnotationGroup product = group( "product" );
+    DataProviderHelper.Update first = update( storeFromFirstStep, databaseMeta( "dwhost" ) );
+    DataProviderHelper.Update second = update( storeFromSecondStep, databaseMeta( "dwhost" ) );
+    DataProviderHelper.Update third = update( product, databaseMeta( "dwhost" ) );
+    writer.add( first );
+    writer.add( second );
+    writer.add( third );
+    verify( helper, never() ).storeGroup( any( ModelAnnotationGroup.class ) );
+
+    writer.flush( new DataProviderUpdateQueue( 0 ), null, mock( LogChannelInterface.class ) );
+
+    assertTrue( writer.isEmpty() );
+    assertEquals( 1, writer.getDatabaseMetaWriteCount() );
+    assertEquals( 2, writer.getGroupWriteCount() );
+    verify( helper, times( 1 ) ).storeDatabaseMeta( any( DatabaseMeta.class ) );
+    verify( first ).addTo( storeFromSecondStep, "dw" );
+    verify( second ).addTo( storeFromSecondStep, "dw" );
+    verify( third ).addTo( product, "dw" );
+    verify( helper ).storeGroup( storeFromSecondStep );
+    verify( helper ).storeGroup( product );
+  }
+
+  @Test
+  public void testDifferentDatabaseMetasAreStoredApart() throws Exception {
+    DataProviderHelper helper = mock( DataProviderHelper.class );
+    when( helper.storeDatabaseMeta( any( DatabaseMeta.class ) ) ).thenReturn( "dw" );
+    when( helper.storeGroup( any( ModelAnnotationGroup.class ) ) ).thenReturn( true );
+    MetaStoreBatchWriter writer = new MetaStoreBatchWriter( helper );
+    writer.add( update( group( "store" ), databaseMeta( "dwhost" ) ) );
+    writer.add( update( group( "store" ), databaseMeta( "otherhost" ) ) );
+
+    writer.flush( new DataProviderUpdateQueue( 0 ), null, mock( LogChannelInterface.class ) );
+
+    assertEquals( 2, writer.getDatabaseMetaWriteCount() );
+    assertEquals( 1, writer.getGroupWriteCount() );
+  }
+}
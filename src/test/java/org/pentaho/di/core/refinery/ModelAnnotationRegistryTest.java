@@ -0,0 +1,199 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.di.core.refinery;
+
+import org.junit.Test;
+import org.pentaho.agilebi.modeler.models.annotations.CreateAttribute;
+import org.pentaho.agilebi.modeler.models.annotations.CreateMeasure;
+import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotation;
+import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotationGroup;
+import org.pentaho.di.job.entries.build.JobEntryBuildModel;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ModelAnnotationRegistryTest {
+
+  @Test
+  public void testRegistryIsCreatedOncePerExtensionMap() throws Exception {
+    Map<String, Object> extensionMap = new HashMap<>();
+    assertNull( ModelAnnotationRegistry.get( extensionMap ) );
+    ModelAnnotationRegistry registry = ModelAnnotationRegistry.getOrCreate( extensionMap );
+    assertSame( registry, ModelAnnotationRegistry.getOrCreate( extensionMap ) );
+    assertSame( registry, ModelAnnotationRegistry.get( extensionMap ) );
+  }
+
+  @Test
+  public void testDedupesAndKeepsRegistrationOrder() throws Exception {
+    ModelAnnotation<?> attribute = attribute( "f1" );
+    ModelAnnotation<?> measure = measure( "f2" );
+    ModelAnnotation<?> otherAttribute = attribute( "f1" );
+
+    ModelAnnotationRegistry registry = new ModelAnnotationRegistry();
+    assertEquals( 2, registry.register( "trans/step", new ModelAnnotationGroup( attribute, measure ) ) );
+    // a second copy of the same step
+    assertEquals( 0, registry.register( "trans/step", new ModelAnnotationGroup( attribute, measure ) ) );
+    assertEquals( 1, registry.register( "trans/other", new ModelAnnotationGroup( measure, otherAttribute ) ) );
+
+    ModelAnnotationGroup annotations = registry.getAnnotations();
+    assertEquals( 3, annotations.size() );
+    assertSame( attribute, annotations.get( 0 ) );
+    assertSame( measure, annotations.get( 1 ) );
+    assertSame( otherAttribute, annotations.get( 2 ) );
+    assertEquals( 1, registry.getAnnotations( "trans/other" ).size() );
+  }
+
+  @Test
+  public void testConcurrentCopiesNeitherLoseNorDuplicate() throws Exception {
+    final int copies = 8;
+    final List<ModelAnnotation<?>> shared = new ArrayList<>();
+    for ( int i = 0; i < 200; i++ ) {
+      shared.add( i % 2 == 0 ? attribute( "f" + i ) : measure( "f" + i ) );
+    }
+    final Map<String, Object> extensionMap = new HashMap<>();
+    final CountDownLatch start = new CountDownLatch( 1 );
+    ExecutorService executor = Executors.newFixedThreadPool( copies );
+    try {
+      List<Future<Integer>> results = new ArrayList<>();
+      for ( int copy = 0; copy < copies; copy++ ) {
+        final int copyNr = copy;
+        results.add( executor.submit( new Callable<Integer>() {
+          @Override public Integer call() throws Exception {
+            start.await();
+            ModelAnnotationGroup group = new ModelAnnotationGroup();
+            group.addAll( shared );
+            // each copy also brings one annotation of its own
+            group.add( attribute( "copy" + copyNr ) );
+            return ModelAnnotationRegistry.getOrCreate( extensionMap ).register( "trans/step", group );
+          }
+        } ) );
+      }
+      start.countDown();
+      int added = 0;
+      for ( Future<Integer> result : results ) {
+        added += result.get( 10, TimeUnit.SECONDS );
+      }
+      assertEquals( shared.size() + copies, added );
+    } finally {
+      executor.shutdownNow();
+    }
+    ModelAnnotationGroup annotations = ModelAnnotationRegistry.get( extensionMap ).getAnnotations();
+    assertEquals( shared.size() + copies, annotations.size() );
+    for ( ModelAnnotation<?> annotation : shared ) {
+      assertTrue( annotations.contains( annotation ) );
+    }
+  }
+
+  @Test
+  public void testConsumeEndsTheCycle() throws Exception {
+    Map<String, Object> extensionMap = new HashMap<>();
+    assertNull( ModelAnnotationRegistry.consume( extensionMap, new ModelAnnotationGroup() ) );
+    ModelAnnotationRegistry registry = ModelAnnotationRegistry.getOrCreate( extensionMap );
+    registry.register( "trans/step", new ModelAnnotationGroup( attribute( "f1" ) ) );
+    extensionMap.put( JobEntryBuildModel.KEY_MODEL_ANNOTATIONS, registry.getAnnotations() );
+
+    assertSame( registry, ModelAnnotationRegistry.consume( extensionMap, registry.getAnnotations() ) );
+    assertTrue( registry.isConsumed() );
+    // the next Build Model of the cycle still sees the annotations
+    assertSame( registry, ModelAnnotationRegistry.get( extensionMap ) );
+    assertEquals( 1, ModelAnnotationRegistry.get( extensionMap ).getAnnotations().size() );
+
+    // the next annotating step starts over
+    ModelAnnotationRegistry next = ModelAnnotationRegistry.getOrCreate( extensionMap );
+    assertEquals( 0, next.size() );
+    assertFalse( next.isConsumed() );
+    assertNull( extensionMap.get( JobEntryBuildModel.KEY_MODEL_ANNOTATIONS ) );
+  }
+
+  @Test
+  public void testConsumeKeepsAnnotationsRegisteredAfterTheRead() throws Exception {
+    Map<String, Object> extensionMap = new HashMap<>();
+    ModelAnnotation<?> read = attribute( "f1" );
+    ModelAnnotation<?> late = measure( "f2" );
+    ModelAnnotationRegistry registry = ModelAnnotationRegistry.getOrCreate( extensionMap );
+    registry.register( "trans/step", new ModelAnnotationGroup( read ) );
+    ModelAnnotationGroup buildModelRead = registry.getAnnotations();
+    // a parallel branch registers while Build Model is modeling
+    ModelAnnotationRegistry.getOrCreate( extensionMap ).register( "other/step", new ModelAnnotationGroup( late ) );
+
+    ModelAnnotationRegistry.consume( extensionMap, buildModelRead );
+
+    ModelAnnotationGroup nextCycle = ModelAnnotationRegistry.getOrCreate( extensionMap ).getAnnotations();
+    assertEquals( 1, nextCycle.size() );
+    assertSame( late, nextCycle.get( 0 ) );
+  }
+
+  @Test
+  public void testConsumedAnnotationIsReplacedWhenRegisteredAgain() throws Exception {
+    Map<String, Object> extensionMap = new HashMap<>();
+    ModelAnnotationRegistry registry = ModelAnnotationRegistry.getOrCreate( extensionMap );
+    registry.register( "trans/step", new ModelAnnotationGroup( attribute( "f1" ) ) );
+    ModelAnnotationRegistry.consume( extensionMap, registry.getAnnotations() );
+
+    // the next run of the transformation, registering on the registry it already held
+    ModelAnnotation<?> again = attribute( "f1" );
+    assertEquals( 1, registry.register( "trans/step", new ModelAnnotationGroup( again ) ) );
+
+    ModelAnnotationGroup nextCycle = ModelAnnotationRegistry.getOrCreate( extensionMap ).getAnnotations();
+    assertEquals( 1, nextCycle.size() );
+    assertSame( again, nextCycle.get( 0 ) );
+  }
+
+  @Test
+  public void testLoopingJobDoesNotAccumulateAnnotations() throws Exception {
+    // a job looping over the same annotating transformation; every run loads fresh annotation instances
+    final int iterations = 5000;
+    final int fields = 20;
+    Map<String, Object> extensionMap = new HashMap<>();
+    for ( int i = 0; i < iterations; i++ ) {
+      ModelAnnotationGroup group = new ModelAnnotationGroup();
+      for ( int f = 0; f < fields; f++ ) {
+        group.add( f % 2 == 0 ? attribute( "f" + f ) : measure( "f" + f ) );
+      }
+      // two copies of the step share the meta
+      ModelAnnotationRegistry.getOrCreate( extensionMap ).register( "trans/step", group );
+      ModelAnnotationRegistry.getOrCreate( extensionMap ).register( "trans/step", group );
+      // Build Model applies what the cycle registered, then consumes it
+      assertEquals( "iteration " + i, fields,
+          ModelAnnotationRegistry.get( extensionMap ).getAnnotations().size() );
+      ModelAnnotationRegistry.consume( extensionMap, ModelAnnotationRegistry.get( extensionMap ).getAnnotations() );
+      assertEquals( 1, extensionMap.size() );
+    }
+  }
+
+  private static ModelAnnotation<?> attribute( String field ) {
+    CreateAttribute createAttribute = new CreateAttribute();
+    createAttribute.setField( field );
+    return new ModelAnnotation<CreateAttribute>( createAttribute );
+  }
+
+  private static ModelAnnotation<?> measure( String field ) {
+    CreateMeasure createMeasure = new CreateMeasure();
+    createMeasure.setField( field );
+    return new ModelAnnotation<CreateMeasure>( createMeasure );
+  }
+}
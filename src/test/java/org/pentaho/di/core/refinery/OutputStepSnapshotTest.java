@@ -0,0 +1,126 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.di.core.refinery;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.pentaho.di.core.KettleClientEnvironment;
+import org.pentaho.di.core.database.DatabaseMeta;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.value.ValueMetaString;
+import org.pentaho.di.trans.step.StepMetaDataCombi;
+import org.pentaho.di.trans.steps.tableoutput.TableOutput;
+import org.pentaho.di.trans.steps.tableoutput.TableOutputData;
+import org.pentaho.di.trans.steps.tableoutput.TableOutputMeta;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class OutputStepSnapshotTest {
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws Exception {
+    KettleClientEnvironment.init();
+  }
+
+  private StepMetaDataCombi tableOutput( DatabaseMeta databaseMeta, String schemaName, String tableName ) {
+    TableOutputMeta meta = new TableOutputMeta();
+    meta.setDefault();
+    meta.setDatabaseMeta( databaseMeta );
+    meta.setSchemaName( schemaName );
+    meta.setTableName( tableName );
+    meta.setFieldDatabase( new String[] { "CUSTOMER" } );
+    meta.setFieldStream( new String[] { "Customer Name" } );
+    TableOutputData data = new TableOutputData();
+    data.insertRowMeta = new RowMeta();
+    data.insertRowMeta.addValueMeta( new ValueMetaString( "Customer Name" ) );
+    StepMetaDataCombi combi = new StepMetaDataCombi();
+    combi.stepname = "Out";
+    combi.meta = meta;
+    combi.data = data;
+    return combi;
+  }
+
+  @Test
+  public void testCopiesConnectionAndFieldInformation() throws Exception {
+    DatabaseMeta databaseMeta = new DatabaseMeta( "dw", "H2", "Native", null, "mem:dw", null, null, null );
+    StepMetaDataCombi combi = tableOutput( databaseMeta, "${schema}", "sales_${suffix}" );
+    TableOutput step = mock( TableOutput.class );
+    when( step.environmentSubstitute( "${schema}" ) ).thenReturn( "public" );
+    when( step.environmentSubstitute( "sales_${suffix}" ) ).thenReturn( "sales_2015" );
+    combi.step = step;
+
+    OutputStepSnapshot snapshot = OutputStepSnapshot.of( combi );
+    assertEquals( "Out", snapshot.getStepName() );
+    assertTrue( snapshot.hasConnectionInformation() );
+    assertTrue( snapshot.hasModelerMeta() );
+    assertSame( databaseMeta, snapshot.getDatabaseMeta() );
+    assertEquals( "public", snapshot.getSchemaName() );
+    assertEquals( "sales_2015", snapshot.getTableName() );
+    assertEquals( Arrays.asList( "CUSTOMER" ), snapshot.getDatabaseFields() );
+    assertEquals( Arrays.asList( "Customer Name" ), snapshot.getStreamFields() );
+    assertNotSame( ( (TableOutputData) combi.data ).insertRowMeta, snapshot.getInsertRowMeta() );
+    assertEquals( "Customer Name", snapshot.getInsertRowMeta().getValueMeta( 0 ).getName() );
+
+    DataProviderHelper.OutputStepMappingAdapter adapter = new DataProviderHelper.OutputStepMappingAdapter( snapshot );
+    assertEquals( Arrays.asList( "CUSTOMER" ), adapter.fieldDatabase );
+    assertEquals( Arrays.asList( "Customer Name" ), adapter.fieldStream );
+    assertEquals( 1, adapter.insertRowMeta.size() );
+  }
+
+  @Test
+  public void testStepWithoutConnectionInformation() throws Exception {
+    StepMetaDataCombi combi = new StepMetaDataCombi();
+    combi.stepname = "Dummy";
+    OutputStepSnapshot snapshot = OutputStepSnapshot.of( combi );
+    assertFalse( snapshot.hasConnectionInformation() );
+    assertFalse( snapshot.hasModelerMeta() );
+    assertNull( snapshot.getDatabaseMeta() );
+    assertNull( snapshot.getInsertRowMeta() );
+    assertTrue( snapshot.getDatabaseFields().isEmpty() );
+  }
+
+  @Test( expected = UnsupportedOperationException.class )
+  public void testFieldListsAreImmutable() throws Exception {
+    OutputStepSnapshot.of( tableOutput( null, null, "sales" ) ).getDatabaseFields().add( "OTHER" );
+  }
+
+  @Test
+  public void testSnapshotDoesNotRetainStep() throws Exception {
+    StepMetaDataCombi combi = tableOutput( null, null, "sales" );
+    WeakReference<StepMetaDataCombi> combiRef = new WeakReference<StepMetaDataCombi>( combi );
+    WeakReference<Object> metaRef = new WeakReference<Object>( combi.meta );
+    WeakReference<Object> dataRef = new WeakReference<Object>( combi.data );
+    OutputStepSnapshot snapshot = OutputStepSnapshot.of( combi );
+    combi = null;
+
+    for ( int i = 0; i < 50 && ( combiRef.get() != null || metaRef.get() != null || dataRef.get() != null ); i++ ) {
+      System.gc();
+      Thread.sleep( 10 );
+    }
+    assertNull( "step retained", combiRef.get() );
+    assertNull( "step meta retained", metaRef.get() );
+    assertNull( "step data retained", dataRef.get() );
+    assertEquals( "sales", snapshot.getTableName() );
+    assertEquals( 1, snapshot.getInsertRowMeta().size() );
+  }
+}
@@ -0,0 +1,92 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.di.core.refinery;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.pentaho.di.core.refinery.profile.BloomFilter;
+import org.pentaho.di.core.refinery.profile.ValueHash;
+import org.pentaho.di.core.row.value.ValueMetaBigNumber;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
+import org.pentaho.di.core.row.value.ValueMetaNumber;
+import org.pentaho.di.core.row.value.ValueMetaString;
+
+import java.math.BigDecimal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SharedDimensionKeyFilterTest {
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Before
+  public void setUp() throws Exception {
+    System.setProperty( MemberHashIndex.KETTLE_DATA_REFINERY_MEMBER_INDEX_DIR, folder.getRoot().getPath() );
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    System.clearProperty( MemberHashIndex.KETTLE_DATA_REFINERY_MEMBER_INDEX_DIR );
+  }
+
+  @Test
+  public void testSavedFilterIsLoadedByDimensionName() throws Exception {
+    assertNull( SharedDimensionKeyFilter.load( "Product" ) );
+
+    BloomFilter filter = new BloomFilter();
+    filter.add( ValueHash.hash( 42L ) );
+    SharedDimensionKeyFilter.save( "Product", filter );
+    SharedDimensionKeyFilter.save( "Product", filter );
+
+    BloomFilter loaded = SharedDimensionKeyFilter.load( "Product" );
+    assertTrue( loaded.mightContain( ValueHash.hash( 42L ) ) );
+    assertFalse( loaded.mightContain( ValueHash.hash( 43L ) ) );
+    assertNull( SharedDimensionKeyFilter.load( "product" ) );
+    // the filter and its lock, no temp files
+    assertEquals( 2, folder.getRoot().list().length );
+  }
+
+  @Test
+  public void testSavesOfTheSameDimensionAreMerged() throws Exception {
+    // e.g. two copies of the step, each seeing half of the members
+    BloomFilter even = new BloomFilter();
+    BloomFilter odd = new BloomFilter();
+    for ( long key = 0; key < 200000; key++ ) {
+      ( key % 2 == 0 ? even : odd ).add( ValueHash.hash( key ) );
+    }
+    SharedDimensionKeyFilter.save( "Product", even );
+    SharedDimensionKeyFilter.save( "Product", odd );
+
+    BloomFilter loaded = SharedDimensionKeyFilter.load( "Product" );
+    for ( long key = 0; key < 200000; key++ ) {
+      assertTrue( loaded.mightContain( ValueHash.hash( key ) ) );
+    }
+  }
+
+  @Test
+  public void testKeysOfDifferentTypesMatch() throws Exception {
+    long key = ValueHash.hashKey( new ValueMetaInteger( "id" ), 42L );
+    assertEquals( key, ValueHash.hashKey( new ValueMetaString( "id" ), "42" ) );
+    assertEquals( key, ValueHash.hashKey( new ValueMetaNumber( "id" ), 42.0 ) );
+    assertEquals( key, ValueHash.hashKey( new ValueMetaBigNumber( "id" ), new BigDecimal( "42.00" ) ) );
+    assertNotEquals( key, ValueHash.hashKey( new ValueMetaString( "id" ), "042" ) );
+  }
+}
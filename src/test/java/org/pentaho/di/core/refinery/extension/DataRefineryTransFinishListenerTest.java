@@ -19,8 +19,10 @@ import static org.junit.Assert.assertTrue;
 import org.junit.BeforeClass;
 import org.junit.Ignore;
 import org.junit.Test;
+import static org.mockito.Mockito.any;
 import static org.mockito.Mockito.matches;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.same;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import org.pentaho.agilebi.modeler.models.annotations.CreateAttribute;
@@ -38,7 +40,10 @@ import org.pentaho.di.core.database.DatabaseMeta;
 import org.pentaho.di.core.extension.ExtensionPoint;
 import org.pentaho.di.core.extension.ExtensionPointPluginType;
 import org.pentaho.di.core.logging.LogChannelInterface;
+import org.pentaho.di.core.refinery.DataProviderHelper;
+import org.pentaho.di.core.refinery.DataProviderUpdateQueue;
 import org.pentaho.di.core.plugins.PluginRegistry;
+import org.pentaho.di.core.refinery.OutputStepSnapshot;
 import static org.pentaho.di.core.refinery.test.TransTestUtil.createTableH2;
 import static org.pentaho.di.core.refinery.test.TransTestUtil.getRowMeta;
 import static org.pentaho.di.core.refinery.test.TransTestUtil.getTransAsJobEntry;
@@ -63,8 +68,12 @@ import org.pentaho.di.job.entry.JobEntryCopy;
 import org.pentaho.di.trans.Trans;
 import org.pentaho.di.trans.TransHopMeta;
 import org.pentaho.di.trans.TransMeta;
+import org.pentaho.di.trans.step.BaseStepData.StepExecutionStatus;
+import org.pentaho.di.trans.step.StepDataInterface;
+import org.pentaho.di.trans.step.StepInterface;
 import org.pentaho.di.trans.step.StepMeta;
 import org.pentaho.di.trans.step.StepMetaDataCombi;
+import org.pentaho.di.trans.steps.annotation.ModelAnnotationData;
 import org.pentaho.di.trans.steps.annotation.ModelAnnotationMeta;
 import org.pentaho.di.trans.steps.annotation.SharedDimensionMeta;
 import org.pentaho.di.trans.steps.tableoutput.TableOutput;
@@ -75,6 +84,10 @@ import org.pentaho.metastore.stores.memory.MemoryMetaStore;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static java.util.Arrays.asList;
 
 public class DataRefineryTransFinishListenerTest {
 
@@ -372,10 +385,12 @@ public class DataRefineryTransFinishListenerTest {
     db.disconnect();
 
     assertEquals( "job errors", 0, job.getResult().getNrErrors() );
-    StepMetaDataCombi outCombi =
-        (StepMetaDataCombi) job.getExtensionDataMap().get( "JobEntryBuildModel.OutputStep.buildmodel" );
-    assertNotNull( "combi not there", outCombi );
-    assertEquals( tableOutMeta, outCombi.meta );
+    OutputStepSnapshot outStep =
+        (OutputStepSnapshot) job.getExtensionDataMap().get( "JobEntryBuildModel.OutputStep.buildmodel" );
+    assertNotNull( "output step not there", outStep );
+    assertEquals( "Out", outStep.getStepName() );
+    assertEquals( dbMeta, outStep.getDatabaseMeta() );
+    assertEquals( "fact1", outStep.getTableName() );
 
   }
 
@@ -404,15 +419,104 @@ public class DataRefineryTransFinishListenerTest {
     when( trans.getSteps() ).thenReturn( combis );
     when( tableOutput.getTrans() ).thenReturn( trans );
     listener.callExtensionPoint( logChannel, trans );
-    assertEquals( 2, actualMap.size() );
-    assertEquals( stepMetaData, actualMap.get( "JobEntryBuildModel.OutputStep.cosmic build model" ) );
-    assertEquals( stepMetaData, actualMap.get( "JobEntryBuildModel.OutputStep.build less impactful model" ) );
+    // the two output steps and the Build Model entries, kept with the job rather than in the listener
+    assertEquals( 3, actualMap.size() );
+    assertEquals( 2,
+        ( (List<?>) actualMap.get( DataRefineryTransFinishListener.KEY_BUILD_MODEL_ENTRIES ) ).size() );
+    assertEquals( "cosmic output",
+        ( (OutputStepSnapshot) actualMap.get( "JobEntryBuildModel.OutputStep.cosmic build model" ) ).getStepName() );
+    assertEquals( "cosmic output", ( (OutputStepSnapshot) actualMap
+        .get( "JobEntryBuildModel.OutputStep.build less impactful model" ) ).getStepName() );
     listener.callExtensionPoint( logChannel, trans );
 
     verify( logChannel ).logError( matches(
         "\\s*Unable to auto-model because more than one step with the same name was found: cosmic output\\s*" ) );
   }
 
+  @Test
+  public void testStepMetaIsInExtensionMapOfEnclosingJob() throws Exception {
+    DataRefineryTransFinishListener listener = new DataRefineryTransFinishListener();
+    StepMetaDataCombi stepMetaData = new StepMetaDataCombi();
+    stepMetaData.stepname = "nested output ";
+    StepMetaDataCombi otherStep = new StepMetaDataCombi();
+    otherStep.stepname = "other";
+    Trans trans = mock( Trans.class );
+    when( trans.getSteps() ).thenReturn( asList( otherStep, stepMetaData ) );
+
+    JobMeta outerMeta = new JobMeta();
+    addModelEntry( outerMeta, "outer model", "nested output" );
+    Job outerJob = mock( Job.class );
+    when( outerJob.getJobMeta() ).thenReturn( outerMeta );
+    when( outerJob.environmentSubstitute( "nested output" ) ).thenReturn( "nested output" );
+    HashMap<String, Object> outerMap = new HashMap<String, Object>();
+    when( outerJob.getExtensionDataMap() ).thenReturn( outerMap );
+
+    Job subJob = mock( Job.class );
+    when( subJob.getJobMeta() ).thenReturn( new JobMeta() );
+    when( subJob.getParentJob() ).thenReturn( outerJob );
+    HashMap<String, Object> subMap = new HashMap<String, Object>();
+    when( subJob.getExtensionDataMap() ).thenReturn( subMap );
+
+    listener.setBuildModelOutputStep( subJob, trans );
+    assertEquals( Collections.emptyList(), subMap.get( DataRefineryTransFinishListener.KEY_BUILD_MODEL_ENTRIES ) );
+    assertEquals( 1, subMap.size() );
+    assertEquals( 2, outerMap.size() );
+    assertEquals( "nested output ",
+        ( (OutputStepSnapshot) outerMap.get( "JobEntryBuildModel.OutputStep.outer model" ) ).getStepName() );
+  }
+
+  @Test
+  public void testTransWithoutJobWaitsForItsDataProviders() throws Exception {
+    ModelAnnotationGroup group = new ModelAnnotationGroup();
+    group.setSharedDimension( true );
+    group.setName( "dim" );
+    DataProviderHelper helper = mock( DataProviderHelper.class );
+    DataProviderHelper.Update update = mock( DataProviderHelper.Update.class );
+    when( update.getGroupName() ).thenReturn( "dim" );
+    when( update.getGroup() ).thenReturn( group );
+    when( update.getDatabaseMeta() ).thenReturn( mock( DatabaseMeta.class ) );
+    when( helper.prepareUpdate( same( group ), any( StepMetaDataCombi.class ), any() ) ).thenReturn( update );
+    final AtomicBoolean stored = new AtomicBoolean();
+    when( helper.storeGroup( group ) ).thenAnswer( invocation -> {
+      Thread.sleep( 200 );
+      stored.set( true );
+      return true;
+    } );
+
+    // a transformation run by Pan, no job to wait for the MetaStore writes
+    Trans trans = mock( Trans.class );
+    when( trans.getMetaStore() ).thenReturn( new MemoryMetaStore() );
+    when( trans.environmentSubstitute( "Out" ) ).thenReturn( "Out" );
+    ModelAnnotationMeta annotationMeta = new ModelAnnotationMeta();
+    annotationMeta.setTargetOutputStep( "Out" );
+    ModelAnnotationData annotationData = new ModelAnnotationData();
+    annotationData.annotations = group;
+    StepMetaDataCombi annotationStep = new StepMetaDataCombi();
+    annotationStep.stepname = "Annotating";
+    annotationStep.meta = annotationMeta;
+    annotationStep.data = annotationData;
+    annotationStep.step = mock( StepInterface.class );
+    when( annotationStep.step.getTrans() ).thenReturn( trans );
+    StepMetaDataCombi outputStep = new StepMetaDataCombi();
+    outputStep.stepname = "Out";
+    outputStep.data = mock( StepDataInterface.class );
+    when( outputStep.data.getStatus() ).thenReturn( StepExecutionStatus.STATUS_DISPOSED );
+    when( trans.getSteps() ).thenReturn( asList( annotationStep, outputStep ) );
+
+    DataRefineryTransFinishListener listener = new DataRefineryTransFinishListener() {
+      @Override protected DataProviderHelper getDataProviderHelper( IMetaStore mstore ) {
+        return helper;
+      }
+
+      @Override protected DataProviderUpdateQueue getDataProviderUpdateQueue() {
+        return new DataProviderUpdateQueue( 1 );
+      }
+    };
+    listener.callExtensionPoint( mock( LogChannelInterface.class ), trans );
+
+    assertTrue( "written before the transformation is done", stored.get() );
+  }
+
   private void addModelEntry(
       final JobMeta meta, final String modelStepName, final String outputStepName ) {
     final JobEntryCopy copy = new JobEntryCopy();
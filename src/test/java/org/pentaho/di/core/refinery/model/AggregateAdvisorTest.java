@@ -0,0 +1,89 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.di.core.refinery.model;
+
+import org.junit.Test;
+import org.pentaho.agilebi.modeler.models.annotations.CreateAttribute;
+import org.pentaho.agilebi.modeler.models.annotations.CreateMeasure;
+import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotation;
+import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotationGroup;
+import org.pentaho.di.core.refinery.profile.RollupCounters;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.value.ValueMetaString;
+
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AggregateAdvisorTest {
+
+  private ModelAnnotation<CreateAttribute> attribute( String dimension, String name, String field, String parent ) {
+    CreateAttribute attribute = new CreateAttribute();
+    attribute.setDimension( dimension );
+    attribute.setName( name );
+    attribute.setField( field );
+    attribute.setParentAttribute( parent );
+    return new ModelAnnotation<>( attribute );
+  }
+
+  @Test
+  public void testCandidatesAreHierarchyPrefixesAndTheirPairs() throws Exception {
+    CreateMeasure sales = new CreateMeasure();
+    sales.setName( "Sales" );
+    sales.setField( "sales" );
+    ModelAnnotationGroup group = new ModelAnnotationGroup(
+      attribute( "Geo", "Country", "country", null ),
+      attribute( "Geo", "City", "city", "Country" ),
+      attribute( "Time", "Year", "year", null ),
+      attribute( "Broken", "Street", "street", "Missing" ),
+      new ModelAnnotation<>( sales ) );
+
+    List<List<String>> candidates = AggregateAdvisor.candidates( group );
+    assertEquals( asList(
+      asList( "country" ), asList( "country", "city" ), asList( "year" ),
+      asList( "country", "year" ), asList( "country", "city", "year" ) ), candidates );
+  }
+
+  @Test
+  public void testRecommendsWidestRollupsThatCutRowsTenfold() throws Exception {
+    RowMeta rowMeta = new RowMeta();
+    rowMeta.addValueMeta( new ValueMetaString( "country" ) );
+    rowMeta.addValueMeta( new ValueMetaString( "city" ) );
+    rowMeta.addValueMeta( new ValueMetaString( "order" ) );
+    RollupCounters counters = new RollupCounters( rowMeta,
+      asList( asList( "country" ), asList( "country", "city" ), asList( "country", "order" ) ) );
+    for ( int i = 0; i < 20000; i++ ) {
+      counters.offer( new Object[] { "country" + ( i % 10 ), "city" + ( i % 100 ), "order" + i } );
+    }
+
+    List<AggregateAdvisor.Recommendation> recommendations = new AggregateAdvisor().recommend( counters );
+    assertEquals( 2, recommendations.size() );
+    assertEquals( asList( "country", "city" ), recommendations.get( 0 ).getFields() );
+    assertEquals( 100, recommendations.get( 0 ).getRows(), 3 );
+    assertEquals( 200, recommendations.get( 0 ).getReduction(), 6 );
+    assertEquals( asList( "country" ), recommendations.get( 1 ).getFields() );
+  }
+
+  @Test
+  public void testSmallTablesGetNoRecommendations() throws Exception {
+    RowMeta rowMeta = new RowMeta();
+    rowMeta.addValueMeta( new ValueMetaString( "country" ) );
+    RollupCounters counters = new RollupCounters( rowMeta, asList( asList( "country" ) ) );
+    for ( int i = 0; i < 1000; i++ ) {
+      counters.offer( new Object[] { "country" + ( i % 10 ) } );
+    }
+    assertTrue( new AggregateAdvisor().recommend( counters ).isEmpty() );
+  }
+}
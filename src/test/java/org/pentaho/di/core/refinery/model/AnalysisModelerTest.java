@@ -18,17 +18,33 @@ import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.pentaho.di.core.ProvidesDatabaseConnectionInformation;
+import org.pentaho.di.core.database.DatabaseInterface;
+import org.pentaho.di.core.database.DatabaseMeta;
 import org.pentaho.di.core.exception.KettleDatabaseException;
 import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.refinery.profile.ColumnProfiles;
+import org.pentaho.di.core.row.RowMeta;
 import org.pentaho.di.core.row.ValueMetaInterface;
 import org.pentaho.di.core.row.value.ValueMetaBase;
+import org.pentaho.di.core.row.value.ValueMetaString;
 import org.pentaho.di.job.entries.build.JobEntryBuildModel;
 import org.pentaho.di.job.entry.JobEntryBase;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyString;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 import static org.pentaho.di.core.row.ValueMetaInterface.*;
@@ -37,6 +53,9 @@ import static org.pentaho.di.i18n.BaseMessages.getString;
 public class AnalysisModelerTest {
 
   private ProvidesDatabaseConnectionInformation connectionInfo;
+  private final Set<String> existingTables = new HashSet<>();
+  private final List<String> refreshedTables = new ArrayList<>();
+  private boolean failRefresh;
 
   @Before
   public void setUp() throws Exception {
@@ -112,8 +131,124 @@ public class AnalysisModelerTest {
     }
   }
 
+  @Test
+  public void testLevelsGetApproxRowCountFromProfiles() throws Exception {
+    String schema = IOUtils.toString( getClass().getResourceAsStream( "resources/testAnalysisSchema.xml" ) );
+    RowMeta rowMeta = new RowMeta();
+    rowMeta.addValueMeta( new ValueMetaString( "country" ) );
+    rowMeta.addValueMeta( new ValueMetaString( "SALES" ) );
+    ColumnProfiles profiles = new ColumnProfiles( rowMeta );
+    for ( int i = 0; i < 300; i++ ) {
+      profiles.offer( new Object[] { "country" + ( i % 25 ), "sales" + i } );
+    }
+    AnalysisModeler analysisModeler = getAnalysisModeler();
+    analysisModeler.setColumnProfiles( profiles );
+    String newSchema = analysisModeler.replaceTableAndSchemaNames( schema, "newModel" );
+
+    assertTrue( newSchema.contains( "column=\"COUNTRY\" type=\"String\" approxRowCount=\"25\"" ) );
+    assertFalse( newSchema.contains( "column=\"STATE\" type=\"String\" approxRowCount" ) );
+    // measures are not levels
+    assertEquals( 1, newSchema.split( "approxRowCount" ).length - 1 );
+  }
+
+  @Test
+  public void testRecommendedAggregatesAreDeclaredWithTheirDdl() throws Exception {
+    String schema = IOUtils.toString( getClass().getResourceAsStream( "resources/testAnalysisSchema.xml" ) );
+    DatabaseMeta databaseMeta = mock( DatabaseMeta.class );
+    when( databaseMeta.quoteField( anyString() ) )
+      .thenAnswer( invocation -> "\"" + invocation.getArguments()[ 0 ] + "\"" );
+    when( databaseMeta.getQuotedSchemaTableCombination( any(), anyString() ) )
+      .thenAnswer( invocation -> invocation.getArguments()[ 1 ] );
+    when( connectionInfo.getDatabaseMeta() ).thenReturn( databaseMeta );
+    AnalysisModeler analysisModeler = getAnalysisModeler();
+    analysisModeler.setAggregates( Collections.singletonList(
+      new AggregateAdvisor.Recommendation( Arrays.asList( "territory", "country", "ORDERDATE" ), 500, 100000 ) ) );
+
+    String aggregateTable = AnalysisModeler.aggregateTableName( "newTable",
+      Arrays.asList( "TERRITORY", "COUNTRY", "ORDERDATE", "QUANTITYORDERED_sum", "SALES_sum" ) );
+    String select = "SELECT \"TERRITORY\", \"COUNTRY\", \"ORDERDATE\", "
+      + "SUM(\"QUANTITYORDERED\") AS \"QUANTITYORDERED_sum\", SUM(\"SALES\") AS \"SALES_sum\", "
+      + "COUNT(*) AS \"fact_count\" FROM newTable GROUP BY \"TERRITORY\", \"COUNTRY\", \"ORDERDATE\"";
+
+    // not declared until the table exists, the DDL is there to create it
+    assertFalse( analysisModeler.replaceTableAndSchemaNames( schema, "newModel" ).contains( "<AggName " ) );
+    assertEquals( "CREATE TABLE " + aggregateTable + " AS " + select + ";", analysisModeler.getAggregateDdl() );
+    assertTrue( refreshedTables.isEmpty() );
+
+    existingTables.add( aggregateTable );
+    String newSchema = analysisModeler.replaceTableAndSchemaNames( schema, "newModel" );
+
+    assertTrue( newSchema.contains(
+      "<AggName name=\"" + aggregateTable + "\"><AggFactCount column=\"fact_count\"/>" ) );
+    assertTrue( newSchema.contains( "<AggMeasure name=\"[Measures].[SALES]\" column=\"SALES_sum\"/>" ) );
+    assertTrue( newSchema.contains( "<AggLevel name=\"[Geography].[TERRITORY]\" column=\"TERRITORY\"/>"
+      + "<AggLevel name=\"[Geography].[COUNTRY]\" column=\"COUNTRY\"/>"
+      + "<AggLevel name=\"[ORDERDATE].[ORDERDATE]\" column=\"ORDERDATE\"/></AggName>" ) );
+    // only the fact table of the cube gets aggregates
+    assertEquals( 1, newSchema.split( "<AggName " ).length - 1 );
+    // an existing table is reloaded with this load's totals before it is declared
+    assertEquals( Collections.singletonList( "INSERT INTO " + aggregateTable + " " + select ), refreshedTables );
+    assertNull( analysisModeler.getAggregateDdl() );
+
+    // one that can't be reloaded would serve stale totals
+    refreshedTables.clear();
+    failRefresh = true;
+    assertFalse( analysisModeler.replaceTableAndSchemaNames( schema, "newModel" ).contains( "<AggName " ) );
+    assertNull( analysisModeler.getAggregateDdl() );
+  }
+
+  @Test
+  public void testAggregateNamesOfLongTableNamesDontCollide() {
+    List<String> columns = Arrays.asList( "COUNTRY", "SALES_sum" );
+    String name = AnalysisModeler.aggregateTableName( "sales_fact_by_customer_2023", columns );
+
+    assertTrue( name.length() <= 30 );
+    assertFalse( name.equals( AnalysisModeler.aggregateTableName( "sales_fact_by_customer_2024", columns ) ) );
+    assertFalse( name.equals( AnalysisModeler.aggregateTableName( "sales_fact_by_customer_2023",
+      Arrays.asList( "COUNTRY", "SALES_max" ) ) ) );
+    assertEquals( name, AnalysisModeler.aggregateTableName( "sales_fact_by_customer_2023", columns ) );
+  }
+
+  @Test
+  public void testAggregateTablesAreCreatedWithSelectIntoOnSqlServer() throws Exception {
+    String schema = IOUtils.toString( getClass().getResourceAsStream( "resources/testAnalysisSchema.xml" ) );
+    DatabaseMeta databaseMeta = mock( DatabaseMeta.class );
+    DatabaseInterface databaseInterface = mock( DatabaseInterface.class );
+    when( databaseInterface.getPluginId() ).thenReturn( "MSSQLNATIVE" );
+    when( databaseMeta.getDatabaseInterface() ).thenReturn( databaseInterface );
+    when( databaseMeta.quoteField( anyString() ) ).thenAnswer( invocation -> invocation.getArguments()[ 0 ] );
+    when( databaseMeta.getQuotedSchemaTableCombination( any(), anyString() ) )
+      .thenAnswer( invocation -> invocation.getArguments()[ 1 ] );
+    when( connectionInfo.getDatabaseMeta() ).thenReturn( databaseMeta );
+    AnalysisModeler analysisModeler = getAnalysisModeler();
+    analysisModeler.setAggregates( Collections.singletonList(
+      new AggregateAdvisor.Recommendation( Arrays.asList( "territory" ), 5, 100000 ) ) );
+
+    analysisModeler.replaceTableAndSchemaNames( schema, "newModel" );
+
+    String aggregateTable = AnalysisModeler.aggregateTableName( "newTable",
+      Arrays.asList( "TERRITORY", "QUANTITYORDERED_sum", "SALES_sum" ) );
+    assertEquals( "SELECT TERRITORY, SUM(QUANTITYORDERED) AS QUANTITYORDERED_sum, SUM(SALES) AS SALES_sum, "
+      + "COUNT(*) AS fact_count INTO " + aggregateTable + " FROM newTable GROUP BY TERRITORY;",
+      analysisModeler.getAggregateDdl() );
+  }
+
   private AnalysisModeler getAnalysisModeler() {
     return new AnalysisModeler( new JobEntryBase( ), connectionInfo ) {
+      @Override Set<String> existingTables( Collection<String> tableNames ) {
+        Set<String> existing = new HashSet<>( tableNames );
+        existing.retainAll( existingTables );
+        return existing;
+      }
+
+      @Override Set<String> refreshTables( final Map<String, String> insertsByTable ) {
+        if ( failRefresh ) {
+          return new HashSet<>();
+        }
+        refreshedTables.addAll( insertsByTable.values() );
+        return new HashSet<>( insertsByTable.keySet() );
+      }
+
       @Override List<ValueMetaInterface> getFieldsInDatabase()
         throws KettleDatabaseException {
         return Arrays.asList(
@@ -0,0 +1,182 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.di.core.refinery.model;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.pentaho.di.core.KettleClientEnvironment;
+import org.pentaho.di.core.database.Database;
+import org.pentaho.di.core.database.DatabaseInterface;
+import org.pentaho.di.core.database.DatabaseMeta;
+import org.pentaho.di.core.logging.LogChannelInterface;
+import org.pentaho.di.core.refinery.profile.ColumnProfile;
+import org.pentaho.di.core.refinery.profile.ColumnProfiles;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class IndexAdvisorTest {
+  private final LogChannelInterface log = mock( LogChannelInterface.class );
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws Exception {
+    if ( !KettleClientEnvironment.isInitialized() ) {
+      KettleClientEnvironment.init();
+    }
+  }
+
+  private DatabaseMeta databaseMeta( String pluginId ) {
+    DatabaseMeta databaseMeta = mock( DatabaseMeta.class );
+    when( databaseMeta.getPluginId() ).thenReturn( pluginId );
+    when( databaseMeta.getDatabaseInterface() ).thenReturn( mock( DatabaseInterface.class ) );
+    when( databaseMeta.quoteField( anyString() ) )
+      .thenAnswer( invocation -> "\"" + invocation.getArguments()[ 0 ] + "\"" );
+    when( databaseMeta.getQuotedSchemaTableCombination( any(), anyString() ) )
+      .thenAnswer( invocation -> invocation.getArguments()[ 0 ] + "." + invocation.getArguments()[ 1 ] );
+    return databaseMeta;
+  }
+
+  private ColumnProfiles profiles( String column, long distinctCount ) {
+    ColumnProfile profile = mock( ColumnProfile.class );
+    when( profile.getDistinctCount() ).thenReturn( distinctCount );
+    ColumnProfiles profiles = mock( ColumnProfiles.class );
+    when( profiles.get( column ) ).thenReturn( profile );
+    return profiles;
+  }
+
+  @Test
+  public void testRecommendsHierarchiesLinksAndHighCardinalityLevels() throws Exception {
+    IndexAdvisor advisor = new IndexAdvisor( databaseMeta( "POSTGRESQL" ), "sales", "orders" );
+    List<String[]> indexes = advisor.recommend(
+      asList( asList( "country", "state", "city" ), asList( "year", "quarter", "month" ), asList( "Country" ) ),
+      asList( "customer_id", "year" ), profiles( "city", IndexAdvisor.HIGH_CARDINALITY ) );
+
+    assertEquals( 4, indexes.size() );
+    assertArrayEquals( new String[] { "country", "state", "city" }, indexes.get( 0 ) );
+    assertArrayEquals( new String[] { "year", "quarter", "month" }, indexes.get( 1 ) );
+    assertArrayEquals( new String[] { "customer_id" }, indexes.get( 2 ) );
+    assertArrayEquals( new String[] { "city" }, indexes.get( 3 ) );
+  }
+
+  @Test
+  public void testWiderIndexReplacesTheOneItLeads() throws Exception {
+    IndexAdvisor advisor = new IndexAdvisor( databaseMeta( "POSTGRESQL" ), "sales", "orders" );
+    List<String[]> indexes = advisor.recommend(
+      asList( asList( "a" ), asList( "a", "b", "c", "d", "e", "f" ) ), Collections.<String>emptyList(), null );
+
+    assertEquals( 1, indexes.size() );
+    assertArrayEquals( new String[] { "a", "b", "c", "d", "e" }, indexes.get( 0 ) );
+  }
+
+  @Test
+  public void testDdlIsWrittenForTheDialect() throws Exception {
+    List<String[]> indexes = asList( new String[] { "country", "city" }, new String[] { "customer_id" } );
+    IndexAdvisor advisor = new IndexAdvisor( databaseMeta( "POSTGRESQL" ), "sales", "orders" );
+
+    String[] statements = advisor.getDdl( indexes ).split( ";\n" );
+    assertEquals( 3, statements.length );
+    assertTrue( statements[ 0 ].startsWith( "CREATE INDEX \"" + advisor.indexName( indexes.get( 0 ) ) + "\"" ) );
+    assertTrue( statements[ 0 ].contains( "sales.orders" ) );
+    assertTrue( statements[ 0 ].endsWith( "(\"country\", \"city\")" ) );
+    assertTrue( statements[ 1 ].startsWith( "CREATE INDEX \"" + advisor.indexName( indexes.get( 1 ) ) + "\"" ) );
+    assertEquals( "ANALYZE sales.orders;", statements[ 2 ] );
+    assertTrue( new IndexAdvisor( databaseMeta( "MSSQL" ), "sales", "orders" ).getDdl( indexes )
+      .endsWith( "UPDATE STATISTICS sales.orders;" ) );
+    assertTrue( new IndexAdvisor( databaseMeta( "ORACLE" ), "sales", "orders" ).getDdl( indexes )
+      .endsWith( "ANALYZE TABLE sales.orders COMPUTE STATISTICS;" ) );
+    assertTrue( new IndexAdvisor( databaseMeta( "GENERIC" ), "sales", "orders" ).getDdl( indexes )
+      .endsWith( "(\"customer_id\");" ) );
+    assertNull( new IndexAdvisor( databaseMeta( "POSTGRESQL" ), "sales", "orders" )
+      .getDdl( Collections.<String[]>emptyList() ) );
+  }
+
+  @Test
+  public void testIndexNamesStayShortAndDontCollide() throws Exception {
+    String[] columns = { "country", "city" };
+    String name = new IndexAdvisor( databaseMeta( "ORACLE" ), "", "a very long table name for oracle" )
+      .indexName( columns );
+
+    assertEquals( 30, name.length() );
+    assertTrue( name.startsWith( "idx_a_very_long_table_" ) );
+    assertNotEquals( name,
+      new IndexAdvisor( databaseMeta( "ORACLE" ), "", "a very long table name for mysql" ).indexName( columns ) );
+    assertNotEquals( name, new IndexAdvisor( databaseMeta( "ORACLE" ), "", "a very long table name for oracle" )
+      .indexName( new String[] { "country" } ) );
+  }
+
+  @Test
+  public void testAppliesMissingIndexesOnce() throws Exception {
+    String dbDir = "./target/test-db/IndexAdvisorTest-H2-DB";
+    File file = new File( dbDir + ".h2.db" );
+    if ( file.exists() ) {
+      file.delete();
+    }
+    DatabaseMeta databaseMeta = new DatabaseMeta( "myh2", "H2", "Native", null, dbDir, null, "sa", null );
+    Database db = new Database( null, databaseMeta );
+    db.connect();
+    db.execStatement( "DROP TABLE IF EXISTS ORDERS_TEST;" );
+    db.execStatement( "CREATE TABLE ORDERS_TEST(COUNTRY VARCHAR(100), CITY VARCHAR(100), CUSTOMER_ID INTEGER);" );
+    db.disconnect();
+
+    IndexAdvisor advisor = new IndexAdvisor( databaseMeta, null, "ORDERS_TEST" );
+    List<String[]> indexes = advisor.recommend( asList( asList( "COUNTRY", "CITY" ) ), asList( "CUSTOMER_ID" ), null );
+    assertEquals( 2, advisor.apply( null, log, indexes ) );
+    assertEquals( 0, advisor.apply( null, log, indexes ) );
+
+    db = new Database( null, databaseMeta );
+    try {
+      db.connect();
+      assertTrue( db.checkIndexExists( null, "ORDERS_TEST", new String[] { "COUNTRY", "CITY" } ) );
+      assertTrue( db.checkIndexExists( null, "ORDERS_TEST", new String[] { "CUSTOMER_ID" } ) );
+    } finally {
+      db.disconnect();
+    }
+  }
+
+  @Test
+  public void testFailingIndexDoesNotStopTheOthers() throws Exception {
+    String dbDir = "./target/test-db/IndexAdvisorTest-H2-DB";
+    DatabaseMeta databaseMeta = new DatabaseMeta( "myh2", "H2", "Native", null, dbDir, null, "sa", null );
+    Database db = new Database( null, databaseMeta );
+    db.connect();
+    db.execStatement( "DROP TABLE IF EXISTS ORDERS_FAIL_TEST;" );
+    db.execStatement( "CREATE TABLE ORDERS_FAIL_TEST(COUNTRY VARCHAR(100), CUSTOMER_ID INTEGER);" );
+    db.disconnect();
+
+    IndexAdvisor advisor = new IndexAdvisor( databaseMeta, null, "ORDERS_FAIL_TEST" );
+    List<String[]> indexes = asList( new String[] { "NO_SUCH_COLUMN" }, new String[] { "CUSTOMER_ID" } );
+    assertEquals( 1, advisor.apply( null, log, indexes ) );
+    verify( log ).logError( anyString(), any( Throwable.class ) );
+
+    db = new Database( null, databaseMeta );
+    try {
+      db.connect();
+      assertTrue( db.checkIndexExists( null, "ORDERS_FAIL_TEST", new String[] { "CUSTOMER_ID" } ) );
+    } finally {
+      db.disconnect();
+    }
+  }
+}
@@ -0,0 +1,158 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.di.core.refinery.model;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.BeforeClass;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.pentaho.di.core.KettleClientEnvironment;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.job.Job;
+import org.pentaho.di.job.JobMeta;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ModelArtifactStoreTest {
+
+  private static final String XMI = "<xmi:XMI xmlns:xmi=\"http://www.omg.org/XMI\">...</xmi:XMI>";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws Exception {
+    KettleClientEnvironment.init();
+  }
+
+  @Test
+  public void testLargeModelsAreReplacedByHandle() throws Exception {
+    ModelArtifactStore store = new ModelArtifactStore( folder.getRoot(), 10 );
+    Job job = new Job( null, new JobMeta() );
+
+    assertSame( "short", store.put( job, "JobEntryBuildModel.XMI.short", "short" ) );
+    assertNull( store.put( job, "JobEntryBuildModel.XMI.none", null ) );
+    String handle = store.put( job, "JobEntryBuildModel.XMI.Sales", XMI );
+    assertTrue( ModelArtifactStore.isHandle( handle ) );
+    assertEquals( 1, folder.getRoot().list().length );
+
+    assertEquals( XMI, store.read( handle ) );
+    try ( InputStream in = store.open( handle ) ) {
+      assertEquals( XMI, IOUtils.toString( in, StandardCharsets.UTF_8 ) );
+    }
+    // values set by other entries are the model itself
+    assertEquals( "<inline/>", IOUtils.toString( store.open( "<inline/>" ), StandardCharsets.UTF_8 ) );
+  }
+
+  @Test
+  public void testModelsStayInTheVariableUnlessAnInlineLimitIsSet() throws Exception {
+    ModelArtifactStore store = new ModelArtifactStore( folder.getRoot(), 0 );
+    Job job = new Job( null, new JobMeta() );
+
+    assertSame( XMI, store.put( job, "JobEntryBuildModel.XMI.Sales", XMI ) );
+    assertEquals( 0, folder.getRoot().list().length );
+  }
+
+  @Test
+  public void testArtifactLivesUntilLastReferenceIsGone() throws Exception {
+    ModelArtifactStore store = new ModelArtifactStore( folder.getRoot(), 10 );
+    Job job = new Job( null, new JobMeta() );
+    String first = store.put( job, "JobEntryBuildModel.XMI.Sales", XMI );
+    job.setVariable( "JobEntryBuildModel.XMI.Sales", first );
+
+    InputStream reading = store.open( first );
+    // the next iteration of a looping job builds the model again
+    String second = store.put( job, "JobEntryBuildModel.XMI.Sales", XMI + " " );
+    job.setVariable( "JobEntryBuildModel.XMI.Sales", second );
+    assertTrue( "still being read", store.contains( first ) );
+    assertEquals( XMI, IOUtils.toString( reading, StandardCharsets.UTF_8 ) );
+    reading.close();
+    reading.close();
+    assertFalse( store.contains( first ) );
+    assertTrue( store.contains( second ) );
+
+    job.fireJobFinishListeners();
+    assertFalse( store.contains( second ) );
+    assertEquals( 0, folder.getRoot().list().length );
+    try {
+      store.open( second );
+      fail( "released artifact opened" );
+    } catch ( KettleException e ) {
+      // expected
+    }
+  }
+
+  @Test
+  public void testArtifactOutlivesTheSubJobThatBuiltIt() throws Exception {
+    ModelArtifactStore store = new ModelArtifactStore( folder.getRoot(), 10 );
+    Job parent = new Job( null, new JobMeta() );
+    Job child = new Job( null, new JobMeta() );
+    child.setParentJob( parent );
+    assertSame( parent, ModelArtifactStore.rootOf( child ) );
+
+    String handle = store.put( child, "JobEntryBuildModel.XMI.Sales", XMI );
+    child.fireJobFinishListeners();
+    // Publish Model in the parent job still reads it
+    assertEquals( XMI, store.read( handle ) );
+
+    parent.fireJobFinishListeners();
+    assertFalse( store.contains( handle ) );
+  }
+
+  @Test
+  public void testCorruptedArtifactFailsTheRead() throws Exception {
+    ModelArtifactStore store = new ModelArtifactStore( folder.getRoot(), 10 );
+    String handle = store.put( XMI );
+    File file = folder.getRoot().listFiles()[ 0 ];
+    try ( OutputStream out = new GZIPOutputStream( new FileOutputStream( file ) ) ) {
+      out.write( "<xmi:XMI/>".getBytes( StandardCharsets.UTF_8 ) );
+    }
+    try {
+      store.read( handle );
+      fail( "digest not checked" );
+    } catch ( KettleException e ) {
+      // expected
+    }
+    assertTrue( "reference given back", store.contains( handle ) );
+    store.release( handle );
+    assertFalse( store.contains( handle ) );
+  }
+
+  @Test
+  public void testDescribeNeverReturnsLargePayloads() throws Exception {
+    assertNull( ModelArtifactStore.describe( null ) );
+    assertEquals( XMI, ModelArtifactStore.describe( XMI ) );
+    String handle = new ModelArtifactStore( folder.getRoot(), 0 ).put( XMI );
+    assertEquals( handle, ModelArtifactStore.describe( handle ) );
+    StringBuilder large = new StringBuilder();
+    for ( int i = 0; i < 10000; i++ ) {
+      large.append( XMI );
+    }
+    String described = ModelArtifactStore.describe( large.toString() );
+    assertTrue( described.length() < 200 );
+    assertTrue( described.endsWith( "(" + large.length() + " characters)" ) );
+  }
+}
@@ -0,0 +1,109 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.di.core.refinery.model;
+
+import org.junit.Test;
+import org.pentaho.di.core.refinery.publish.agilebi.BiServerConnection;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ModelCatalogCacheTest {
+
+  private BiServerConnection connection( String url, String user ) {
+    BiServerConnection connection = new BiServerConnection();
+    connection.setUrl( url );
+    connection.setUserId( user );
+    return connection;
+  }
+
+  private ModelServerFetcher fetcher( BiServerConnection connection, ModelServerFetcher.Presence presence )
+    throws Exception {
+    ModelServerFetcher fetcher = mock( ModelServerFetcher.class );
+    when( fetcher.getBiServerConnection() ).thenReturn( connection );
+    when( fetcher.probe( "Sales" ) ).thenReturn( presence );
+    when( fetcher.fetchAnalysisList() ).thenReturn( asList( "Sales" ) );
+    when( fetcher.fetchDswList() ).thenReturn( asList( "Sales.xmi" ) );
+    return fetcher;
+  }
+
+  @Test
+  public void testConclusiveProbeSkipsTheLists() throws Exception {
+    ModelCatalogCache cache = new ModelCatalogCache( 60000L );
+    BiServerConnection server = connection( "http://localhost:8080/pentaho/", "admin" );
+    ModelServerFetcher found = fetcher( server, ModelServerFetcher.Presence.FOUND );
+    assertTrue( cache.modelExists( found, "Sales" ) );
+    ModelServerFetcher missing = fetcher( server, ModelServerFetcher.Presence.MISSING );
+    assertFalse( cache.modelExists( missing, "Sales" ) );
+
+    verify( found, never() ).fetchAnalysisList();
+    verify( missing, never() ).fetchDswList();
+    assertEquals( 0, cache.getLoadCount() );
+  }
+
+  @Test
+  public void testListsAreSharedUntilInvalidated() throws Exception {
+    ModelCatalogCache cache = new ModelCatalogCache( 60000L );
+    BiServerConnection server = connection( "http://localhost:8080/pentaho/", "admin" );
+    ModelServerFetcher fetcher = fetcher( server, ModelServerFetcher.Presence.UNKNOWN );
+    ModelServerFetcher otherEntry = fetcher( server, ModelServerFetcher.Presence.UNKNOWN );
+
+    assertTrue( cache.modelExists( fetcher, "Sales" ) );
+    assertTrue( cache.modelExists( otherEntry, "Sales.xmi" ) );
+    assertFalse( cache.modelExists( otherEntry, "Inventory" ) );
+    assertEquals( 1, cache.getLoadCount() );
+    verify( otherEntry, never() ).fetchAnalysisList();
+
+    cache.invalidate( connection( "http://localhost:8080/pentaho/", "admin" ) );
+    assertTrue( cache.modelExists( otherEntry, "Sales" ) );
+    assertEquals( 2, cache.getLoadCount() );
+    verify( otherEntry, times( 1 ) ).fetchDswList();
+  }
+
+  @Test
+  public void testNoCachingWithoutTtlOrServer() throws Exception {
+    ModelCatalogCache cache = new ModelCatalogCache( 0L );
+    ModelServerFetcher fetcher =
+        fetcher( connection( "http://localhost:8080/pentaho/", "admin" ), ModelServerFetcher.Presence.UNKNOWN );
+    cache.modelExists( fetcher, "Sales" );
+    cache.modelExists( fetcher, "Sales" );
+    assertEquals( 2, cache.getLoadCount() );
+
+    cache = new ModelCatalogCache( 60000L );
+    // e.g. a fetcher without a connection; probe returns null
+    fetcher = fetcher( null, null );
+    assertTrue( cache.modelExists( fetcher, "Sales" ) );
+    assertTrue( cache.modelExists( fetcher, "Sales" ) );
+    assertEquals( 2, cache.getLoadCount() );
+  }
+
+  @Test
+  public void testCatalogsAreKeptPerServerAndUser() throws Exception {
+    assertNull( ModelCatalogCache.keyOf( null ) );
+    assertEquals( ModelCatalogCache.keyOf( connection( "http://a:8080/pentaho", "admin" ) ),
+        ModelCatalogCache.keyOf( connection( "http://a:8080/pentaho/", "admin" ) ) );
+    assertNotEquals( ModelCatalogCache.keyOf( connection( "http://a:8080/pentaho/", "admin" ) ),
+        ModelCatalogCache.keyOf( connection( "http://a:8080/pentaho/", "suzy" ) ) );
+    assertNotEquals( ModelCatalogCache.keyOf( connection( "http://a:8080/pentaho/", "admin" ) ),
+        ModelCatalogCache.keyOf( connection( "http://b:8080/pentaho/", "admin" ) ) );
+  }
+}
@@ -0,0 +1,145 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.di.core.refinery.model;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.pentaho.agilebi.modeler.ModelerException;
+import org.pentaho.agilebi.modeler.geo.GeoContextConfigProvider;
+import org.pentaho.agilebi.modeler.models.annotations.CreateAttribute;
+import org.pentaho.agilebi.modeler.models.annotations.CreateMeasure;
+import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotation;
+import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotationGroup;
+import org.pentaho.di.core.KettleClientEnvironment;
+import org.pentaho.di.core.database.DatabaseMeta;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
+import org.pentaho.di.core.row.value.ValueMetaNumber;
+import org.pentaho.di.core.row.value.ValueMetaString;
+import org.pentaho.metadata.model.concept.types.AggregationType;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ModelFingerprintTest {
+
+  @BeforeClass
+  public static void setUpBeforeClass() throws Exception {
+    KettleClientEnvironment.init();
+  }
+
+  @Test
+  public void testSameInputsGiveSameFingerprint() throws Exception {
+    assertEquals( fingerprint( "Sales", fields(), annotations( AggregationType.SUM ), geo( "STATE" ) ),
+        fingerprint( "Sales", fields(), annotations( AggregationType.SUM ), geo( "STATE" ) ) );
+    assertEquals( 64, fingerprint( "Sales", fields(), annotations( AggregationType.SUM ), geo( "STATE" ) ).length() );
+  }
+
+  @Test
+  public void testAnyChangedInputGivesNewFingerprint() throws Exception {
+    String fingerprint = fingerprint( "Sales", fields(), annotations( AggregationType.SUM ), geo( "STATE" ) );
+
+    assertNotEquals( fingerprint,
+        fingerprint( "Sales 2", fields(), annotations( AggregationType.SUM ), geo( "STATE" ) ) );
+    RowMeta fields = fields();
+    fields.getValueMeta( 1 ).setLength( 20 );
+    assertNotEquals( fingerprint,
+        fingerprint( "Sales", fields, annotations( AggregationType.SUM ), geo( "STATE" ) ) );
+    fields = fields();
+    fields.addValueMeta( new ValueMetaString( "REGION" ) );
+    assertNotEquals( fingerprint,
+        fingerprint( "Sales", fields, annotations( AggregationType.SUM ), geo( "STATE" ) ) );
+    assertNotEquals( fingerprint,
+        fingerprint( "Sales", fields(), annotations( AggregationType.AVERAGE ), geo( "STATE" ) ) );
+    assertNotEquals( fingerprint,
+        fingerprint( "Sales", fields(), annotations( AggregationType.SUM ), geo( "PROVINCE" ) ) );
+    ModelAnnotationGroup shared = annotations( AggregationType.SUM );
+    shared.setSharedDimension( true );
+    assertNotEquals( fingerprint, fingerprint( "Sales", fields(), shared, geo( "STATE" ) ) );
+  }
+
+  @Test
+  public void testConnectionIsPartOfFingerprint() throws Exception {
+    DatabaseMeta h2 = new DatabaseMeta( "sales", "H2", "Native", null, "./target/sales", null, "sa", null );
+    DatabaseMeta otherHost = new DatabaseMeta( "sales", "H2", "Native", null, "./target/sales2", null, "sa", null );
+    assertEquals( new ModelFingerprint().addConnection( h2 ).getValue(),
+        new ModelFingerprint().addConnection( (DatabaseMeta) h2.clone() ).getValue() );
+    assertNotEquals( new ModelFingerprint().addConnection( h2 ).getValue(),
+        new ModelFingerprint().addConnection( otherHost ).getValue() );
+  }
+
+  @Test
+  public void testNullIsNotEmpty() throws Exception {
+    assertNotEquals( new ModelFingerprint().add( (String) null ).getValue(),
+        new ModelFingerprint().add( "" ).getValue() );
+    assertNotEquals( new ModelFingerprint().add( "ab" ).add( "c" ).getValue(),
+        new ModelFingerprint().add( "a" ).add( "bc" ).getValue() );
+    assertNotEquals( new ModelFingerprint().add( asList( "a", "b" ) ).add( "c" ).getValue(),
+        new ModelFingerprint().add( asList( "a" ) ).add( "b" ).add( "c" ).getValue() );
+  }
+
+  @Test
+  public void testUnreadableGeoConfigurationIsFingerprinted() throws Exception {
+    GeoContextConfigProvider broken = mock( GeoContextConfigProvider.class );
+    when( broken.getRoles() ).thenReturn( "STATE" );
+    when( broken.getRoleAliases( "STATE" ) ).thenThrow( new ModelerException( "No Aliases found" ) );
+    assertEquals( new ModelFingerprint().addGeoContext( broken ).getValue(),
+        new ModelFingerprint().addGeoContext( broken ).getValue() );
+    assertNotEquals( new ModelFingerprint().addGeoContext( broken ).getValue(),
+        new ModelFingerprint().addGeoContext( geo( "STATE" ) ).getValue() );
+  }
+
+  private String fingerprint( String modelName, RowMeta fields, ModelAnnotationGroup annotations,
+                              GeoContextConfigProvider geo ) throws Exception {
+    return new ModelFingerprint().add( modelName ).addFields( fields ).addAnnotations( annotations )
+        .addGeoContext( geo ).getValue();
+  }
+
+  private RowMeta fields() {
+    RowMeta fields = new RowMeta();
+    fields.addValueMeta( new ValueMetaNumber( "QUANTITY" ) );
+    fields.addValueMeta( new ValueMetaString( "STATE" ) );
+    fields.addValueMeta( new ValueMetaInteger( "CUSTOMER_ID" ) );
+    return fields;
+  }
+
+  /**
+   * New annotation instances every time, as they come from the metastore or are detected from profiles.
+   */
+  private ModelAnnotationGroup annotations( AggregationType aggregation ) {
+    CreateMeasure quantity = new CreateMeasure();
+    quantity.setName( "Quantity" );
+    quantity.setField( "QUANTITY" );
+    quantity.setAggregateType( aggregation );
+    CreateAttribute state = new CreateAttribute();
+    state.setName( "State" );
+    state.setField( "STATE" );
+    state.setDimension( "Geography" );
+    state.setHierarchy( "Geography" );
+    ModelAnnotationGroup group = new ModelAnnotationGroup(
+        new ModelAnnotation<>( quantity ), new ModelAnnotation<>( state ) );
+    group.setName( "sales" );
+    return group;
+  }
+
+  private GeoContextConfigProvider geo( String role ) throws Exception {
+    GeoContextConfigProvider geo = mock( GeoContextConfigProvider.class );
+    when( geo.getDimensionName() ).thenReturn( "Geography" );
+    when( geo.getRoles() ).thenReturn( role );
+    when( geo.getRoleAliases( role ) ).thenReturn( role.toLowerCase() );
+    return geo;
+  }
+}
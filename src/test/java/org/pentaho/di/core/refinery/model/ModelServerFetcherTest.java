@@ -168,6 +168,36 @@ public class ModelServerFetcherTest {
   }
 
 
+  @Test
+  public void testProbeFindsDataSourceByItsDownload() throws Exception {
+    ClientResponse missing = mock( ClientResponse.class );
+    when( missing.getStatus() ).thenReturn( 404 );
+    ClientResponse found = mock( ClientResponse.class );
+    when( found.getStatus() ).thenReturn( 200 );
+    when( webResource.head() ).thenReturn( missing, found );
+    ModelServerFetcher fetcher = createModelServerFetcher();
+    assertEquals( ModelServerFetcher.Presence.FOUND, fetcher.probe( "Dsw Test.xmi" ) );
+    verify( client ).resource( "http://server:8081/webapp/plugin/data-access/api/datasource/analysis/Dsw%20Test.xmi/download" );
+    verify( client ).resource( "http://server:8081/webapp/plugin/data-access/api/datasource/dsw/Dsw%20Test.xmi/download" );
+    verify( webResource, never() ).get( ClientResponse.class );
+  }
+
+  @Test
+  public void testProbeIsOnlyConclusiveForNotFound() throws Exception {
+    ClientResponse missing = mock( ClientResponse.class );
+    when( missing.getStatus() ).thenReturn( 404 );
+    ClientResponse error = mock( ClientResponse.class );
+    when( error.getStatus() ).thenReturn( 500 );
+    ModelServerFetcher fetcher = createModelServerFetcher();
+
+    when( webResource.head() ).thenReturn( missing, missing );
+    assertEquals( ModelServerFetcher.Presence.MISSING, fetcher.probe( "SteelWheels" ) );
+    when( webResource.head() ).thenReturn( missing, error );
+    assertEquals( ModelServerFetcher.Presence.UNKNOWN, fetcher.probe( "SteelWheels" ) );
+    when( webResource.head() ).thenThrow( new RuntimeException( "connection refused" ) );
+    assertEquals( ModelServerFetcher.Presence.UNKNOWN, fetcher.probe( "SteelWheels" ) );
+  }
+
   private ModelServerFetcher createModelServerFetcher() {
     return new MockFriendlyServerFetcher();
   }
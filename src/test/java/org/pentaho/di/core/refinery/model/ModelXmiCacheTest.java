@@ -0,0 +1,85 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.di.core.refinery.model;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ModelXmiCacheTest {
+
+  private static final String XMI = "<xmi:XMI xmlns:xmi=\"http://www.omg.org/XMI\">...</xmi:XMI>";
+
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
+  @Test
+  public void testCachedModelIsReturnedByFingerprint() throws Exception {
+    File directory = new File( folder.getRoot(), "model-cache" );
+    ModelXmiCache cache = new ModelXmiCache( directory, 10 );
+    assertTrue( cache.isEnabled() );
+    assertNull( cache.get( "abc123" ) );
+
+    cache.put( "abc123", XMI );
+    assertEquals( XMI, cache.get( "abc123" ) );
+    assertNull( cache.get( "def456" ) );
+    assertEquals( XMI, new ModelXmiCache( directory, 10 ).get( "abc123" ) );
+
+    cache.put( "abc123", XMI + " " );
+    assertEquals( XMI + " ", cache.get( "abc123" ) );
+    assertEquals( 1, directory.list().length );
+  }
+
+  @Test
+  public void testLeastRecentlyUsedModelsAreEvicted() throws Exception {
+    ModelXmiCache cache = new ModelXmiCache( folder.getRoot(), 2 );
+    cache.put( "first", XMI );
+    cache.put( "second", XMI );
+    new File( folder.getRoot(), "first.xmi.gz" ).setLastModified( 1000L );
+    new File( folder.getRoot(), "second.xmi.gz" ).setLastModified( 2000L );
+    assertEquals( XMI, cache.get( "first" ) );
+
+    cache.put( "third", XMI );
+    assertEquals( XMI, cache.get( "first" ) );
+    assertNull( cache.get( "second" ) );
+    assertEquals( XMI, cache.get( "third" ) );
+    assertEquals( 2, folder.getRoot().list().length );
+  }
+
+  @Test
+  public void testDamagedModelIsDropped() throws Exception {
+    ModelXmiCache cache = new ModelXmiCache( folder.getRoot(), 10 );
+    File file = new File( folder.getRoot(), "abc123.xmi.gz" );
+    Files.write( file.toPath(), XMI.getBytes( StandardCharsets.UTF_8 ) );
+    assertNull( cache.get( "abc123" ) );
+    assertFalse( file.exists() );
+  }
+
+  @Test
+  public void testSizeZeroTurnsCachingOff() throws Exception {
+    ModelXmiCache cache = new ModelXmiCache( folder.getRoot(), 0 );
+    assertFalse( cache.isEnabled() );
+    cache.put( "abc123", XMI );
+    assertNull( cache.get( "abc123" ) );
+    assertEquals( 0, folder.getRoot().list().length );
+  }
+}
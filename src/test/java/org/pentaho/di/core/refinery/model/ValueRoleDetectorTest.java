@@ -0,0 +1,104 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.di.core.refinery.model;
+
+import org.junit.Test;
+import org.pentaho.agilebi.modeler.models.annotations.CreateAttribute;
+import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotation;
+import org.pentaho.di.core.refinery.profile.ColumnProfiles;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.value.ValueMetaDate;
+import org.pentaho.di.core.row.value.ValueMetaString;
+
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ValueRoleDetectorTest {
+
+  private static final String[] STATES = { "CA", "Texas", "NY", "florida", "WA", "Ohio" };
+  private static final String[] COUNTRIES = { "USA", "Canada", "DE", "France", "JPN", "Brazil" };
+
+  @Test
+  public void testDetectsGeoAndTimeRoles() throws Exception {
+    RowMeta rowMeta = new RowMeta();
+    rowMeta.addValueMeta( new ValueMetaString( "zip" ) );
+    rowMeta.addValueMeta( new ValueMetaString( "state" ) );
+    rowMeta.addValueMeta( new ValueMetaString( "country" ) );
+    rowMeta.addValueMeta( new ValueMetaString( "year" ) );
+    rowMeta.addValueMeta( new ValueMetaDate( "orderDate" ) );
+    rowMeta.addValueMeta( new ValueMetaString( "product" ) );
+    ColumnProfiles profiles = new ColumnProfiles( rowMeta, 100 );
+    Calendar calendar = Calendar.getInstance();
+    for ( int i = 0; i < 500; i++ ) {
+      calendar.clear();
+      calendar.set( 2015, i % 12, 1 + i % 28 );
+      profiles.offer( new Object[] {
+        String.format( "%05d", 10000 + i * 7 ), STATES[ i % STATES.length ], COUNTRIES[ i % COUNTRIES.length ],
+        String.valueOf( 1990 + i % 30 ), calendar.getTime(), "product" + i } );
+    }
+
+    List<CreateAttribute> attributes = new ValueRoleDetector().detect( profiles, Collections.emptySet() );
+
+    assertEquals( 5, attributes.size() );
+    assertEquals( ModelAnnotation.GeoType.Postal_Code, find( attributes, "zip" ).getGeoType() );
+    assertEquals( ModelAnnotation.GeoType.State, find( attributes, "state" ).getGeoType() );
+    assertEquals( ModelAnnotation.GeoType.Country, find( attributes, "country" ).getGeoType() );
+    assertEquals( ModelAnnotation.TimeType.TimeYears, find( attributes, "year" ).getTimeType() );
+    assertEquals( "yyyy", find( attributes, "year" ).getTimeFormat() );
+    assertEquals( ModelAnnotation.TimeType.TimeDays, find( attributes, "orderDate" ).getTimeType() );
+    assertEquals( "zip", find( attributes, "zip" ).getDimension() );
+    assertNull( find( attributes, "product" ) );
+  }
+
+  @Test
+  public void testAnnotatedAndBarelySampledFieldsAreLeftAlone() throws Exception {
+    RowMeta rowMeta = new RowMeta();
+    rowMeta.addValueMeta( new ValueMetaString( "state" ) );
+    rowMeta.addValueMeta( new ValueMetaString( "zip" ) );
+    ColumnProfiles profiles = new ColumnProfiles( rowMeta, 100 );
+    for ( int i = 0; i < 500; i++ ) {
+      profiles.offer( new Object[] { STATES[ i % STATES.length ], i < 10 ? "12345" : null } );
+    }
+
+    List<CreateAttribute> attributes =
+      new ValueRoleDetector().detect( profiles, Collections.singleton( "STATE" ) );
+
+    assertTrue( attributes.isEmpty() );
+  }
+
+  @Test
+  public void testMostlyNonMatchingValuesAreNotDetected() throws Exception {
+    RowMeta rowMeta = new RowMeta();
+    rowMeta.addValueMeta( new ValueMetaString( "code" ) );
+    ColumnProfiles profiles = new ColumnProfiles( rowMeta, 100 );
+    for ( int i = 0; i < 500; i++ ) {
+      profiles.offer( new Object[] { i % 4 == 0 ? "code" + i : String.format( "%05d", i ) } );
+    }
+
+    assertTrue( new ValueRoleDetector().detect( profiles, Collections.emptySet() ).isEmpty() );
+  }
+
+  private CreateAttribute find( List<CreateAttribute> attributes, String field ) {
+    for ( CreateAttribute attribute : attributes ) {
+      if ( field.equals( attribute.getField() ) ) {
+        return attribute;
+      }
+    }
+    return null;
+  }
+}
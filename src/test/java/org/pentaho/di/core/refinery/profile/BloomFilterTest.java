@@ -0,0 +1,88 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.di.core.refinery.profile;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BloomFilterTest {
+
+  @Test
+  public void testNoFalseNegativesAndFewFalsePositivesWhileGrowing() throws Exception {
+    BloomFilter filter = new BloomFilter( 1000 );
+    for ( long key = 0; key < 100000; key++ ) {
+      filter.add( ValueHash.hash( key ) );
+    }
+    for ( long key = 0; key < 100000; key++ ) {
+      assertTrue( filter.mightContain( ValueHash.hash( key ) ) );
+    }
+    int falsePositives = 0;
+    for ( long key = 100000; key < 200000; key++ ) {
+      if ( filter.mightContain( ValueHash.hash( key ) ) ) {
+        falsePositives++;
+      }
+    }
+    assertTrue( "false positives: " + falsePositives, falsePositives < 200 );
+    assertTrue( filter.size() > 99000 );
+  }
+
+  @Test
+  public void testMergingTheSameValuesDoesNotFillTheFilter() throws Exception {
+    BloomFilter filter = new BloomFilter();
+    BloomFilter same = new BloomFilter();
+    BloomFilter otherShape = new BloomFilter( 100 );
+    for ( long key = 0; key < 50000; key++ ) {
+      filter.add( ValueHash.hash( key ) );
+      same.add( ValueHash.hash( key ) );
+    }
+    otherShape.add( ValueHash.hash( -1L ) );
+
+    filter.merge( same );
+    assertTrue( "size: " + filter.size(), filter.size() < 51000 );
+    filter.merge( otherShape );
+    for ( long key = -1; key < 50000; key++ ) {
+      assertTrue( filter.mightContain( ValueHash.hash( key ) ) );
+    }
+  }
+
+  @Test
+  public void testReadsBackWhatWasWritten() throws Exception {
+    BloomFilter filter = new BloomFilter( 100 );
+    for ( long key = 0; key < 1000; key++ ) {
+      filter.add( ValueHash.hash( "key" + key ) );
+    }
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    filter.writeTo( new DataOutputStream( bytes ) );
+    BloomFilter read =
+      BloomFilter.readFrom( new DataInputStream( new ByteArrayInputStream( bytes.toByteArray() ) ) );
+
+    assertEquals( filter.size(), read.size() );
+    for ( long key = 0; key < 2000; key++ ) {
+      long hash = ValueHash.hash( "key" + key );
+      assertEquals( filter.mightContain( hash ), read.mightContain( hash ) );
+    }
+  }
+
+  @Test( expected = IOException.class )
+  public void testRejectsOtherContent() throws Exception {
+    BloomFilter.readFrom( new DataInputStream( new ByteArrayInputStream( new byte[] { 1, 2, 3, 4 } ) ) );
+  }
+}
@@ -0,0 +1,223 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.di.core.refinery.profile;
+
+import org.junit.Test;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.ValueMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaDate;
+import org.pentaho.di.core.row.value.ValueMetaNumber;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
+import org.pentaho.di.core.row.value.ValueMetaString;
+
+import java.util.Date;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+
+public class ColumnProfilesTest {
+
+  @Test
+  public void testHyperLogLogEstimateIsWithinErrorBounds() throws Exception {
+    HyperLogLog hll = new HyperLogLog();
+    for ( long i = 0; i < 100000; i++ ) {
+      hll.offer( ValueHash.hash( i ) );
+      hll.offer( ValueHash.hash( i ) );
+    }
+    assertEquals( 100000, hll.cardinality(), 100000 * 0.05 );
+
+    HyperLogLog small = new HyperLogLog();
+    for ( int i = 0; i < 10; i++ ) {
+      small.offer( ValueHash.hash( "value" + i ) );
+    }
+    assertEquals( 10, small.cardinality() );
+  }
+
+  @Test
+  public void testHyperLogLogMerge() throws Exception {
+    HyperLogLog first = new HyperLogLog();
+    HyperLogLog second = new HyperLogLog();
+    for ( long i = 0; i < 20000; i++ ) {
+      first.offer( ValueHash.hash( i ) );
+      second.offer( ValueHash.hash( i + 10000 ) );
+    }
+    first.merge( second );
+    assertEquals( 30000, first.cardinality(), 30000 * 0.05 );
+  }
+
+  @Test
+  public void testIntegralNumbersHashAlike() throws Exception {
+    assertEquals( ValueHash.hash( 5L ), ValueHash.hash( 5 ) );
+    assertEquals( ValueHash.hash( 5L ), ValueHash.hash( 5.0d ) );
+    assertEquals( ValueHash.hash( 5L ), ValueHash.hash( new java.math.BigDecimal( "5.00" ) ) );
+    assertFalse( ValueHash.hash( 5L ) == ValueHash.hash( 5.5d ) );
+  }
+
+  @Test
+  public void testProfilesCountNullsRangesAndDistincts() throws Exception {
+    RowMeta rowMeta = new RowMeta();
+    rowMeta.addValueMeta( new ValueMetaString( "name" ) );
+    rowMeta.addValueMeta( new ValueMetaInteger( "amount" ) );
+    rowMeta.addValueMeta( new ValueMetaDate( "day" ) );
+    ColumnProfiles profiles = new ColumnProfiles( rowMeta );
+    for ( long i = 0; i < 100; i++ ) {
+      profiles.offer( new Object[] { i % 10 == 0 ? null : "name" + ( i % 7 ), i, new Date( 1000L * ( i % 3 ) ) } );
+    }
+
+    assertEquals( 100, profiles.getRowCount() );
+    ColumnProfile name = profiles.get( "NAME" );
+    assertEquals( 100, name.getCount() );
+    assertEquals( 10, name.getNullCount() );
+    assertEquals( 7, name.getDistinctCount() );
+    assertFalse( name.hasRange() );
+
+    ColumnProfile amount = profiles.get( "amount" );
+    assertEquals( 0, amount.getMin(), 0 );
+    assertEquals( 99, amount.getMax(), 0 );
+    assertEquals( 100, amount.getDistinctCount(), 2 );
+
+    ColumnProfile day = profiles.get( "day" );
+    assertEquals( new Date( 0 ), day.getMinDate() );
+    assertEquals( new Date( 2000 ), day.getMaxDate() );
+    assertEquals( 3, day.getDistinctCount() );
+    assertNull( profiles.get( "missing" ) );
+  }
+
+  @Test
+  public void testMergeCombinesCopies() throws Exception {
+    RowMeta rowMeta = new RowMeta();
+    rowMeta.addValueMeta( new ValueMetaInteger( "id" ) );
+    ColumnProfiles first = new ColumnProfiles( rowMeta );
+    ColumnProfiles second = new ColumnProfiles( rowMeta );
+    for ( long i = 0; i < 50; i++ ) {
+      first.offer( new Object[] { i } );
+      second.offer( new Object[] { i + 25 } );
+    }
+    ColumnProfiles merged = new ColumnProfiles();
+    merged.merge( first );
+    merged.merge( second );
+
+    assertEquals( 100, merged.getRowCount() );
+    assertEquals( 75, merged.get( "id" ).getDistinctCount(), 2 );
+    assertEquals( 74, merged.get( "id" ).getMax(), 0 );
+    assertTrue( merged.get( "id" ).hasRange() );
+  }
+
+  @Test
+  public void testReservoirKeepsAUniformSample() throws Exception {
+    int[] hits = new int[ 10 ];
+    for ( int run = 0; run < 1000; run++ ) {
+      ReservoirSample sample = new ReservoirSample( 10, run + 1 );
+      for ( int i = 0; i < 100; i++ ) {
+        sample.offer( i );
+      }
+      assertEquals( 10, sample.getValues().size() );
+      assertEquals( 100, sample.getSeen() );
+      for ( Object value : sample.getValues() ) {
+        hits[ (Integer) value / 10 ]++;
+      }
+    }
+    // every decile should hold about a tenth of the 10000 sampled values
+    for ( int hit : hits ) {
+      assertEquals( 1000, hit, 150 );
+    }
+  }
+
+  @Test
+  public void testReservoirMergeWeighsBySeenRows() throws Exception {
+    int fromLarge = 0;
+    for ( int run = 0; run < 200; run++ ) {
+      ReservoirSample large = new ReservoirSample( 20, run + 1 );
+      ReservoirSample small = new ReservoirSample( 20, run + 1000 );
+      for ( int i = 0; i < 900; i++ ) {
+        large.offer( "large" );
+      }
+      for ( int i = 0; i < 100; i++ ) {
+        small.offer( "small" );
+      }
+      large.merge( small );
+      assertEquals( 1000, large.getSeen() );
+      assertEquals( 20, large.getValues().size() );
+      for ( Object value : large.getValues() ) {
+        fromLarge += "large".equals( value ) ? 1 : 0;
+      }
+    }
+    assertEquals( 0.9, fromLarge / 4000d, 0.03 );
+
+    ReservoirSample few = new ReservoirSample( 20 );
+    few.offer( "a" );
+    ReservoirSample more = new ReservoirSample( 20 );
+    more.offer( "b" );
+    few.merge( more );
+    assertEquals( 2, few.getValues().size() );
+  }
+
+  @Test
+  public void testOnlyStringAndDateFieldsAreSampled() throws Exception {
+    RowMeta rowMeta = new RowMeta();
+    rowMeta.addValueMeta( new ValueMetaString( "name" ) );
+    rowMeta.addValueMeta( new ValueMetaInteger( "amount" ) );
+    rowMeta.addValueMeta( new ValueMetaDate( "day" ) );
+    ColumnProfiles profiles = new ColumnProfiles( rowMeta, 5 );
+    for ( long i = 0; i < 3000; i++ ) {
+      profiles.offer( new Object[] { i % 2 == 0 ? null : "name" + i, i, new Date( i ) } );
+    }
+
+    assertEquals( 5, profiles.get( "name" ).getSample().size() );
+    assertTrue( profiles.get( "amount" ).getSample().isEmpty() );
+    assertTrue( profiles.get( "day" ).getSample().get( 0 ) instanceof Date );
+    assertTrue( profiles.getNanosPerRow() >= 0 );
+
+    ColumnProfiles merged = new ColumnProfiles();
+    merged.merge( profiles );
+    assertEquals( 5, merged.get( "name" ).getSample().size() );
+    assertTrue( new ColumnProfiles( rowMeta ).get( "name" ).getSample().isEmpty() );
+  }
+
+  @Test
+  public void testRangeIsReadFromTheNativeValue() throws Exception {
+    ValueMetaInterface amount = spy( new ValueMetaInteger( "amount" ) );
+    ValueMetaInterface price = spy( new ValueMetaNumber( "price" ) );
+    ColumnProfile amountProfile = new ColumnProfile( "amount" );
+    ColumnProfile priceProfile = new ColumnProfile( "price" );
+    for ( long i = 1; i <= 10; i++ ) {
+      amountProfile.offer( amount, i );
+      priceProfile.offer( price, i / 4d );
+    }
+
+    assertEquals( 1, amountProfile.getMin(), 0 );
+    assertEquals( 10, amountProfile.getMax(), 0 );
+    assertEquals( 2.5, priceProfile.getMax(), 0 );
+    verify( amount, never() ).getNumber( any() );
+    verify( price, never() ).getNumber( any() );
+  }
+
+  @Test
+  public void testBinaryStringStorageIsConvertedForTheRange() throws Exception {
+    ValueMetaInteger amount = new ValueMetaInteger( "amount" );
+    amount.setStorageType( ValueMetaInterface.STORAGE_TYPE_BINARY_STRING );
+    amount.setStorageMetadata( new ValueMetaString( "amount" ) );
+    ColumnProfile profile = new ColumnProfile( "amount" );
+    profile.offer( amount, "7".getBytes() );
+    profile.offer( amount, "42".getBytes() );
+
+    assertEquals( 7, profile.getMin(), 0 );
+    assertEquals( 42, profile.getMax(), 0 );
+  }
+}
@@ -0,0 +1,51 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.di.core.refinery.profile;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LongHashSetTest {
+
+  @Test
+  public void testAddsLikeAHashSetWhileGrowing() throws Exception {
+    LongHashSet set = new LongHashSet( 4 );
+    Set<Long> expected = new HashSet<>();
+    Random random = new Random( 7 );
+    for ( int i = 0; i < 200000; i++ ) {
+      long value = random.nextInt( 150000 ) - 3;
+      assertEquals( expected.add( value ), set.add( value ) );
+    }
+    assertEquals( expected.size(), set.size() );
+    for ( long value = -3; value < 1000; value++ ) {
+      assertEquals( expected.contains( value ), set.contains( value ) );
+    }
+  }
+
+  @Test
+  public void testZeroIsAMember() throws Exception {
+    LongHashSet set = new LongHashSet();
+    assertFalse( set.contains( 0 ) );
+    assertTrue( set.add( 0 ) );
+    assertFalse( set.add( 0 ) );
+    assertTrue( set.contains( 0 ) );
+    assertEquals( 1, set.size() );
+  }
+}
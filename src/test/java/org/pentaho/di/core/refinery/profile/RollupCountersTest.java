@@ -0,0 +1,79 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.di.core.refinery.profile;
+
+import org.junit.Test;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
+import org.pentaho.di.core.row.value.ValueMetaString;
+
+import java.util.List;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RollupCountersTest {
+
+  private RowMeta rowMeta() {
+    RowMeta rowMeta = new RowMeta();
+    rowMeta.addValueMeta( new ValueMetaString( "country" ) );
+    rowMeta.addValueMeta( new ValueMetaString( "city" ) );
+    rowMeta.addValueMeta( new ValueMetaInteger( "year" ) );
+    return rowMeta;
+  }
+
+  private RollupCounters counters() {
+    return new RollupCounters( rowMeta(), asList(
+      asList( "country" ), asList( "country", "city" ), asList( "country", "year" ), asList( "country", "missing" ) ) );
+  }
+
+  private void load( RollupCounters counters, int from, int to ) throws Exception {
+    for ( int i = from; i < to; i++ ) {
+      counters.offer( new Object[] { "country" + ( i % 10 ), i % 20 == 0 ? null : "city" + ( i % 200 ),
+        (long) ( 2000 + i % 5 ) } );
+    }
+  }
+
+  @Test
+  public void testCountsDistinctCombinations() throws Exception {
+    RollupCounters counters = counters();
+    load( counters, 0, 50000 );
+
+    List<RollupCounters.Rollup> rollups = counters.getRollups();
+    assertEquals( 50000, counters.getRowCount() );
+    // combinations with fields that aren't in the row are left out
+    assertEquals( 3, rollups.size() );
+    assertEquals( asList( "country" ), rollups.get( 0 ).getFields() );
+    assertEquals( 10, rollups.get( 0 ).getDistinctCount(), 1 );
+    // 190 cities plus the null city, which only comes with country0
+    assertEquals( 191, rollups.get( 1 ).getDistinctCount(), 5 );
+    assertEquals( 10, rollups.get( 2 ).getDistinctCount(), 1 );
+  }
+
+  @Test
+  public void testMergesCountsOfOtherCopies() throws Exception {
+    RollupCounters merged = new RollupCounters();
+    RollupCounters first = counters();
+    RollupCounters second = counters();
+    load( first, 0, 1000 );
+    load( second, 1000, 3000 );
+    merged.merge( first );
+    merged.merge( second );
+
+    assertEquals( 3000, merged.getRowCount() );
+    assertEquals( 3, merged.getRollups().size() );
+    long cities = merged.getRollups().get( 1 ).getDistinctCount();
+    assertTrue( "cities: " + cities, cities >= 186 && cities <= 196 );
+  }
+}
@@ -0,0 +1,51 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.di.core.refinery.profile;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class TimeFormatConformanceTest {
+
+  @Test
+  public void testOnlyWholeStrictMatchesConform() throws Exception {
+    TimeFormatConformance check = new TimeFormatConformance( "day", "yyyy-MM-dd" );
+    assertTrue( check.offer( "2015-02-28" ) );
+    assertTrue( check.offer( "2015-02-28" ) );
+    assertFalse( check.offer( "2015-02-30" ) );
+    assertFalse( check.offer( "2015-02-28 10:00" ) );
+    assertFalse( check.offer( "28/02/2015" ) );
+    assertTrue( check.offer( null ) );
+
+    assertEquals( 5, check.getChecked() );
+    assertEquals( 3, check.getMismatched() );
+    assertEquals( 60.0, check.getMismatchPercent(), 0.001 );
+    assertEquals( "2015-02-30", check.getFirstMismatch() );
+  }
+
+  @Test
+  public void testNothingCheckedIsNoMismatch() throws Exception {
+    TimeFormatConformance check = new TimeFormatConformance( "year", "yyyy" );
+    assertEquals( 0.0, check.getMismatchPercent(), 0 );
+    assertNull( check.getFirstMismatch() );
+  }
+
+  @Test( expected = IllegalArgumentException.class )
+  public void testRejectsFormatsThatAreNotJavaPatterns() throws Exception {
+    new TimeFormatConformance( "quarter", "[yyyy].[q]" );
+  }
+}
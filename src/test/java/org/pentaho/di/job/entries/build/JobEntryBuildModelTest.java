@@ -19,9 +19,12 @@ import org.junit.Before;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.pentaho.agilebi.modeler.ModelerException;
+import org.pentaho.agilebi.modeler.models.annotations.CreateAttribute;
 import org.pentaho.agilebi.modeler.models.annotations.CreateMeasure;
+import org.pentaho.agilebi.modeler.models.annotations.LinkDimension;
 import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotation;
 import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotationGroup;
+import org.pentaho.agilebi.modeler.models.annotations.data.DataProvider;
 import org.pentaho.di.core.Const;
 import org.pentaho.di.core.KettleClientEnvironment;
 import org.pentaho.di.core.Props;
@@ -33,9 +36,13 @@ import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.logging.LogChannelInterface;
 import org.pentaho.di.core.plugins.PluginRegistry;
 import org.pentaho.di.core.plugins.StepPluginType;
+import org.pentaho.di.core.refinery.DataProviderUpdateQueue;
+import org.pentaho.di.core.refinery.ModelAnnotationRegistry;
+import org.pentaho.di.core.refinery.OutputStepSnapshot;
 import org.pentaho.di.core.refinery.model.AnalysisModeler;
 import org.pentaho.di.core.refinery.model.DswModeler;
 import org.pentaho.di.core.refinery.model.ModelServerFetcher;
+import org.pentaho.di.core.refinery.model.ModelXmiCache;
 import org.pentaho.di.core.refinery.publish.agilebi.BiServerConnection;
 import org.pentaho.di.core.row.RowMeta;
 import org.pentaho.di.core.row.value.ValueMetaBigNumber;
@@ -72,19 +79,28 @@ import org.w3c.dom.Node;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import static java.util.Arrays.asList;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.any;
+import static org.mockito.Mockito.anyLong;
 import static org.mockito.Mockito.anyString;
 import static org.mockito.Mockito.eq;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
@@ -197,6 +213,8 @@ public class JobEntryBuildModelTest {
     buildCopy.setDrawn();
     job.getJobMeta().addJobEntry( buildCopy );
     buildJobEntry.setParentJob( job );
+    // models are only cached where a test asks for it
+    doReturn( mock( ModelXmiCache.class ) ).when( buildJobEntry ).getModelXmiCache();
 
     JobHopMeta hop2 = new JobHopMeta( transCopy, buildCopy );
     job.getJobMeta().addJobHop( hop2 );
@@ -230,7 +248,8 @@ public class JobEntryBuildModelTest {
     tableOutputMeta.setFieldStream( new String[] { "QUANTITY", "CUSTOMER_ID", "CUSTOMER", "Product Name" } );
     tableOutputMeta.setFieldDatabase( new String[] { "QUANTITY", "CUSTOMER_ID", "CUSTOMER", "Product Name" } );
     metaDataCombi.meta = tableOutputMeta;
-    job.getExtensionDataMap().put( JobEntryBuildModel.KEY_OUTPUT_STEP_PREFIX + "Build Model", metaDataCombi );
+    job.getExtensionDataMap().put(
+        JobEntryBuildModel.KEY_OUTPUT_STEP_PREFIX + "Build Model", OutputStepSnapshot.of( metaDataCombi ) );
   }
 
   @After
@@ -459,6 +478,7 @@ public class JobEntryBuildModelTest {
     buildJobEntry.setBiServerConnection( biServerModel );
     buildJobEntry.setCreateOnPublish( true );
     buildJobEntry.setSelectedModel( "SomeModel" );
+    buildJobEntry.setApplyIndexes( true );
 
     StringBuffer retval = new StringBuffer();
     retval.append( "    " ).append( XMLHandler.openTag( "entry" ) ).append( Const.CR );
@@ -481,6 +501,7 @@ public class JobEntryBuildModelTest {
     assertEquals( buildJobEntry.getBiServerConnection().getPassword(), local.getBiServerConnection().getPassword() );
     assertEquals( buildJobEntry.isCreateOnPublish(), local.isCreateOnPublish() );
     assertEquals( buildJobEntry.getSelectedModel(), local.getSelectedModel() );
+    assertTrue( local.isApplyIndexes() );
   }
 
   @Test
@@ -564,6 +585,118 @@ public class JobEntryBuildModelTest {
         .setVarAndLogBasic( "JobEntryBuildModel.Mondrian.Datasource.Car Sales Analysis", "myh2" );
   }
 
+  @Test
+  public void testExecuteFailsWhileTheJobsDataProvidersAreStillBeingSaved() throws Exception {
+    buildJobEntry.setOutputStep( "Sales Fact" );
+    buildJobEntry.setModelName( "Car Sales Analysis" );
+    DataProviderUpdateQueue queue = mock( DataProviderUpdateQueue.class );
+    when( queue.awaitCompletion( any( Job.class ), anyLong() ) ).thenReturn( false );
+    doReturn( queue ).when( buildJobEntry ).getDataProviderUpdateQueue();
+    job.getExtensionDataMap().put( JobEntryBuildModel.KEY_COLUMN_PROFILES, new Object() );
+    Result result = new Result();
+
+    buildJobEntry.execute( result, 0 );
+
+    verify( queue ).awaitCompletion( job, DataProviderUpdateQueue.DEFAULT_WAIT );
+    assertFalse( result.getResult() );
+    assertEquals( 1, result.getNrErrors() );
+    verify( buildJobEntry, never() ).setVarAndLogBasic( anyString(), anyString() );
+    // cleaned up all the same
+    assertFalse( job.getExtensionDataMap().containsKey( JobEntryBuildModel.KEY_COLUMN_PROFILES ) );
+  }
+
+  @Test
+  public void testExecuteConsumesAnnotations() throws Exception {
+    buildJobEntry.setOutputStep( "Sales Fact" );
+    buildJobEntry.setModelName( "Car Sales Analysis" );
+    ModelAnnotationRegistry registry = ModelAnnotationRegistry.getOrCreate( job.getExtensionDataMap() );
+    registry.register( "trans/step",
+        (ModelAnnotationGroup) job.getExtensionDataMap().get( JobEntryBuildModel.KEY_MODEL_ANNOTATIONS ) );
+
+    buildJobEntry.execute( mock( Result.class ), 0 );
+
+    // a second Build Model of the same cycle still models with the annotations
+    assertTrue( registry.isConsumed() );
+    assertSame( registry, ModelAnnotationRegistry.get( job.getExtensionDataMap() ) );
+    assertNotEquals( 0, registry.size() );
+    // until the next annotating step starts a new cycle
+    assertEquals( 0, ModelAnnotationRegistry.getOrCreate( job.getExtensionDataMap() ).size() );
+    assertNull( job.getExtensionDataMap().get( JobEntryBuildModel.KEY_MODEL_ANNOTATIONS ) );
+  }
+
+  @Test
+  public void testUnchangedModelIsTakenFromCache() throws Exception {
+    final Map<String, String> cached = new HashMap<>();
+    ModelXmiCache cache = mock( ModelXmiCache.class );
+    when( cache.isEnabled() ).thenReturn( true );
+    when( cache.get( anyString() ) ).thenAnswer( invocation -> cached.get( invocation.getArgument( 0 ) ) );
+    doAnswer( invocation -> cached.put( invocation.getArgument( 0 ), invocation.getArgument( 1 ) ) )
+        .when( cache ).put( anyString(), anyString() );
+    DswModeler modeler = spy( new DswModeler( mockLog ) );
+    doReturn( cache ).when( buildJobEntry ).getModelXmiCache();
+    doReturn( modeler ).when( buildJobEntry ).getDswModeler();
+
+    String xmi = buildJobEntry.buildXmi( job.getJobMeta(), "Sales Fact", "Car Sales Analysis" );
+    List<List<String>> hierarchies = buildJobEntry.getModeledHierarchies();
+    assertEquals( xmi, buildJobEntry.buildXmi( job.getJobMeta(), "Sales Fact", "Car Sales Analysis" ) );
+    verify( modeler, times( 1 ) ).createModel( anyString(), any(), any(), any(), any(), any() );
+    assertEquals( 1, cached.size() );
+    // indexes are still advised for a cached model
+    assertNotSame( hierarchies, buildJobEntry.getModeledHierarchies() );
+    assertEquals( hierarchies, buildJobEntry.getModeledHierarchies() );
+
+    // a changed annotation is a new model
+    ModelAnnotationGroup annotations =
+        (ModelAnnotationGroup) job.getExtensionDataMap().get( JobEntryBuildModel.KEY_MODEL_ANNOTATIONS );
+    ( (CreateMeasure) annotations.get( 0 ).getAnnotation() ).setAggregateType( AggregationType.SUM );
+    assertNotEquals( xmi, buildJobEntry.buildXmi( job.getJobMeta(), "Sales Fact", "Car Sales Analysis" ) );
+    verify( modeler, times( 2 ) ).createModel( anyString(), any(), any(), any(), any(), any() );
+
+    // so is a changed table
+    Database db = new Database( null, databaseMeta );
+    db.connect();
+    db.execStatement( "ALTER TABLE sales_test ADD COLUMN Discount DOUBLE;" );
+    db.disconnect();
+    buildJobEntry.buildXmi( job.getJobMeta(), "Sales Fact", "Car Sales Analysis" );
+    verify( modeler, times( 3 ) ).createModel( anyString(), any(), any(), any(), any(), any() );
+    assertEquals( 3, cached.size() );
+  }
+
+  @Test
+  public void testFingerprintCoversLinkedSharedDimensions() throws Exception {
+    LinkDimension link = new LinkDimension();
+    link.setName( "Customer" );
+    link.setField( "CUSTOMER_ID" );
+    link.setSharedDimension( "Customers" );
+    ModelAnnotationGroup annotations = new ModelAnnotationGroup( new ModelAnnotation<LinkDimension>( link ) );
+    CreateAttribute key = new CreateAttribute();
+    key.setName( "Customer Id" );
+    key.setField( "id" );
+    ModelAnnotationGroup sharedDimension = new ModelAnnotationGroup( new ModelAnnotation<CreateAttribute>( key ) );
+    sharedDimension.setName( "Customers" );
+    sharedDimension.setSharedDimension( true );
+    doReturn( sharedDimension ).when( buildJobEntry ).readSharedDimension( "Customers" );
+
+    String fingerprint = buildJobEntry.fingerprint( "Car Sales Analysis", databaseMeta, "", "sales_test", annotations );
+    assertEquals( fingerprint,
+        buildJobEntry.fingerprint( "Car Sales Analysis", databaseMeta, "", "sales_test", annotations ) );
+
+    // a new data provider for the shared dimension is a new model
+    DataProvider dataProvider = new DataProvider();
+    dataProvider.setName( "customers" );
+    dataProvider.setTableName( "customers" );
+    dataProvider.setDatabaseMetaNameRef( "dw" );
+    sharedDimension.setDataProviders( new ArrayList<DataProvider>( asList( dataProvider ) ) );
+    String withProvider =
+        buildJobEntry.fingerprint( "Car Sales Analysis", databaseMeta, "", "sales_test", annotations );
+    assertNotEquals( fingerprint, withProvider );
+
+    // so is a changed annotation of the shared dimension
+    key.setName( "Customer Key" );
+    assertNotEquals( withProvider,
+        buildJobEntry.fingerprint( "Car Sales Analysis", databaseMeta, "", "sales_test", annotations ) );
+  }
+
   @Test
   public void testCanUseDataServiceForConnection() throws Exception {
     JobEntryTrans trans = new JobEntryTrans( "trans" ) {
@@ -644,7 +777,7 @@ public class JobEntryBuildModelTest {
       log = mockLog;
     }
 
-    @Override StepMetaDataCombi getStepMetaDataCombi() {
+    @Override OutputStepSnapshot getOutputStepSnapshot() {
       return null;
     }
 
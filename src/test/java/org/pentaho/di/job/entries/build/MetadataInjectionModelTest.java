@@ -16,6 +16,7 @@ package org.pentaho.di.job.entries.build;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
 
 import java.io.ByteArrayInputStream;
 import java.io.File;
@@ -39,6 +40,7 @@ import org.pentaho.di.core.plugins.PluginRegistry;
 import org.pentaho.di.core.plugins.StepPluginType;
 import org.pentaho.di.core.refinery.extension.DataRefineryTransFinishListener;
 import org.pentaho.di.core.refinery.model.DswModeler;
+import org.pentaho.di.core.refinery.model.ModelXmiCache;
 import org.pentaho.di.job.Job;
 import org.pentaho.di.job.JobHopMeta;
 import org.pentaho.di.job.JobMeta;
@@ -127,7 +129,11 @@ public class MetadataInjectionModelTest {
     job.getJobMeta().addJobHop( hop );
 
     // Add Build Model job entry
-    buildJobEntry = new JobEntryBuildModel( "Build Model", "Builds model on a metadata injected step" );
+    buildJobEntry = new JobEntryBuildModel( "Build Model", "Builds model on a metadata injected step" ) {
+      @Override ModelXmiCache getModelXmiCache() {
+        return mock( ModelXmiCache.class );
+      }
+    };
     buildJobEntry.setPluginId( JobEntryBuildModel.PLUGIN_ID );
     buildJobEntry.setModeler( new DswModeler() );
     buildJobEntry.setOutputStep( "Metadata Injected Table Output" );
@@ -0,0 +1,82 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.di.trans.steps.annotation;
+
+import org.junit.Test;
+import org.pentaho.agilebi.modeler.models.annotations.CreateMeasure;
+import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotation;
+import org.pentaho.di.core.exception.KettleException;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.value.ValueMetaString;
+import org.pentaho.metadata.model.concept.types.AggregationType;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class AnnotationRowReaderTest {
+
+  @Test
+  public void testReadsAnnotationsWithProperties() throws Exception {
+    String aggregateTypeId = null;
+    for ( String id : new CreateMeasure().getModelPropertyIds() ) {
+      if ( id.toLowerCase().startsWith( "aggregat" ) ) {
+        aggregateTypeId = id;
+      }
+    }
+    RowMeta rowMeta = new RowMeta();
+    rowMeta.addValueMeta( new ValueMetaString( "ANNOTATION_TYPE" ) );
+    rowMeta.addValueMeta( new ValueMetaString( "field" ) );
+    rowMeta.addValueMeta( new ValueMetaString( aggregateTypeId.toUpperCase() ) );
+    AnnotationRowReader reader = new AnnotationRowReader( rowMeta, "source" );
+
+    ModelAnnotation<?> measure = reader.read( new Object[] { "create_measure", "amount", "AVERAGE" } );
+    assertEquals( ModelAnnotation.Type.CREATE_MEASURE, measure.getType() );
+    assertEquals( "amount", measure.getAnnotation().getField() );
+    assertEquals( AggregationType.AVERAGE, ( (CreateMeasure) measure.getAnnotation() ).getAggregateType() );
+
+    // same row, same annotation
+    assertEquals( measure.getName(),
+      reader.read( new Object[] { "create_measure", "amount", "AVERAGE" } ).getName() );
+    assertNotEquals( measure.getName(),
+      reader.read( new Object[] { "create_measure", "amount", "SUM" } ).getName() );
+
+    assertNull( reader.read( new Object[] { null, "amount", "SUM" } ) );
+  }
+
+  @Test
+  public void testNameColumnIsUsedWhenPresent() throws Exception {
+    RowMeta rowMeta = new RowMeta();
+    rowMeta.addValueMeta( new ValueMetaString( "annotation_type" ) );
+    rowMeta.addValueMeta( new ValueMetaString( "field" ) );
+    rowMeta.addValueMeta( new ValueMetaString( "annotation_name" ) );
+    AnnotationRowReader reader = new AnnotationRowReader( rowMeta, "source" );
+    ModelAnnotation<?> attribute = reader.read( new Object[] { "CREATE_ATTRIBUTE", "country", "countryAttribute" } );
+    assertEquals( ModelAnnotation.Type.CREATE_ATTRIBUTE, attribute.getType() );
+    assertEquals( "countryAttribute", attribute.getName() );
+  }
+
+  @Test
+  public void testRequiredColumns() throws Exception {
+    RowMeta rowMeta = new RowMeta();
+    rowMeta.addValueMeta( new ValueMetaString( "annotation_type" ) );
+    try {
+      new AnnotationRowReader( rowMeta, "source" );
+      fail( "should have thrown exception" );
+    } catch ( KettleException e ) {
+      assertTrue( e.getMessage().contains( "field" ) );
+    }
+  }
+}
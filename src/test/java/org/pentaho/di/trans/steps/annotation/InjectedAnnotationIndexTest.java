@@ -0,0 +1,116 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.di.trans.steps.annotation;
+
+import org.junit.Test;
+import org.pentaho.agilebi.modeler.models.annotations.CreateAttribute;
+import org.pentaho.agilebi.modeler.models.annotations.CreateMeasure;
+import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotation;
+import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotationGroup;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class InjectedAnnotationIndexTest {
+
+  private static CreateAttribute attribute( String name, String field ) {
+    CreateAttribute attribute = new CreateAttribute();
+    attribute.setName( name );
+    attribute.setField( field );
+    return attribute;
+  }
+
+  private static CreateMeasure measure( String name, String field ) {
+    CreateMeasure measure = new CreateMeasure();
+    measure.setName( name );
+    measure.setField( field );
+    return measure;
+  }
+
+  @Test
+  public void testMergingTheSameAnnotationsAgainChangesNothing() throws Exception {
+    InjectedAnnotationIndex index = new InjectedAnnotationIndex();
+    ModelAnnotationGroup group = new ModelAnnotationGroup();
+    List<CreateAttribute> injected =
+        Arrays.asList( attribute( "Customer", "customer" ), attribute( "Region", "region" ) );
+
+    assertEquals( 2, index.merge( group, injected ) );
+    ModelAnnotation<?> customer = group.get( 0 );
+    assertEquals( 0, index.merge( group, injected ) );
+    assertEquals( 2, group.size() );
+    assertSame( customer, group.get( 0 ) );
+  }
+
+  @Test
+  public void testReinjectedAnnotationReplacesTheDefinition() throws Exception {
+    ModelAnnotationGroup group = new ModelAnnotationGroup();
+    CreateMeasure definition = measure( "Sales", "sales" );
+    ModelAnnotation<?> defined = new ModelAnnotation<CreateMeasure>( definition );
+    group.add( defined );
+    // a group published from the previous run
+    ModelAnnotationGroup published = new ModelAnnotationGroup( defined );
+
+    InjectedAnnotationIndex index = new InjectedAnnotationIndex();
+    CreateMeasure injected = measure( "Sales", "sales" );
+    assertEquals( 1, index.merge( group, Arrays.asList( injected, measure( "Sales", "other" ) ) ) );
+    assertEquals( 2, group.size() );
+    assertNotSame( defined, group.get( 0 ) );
+    assertEquals( defined.getName(), group.get( 0 ).getName() );
+    assertSame( injected, group.get( 0 ).getAnnotation() );
+    assertSame( definition, defined.getAnnotation() );
+    assertSame( defined, published.get( 0 ) );
+    // same name and field, but a different annotation type
+    assertEquals( 1, index.merge( group, Arrays.asList( attribute( "Sales", "sales" ) ) ) );
+    assertEquals( 3, group.size() );
+  }
+
+  @Test
+  public void testReindexesReplacedOrResizedGroup() throws Exception {
+    InjectedAnnotationIndex index = new InjectedAnnotationIndex();
+    List<CreateAttribute> injected = Arrays.asList( attribute( "Customer", "customer" ) );
+    ModelAnnotationGroup group = new ModelAnnotationGroup();
+    index.merge( group, injected );
+
+    group.clear();
+    assertEquals( 1, index.merge( group, injected ) );
+    assertEquals( 1, group.size() );
+
+    ModelAnnotationGroup replaced = new ModelAnnotationGroup();
+    assertEquals( 1, index.merge( replaced, injected ) );
+    assertEquals( 1, replaced.size() );
+  }
+
+  @Test
+  public void testRepeatedInjectionOfManyAnnotations() throws Exception {
+    // an injection template run over and over, as by a looping executor
+    final int annotations = 10000;
+    final int runs = 20;
+    ModelAnnotationGroup group = new ModelAnnotationGroup();
+    InjectedAnnotationIndex index = new InjectedAnnotationIndex();
+    for ( int run = 0; run < runs; run++ ) {
+      List<CreateAttribute> injected = new ArrayList<>( annotations );
+      for ( int i = 0; i < annotations; i++ ) {
+        injected.add( attribute( "attr" + i, "field" + i ) );
+      }
+      // each run brings new instances, which redefine the annotations already in the group
+      assertEquals( annotations, index.merge( group, injected ) );
+      assertEquals( "run " + run, annotations, group.size() );
+      assertSame( injected.get( annotations - 1 ), group.get( annotations - 1 ).getAnnotation() );
+    }
+  }
+}
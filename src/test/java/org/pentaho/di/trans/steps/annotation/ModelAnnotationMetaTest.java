@@ -361,6 +361,21 @@ public class ModelAnnotationMetaTest {
     assertEquals( createDimKey.getDimension(), loadedCreateDimKey.getDimension() );
   }
 
+  @Test
+  public void testInfoStreamKeepsItsStepWhenRebuilt() throws Exception {
+    StepMeta definitions = new StepMeta( "definitions", new ModelAnnotationMeta() );
+    ModelAnnotationMeta modelAnnotationMeta = new ModelAnnotationMeta();
+    modelAnnotationMeta.setAnnotationSourceStep( "definitions" );
+    modelAnnotationMeta.searchInfoAndTargetSteps( Collections.singletonList( definitions ) );
+    assertEquals( "definitions", modelAnnotationMeta.getStepIOMeta().getInfoStreams().get( 0 ).getStepname() );
+
+    modelAnnotationMeta.resetStepIoMeta();
+    assertEquals( "definitions", modelAnnotationMeta.getStepIOMeta().getInfoStreams().get( 0 ).getStepname() );
+
+    modelAnnotationMeta.setAnnotationSourceStep( null );
+    assertTrue( modelAnnotationMeta.getStepIOMeta().getInfoStreams().isEmpty() );
+  }
+
   @Test
   public void testSaveAnnotationsToRep() throws Exception {
     CreateAttribute createAttribute = new CreateAttribute();
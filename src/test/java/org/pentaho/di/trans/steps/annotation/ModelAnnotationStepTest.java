@@ -21,9 +21,18 @@ import org.pentaho.agilebi.modeler.models.annotations.LinkDimension;
 import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotation;
 import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotationGroup;
 import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotationManager;
+import org.pentaho.di.core.BlockingRowSet;
+import org.pentaho.di.core.RowSet;
 import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.logging.LogLevel;
+import org.pentaho.di.core.refinery.MemberHashIndex;
+import org.pentaho.di.core.refinery.SharedDimensionKeyFilter;
+import org.pentaho.di.core.refinery.profile.BloomFilter;
+import org.pentaho.di.core.refinery.profile.ColumnProfiles;
+import org.pentaho.di.core.refinery.profile.RollupCounters;
+import org.pentaho.di.core.refinery.profile.ValueHash;
 import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
 import org.pentaho.di.core.row.value.ValueMetaNumber;
 import org.pentaho.di.core.row.value.ValueMetaString;
 import org.pentaho.di.job.Job;
@@ -31,14 +40,21 @@ import org.pentaho.di.job.entries.build.JobEntryBuildModel;
 import org.pentaho.di.trans.Trans;
 import org.pentaho.di.trans.TransMeta;
 import org.pentaho.di.trans.step.StepDataInterface;
+import org.pentaho.di.trans.step.StepInterface;
 import org.pentaho.di.trans.step.StepMeta;
 import org.pentaho.di.trans.step.StepMetaDataCombi;
+import org.pentaho.di.trans.step.StepMetaInterface;
+import org.pentaho.di.trans.steps.tableoutput.TableOutputMeta;
 import org.pentaho.metadata.model.concept.types.AggregationType;
 import org.pentaho.metastore.api.IMetaStore;
 
+import java.io.File;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
@@ -76,10 +92,10 @@ public class ModelAnnotationStepTest extends InitializeLogging {
     modelAnnotation.processRow( modelAnnotationMeta, stepDataInterface );
     actualAnnotations =
         (ModelAnnotationGroup) modelAnnotation.getExtensionDataMap().get( JobEntryBuildModel.KEY_MODEL_ANNOTATIONS );
-    assertEquals( 3, actualAnnotations.size() );
+    // re-registering annotationMock1 doesn't duplicate it
+    assertEquals( 2, actualAnnotations.size() );
     assertSame( annotationMock1, actualAnnotations.get( 0 ) );
-    assertSame( annotationMock1, actualAnnotations.get( 1 ) );
-    assertSame( annotationMock2, actualAnnotations.get( 2 ) );
+    assertSame( annotationMock2, actualAnnotations.get( 1 ) );
   }
 
   @Test
@@ -114,10 +130,10 @@ public class ModelAnnotationStepTest extends InitializeLogging {
     modelAnnotation.processRow( modelAnnotationMeta, stepDataInterface );
     actualAnnotations =
         (ModelAnnotationGroup) modelAnnotation.getExtensionDataMap().get( JobEntryBuildModel.KEY_MODEL_ANNOTATIONS );
-    assertEquals( 3, actualAnnotations.size() );
+    // re-registering annotationMock1 doesn't duplicate it
+    assertEquals( 2, actualAnnotations.size() );
     assertSame( annotationMock1, actualAnnotations.get( 0 ) );
-    assertSame( annotationMock1, actualAnnotations.get( 1 ) );
-    assertSame( annotationMock2, actualAnnotations.get( 2 ) );
+    assertSame( annotationMock2, actualAnnotations.get( 1 ) );
   }
 
   @Test
@@ -369,7 +385,7 @@ public class ModelAnnotationStepTest extends InitializeLogging {
   public void testAnnotationsOnlyWrittenOnValidRow() throws Exception {
     StepDataInterface stepDataInterface = new ModelAnnotationData();
     ModelAnnotationStep modelAnnotation = createOneShotStep( stepDataInterface, null, null, true, null );
-    modelAnnotation.processRow( null, null );
+    modelAnnotation.processRow( new ModelAnnotationMeta(), stepDataInterface );
     assertNull( modelAnnotation.getTrans().getExtensionDataMap().get( JobEntryBuildModel.KEY_MODEL_ANNOTATIONS ) );
   }
 
@@ -396,6 +412,366 @@ public class ModelAnnotationStepTest extends InitializeLogging {
     verify( mockLog ).logError( "Please select a valid data provider step." );
   }
 
+  @Test
+  public void testMetadataOnlyStepIsTakenOffTheRowPath() throws Exception {
+    ModelAnnotationData stepDataInterface = new ModelAnnotationData();
+    ModelAnnotationStep modelAnnotation = createOneShotStep( stepDataInterface, null, null, true, null );
+    List<RowSet> nextInputs = connect( modelAnnotation, new TableOutputMeta() );
+    RowSet input = modelAnnotation.getInputRowSets().get( 0 );
+    RowSet output = modelAnnotation.getOutputRowSets().get( 0 );
+    ModelAnnotationMeta modelAnnotationMeta = new ModelAnnotationMeta();
+    modelAnnotationMeta.setDefault();
+    modelAnnotationMeta.setMetadataOnly( true );
+    modelAnnotationMeta.setProfileFields( true );
+
+    assertTrue( "init fail", modelAnnotation.init( modelAnnotationMeta, stepDataInterface ) );
+    assertNotNull( modelAnnotation.getExtensionDataMap().get( JobEntryBuildModel.KEY_MODEL_ANNOTATIONS ) );
+    assertFalse( stepDataInterface.profileFields );
+    modelAnnotation.initBeforeStart();
+
+    // the step behind reads straight from the step in front, under the same row set names
+    assertSame( input, nextInputs.get( 0 ) );
+    assertEquals( "input", nextInputs.get( 0 ).getOriginStepName() );
+    assertTrue( output.isDone() );
+    assertTrue( modelAnnotation.getInputRowSets().isEmpty() );
+    assertTrue( modelAnnotation.getOutputRowSets().isEmpty() );
+    assertFalse( modelAnnotation.processRow( modelAnnotationMeta, stepDataInterface ) );
+  }
+
+  @Test
+  public void testMetadataOnlyStepStaysWhenReadAsInfoStream() throws Exception {
+    ModelAnnotationData stepDataInterface = new ModelAnnotationData();
+    ModelAnnotationStep modelAnnotation = createOneShotStep( stepDataInterface, null, null, true, null );
+    ModelAnnotationMeta lookup = new ModelAnnotationMeta();
+    lookup.setAnnotationSourceStep( "someName" );
+    lookup.searchInfoAndTargetSteps( Collections.singletonList( modelAnnotation.getStepMeta() ) );
+    List<RowSet> nextInputs = connect( modelAnnotation, lookup );
+    RowSet output = modelAnnotation.getOutputRowSets().get( 0 );
+    ModelAnnotationMeta modelAnnotationMeta = new ModelAnnotationMeta();
+    modelAnnotationMeta.setDefault();
+    modelAnnotationMeta.setMetadataOnly( true );
+
+    assertTrue( "init fail", modelAnnotation.init( modelAnnotationMeta, stepDataInterface ) );
+    modelAnnotation.initBeforeStart();
+
+    assertSame( output, nextInputs.get( 0 ) );
+    assertEquals( 1, modelAnnotation.getInputRowSets().size() );
+    assertEquals( 1, modelAnnotation.getOutputRowSets().size() );
+  }
+
+  @Test
+  public void testMetadataOnlyPassesRowsThroughInBatches() throws Exception {
+    ModelAnnotationData stepDataInterface = new ModelAnnotationData();
+    ModelAnnotationStep modelAnnotation = spy( createOneShotStep( stepDataInterface, null, null ) );
+    doNothing().when( modelAnnotation ).putRow( any(), any() );
+    ModelAnnotationMeta modelAnnotationMeta = new ModelAnnotationMeta();
+    modelAnnotationMeta.setDefault();
+    modelAnnotationMeta.setMetadataOnly( true );
+
+    assertTrue( "init fail", modelAnnotation.init( modelAnnotationMeta, stepDataInterface ) );
+    assertTrue( modelAnnotation.processRow( modelAnnotationMeta, stepDataInterface ) );
+    verify( modelAnnotation, times( ModelAnnotationStep.PASS_THROUGH_BATCH_SIZE ) ).getRow();
+    verify( modelAnnotation, times( ModelAnnotationStep.PASS_THROUGH_BATCH_SIZE ) ).putRow( any(), any() );
+  }
+
+  /**
+   * Puts the step between an input step and a step using the given meta, the way the transformation wires them.
+   *
+   * @return the input row sets of the step behind
+   */
+  private List<RowSet> connect( ModelAnnotationStep modelAnnotation, StepMetaInterface nextMeta ) {
+    RowSet input = new BlockingRowSet( 10 );
+    input.setThreadNameFromToCopy( "input", 0, "someName", 0 );
+    RowSet output = new BlockingRowSet( 10 );
+    output.setThreadNameFromToCopy( "someName", 0, "next", 0 );
+    modelAnnotation.setInputRowSets( new ArrayList<>( Collections.singletonList( input ) ) );
+    modelAnnotation.setOutputRowSets( new ArrayList<>( Collections.singletonList( output ) ) );
+    List<RowSet> nextInputs = new ArrayList<>( Collections.singletonList( output ) );
+    StepInterface next = mock( StepInterface.class );
+    when( next.getInputRowSets() ).thenReturn( nextInputs );
+    when( modelAnnotation.getTrans().findStepInterface( "next", 0 ) ).thenReturn( next );
+    TransMeta transMeta = modelAnnotation.getTransMeta();
+    when( transMeta.getTransformationType() ).thenReturn( TransMeta.TransformationType.Normal );
+    when( transMeta.findStep( "next" ) ).thenReturn( new StepMeta( "next", nextMeta ) );
+    return nextInputs;
+  }
+
+  @Test
+  public void testProfilesArePublishedAtEndOfStream() throws Exception {
+    ModelAnnotationData stepDataInterface = new ModelAnnotationData();
+    ModelAnnotationStep modelAnnotation = spy( createOneShotStep( stepDataInterface, null, null ) );
+    ModelAnnotationMeta modelAnnotationMeta = new ModelAnnotationMeta();
+    modelAnnotationMeta.setDefault();
+    modelAnnotationMeta.setProfileFields( true );
+    RowMeta rowMeta = new RowMeta();
+    rowMeta.addValueMeta( new ValueMetaString( "country" ) );
+    rowMeta.addValueMeta( new ValueMetaNumber( "amount" ) );
+    doReturn( rowMeta ).when( modelAnnotation ).getInputRowMeta();
+    doReturn( new Object[] { "USA", 1.0 }, new Object[] { "Canada", 5.0 }, new Object[] { null, 3.0 }, null )
+      .when( modelAnnotation ).getRow();
+    doNothing().when( modelAnnotation ).putRow( any(), any() );
+    StepMeta select = mock( StepMeta.class );
+    StepMeta tableOutput = mock( StepMeta.class );
+    when( tableOutput.getName() ).thenReturn( "Table output" );
+    when( tableOutput.getStepMetaInterface() ).thenReturn( new TableOutputMeta() );
+    StepMeta copyOutput = mock( StepMeta.class );
+    when( copyOutput.getName() ).thenReturn( "Copy output" );
+    when( copyOutput.getStepMetaInterface() ).thenReturn( new TableOutputMeta() );
+    TransMeta transMeta = modelAnnotation.getTransMeta();
+    when( transMeta.findNextSteps( modelAnnotation.getStepMeta() ) ).thenReturn( Arrays.asList( select, copyOutput ) );
+    when( transMeta.findNextSteps( select ) ).thenReturn( Collections.singletonList( tableOutput ) );
+
+    assertTrue( "init fail", modelAnnotation.init( modelAnnotationMeta, stepDataInterface ) );
+    while ( modelAnnotation.processRow( modelAnnotationMeta, stepDataInterface ) ) {
+      assertNull( modelAnnotation.getExtensionDataMap().get( JobEntryBuildModel.KEY_COLUMN_PROFILES ) );
+    }
+
+    Map<?, ?> byOutputStep =
+      (Map<?, ?>) modelAnnotation.getExtensionDataMap().get( JobEntryBuildModel.KEY_COLUMN_PROFILES );
+    assertEquals( 2, byOutputStep.size() );
+    ColumnProfiles profiles = (ColumnProfiles) byOutputStep.get( "Table output" );
+    assertEquals( 3, profiles.getRowCount() );
+    assertEquals( 2, profiles.get( "country" ).getDistinctCount() );
+    assertEquals( 1, profiles.get( "country" ).getNullCount() );
+    assertEquals( 5.0, profiles.get( "amount" ).getMax(), 0 );
+    assertNotSame( profiles, byOutputStep.get( "Copy output" ) );
+    assertEquals( 3, ( (ColumnProfiles) byOutputStep.get( "Copy output" ) ).getRowCount() );
+    assertNull( stepDataInterface.profiles );
+  }
+
+  @Test
+  public void testRollupsArePublishedAtEndOfStream() throws Exception {
+    CreateAttribute country = new CreateAttribute();
+    country.setName( "Country" );
+    country.setDimension( "Geography" );
+    country.setField( "country" );
+    ModelAnnotationData stepDataInterface = new ModelAnnotationData();
+    ModelAnnotationStep modelAnnotation = spy( createOneShotStep( stepDataInterface, null, null ) );
+    ModelAnnotationMeta modelAnnotationMeta = new ModelAnnotationMeta();
+    modelAnnotationMeta.setDefault();
+    modelAnnotationMeta.setModelAnnotations( new ModelAnnotationGroup( new ModelAnnotation<>( country ) ) );
+    modelAnnotationMeta.setRecommendAggregates( true );
+    RowMeta rowMeta = new RowMeta();
+    rowMeta.addValueMeta( new ValueMetaString( "country" ) );
+    rowMeta.addValueMeta( new ValueMetaNumber( "amount" ) );
+    doReturn( rowMeta ).when( modelAnnotation ).getInputRowMeta();
+    doReturn( new Object[] { "USA", 1.0 }, new Object[] { "Canada", 5.0 }, new Object[] { "USA", 3.0 }, null )
+      .when( modelAnnotation ).getRow();
+    doNothing().when( modelAnnotation ).putRow( any(), any() );
+
+    assertTrue( "init fail", modelAnnotation.init( modelAnnotationMeta, stepDataInterface ) );
+    while ( modelAnnotation.processRow( modelAnnotationMeta, stepDataInterface ) ) {
+      assertNull( modelAnnotation.getExtensionDataMap().get( JobEntryBuildModel.KEY_ROLLUPS ) );
+    }
+
+    // no output step downstream, published for the step itself
+    RollupCounters rollups = (RollupCounters)
+      ( (Map<?, ?>) modelAnnotation.getExtensionDataMap().get( JobEntryBuildModel.KEY_ROLLUPS ) ).get( "someName" );
+    assertEquals( 3, rollups.getRowCount() );
+    assertEquals( 1, rollups.getRollups().size() );
+    assertEquals( 2, rollups.getRollups().get( 0 ).getDistinctCount() );
+    assertNull( stepDataInterface.rollups );
+  }
+
+  @Test
+  public void testLinkedValuesMissingFromTheSharedDimensionAreCounted() throws Exception {
+    assertEquals( 1, runLinkCheck( false, new ArrayList<Object[]>() ) );
+  }
+
+  @Test
+  public void testOrphanRowsGoToTheErrorStreamWithErrorHandling() throws Exception {
+    List<Object[]> written = new ArrayList<>();
+    assertEquals( 1, runLinkCheck( true, written ) );
+    assertEquals( 2, written.size() );
+  }
+
+  @Test
+  public void testTimeLevelValuesAreCheckedAgainstTheirFormat() throws Exception {
+    ModelAnnotationData data = runTimeFormatCheck( 0 );
+    assertEquals( 3, data.timeFormatChecks.get( 0 ).getChecked() );
+    assertEquals( 1, data.timeFormatChecks.get( 0 ).getMismatched() );
+    assertEquals( "2015/03", data.timeFormatChecks.get( 0 ).getFirstMismatch() );
+  }
+
+  @Test( expected = KettleException.class )
+  public void testTooManyTimeFormatMismatchesFailTheStep() throws Exception {
+    runTimeFormatCheck( 10 );
+  }
+
+  private ModelAnnotationData runTimeFormatCheck( int mismatchLimit ) throws Exception {
+    CreateAttribute month = new CreateAttribute();
+    month.setName( "Month" );
+    month.setField( "month" );
+    month.setTimeType( ModelAnnotation.TimeType.TimeMonths );
+    month.setTimeFormat( "yyyy-MM" );
+    ModelAnnotationData stepDataInterface = new ModelAnnotationData();
+    ModelAnnotationStep modelAnnotation = spy( createOneShotStep( stepDataInterface, null, null ) );
+    ModelAnnotationMeta modelAnnotationMeta = new ModelAnnotationMeta();
+    modelAnnotationMeta.setDefault();
+    modelAnnotationMeta.setModelAnnotations( new ModelAnnotationGroup( new ModelAnnotation<>( month ) ) );
+    modelAnnotationMeta.setCheckTimeFormats( true );
+    modelAnnotationMeta.setTimeFormatMismatchLimit( mismatchLimit );
+    RowMeta rowMeta = new RowMeta();
+    rowMeta.addValueMeta( new ValueMetaString( "month" ) );
+    doReturn( rowMeta ).when( modelAnnotation ).getInputRowMeta();
+    doReturn( new Object[] { "2015-01" }, new Object[] { "2015-02" }, new Object[] { "2015/03" },
+      new Object[] { null }, null ).when( modelAnnotation ).getRow();
+    doNothing().when( modelAnnotation ).putRow( any(), any() );
+
+    assertTrue( "init fail", modelAnnotation.init( modelAnnotationMeta, stepDataInterface ) );
+    while ( modelAnnotation.processRow( modelAnnotationMeta, stepDataInterface ) ) {
+      // drain
+    }
+    return stepDataInterface;
+  }
+
+  @Test
+  public void testLinkChecksSetUpInInitSeeEveryRow() throws Exception {
+    File folder = Files.createTempDirectory( "key-filters" ).toFile();
+    System.setProperty( MemberHashIndex.KETTLE_DATA_REFINERY_MEMBER_INDEX_DIR, folder.getPath() );
+    try {
+      // the dimension key is a string, the linked field an integer
+      BloomFilter keys = new BloomFilter();
+      keys.add( ValueHash.hashKey( new ValueMetaString( "id" ), "1" ) );
+      SharedDimensionKeyFilter.save( "Product", keys );
+      LinkDimension link = new LinkDimension();
+      link.setName( "Product" );
+      link.setField( "product_id" );
+      link.setSharedDimension( "Product" );
+      ModelAnnotationData stepDataInterface = new ModelAnnotationData();
+      ModelAnnotationStep modelAnnotation = spy( createOneShotStep( stepDataInterface, null, null ) );
+      ModelAnnotationMeta modelAnnotationMeta = new ModelAnnotationMeta();
+      modelAnnotationMeta.setDefault();
+      modelAnnotationMeta.setModelAnnotations( new ModelAnnotationGroup( new ModelAnnotation<>( link ) ) );
+      modelAnnotationMeta.setCheckLinkedKeys( true );
+      RowMeta rowMeta = new RowMeta();
+      rowMeta.addValueMeta( new ValueMetaInteger( "product_id" ) );
+      doReturn( rowMeta ).when( modelAnnotation ).getInputRowMeta();
+      doReturn( new Object[] { 1L }, new Object[] { 7L }, new Object[] { 9L }, new Object[] { null }, null )
+        .when( modelAnnotation ).getRow();
+      final List<Object[]> written = new ArrayList<>();
+      doAnswer( invocation -> written.add( (Object[]) invocation.getArguments()[ 1 ] ) )
+        .when( modelAnnotation ).putRow( any(), any() );
+
+      assertTrue( "init fail", modelAnnotation.init( modelAnnotationMeta, stepDataInterface ) );
+      while ( modelAnnotation.processRow( modelAnnotationMeta, stepDataInterface ) ) {
+        // drain
+      }
+
+      // every row goes through the check on its way out, there is no path around it
+      assertEquals( 4, written.size() );
+      assertEquals( 2, stepDataInterface.linkChecks.get( 0 ).orphans );
+    } finally {
+      SharedDimensionKeyFilter.fileFor( "Product" ).delete();
+      System.clearProperty( MemberHashIndex.KETTLE_DATA_REFINERY_MEMBER_INDEX_DIR );
+      folder.delete();
+    }
+  }
+
+  private long runLinkCheck( boolean errorHandling, final List<Object[]> written ) throws Exception {
+    ModelAnnotationData stepDataInterface = new ModelAnnotationData();
+    ModelAnnotationStep modelAnnotation = spy( createOneShotStep( stepDataInterface, null, null ) );
+    ModelAnnotationMeta modelAnnotationMeta = new ModelAnnotationMeta();
+    modelAnnotationMeta.setDefault();
+    RowMeta rowMeta = new RowMeta();
+    rowMeta.addValueMeta( new ValueMetaString( "product" ) );
+    rowMeta.addValueMeta( new ValueMetaInteger( "product_id" ) );
+    doReturn( rowMeta ).when( modelAnnotation ).getInputRowMeta();
+    doReturn( new Object[] { "a", 1L }, new Object[] { "b", 7L }, new Object[] { "c", null }, null )
+      .when( modelAnnotation ).getRow();
+    doAnswer( invocation -> written.add( (Object[]) invocation.getArguments()[ 1 ] ) )
+      .when( modelAnnotation ).putRow( any(), any() );
+    doNothing().when( modelAnnotation ).putError( any(), any(), anyLong(), any(), any(), any() );
+    when( modelAnnotation.getStepMeta().isDoingErrorHandling() ).thenReturn( errorHandling );
+
+    assertTrue( "init fail", modelAnnotation.init( modelAnnotationMeta, stepDataInterface ) );
+    BloomFilter keys = new BloomFilter();
+    keys.add( ValueHash.hashKey( new ValueMetaInteger( "id" ), 1L ) );
+    ModelAnnotationData.LinkCheck check = new ModelAnnotationData.LinkCheck( "product_id", "Product", keys );
+    stepDataInterface.linkChecks = Collections.singletonList( check );
+    while ( modelAnnotation.processRow( modelAnnotationMeta, stepDataInterface ) ) {
+      // drain
+    }
+    verify( modelAnnotation, times( errorHandling ? 1 : 0 ) )
+      .putError( any(), any(), anyLong(), any(), eq( "product_id" ), any() );
+    return check.orphans;
+  }
+
+  @Test
+  public void testReadsAnnotationsFromSourceStep() throws Exception {
+    ModelAnnotationData stepDataInterface = new ModelAnnotationData();
+    ModelAnnotationStep modelAnnotation = spy( createOneShotStep( stepDataInterface, null, null, true, null ) );
+    ModelAnnotationMeta modelAnnotationMeta = new ModelAnnotationMeta();
+    modelAnnotationMeta.setDefault();
+    modelAnnotationMeta.setAnnotationSourceStep( "definitions" );
+    assertEquals( 1, modelAnnotationMeta.getStepIOMeta().getInfoStreams().size() );
+
+    RowMeta sourceMeta = new RowMeta();
+    sourceMeta.addValueMeta( new ValueMetaString( "annotation_type" ) );
+    sourceMeta.addValueMeta( new ValueMetaString( "field" ) );
+    RowSet rowSet = mock( RowSet.class );
+    when( rowSet.getRowMeta() ).thenReturn( sourceMeta );
+    doReturn( rowSet ).when( modelAnnotation ).findInputRowSet( "definitions" );
+    doReturn( new Object[] { "CREATE_ATTRIBUTE", "country" }, new Object[] { "CREATE_ATTRIBUTE", "city" }, null )
+      .when( modelAnnotation ).getRowFrom( rowSet );
+
+    assertTrue( "init fail", modelAnnotation.init( modelAnnotationMeta, stepDataInterface ) );
+    assertFalse( modelAnnotation.processRow( modelAnnotationMeta, stepDataInterface ) );
+    assertNull( stepDataInterface.annotationSourceStep );
+
+    ModelAnnotationGroup actualAnnotations =
+      (ModelAnnotationGroup) modelAnnotation.getExtensionDataMap().get( JobEntryBuildModel.KEY_MODEL_ANNOTATIONS );
+    assertEquals( 2, actualAnnotations.size() );
+    assertEquals( "country", actualAnnotations.get( 0 ).getAnnotation().getField() );
+    assertEquals( "city", actualAnnotations.get( 1 ).getAnnotation().getField() );
+  }
+
+  @Test
+  public void testChecksAreBuiltWithTheSourceAnnotations() throws Exception {
+    CreateAttribute month = new CreateAttribute();
+    month.setName( "Month" );
+    month.setField( "month" );
+    month.setTimeType( ModelAnnotation.TimeType.TimeMonths );
+    month.setTimeFormat( "yyyy-MM" );
+    ModelAnnotationGroup ownAnnotations = new ModelAnnotationGroup( new ModelAnnotation<>( month ) );
+    ModelAnnotationData stepDataInterface = new ModelAnnotationData();
+    ModelAnnotationStep modelAnnotation = spy( createOneShotStep( stepDataInterface, null, null ) );
+    ModelAnnotationMeta modelAnnotationMeta = new ModelAnnotationMeta();
+    modelAnnotationMeta.setDefault();
+    modelAnnotationMeta.setModelAnnotations( ownAnnotations );
+    modelAnnotationMeta.setCheckTimeFormats( true );
+    modelAnnotationMeta.setAnnotationSourceStep( "definitions" );
+
+    RowSet rowSet = mock( RowSet.class );
+    RowMeta sourceMeta = new RowMeta();
+    sourceMeta.addValueMeta( new ValueMetaString( "annotation_type" ) );
+    sourceMeta.addValueMeta( new ValueMetaString( "field" ) );
+    when( rowSet.getRowMeta() ).thenReturn( sourceMeta );
+    doReturn( rowSet ).when( modelAnnotation ).findInputRowSet( "definitions" );
+    doReturn( new Object[] { "CREATE_ATTRIBUTE", "country" }, null ).when( modelAnnotation ).getRowFrom( rowSet );
+    RowMeta rowMeta = new RowMeta();
+    rowMeta.addValueMeta( new ValueMetaString( "month" ) );
+    rowMeta.addValueMeta( new ValueMetaString( "country" ) );
+    doReturn( rowMeta ).when( modelAnnotation ).getInputRowMeta();
+    doReturn( new Object[] { "2015-01", "USA" }, new Object[] { "2015/02", "USA" }, null )
+      .when( modelAnnotation ).getRow();
+    doNothing().when( modelAnnotation ).putRow( any(), any() );
+
+    assertTrue( "init fail", modelAnnotation.init( modelAnnotationMeta, stepDataInterface ) );
+    // built once the source has been read
+    assertNull( stepDataInterface.timeFormatChecks );
+    while ( modelAnnotation.processRow( modelAnnotationMeta, stepDataInterface ) ) {
+      // drain
+    }
+
+    assertEquals( 2, stepDataInterface.annotations.size() );
+    assertEquals( "country", stepDataInterface.annotations.get( 1 ).getAnnotation().getField() );
+    assertEquals( 2, stepDataInterface.timeFormatChecks.get( 0 ).getChecked() );
+    assertEquals( 1, stepDataInterface.timeFormatChecks.get( 0 ).getMismatched() );
+    // the meta's own group is left alone
+    assertEquals( 1, ownAnnotations.size() );
+  }
+
   private ModelAnnotationStep createOneShotStep( StepDataInterface stepDataInterface, IMetaStore metaStore,
       final ModelAnnotationManager manager ) {
     return createOneShotStep( stepDataInterface, metaStore, manager, true, new Object[] {} );
@@ -478,6 +854,25 @@ public class ModelAnnotationStepTest extends InitializeLogging {
     assertTrue( status );
   }
 
+  @Test
+  public void testReusedMetaDoesNotAccumulateInjectedAnnotations() throws Exception {
+    ModelAnnotationMeta meta = new ModelAnnotationMeta();
+    CreateMeasure measure = new CreateMeasure();
+    measure.setName( "Quantity" );
+    measure.setField( "qty" );
+    meta.createMeasureAnnotations = Collections.singletonList( measure );
+    CreateAttribute attribute = new CreateAttribute();
+    attribute.setName( "Product" );
+    attribute.setField( "product" );
+    meta.createAttributeAnnotations = Collections.singletonList( attribute );
+
+    for ( int run = 0; run < 3; run++ ) {
+      StepDataInterface stepDataInterface = new ModelAnnotationData();
+      assertTrue( createOneShotStep( stepDataInterface, null, null ).init( meta, stepDataInterface ) );
+      assertEquals( 2, meta.getModelAnnotations().size() );
+    }
+  }
+
   @Test
   public void testCalcMeasureAnnotationsGetSetToTheMeasuresDimension() throws Exception {
     StepDataInterface stepDataInterface = new ModelAnnotationData();
@@ -12,13 +12,22 @@
 
 package org.pentaho.di.trans.steps.annotation;
 
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.pentaho.agilebi.modeler.models.annotations.CreateAttribute;
 import org.pentaho.agilebi.modeler.models.annotations.CreateDimensionKey;
 import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotation;
 import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotationGroup;
+import org.pentaho.agilebi.modeler.models.annotations.ModelAnnotationManager;
+import org.pentaho.agilebi.modeler.models.annotations.data.DataProvider;
 import org.pentaho.di.core.exception.KettleException;
 import org.pentaho.di.core.logging.LogLevel;
+import org.pentaho.di.core.refinery.MemberHashIndex;
+import org.pentaho.di.core.refinery.profile.LongHashSet;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.value.ValueMetaInteger;
+import org.pentaho.di.core.row.value.ValueMetaString;
 import org.pentaho.di.job.Job;
 import org.pentaho.di.trans.Trans;
 import org.pentaho.di.trans.TransMeta;
@@ -27,15 +36,21 @@ import org.pentaho.di.trans.step.StepMeta;
 import org.pentaho.di.trans.step.StepMetaDataCombi;
 import org.pentaho.metastore.api.IMetaStore;
 
+import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.junit.Assert.*;
 import static org.mockito.Mockito.*;
 
 public class SharedDimensionStepTest extends InitializeLogging {
 
+  @Rule
+  public TemporaryFolder folder = new TemporaryFolder();
+
   private SharedDimensionStep createSharedDimensionStep( StepDataInterface stepDataInterface, IMetaStore metaStore ) {
     StepMeta stepMeta = mock( StepMeta.class );
     TransMeta transMeta = mock( TransMeta.class );
@@ -106,4 +121,207 @@ public class SharedDimensionStepTest extends InitializeLogging {
     boolean status = modelAnnotationStep.init( meta, stepDataInterface );
     assertTrue( status );
   }
+
+  @Test
+  public void testUnchangedGroupIsNotSavedAgain() throws Exception {
+    final ModelAnnotationManager manager = mock( ModelAnnotationManager.class );
+    IMetaStore metaStore = mock( IMetaStore.class );
+    final List<ModelAnnotationGroup> saved = new ArrayList<>();
+    final AtomicReference<ModelAnnotationGroup> stored = new AtomicReference<>();
+    doAnswer( invocation -> {
+      ModelAnnotationGroup group = (ModelAnnotationGroup) invocation.getArguments()[ 0 ];
+      saved.add( group );
+      stored.set( group );
+      return null;
+    } ).when( manager ).createGroup( any( ModelAnnotationGroup.class ), eq( metaStore ) );
+    when( manager.readGroup( "myName", metaStore ) ).thenAnswer( invocation -> stored.get() );
+    DataProvider dataProvider = new DataProvider();
+    dataProvider.setName( "load" );
+    dataProvider.setTableName( "dim_table" );
+
+    for ( String dimension : new String[] { "dim", "dim", "otherDim" } ) {
+      StepDataInterface stepDataInterface = new ModelAnnotationData();
+      SharedDimensionStep step = createSharedDimensionStep( stepDataInterface, metaStore );
+      SharedDimensionMeta meta = new SharedDimensionMeta() {
+        @Override protected ModelAnnotationManager getModelAnnotationManager( ModelAnnotationGroup group ) {
+          return manager;
+        }
+      };
+      CreateAttribute attribute = new CreateAttribute();
+      attribute.setName( "attr" );
+      attribute.setField( "field" );
+      attribute.setDimension( dimension );
+      meta.createAttributeAnnotations = Collections.singletonList( attribute );
+      meta.sharedDimensionName = "myName";
+      meta.setModelAnnotations( new ModelAnnotationGroup() );
+      step.init( meta, stepDataInterface );
+
+      // the finished load adds its data provider to the stored group, which the next run doesn't have
+      ModelAnnotationGroup loaded = new ModelAnnotationGroup();
+      loaded.addAll( stored.get() );
+      loaded.setName( stored.get().getName() );
+      loaded.setDescription( stored.get().getDescription() );
+      loaded.setSharedDimension( true );
+      loaded.setDataProviders( new ArrayList<>( Collections.singletonList( dataProvider ) ) );
+      stored.set( loaded );
+    }
+
+    // the second run injects the same attribute under a new annotation name and is skipped
+    assertEquals( 2, saved.size() );
+    verify( manager, times( 2 ) ).createGroup( any( ModelAnnotationGroup.class ), eq( metaStore ) );
+    // the third run changes the attribute and keeps the data provider of the earlier loads
+    assertEquals( "otherDim", ( (CreateAttribute) saved.get( 1 ).get( 0 ).getAnnotation() ).getDimension() );
+    assertEquals( 1, saved.get( 1 ).getDataProviders().size() );
+    assertEquals( "load", saved.get( 1 ).getDataProviders().get( 0 ).getName() );
+  }
+
+  @Test
+  public void testRepeatedMemberKeysAreDropped() throws Exception {
+    ModelAnnotationData data = createKeyCheckingData( SharedDimensionMeta.KeyUniqueness.DROP );
+    SharedDimensionStep step = spy( createSharedDimensionStep( data, null ) );
+    RowMeta rowMeta = new RowMeta();
+    rowMeta.addValueMeta( new ValueMetaString( "name" ) );
+    rowMeta.addValueMeta( new ValueMetaInteger( "id" ) );
+    doReturn( rowMeta ).when( step ).getInputRowMeta();
+    doReturn( new Object[] { "a", 1L }, new Object[] { "b", 2L }, new Object[] { "a again", 1L }, null )
+      .when( step ).getRow();
+    final List<Object[]> written = new ArrayList<>();
+    doAnswer( invocation -> written.add( (Object[]) invocation.getArguments()[ 1 ] ) )
+      .when( step ).putRow( any(), any() );
+
+    while ( step.processRow( new SharedDimensionMeta(), data ) ) {
+      // drain
+    }
+
+    assertEquals( 2, written.size() );
+    assertEquals( "b", written.get( 1 )[ 0 ] );
+    assertEquals( 1, data.droppedMembers );
+    assertEquals( 1, step.getLinesRejected() );
+  }
+
+  @Test
+  public void testRepeatedMemberKeyFails() throws Exception {
+    ModelAnnotationData data = createKeyCheckingData( SharedDimensionMeta.KeyUniqueness.FAIL );
+    SharedDimensionStep step = spy( createSharedDimensionStep( data, null ) );
+    RowMeta rowMeta = new RowMeta();
+    rowMeta.addValueMeta( new ValueMetaInteger( "id" ) );
+    doReturn( rowMeta ).when( step ).getInputRowMeta();
+    doReturn( new Object[] { 1L }, new Object[] { 1L } ).when( step ).getRow();
+    doNothing().when( step ).putRow( any(), any() );
+
+    assertTrue( step.processRow( new SharedDimensionMeta(), data ) );
+    try {
+      step.processRow( new SharedDimensionMeta(), data );
+      fail( "repeated key should fail" );
+    } catch ( KettleException e ) {
+      assertTrue( e.getMessage().contains( "id" ) );
+    }
+  }
+
+  @Test
+  public void testMembersWithoutKeyAreWrittenUnchecked() throws Exception {
+    ModelAnnotationData data = createKeyCheckingData( SharedDimensionMeta.KeyUniqueness.DROP );
+    SharedDimensionStep step = spy( createSharedDimensionStep( data, null ) );
+    RowMeta rowMeta = new RowMeta();
+    rowMeta.addValueMeta( new ValueMetaInteger( "id" ) );
+    doReturn( rowMeta ).when( step ).getInputRowMeta();
+    doReturn( new Object[] { null }, new Object[] { null }, new Object[] { 1L }, new Object[] { 1L }, null )
+      .when( step ).getRow();
+    final List<Object[]> written = new ArrayList<>();
+    doAnswer( invocation -> written.add( (Object[]) invocation.getArguments()[ 1 ] ) )
+      .when( step ).putRow( any(), any() );
+
+    while ( step.processRow( new SharedDimensionMeta(), data ) ) {
+      // drain
+    }
+
+    assertEquals( 3, written.size() );
+    assertEquals( 2, data.membersWithoutKey );
+    assertEquals( 1, data.droppedMembers );
+  }
+
+  @Test
+  public void testKeyCheckingNeedsASingleCopy() throws Exception {
+    ModelAnnotationData data = new ModelAnnotationData();
+    SharedDimensionStep step = createSharedDimensionStep( data, null );
+    when( step.getStepMeta().getCopies() ).thenReturn( 2 );
+    SharedDimensionMeta meta = new SharedDimensionMeta();
+    meta.sharedDimensionName = "myName";
+    meta.setKeyUniqueness( SharedDimensionMeta.KeyUniqueness.DROP );
+
+    assertFalse( step.init( meta, data ) );
+    assertNull( data.memberKeys );
+  }
+
+  @Test
+  public void testInitTracksKeysOnlyWhenAsked() throws Exception {
+    ModelAnnotationData data = new ModelAnnotationData();
+    SharedDimensionMeta meta = new SharedDimensionMeta();
+    meta.sharedDimensionName = "myName";
+    createSharedDimensionStep( data, null ).init( meta, data );
+    assertNull( data.memberKeys );
+
+    meta.setKeyUniqueness( SharedDimensionMeta.KeyUniqueness.FAIL );
+    createSharedDimensionStep( data, null ).init( meta, data );
+    assertNotNull( data.memberKeys );
+    assertEquals( SharedDimensionMeta.KeyUniqueness.FAIL, data.keyUniqueness );
+  }
+
+  @Test
+  public void testIncrementalModeOnlyWritesNewAndChangedMembers() throws Exception {
+    File indexFile = folder.newFile( "members.idx" );
+    indexFile.delete();
+    List<Object[]> written = new ArrayList<>();
+
+    runIncremental( indexFile, written, new Object[] { 1L, "a" }, new Object[] { 2L, "b" } );
+    assertEquals( 2, written.size() );
+    assertEquals( "NEW", written.get( 0 )[ 2 ] );
+
+    written.clear();
+    ModelAnnotationData data =
+      runIncremental( indexFile, written, new Object[] { 1L, "a" }, new Object[] { 2L, "B" },
+        new Object[] { 3L, "c" } );
+    assertEquals( 2, written.size() );
+    assertEquals( 2L, written.get( 0 )[ 0 ] );
+    assertEquals( "CHANGED", written.get( 0 )[ 2 ] );
+    assertEquals( "NEW", written.get( 1 )[ 2 ] );
+    assertEquals( 1, data.unchangedMembers );
+    assertEquals( "change_type", data.outputRowMeta.getValueMeta( 2 ).getName() );
+  }
+
+  private ModelAnnotationData runIncremental( File indexFile, final List<Object[]> written, Object[]... rows )
+    throws Exception {
+    ModelAnnotationData data = createKeyCheckingData( SharedDimensionMeta.KeyUniqueness.NONE );
+    data.memberKeys = null;
+    data.memberIndex = MemberHashIndex.open( indexFile );
+    data.changeTypeField = "change_type";
+    SharedDimensionStep step = spy( createSharedDimensionStep( data, null ) );
+    RowMeta rowMeta = new RowMeta();
+    rowMeta.addValueMeta( new ValueMetaInteger( "id" ) );
+    rowMeta.addValueMeta( new ValueMetaString( "name" ) );
+    doReturn( rowMeta ).when( step ).getInputRowMeta();
+    List<Object[]> input = new ArrayList<>( Arrays.asList( rows ) );
+    input.add( null );
+    doAnswer( invocation -> input.remove( 0 ) ).when( step ).getRow();
+    doAnswer( invocation -> written.add( (Object[]) invocation.getArguments()[ 1 ] ) )
+      .when( step ).putRow( any(), any() );
+
+    while ( step.processRow( new SharedDimensionMeta(), data ) ) {
+      // drain
+    }
+    data.memberIndex.commit();
+    data.memberIndex.close();
+    return data;
+  }
+
+  private ModelAnnotationData createKeyCheckingData( SharedDimensionMeta.KeyUniqueness keyUniqueness ) {
+    CreateDimensionKey key = new CreateDimensionKey();
+    key.setName( "key" );
+    key.setField( "id" );
+    ModelAnnotationData data = new ModelAnnotationData();
+    data.annotations = new ModelAnnotationGroup( new ModelAnnotation<>( key ) );
+    data.keyUniqueness = keyUniqueness;
+    data.memberKeys = new LongHashSet();
+    return data;
+  }
 }
@@ -0,0 +1,106 @@
+/*! ******************************************************************************
+ *
+ * Pentaho
+ *
+ * Copyright (C) 2024 by Hitachi Vantara, LLC : http://www.pentaho.com
+ *
+ * Use of this software is governed by the Business Source License included
+ * in the LICENSE.TXT file.
+ *
+ * Change Date: 2029-07-20
+ ******************************************************************************/
+
+package org.pentaho.di.trans.steps.annotation;
+
+import org.junit.Test;
+import org.pentaho.di.core.exception.KettleStepException;
+import org.pentaho.di.core.row.RowMeta;
+import org.pentaho.di.core.row.ValueMetaInterface;
+import org.pentaho.di.core.row.value.ValueMetaNumber;
+import org.pentaho.di.core.row.value.ValueMetaString;
+import org.pentaho.di.trans.Trans;
+import org.pentaho.di.trans.TransMeta;
+import org.pentaho.di.trans.step.StepMeta;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class StepFieldResolverTest {
+
+  @Test
+  public void testCopiesShareOneResolution() throws Exception {
+    final TransMeta transMeta = mock( TransMeta.class );
+    final Trans trans = mock( Trans.class );
+    when( trans.getExtensionDataMap() ).thenReturn( new HashMap<String, Object>() );
+    final StepMeta stepMeta = mock( StepMeta.class );
+    when( stepMeta.getName() ).thenReturn( "annotate" );
+    RowMeta rowMeta = new RowMeta();
+    rowMeta.addValueMeta( new ValueMetaString( "name" ) );
+    rowMeta.addValueMeta( new ValueMetaNumber( "amount" ) );
+    when( transMeta.getPrevStepFields( stepMeta ) ).thenReturn( rowMeta );
+
+    ExecutorService executor = Executors.newFixedThreadPool( 4 );
+    try {
+      List<Future<Map<String, ValueMetaInterface>>> results = new ArrayList<>();
+      for ( int i = 0; i < 8; i++ ) {
+        results.add( executor.submit( new Callable<Map<String, ValueMetaInterface>>() {
+          @Override public Map<String, ValueMetaInterface> call() throws Exception {
+            return StepFieldResolver.getInstance( trans, transMeta ).getPrevStepFields( stepMeta );
+          }
+        } ) );
+      }
+      Map<String, ValueMetaInterface> first = results.get( 0 ).get( 10, TimeUnit.SECONDS );
+      for ( Future<Map<String, ValueMetaInterface>> result : results ) {
+        assertSame( first, result.get( 10, TimeUnit.SECONDS ) );
+      }
+      assertTrue( first.get( "amount" ).isNumeric() );
+      assertEquals( 2, first.size() );
+    } finally {
+      executor.shutdownNow();
+    }
+    verify( transMeta, times( 1 ) ).getPrevStepFields( stepMeta );
+  }
+
+  @Test
+  public void testFailedResolutionIsRetried() throws Exception {
+    TransMeta transMeta = mock( TransMeta.class );
+    StepMeta stepMeta = mock( StepMeta.class );
+    when( stepMeta.getName() ).thenReturn( "annotate" );
+    when( transMeta.getPrevStepFields( stepMeta ) ).thenThrow( new KettleStepException( "no db" ) ).thenReturn( null );
+    StepFieldResolver resolver = new StepFieldResolver( transMeta );
+    try {
+      resolver.getPrevStepFields( stepMeta );
+      fail( "should have thrown exception" );
+    } catch ( KettleStepException e ) {
+      assertTrue( e.getMessage().contains( "no db" ) );
+    }
+    assertNull( resolver.getPrevStepFields( stepMeta ) );
+  }
+
+  @Test
+  public void testIndexKeepsFirstOccurrence() throws Exception {
+    RowMeta rowMeta = new RowMeta();
+    ValueMetaString first = new ValueMetaString( "f" );
+    rowMeta.addValueMeta( first );
+    rowMeta.addValueMeta( new ValueMetaNumber( "f" ) );
+    assertSame( first, StepFieldResolver.index( rowMeta ).get( "f" ) );
+    assertNull( StepFieldResolver.index( null ) );
+  }
+}